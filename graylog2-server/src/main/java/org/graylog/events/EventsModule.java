@@ -47,6 +47,7 @@ import org.graylog.events.processor.aggregation.AggregationEventProcessorConfig;
 import org.graylog.events.processor.aggregation.AggregationEventProcessorParameters;
 import org.graylog.events.processor.aggregation.AggregationSearch;
 import org.graylog.events.processor.aggregation.PivotAggregationSearch;
+import org.graylog.events.processor.aggregation.StreamingFilterEventEvaluator;
 import org.graylog.events.processor.storage.EventStorageHandlerEngine;
 import org.graylog.events.processor.storage.PersistToStreamsStorageHandler;
 import org.graylog.events.rest.AvailableEntityTypesResource;
@@ -91,6 +92,7 @@ public class EventsModule extends PluginModule {
         addSystemRestResource(EventsResource.class);
 
         addPeriodical(EventNotificationStatusCleanUp.class);
+        addInitializer(StreamingFilterEventEvaluator.class);
 
         addEntityFacade(ModelTypes.EVENT_DEFINITION_V1, EventDefinitionFacade.class);
         addEntityFacade(ModelTypes.NOTIFICATION_V1, NotificationFacade.class);
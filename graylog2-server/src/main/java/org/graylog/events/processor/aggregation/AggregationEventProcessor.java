@@ -85,6 +85,8 @@ public class AggregationEventProcessor implements EventProcessor {
     private final MoreSearch moreSearch;
     private final StreamService streamService;
     private final Messages messages;
+    private final StreamingFilterEventEvaluator streamingEvaluator;
+    private final DBStreamingFilterFallbackService fallbackService;
 
     @Inject
     public AggregationEventProcessor(@Assisted EventDefinition eventDefinition,
@@ -93,7 +95,9 @@ public class AggregationEventProcessor implements EventProcessor {
                                      DBEventProcessorStateService stateService,
                                      MoreSearch moreSearch,
                                      StreamService streamService,
-                                     Messages messages) {
+                                     Messages messages,
+                                     StreamingFilterEventEvaluator streamingEvaluator,
+                                     DBStreamingFilterFallbackService fallbackService) {
         this.eventDefinition = eventDefinition;
         this.config = (AggregationEventProcessorConfig) eventDefinition.config();
         this.aggregationSearchFactory = aggregationSearchFactory;
@@ -102,6 +106,8 @@ public class AggregationEventProcessor implements EventProcessor {
         this.moreSearch = moreSearch;
         this.streamService = streamService;
         this.messages = messages;
+        this.streamingEvaluator = streamingEvaluator;
+        this.fallbackService = fallbackService;
     }
 
     @Override
@@ -115,6 +121,16 @@ public class AggregationEventProcessor implements EventProcessor {
             throw new EventProcessorPreconditionException(msg, eventDefinition);
         }
 
+        if (config.series().isEmpty() && parameters.streams().isEmpty() && streamingEvaluator.isStreaming(eventDefinition.id())) {
+            // Events for this definition are created while the messages are being processed. We only have to search
+            // for messages whose events might have been lost. We still update the state because other event
+            // processors might depend on it.
+            LOG.debug("Event definition <{}/{}> is evaluated on processed messages, only searching fallback time range", eventDefinition.title(), eventDefinition.id());
+            fallbackSearch(eventFactory, parameters, eventsConsumer);
+            stateService.setState(eventDefinition.id(), parameters.timerange().getFrom(), parameters.timerange().getTo());
+            return;
+        }
+
         LOG.debug("Creating events for config={} parameters={}", config, parameters);
 
         // The absence of a series indicates that the user doesn't want to do an aggregation but create events from
@@ -230,6 +246,26 @@ public class AggregationEventProcessor implements EventProcessor {
         moreSearch.scrollQuery(config.query(), streams, config.queryParameters(), parameters.timerange(), parameters.batchSize(), callback);
     }
 
+    /**
+     * Searches the time range in which the streaming evaluation of this event definition might have lost events, up
+     * to the end of the current time range. Messages after that haven't necessarily been indexed yet, so they are
+     * searched by a later execution.
+     */
+    private void fallbackSearch(EventFactory eventFactory, AggregationEventProcessorParameters parameters,
+                                EventConsumer<List<EventWithContext>> eventsConsumer) throws EventProcessorException {
+        final Optional<StreamingFilterFallbackDto> fallback = fallbackService.get(eventDefinition.id());
+        final DateTime searchTo = parameters.timerange().getTo();
+        if (!fallback.isPresent() || !fallback.get().from().isBefore(searchTo)) {
+            return;
+        }
+
+        final DateTime to = fallback.get().to().isBefore(searchTo) ? fallback.get().to() : searchTo;
+        LOG.debug("Searching messages of event definition <{}/{}> from <{}> to <{}> whose events might have been lost",
+                eventDefinition.title(), eventDefinition.id(), fallback.get().from(), to);
+        filterSearch(eventFactory, (AggregationEventProcessorParameters) parameters.withTimerange(fallback.get().from(), to), eventsConsumer);
+        fallbackService.complete(fallback.get(), to);
+    }
+
     private void aggregatedSearch(EventFactory eventFactory, AggregationEventProcessorParameters parameters,
                                   EventConsumer<List<EventWithContext>> eventsConsumer) throws EventProcessorException {
         final String owner = "event-processor-" + AggregationEventProcessorConfig.TYPE_NAME + "-" + eventDefinition.id();
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.graylog2.bindings.providers.MongoJackObjectMapperProvider;
+import org.graylog2.database.MongoConnection;
+import org.graylog2.database.MongoDBUpsertRetryer;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.mongojack.DBQuery;
+import org.mongojack.DBUpdate;
+import org.mongojack.JacksonDBCollection;
+import org.mongojack.internal.update.SingleUpdateOperationValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Date;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static org.graylog.events.processor.aggregation.StreamingFilterFallbackDto.FIELD_EVENT_DEFINITION_ID;
+import static org.graylog.events.processor.aggregation.StreamingFilterFallbackDto.FIELD_FROM;
+import static org.graylog.events.processor.aggregation.StreamingFilterFallbackDto.FIELD_TO;
+import static org.graylog.events.processor.aggregation.StreamingFilterFallbackDto.FIELD_VERSION;
+
+/**
+ * Manages the time ranges which have to be searched for streaming filter event definitions because their events
+ * might have been lost, and the heartbeats of the nodes evaluating them.
+ */
+@Singleton
+public class DBStreamingFilterFallbackService {
+    private static final Logger LOG = LoggerFactory.getLogger(DBStreamingFilterFallbackService.class);
+    private static final String COLLECTION_NAME = "event_processor_streaming_fallbacks";
+    private static final String NODES_COLLECTION_NAME = "event_processor_streaming_nodes";
+    private static final String FIELD_LAST_SEEN = "last_seen";
+
+    private final JacksonDBCollection<StreamingFilterFallbackDto, ObjectId> db;
+    private final DBCollection nodes;
+
+    @Inject
+    public DBStreamingFilterFallbackService(MongoConnection mongoConnection,
+                                            MongoJackObjectMapperProvider mapper) {
+        this.db = JacksonDBCollection.wrap(mongoConnection.getDatabase().getCollection(COLLECTION_NAME),
+                StreamingFilterFallbackDto.class,
+                ObjectId.class,
+                mapper.get());
+        this.nodes = mongoConnection.getDatabase().getCollection(NODES_COLLECTION_NAME);
+
+        // There is only one fallback for each event definition, new time ranges are merged into it
+        db.createIndex(new BasicDBObject(FIELD_EVENT_DEFINITION_ID, 1), new BasicDBObject("unique", true));
+    }
+
+    /**
+     * Returns the time range which has to be searched for the given event definition, if there is one.
+     */
+    public Optional<StreamingFilterFallbackDto> get(String eventDefinitionId) {
+        checkArgument(!isNullOrEmpty(eventDefinitionId), "eventDefinitionId cannot be null or empty");
+
+        return Optional.ofNullable(db.findOne(DBQuery.is(FIELD_EVENT_DEFINITION_ID, eventDefinitionId)));
+    }
+
+    /**
+     * Adds the given time range to the fallback of the given event definition. The fallback is extended to cover
+     * both its current time range and the given one.
+     */
+    public void add(String eventDefinitionId, DateTime from, DateTime to) {
+        checkArgument(!isNullOrEmpty(eventDefinitionId), "eventDefinitionId cannot be null or empty");
+        checkArgument(from != null, "from cannot be null");
+        checkArgument(to != null, "to cannot be null");
+
+        LOG.debug("Adding search fallback for <{}> from <{}> to <{}>", eventDefinitionId, from, to);
+
+        // Our current mongojack implementation doesn't offer $min/$max helper
+        final DBUpdate.Builder update = DBUpdate.set(FIELD_EVENT_DEFINITION_ID, eventDefinitionId)
+                .addOperation("$min", FIELD_FROM, updateValue(from))
+                .addOperation("$max", FIELD_TO, updateValue(to))
+                .inc(FIELD_VERSION);
+
+        MongoDBUpsertRetryer.run(() -> db.findAndModify(
+                DBQuery.is(FIELD_EVENT_DEFINITION_ID, eventDefinitionId),
+                null,
+                null,
+                false,
+                update,
+                true,
+                true));
+    }
+
+    /**
+     * Marks the given fallback as searched up to the given timestamp. The fallback is removed once it has been
+     * searched completely. If it has been extended in the meantime, it is kept and searched again.
+     */
+    public void complete(StreamingFilterFallbackDto fallback, DateTime searchedUpTo) {
+        final DBQuery.Query unchanged = DBQuery.and(
+                DBQuery.is(FIELD_EVENT_DEFINITION_ID, fallback.eventDefinitionId()),
+                DBQuery.is(FIELD_VERSION, fallback.version()));
+
+        if (fallback.to().isAfter(searchedUpTo)) {
+            db.update(unchanged, DBUpdate.set(FIELD_FROM, searchedUpTo).inc(FIELD_VERSION));
+        } else {
+            db.remove(unchanged);
+        }
+    }
+
+    /**
+     * Returns when the given node last reported that it is evaluating streaming filter event definitions. Nodes
+     * which have been stopped cleanly don't have a heartbeat.
+     */
+    public Optional<DateTime> lastSeen(String nodeId) {
+        final DBObject node = nodes.findOne(new BasicDBObject("_id", nodeId));
+        if (node == null || !(node.get(FIELD_LAST_SEEN) instanceof Date)) {
+            return Optional.empty();
+        }
+        return Optional.of(new DateTime(node.get(FIELD_LAST_SEEN), DateTimeZone.UTC));
+    }
+
+    public void markAsAlive(String nodeId, DateTime lastSeen) {
+        nodes.update(new BasicDBObject("_id", nodeId),
+                new BasicDBObject("$set", new BasicDBObject(FIELD_LAST_SEEN, lastSeen.toDate())),
+                true,
+                false);
+    }
+
+    public void markAsStopped(String nodeId) {
+        nodes.remove(new BasicDBObject("_id", nodeId));
+    }
+
+    private SingleUpdateOperationValue updateValue(Object value) {
+        return new SingleUpdateOperationValue(false, true, value);
+    }
+}
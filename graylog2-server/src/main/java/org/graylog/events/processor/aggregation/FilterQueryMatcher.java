@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.google.common.collect.ImmutableSet;
+import org.graylog2.indexer.fieldtypes.FieldTypeDTO;
+import org.graylog2.indexer.fieldtypes.IndexFieldTypesDTO;
+import org.graylog2.plugin.Message;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+/**
+ * Compiles the query string of a filter-only event definition into a predicate which can be evaluated on messages
+ * without Elasticsearch.
+ * <p>
+ * Only a small subset of the Lucene query syntax is supported: terms of the form {@code field:value},
+ * {@code field:"some value"} and {@code _exists_:field}, optionally prefixed with {@code NOT} and combined with
+ * {@code AND}. Terms are only supported on fields which are known to be indexed as is, see {@link #exactFields(Collection)}.
+ * Analyzed fields, wildcards, ranges, regular expressions and implicit operators (which default to {@code OR} in
+ * Elasticsearch) are not supported, because their Elasticsearch semantics can't be reproduced exactly.
+ */
+class FilterQueryMatcher {
+    // Physical field types whose indexed values are compared exactly by Elasticsearch, like the predicates do
+    private static final Set<String> EXACT_TYPES = ImmutableSet.of("keyword", "long", "integer", "short", "byte", "double", "boolean");
+    private static final String EXISTS_FIELD = "_exists_";
+
+    private static final Pattern TOKEN = Pattern.compile("\\S+?:\"[^\"\\\\*?]*\"|\\S+");
+    private static final Pattern TERM = Pattern.compile("([A-Za-z0-9_@.\\-]+):(?:\"([^\"\\\\*?]*)\"|([^\\s\"\\\\*?~()\\[\\]{}:^/!+]+))");
+
+    private FilterQueryMatcher() {
+    }
+
+    /**
+     * Returns the fields which have an exact type in all of the given indices. Fields which are analyzed in at least
+     * one index, or whose values might be converted in a way the predicates can't reproduce, are left out.
+     *
+     * @param indexFieldTypes the field types of the indices the query is run on
+     * @return the names of the fields terms can be compiled for
+     */
+    static Set<String> exactFields(Collection<IndexFieldTypesDTO> indexFieldTypes) {
+        final Set<String> exactFields = new HashSet<>();
+        final Set<String> otherFields = new HashSet<>();
+        for (IndexFieldTypesDTO index : indexFieldTypes) {
+            for (FieldTypeDTO fieldType : index.fields()) {
+                if (EXACT_TYPES.contains(fieldType.physicalType())) {
+                    exactFields.add(fieldType.fieldName());
+                } else {
+                    otherFields.add(fieldType.fieldName());
+                }
+            }
+        }
+        return exactFields.stream()
+                .filter(field -> !otherFields.contains(field))
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * @param query       the query string
+     * @param exactFields the fields which are indexed as is, terms on any other field can't be compiled
+     * @return the predicate or an empty optional if the query can't be evaluated without Elasticsearch
+     */
+    static Optional<Predicate<Message>> compile(String query, Set<String> exactFields) {
+        if (isNullOrEmpty(query) || query.trim().isEmpty() || "*".equals(query.trim())) {
+            return Optional.of(message -> true);
+        }
+
+        final List<Predicate<Message>> terms = new ArrayList<>();
+        final Matcher tokens = TOKEN.matcher(query.trim());
+        boolean expectTerm = true;
+        boolean negate = false;
+        while (tokens.find()) {
+            final String token = tokens.group();
+            if (expectTerm) {
+                if ("NOT".equals(token) && !negate) {
+                    negate = true;
+                    continue;
+                }
+                final Optional<Predicate<Message>> term = compileTerm(token, exactFields);
+                if (!term.isPresent()) {
+                    return Optional.empty();
+                }
+                terms.add(negate ? term.get().negate() : term.get());
+                negate = false;
+                expectTerm = false;
+            } else if ("AND".equals(token) || "&&".equals(token)) {
+                expectTerm = true;
+            } else {
+                return Optional.empty();
+            }
+        }
+        if (expectTerm) {
+            // Dangling operator
+            return Optional.empty();
+        }
+
+        return Optional.of(message -> {
+            for (Predicate<Message> term : terms) {
+                if (!term.test(message)) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    private static Optional<Predicate<Message>> compileTerm(String token, Set<String> exactFields) {
+        final Matcher matcher = TERM.matcher(token);
+        if (!matcher.matches()) {
+            return Optional.empty();
+        }
+        final String field = matcher.group(1);
+        final String value = matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+
+        if (EXISTS_FIELD.equals(field)) {
+            return matcher.group(3) == null ? Optional.empty() : Optional.of(message -> message.hasField(value));
+        }
+        // Unknown fields might not have been indexed yet, their type will only be known later
+        if (!exactFields.contains(field) || field.startsWith("_") || Message.FIELD_STREAMS.equals(field)) {
+            return Optional.empty();
+        }
+        return Optional.of(message -> valueMatches(message.getField(field), value));
+    }
+
+    private static boolean valueMatches(Object fieldValue, String value) {
+        if (fieldValue == null) {
+            return false;
+        }
+        if (fieldValue instanceof Number) {
+            try {
+                return ((Number) fieldValue).doubleValue() == Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        if (fieldValue instanceof Boolean) {
+            return fieldValue.toString().equals(value.toLowerCase(Locale.ROOT));
+        }
+        return fieldValue.toString().equals(value);
+    }
+}
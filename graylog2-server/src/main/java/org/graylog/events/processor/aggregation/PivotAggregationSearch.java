@@ -60,6 +60,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -88,6 +89,7 @@ public class PivotAggregationSearch implements AggregationSearch {
     private final EventDefinition eventDefinition;
     private final MoreSearch moreSearch;
     private final PermittedStreams permittedStreams;
+    private final SharedAggregationSearch sharedAggregationSearch;
 
     @Inject
     public PivotAggregationSearch(@Assisted AggregationEventProcessorConfig config,
@@ -98,7 +100,8 @@ public class PivotAggregationSearch implements AggregationSearch {
                                   QueryEngine queryEngine,
                                   EventsConfigurationProvider configProvider,
                                   MoreSearch moreSearch,
-                                  PermittedStreams permittedStreams) {
+                                  PermittedStreams permittedStreams,
+                                  SharedAggregationSearch sharedAggregationSearch) {
         this.config = config;
         this.parameters = parameters;
         this.searchOwner = searchOwner;
@@ -108,6 +111,7 @@ public class PivotAggregationSearch implements AggregationSearch {
         this.configurationProvider = configProvider;
         this.moreSearch = moreSearch;
         this.permittedStreams = permittedStreams;
+        this.sharedAggregationSearch = sharedAggregationSearch;
     }
 
     private String metricName(AggregationSeries series) {
@@ -117,9 +121,9 @@ public class PivotAggregationSearch implements AggregationSearch {
 
     @Override
     public AggregationResult doSearch() throws EventProcessorException {
-        final SearchJob searchJob = getSearchJob(parameters, searchOwner, config.searchWithinMs(), config.executeEveryMs());
-        final QueryResult queryResult = searchJob.results().get(QUERY_ID);
-        final QueryResult streamQueryResult = searchJob.results().get(STREAMS_QUERY_ID);
+        final Map<String, QueryResult> results = getSearchResults(parameters, searchOwner, config.searchWithinMs(), config.executeEveryMs());
+        final QueryResult queryResult = results.get(QUERY_ID);
+        final QueryResult streamQueryResult = results.get(STREAMS_QUERY_ID);
 
         final Set<SearchError> aggregationErrors = firstNonNull(queryResult.errors(), Collections.emptySet());
         final Set<SearchError> streamErrors = firstNonNull(streamQueryResult.errors(), Collections.emptySet());
@@ -329,10 +333,26 @@ public class PivotAggregationSearch implements AggregationSearch {
         return results.build();
     }
 
-    private SearchJob getSearchJob(AggregationEventProcessorParameters parameters, String username,
-                                   long searchWithinMs, long executeEveryMs) throws EventProcessorException {
+    private Map<String, QueryResult> getSearchResults(AggregationEventProcessorParameters parameters, String username,
+                                                      long searchWithinMs, long executeEveryMs) throws EventProcessorException {
+        final Query aggregationQuery = getAggregationQuery(parameters, searchWithinMs, executeEveryMs);
+        final Query sourceStreamsQuery = getSourceStreamsQuery(parameters);
+
+        // Searches with query parameters can't be combined with others because the parameters are bound per search
+        if (sharedAggregationSearch.isEnabled() && config.queryParameters().isEmpty()) {
+            try {
+                return sharedAggregationSearch.execute(username, aggregationQuery, sourceStreamsQuery);
+            } catch (ExecutionException e) {
+                throw new EventProcessorException("Error executing search job: " + e.getMessage(), false, eventDefinition, e);
+            } catch (TimeoutException e) {
+                throw new EventProcessorException("Timeout while executing search job.", false, eventDefinition, e);
+            } catch (Exception e) {
+                throw new EventProcessorException("Unhandled exception in search job.", false, eventDefinition, e);
+            }
+        }
+
         Search search = Search.builder()
-                .queries(ImmutableSet.of(getAggregationQuery(parameters, searchWithinMs, executeEveryMs), getSourceStreamsQuery(parameters)))
+                .queries(ImmutableSet.of(aggregationQuery, sourceStreamsQuery))
                 .parameters(config.queryParameters())
                 .build();
         // This adds all streams if none were provided
@@ -353,7 +373,7 @@ public class PivotAggregationSearch implements AggregationSearch {
             throw new EventProcessorException("Unhandled exception in search job.", false, eventDefinition, e);
         }
 
-        return searchJob;
+        return searchJob.results();
     }
 
     /**
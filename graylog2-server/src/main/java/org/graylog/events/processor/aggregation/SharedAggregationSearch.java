@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.graylog.events.configuration.EventsConfigurationProvider;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog.plugins.views.search.Search;
+import org.graylog.plugins.views.search.SearchJob;
+import org.graylog.plugins.views.search.SearchType;
+import org.graylog.plugins.views.search.db.SearchJobService;
+import org.graylog.plugins.views.search.engine.QueryEngine;
+import org.graylog.plugins.views.search.errors.SearchError;
+import org.graylog.plugins.views.search.errors.SearchTypeError;
+import org.graylog.plugins.views.search.rest.PermittedStreams;
+import org.graylog.plugins.views.search.searchtypes.pivot.Pivot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.MoreObjects.firstNonNull;
+
+/**
+ * Combines the pivot searches of aggregation event definitions which run at the same time into a single search job.
+ * <p>
+ * Searches are compatible if they use the same query string, stream filter and time range. The first search
+ * for such a combination waits for the configured batch window, unless no other searches are running which could
+ * join it, and then executes the pivots of all searches that
+ * joined in the meantime as search types of one query, so Elasticsearch receives a single multi-search request.
+ * Identical pivots are only executed once. The results are split up again so every caller gets the same query
+ * results it would have got from running its own search. Search jobs which combine the searches of several callers
+ * are owned by {@value #SHARED_OWNER} instead of the owners of the individual searches.
+ */
+@Singleton
+public class SharedAggregationSearch {
+    private static final Logger LOG = LoggerFactory.getLogger(SharedAggregationSearch.class);
+
+    private static final String SHARED_PIVOT_ID_PREFIX = "shared-pivot-";
+    @VisibleForTesting
+    static final String SHARED_OWNER = "event-processor-" + AggregationEventProcessorConfig.TYPE_NAME + "-shared";
+
+    private final SearchJobService searchJobService;
+    private final QueryEngine queryEngine;
+    private final EventsConfigurationProvider configurationProvider;
+    private final PermittedStreams permittedStreams;
+    private final long batchWindowMs;
+    private final ConcurrentMap<BatchKey, Batch> batches = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingSearches = new AtomicInteger(0);
+
+    private final Meter executedSearches;
+    private final Meter batchedPivots;
+    private final Histogram batchSize;
+
+    @Inject
+    public SharedAggregationSearch(SearchJobService searchJobService,
+                                   QueryEngine queryEngine,
+                                   EventsConfigurationProvider configurationProvider,
+                                   PermittedStreams permittedStreams,
+                                   MetricRegistry metricRegistry,
+                                   @Named("event_aggregation_search_batch_window") Duration batchWindow) {
+        this.searchJobService = searchJobService;
+        this.queryEngine = queryEngine;
+        this.configurationProvider = configurationProvider;
+        this.permittedStreams = permittedStreams;
+        this.batchWindowMs = batchWindow.toMilliseconds();
+        this.executedSearches = metricRegistry.meter(name(SharedAggregationSearch.class, "executed-searches"));
+        this.batchedPivots = metricRegistry.meter(name(SharedAggregationSearch.class, "batched-pivots"));
+        this.batchSize = metricRegistry.histogram(name(SharedAggregationSearch.class, "batch-size"));
+    }
+
+    public boolean isEnabled() {
+        return batchWindowMs > 0;
+    }
+
+    /**
+     * Executes the given aggregation query, which must contain exactly one {@link Pivot} search type, together with
+     * all compatible queries submitted within the batch window.
+     *
+     * @param owner            the owner of the search job, if the search doesn't get combined with others
+     * @param aggregationQuery the aggregation query
+     * @param streamsQuery     the query computing the source streams of the aggregation
+     * @return the query results by query ID, as returned by {@link SearchJob#results()}
+     */
+    public Map<String, QueryResult> execute(String owner, Query aggregationQuery, Query streamsQuery) throws ExecutionException, TimeoutException {
+        final Pivot pivot = (Pivot) aggregationQuery.searchTypes().iterator().next();
+        final BatchKey key = BatchKey.create(aggregationQuery.toBuilder().searchTypes(ImmutableSet.of()).build(), streamsQuery);
+
+        pendingSearches.incrementAndGet();
+        try {
+            Batch batch;
+            Batch.Membership membership;
+            do {
+                batch = batches.computeIfAbsent(key, Batch::new);
+                // The batch might have been closed by its leader after we looked it up, try again with a new batch then
+                membership = batch.join(owner, pivot);
+            } while (membership == null);
+
+            if (membership.isLeader()) {
+                // Waiting only makes sense if other searches are running which could join the batch
+                if (pendingSearches.get() > 1) {
+                    Uninterruptibles.sleepUninterruptibly(batchWindowMs, TimeUnit.MILLISECONDS);
+                }
+                batches.remove(key, batch);
+                run(batch);
+            }
+
+            final long timeoutMs = configurationProvider.get().eventsSearchTimeout() + batchWindowMs;
+            final Map<String, QueryResult> results = Uninterruptibles.getUninterruptibly(batch.result, timeoutMs, TimeUnit.MILLISECONDS);
+            return resultsFor(results, aggregationQuery.id(), pivot.id(), membership.pivotId());
+        } finally {
+            pendingSearches.decrementAndGet();
+        }
+    }
+
+    private void run(Batch batch) {
+        final Map<Pivot, String> pivots = batch.close();
+        batchSize.update(batch.members());
+        batchedPivots.mark(batch.members());
+        executedSearches.mark();
+
+        final Set<SearchType> searchTypes = pivots.entrySet().stream()
+                .map(entry -> entry.getKey().toBuilder().id(entry.getValue()).build())
+                .collect(Collectors.toSet());
+        final Query aggregationQuery = batch.key.aggregationQuery().toBuilder().searchTypes(searchTypes).build();
+
+        LOG.debug("Executing {} pivot(s) of {} aggregation search(es) in a single search job", pivots.size(), batch.members());
+        try {
+            Search search = Search.builder()
+                    .queries(ImmutableSet.of(aggregationQuery, batch.key.streamsQuery()))
+                    .build();
+            // This adds all streams if none were provided, see PivotAggregationSearch
+            search = search.addStreamsToQueriesWithoutStreams(() -> permittedStreams.load((streamId) -> true));
+            final String owner = batch.members() == 1 ? batch.leaderOwner() : SHARED_OWNER;
+            final SearchJob searchJob = queryEngine.execute(searchJobService.create(search, owner));
+            Uninterruptibles.getUninterruptibly(
+                    searchJob.getResultFuture(),
+                    configurationProvider.get().eventsSearchTimeout(),
+                    TimeUnit.MILLISECONDS);
+            batch.result.complete(searchJob.results());
+        } catch (ExecutionException e) {
+            batch.result.completeExceptionally(firstNonNull(e.getCause(), e));
+        } catch (Exception e) {
+            batch.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Restores the results a caller would have got for its own search: only its own pivot result, stored under its
+     * original search type ID, and only the errors which aren't specific to the pivots of other callers.
+     */
+    @VisibleForTesting
+    static Map<String, QueryResult> resultsFor(Map<String, QueryResult> results, String queryId, String pivotId, String sharedPivotId) {
+        final QueryResult queryResult = results.get(queryId);
+        if (queryResult == null) {
+            return results;
+        }
+
+        final SearchType.Result pivotResult = queryResult.searchTypes().get(sharedPivotId);
+        final Set<SearchError> errors = firstNonNull(queryResult.errors(), Collections.<SearchError>emptySet()).stream()
+                .filter(error -> !(error instanceof SearchTypeError) || sharedPivotId.equals(((SearchTypeError) error).searchTypeId()))
+                .collect(Collectors.toSet());
+
+        final Map<String, QueryResult> memberResults = new LinkedHashMap<>(results);
+        memberResults.put(queryId, queryResult.toBuilder()
+                .searchTypes(pivotResult == null ? Collections.emptyMap() : ImmutableMap.of(pivotId, pivotResult))
+                .errors(errors)
+                .build());
+        return memberResults;
+    }
+
+    @AutoValue
+    static abstract class BatchKey {
+        abstract Query aggregationQuery();
+
+        abstract Query streamsQuery();
+
+        static BatchKey create(Query aggregationQuery, Query streamsQuery) {
+            return new AutoValue_SharedAggregationSearch_BatchKey(aggregationQuery, streamsQuery);
+        }
+    }
+
+    private static class Batch {
+        private final BatchKey key;
+        private final CompletableFuture<Map<String, QueryResult>> result = new CompletableFuture<>();
+        // Maps pivots with a normalized ID to the ID they are executed with
+        private final Map<Pivot, String> pivots = new LinkedHashMap<>();
+        private int members = 0;
+        private String leaderOwner = null;
+        private boolean closed = false;
+
+        private Batch(BatchKey key) {
+            this.key = key;
+        }
+
+        synchronized Membership join(String owner, Pivot pivot) {
+            if (closed) {
+                return null;
+            }
+            if (leaderOwner == null) {
+                leaderOwner = owner;
+            }
+            final String pivotId = pivots.computeIfAbsent(pivot.toBuilder().id(SHARED_PIVOT_ID_PREFIX).build(),
+                    p -> SHARED_PIVOT_ID_PREFIX + pivots.size());
+            members++;
+            return new Membership(pivotId, members == 1);
+        }
+
+        synchronized Map<Pivot, String> close() {
+            closed = true;
+            return ImmutableMap.copyOf(pivots);
+        }
+
+        synchronized int members() {
+            return members;
+        }
+
+        synchronized String leaderOwner() {
+            return leaderOwner;
+        }
+
+        private static class Membership {
+            private final String pivotId;
+            private final boolean leader;
+
+            private Membership(String pivotId, boolean leader) {
+                this.pivotId = pivotId;
+                this.leader = leader;
+            }
+
+            String pivotId() {
+                return pivotId;
+            }
+
+            boolean isLeader() {
+                return leader;
+            }
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.AbstractIdleService;
+import org.graylog.events.event.Event;
+import org.graylog.events.event.EventOriginContext;
+import org.graylog.events.event.EventProcessorEventFactory;
+import org.graylog.events.event.EventWithContext;
+import org.graylog.events.processor.DBEventDefinitionService;
+import org.graylog.events.processor.EventDefinition;
+import org.graylog.events.processor.EventDefinitionDto;
+import org.graylog.events.processor.EventProcessorEngine;
+import org.graylog.events.processor.EventProcessorExecutionJob;
+import org.graylog.scheduler.DBJobDefinitionService;
+import org.graylog2.indexer.fieldtypes.IndexFieldTypesService;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.system.NodeId;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Evaluates filter-only aggregation event definitions on messages right after they have been processed, instead of
+ * scrolling over the indexed messages when the event definition is executed.
+ * <p>
+ * Only scheduled event definitions without query parameters and with a query supported by {@link FilterQueryMatcher}
+ * are evaluated here. Matching messages are queued and emitted as events in batches by a background task, so the
+ * processing threads don't have to wait for notifications and event storage.
+ * <p>
+ * Whenever events might get lost, the time range of the affected messages is stored with
+ * {@link DBStreamingFilterFallbackService} and searched by the next execution of the event definition. This happens
+ * if the queue is full, if emitting events fails, for messages processed before the evaluator started or before it
+ * picked up a new or changed event definition, and after the node has been stopped without emitting all queued events.
+ */
+@SuppressWarnings("UnstableApiUsage")
+@Singleton
+public class StreamingFilterEventEvaluator extends AbstractIdleService {
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingFilterEventEvaluator.class);
+
+    private static final int QUEUE_CAPACITY = 10_000;
+    private static final long EMIT_INTERVAL_MS = 1000;
+    private static final long REFRESH_INTERVAL_MS = 10_000;
+    // Fallbacks which depend on the processing time also cover messages received shortly before, and messages
+    // processed by other nodes before they picked up a new event definition
+    private static final long FALLBACK_MARGIN_MS = 2 * REFRESH_INTERVAL_MS;
+
+    private final boolean enabled;
+    private final DBEventDefinitionService eventDefinitionService;
+    private final DBJobDefinitionService jobDefinitionService;
+    private final DBStreamingFilterFallbackService fallbackService;
+    private final IndexFieldTypesService indexFieldTypesService;
+    private final Provider<EventProcessorEngine> eventProcessorEngine;
+    private final Provider<EventProcessorEventFactory> eventFactoryProvider;
+    private final String nodeId;
+    private final ScheduledExecutorService executorService;
+    private final BlockingQueue<MatchedMessage> matchedMessages;
+    // Time ranges of lost matches by event definition ID which still have to be stored as fallbacks
+    private final ConcurrentMap<String, AbsoluteRange> lostMatches = new ConcurrentHashMap<>();
+
+    private final Meter matchesMeter;
+    private final Meter droppedMatchesMeter;
+    private final Meter failedMatchesMeter;
+
+    private volatile Map<String, CompiledDefinition> definitions = ImmutableMap.of();
+    private volatile boolean started = false;
+    // Time range of messages processed before the evaluator has been started, guarded by "this"
+    private AbsoluteRange unevaluatedMessages = null;
+    private ScheduledFuture<?> refreshFuture;
+    private ScheduledFuture<?> emitFuture;
+
+    @Inject
+    public StreamingFilterEventEvaluator(@Named("event_filter_streaming_evaluation") boolean enabled,
+                                         DBEventDefinitionService eventDefinitionService,
+                                         DBJobDefinitionService jobDefinitionService,
+                                         DBStreamingFilterFallbackService fallbackService,
+                                         IndexFieldTypesService indexFieldTypesService,
+                                         Provider<EventProcessorEngine> eventProcessorEngine,
+                                         Provider<EventProcessorEventFactory> eventFactoryProvider,
+                                         NodeId nodeId,
+                                         MetricRegistry metricRegistry,
+                                         @Named("daemonScheduler") ScheduledExecutorService executorService) {
+        this(enabled, eventDefinitionService, jobDefinitionService, fallbackService, indexFieldTypesService, eventProcessorEngine,
+                eventFactoryProvider, nodeId, metricRegistry, executorService, QUEUE_CAPACITY);
+    }
+
+    @VisibleForTesting
+    StreamingFilterEventEvaluator(boolean enabled,
+                                  DBEventDefinitionService eventDefinitionService,
+                                  DBJobDefinitionService jobDefinitionService,
+                                  DBStreamingFilterFallbackService fallbackService,
+                                  IndexFieldTypesService indexFieldTypesService,
+                                  Provider<EventProcessorEngine> eventProcessorEngine,
+                                  Provider<EventProcessorEventFactory> eventFactoryProvider,
+                                  NodeId nodeId,
+                                  MetricRegistry metricRegistry,
+                                  ScheduledExecutorService executorService,
+                                  int queueCapacity) {
+        this.enabled = enabled;
+        this.eventDefinitionService = eventDefinitionService;
+        this.jobDefinitionService = jobDefinitionService;
+        this.fallbackService = fallbackService;
+        this.indexFieldTypesService = indexFieldTypesService;
+        this.eventProcessorEngine = eventProcessorEngine;
+        this.eventFactoryProvider = eventFactoryProvider;
+        this.nodeId = nodeId.toString();
+        this.executorService = executorService;
+        this.matchedMessages = new ArrayBlockingQueue<>(queueCapacity);
+        this.matchesMeter = metricRegistry.meter(name(StreamingFilterEventEvaluator.class, "matches"));
+        this.droppedMatchesMeter = metricRegistry.meter(name(StreamingFilterEventEvaluator.class, "dropped-matches"));
+        this.failedMatchesMeter = metricRegistry.meter(name(StreamingFilterEventEvaluator.class, "failed-matches"));
+    }
+
+    @Override
+    protected void startUp() {
+        if (!enabled) {
+            return;
+        }
+        // Queued matches of the last run are lost if the node hasn't been stopped cleanly
+        final Optional<DateTime> lastSeen = fallbackService.lastSeen(nodeId);
+        refreshDefinitions();
+
+        final AbsoluteRange unevaluated;
+        synchronized (this) {
+            started = true;
+            unevaluated = unevaluatedMessages;
+            unevaluatedMessages = null;
+        }
+        for (String definitionId : definitions.keySet()) {
+            lastSeen.ifPresent(timestamp -> addLostMatches(definitionId, timestamp.minus(FALLBACK_MARGIN_MS), Tools.nowUTC()));
+            if (unevaluated != null) {
+                addLostMatches(definitionId, unevaluated.getFrom(), unevaluated.getTo());
+            }
+        }
+        storeFallbacks();
+
+        refreshFuture = executorService.scheduleWithFixedDelay(this::refreshDefinitions, REFRESH_INTERVAL_MS, REFRESH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        emitFuture = executorService.scheduleWithFixedDelay(this::emitEvents, EMIT_INTERVAL_MS, EMIT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void shutDown() {
+        if (!enabled) {
+            return;
+        }
+        if (refreshFuture != null) {
+            refreshFuture.cancel(false);
+        }
+        if (emitFuture != null) {
+            emitFuture.cancel(false);
+        }
+        emitEvents();
+        if (lostMatches.isEmpty()) {
+            try {
+                fallbackService.markAsStopped(nodeId);
+            } catch (Exception e) {
+                LOG.error("Couldn't mark streaming evaluation as stopped", e);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the given event definition is evaluated on processed messages. Executions of such event
+     * definitions only have to search for messages in the time range of their {@link StreamingFilterFallbackDto},
+     * otherwise they would create every event twice.
+     */
+    public boolean isStreaming(String eventDefinitionId) {
+        return enabled && definitions.containsKey(eventDefinitionId);
+    }
+
+    /**
+     * Evaluates all streaming event definitions on the given message. Must be called after stream routing.
+     */
+    public void evaluate(Message message) {
+        if (!enabled) {
+            return;
+        }
+        if (!started) {
+            synchronized (this) {
+                if (!started) {
+                    unevaluatedMessages = extend(unevaluatedMessages, message.getTimestamp(), message.getTimestamp());
+                    return;
+                }
+            }
+        }
+        final Map<String, CompiledDefinition> definitions = this.definitions;
+        if (definitions.isEmpty()) {
+            return;
+        }
+        for (CompiledDefinition definition : definitions.values()) {
+            final Optional<Stream> sourceStream = definition.sourceStream(message);
+            if (sourceStream.isPresent() && definition.predicate.test(message)) {
+                matchesMeter.mark();
+                final Set<String> sourceStreams = message.getStreamIds().stream()
+                        .filter(definition::isSourceStream)
+                        .collect(Collectors.toSet());
+                // Copy the message because it is still being modified and written by the outputs
+                final MatchedMessage matchedMessage = new MatchedMessage(definition.eventDefinition, new Message(message.getFields()),
+                        sourceStream.get().getIndexSet().getWriteIndexAlias(), sourceStreams);
+                if (!matchedMessages.offer(matchedMessage)) {
+                    droppedMatchesMeter.mark();
+                    LOG.debug("Queue is full, the next execution of event definition <{}> searches for the message instead", definition.eventDefinition.id());
+                    addLostMatches(definition.eventDefinition.id(), message.getTimestamp(), message.getTimestamp());
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    void refreshDefinitions() {
+        try {
+            final List<EventDefinitionDto> candidates = eventDefinitionService.streamAll()
+                    .filter(definition -> definition.config() instanceof AggregationEventProcessorConfig)
+                    .filter(definition -> {
+                        final AggregationEventProcessorConfig config = (AggregationEventProcessorConfig) definition.config();
+                        return config.series().isEmpty() && config.queryParameters().isEmpty();
+                    })
+                    .collect(Collectors.toList());
+
+            // Unscheduled event definitions don't have a job definition
+            final Set<String> scheduled = candidates.isEmpty() ? ImmutableSet.of() : jobDefinitionService.getAllByConfigField(EventProcessorExecutionJob.Config.FIELD_EVENT_DEFINITION_ID,
+                    candidates.stream().map(EventDefinitionDto::id).collect(Collectors.toSet())).keySet();
+
+            final Map<String, CompiledDefinition> previous = this.definitions;
+            final Map<String, CompiledDefinition> compiled = new LinkedHashMap<>();
+            // Event definitions often use the same streams, so only load their field types once
+            final Map<Set<String>, Set<String>> exactFieldsByStreams = new HashMap<>();
+            for (EventDefinitionDto definition : candidates) {
+                if (!scheduled.contains(definition.id())) {
+                    continue;
+                }
+                final AggregationEventProcessorConfig config = (AggregationEventProcessorConfig) definition.config();
+                final Set<String> exactFields = exactFieldsByStreams.computeIfAbsent(config.streams(), streams ->
+                        FilterQueryMatcher.exactFields(streams.isEmpty() ? indexFieldTypesService.findAll() : indexFieldTypesService.findForStreamIds(streams)));
+                final Optional<Predicate<Message>> predicate = FilterQueryMatcher.compile(config.query(), exactFields);
+                if (predicate.isPresent()) {
+                    compiled.put(definition.id(), new CompiledDefinition(definition, config.streams(), predicate.get()));
+                } else {
+                    LOG.debug("Query <{}> of event definition <{}/{}> can't be evaluated on processed messages, using searches instead",
+                            config.query(), definition.title(), definition.id());
+                }
+            }
+            this.definitions = ImmutableMap.copyOf(compiled);
+
+            // Messages processed before a new or changed event definition has been picked up haven't been evaluated
+            final DateTime now = Tools.nowUTC();
+            for (CompiledDefinition definition : compiled.values()) {
+                final CompiledDefinition previousDefinition = previous.get(definition.eventDefinition.id());
+                if (previousDefinition == null || !previousDefinition.eventDefinition.equals(definition.eventDefinition)) {
+                    addLostMatches(definition.eventDefinition.id(), now.minus(FALLBACK_MARGIN_MS), now);
+                }
+            }
+            storeFallbacks();
+            fallbackService.markAsAlive(nodeId, now);
+        } catch (Exception e) {
+            LOG.error("Couldn't load filter event definitions for streaming evaluation", e);
+        }
+    }
+
+    @VisibleForTesting
+    void emitEvents() {
+        final List<MatchedMessage> drained = new ArrayList<>();
+        matchedMessages.drainTo(drained);
+        if (!drained.isEmpty()) {
+            emitEvents(drained);
+        }
+        storeFallbacks();
+    }
+
+    private void emitEvents(List<MatchedMessage> drained) {
+        final EventProcessorEventFactory eventFactory = eventFactoryProvider.get();
+        final Map<EventDefinition, List<MatchedMessage>> byDefinition = drained.stream()
+                .collect(Collectors.groupingBy(matchedMessage -> matchedMessage.eventDefinition, LinkedHashMap::new, Collectors.toList()));
+
+        byDefinition.forEach((eventDefinition, messages) -> {
+            try {
+                final ImmutableList.Builder<EventWithContext> eventsWithContext = ImmutableList.builder();
+                for (MatchedMessage matchedMessage : messages) {
+                    final Message msg = matchedMessage.message;
+                    final Event event = eventFactory.createEvent(eventDefinition, msg.getTimestamp(), eventDefinition.title());
+                    // The concrete index isn't known before the message has been indexed, so we have to use the write alias
+                    event.setOriginContext(EventOriginContext.elasticsearchMessage(matchedMessage.indexName, msg.getId()));
+                    matchedMessage.sourceStreams.forEach(event::addSourceStream);
+                    eventsWithContext.add(EventWithContext.create(event, msg));
+                }
+                eventProcessorEngine.get().emit(eventDefinition, eventsWithContext.build());
+            } catch (Exception e) {
+                failedMatchesMeter.mark(messages.size());
+                LOG.error("Couldn't emit {} event(s) for event definition <{}/{}>, the next execution searches for the messages instead",
+                        messages.size(), eventDefinition.title(), eventDefinition.id(), e);
+                for (MatchedMessage matchedMessage : messages) {
+                    addLostMatches(eventDefinition.id(), matchedMessage.message.getTimestamp(), matchedMessage.message.getTimestamp());
+                }
+            }
+        });
+    }
+
+    private void addLostMatches(String eventDefinitionId, DateTime from, DateTime to) {
+        lostMatches.merge(eventDefinitionId, AbsoluteRange.create(from, to), (range, other) -> extend(range, other.getFrom(), other.getTo()));
+    }
+
+    /**
+     * Stores the time ranges of lost matches as fallbacks, so the next executions of the event definitions search
+     * for the messages. Time ranges which can't be stored are kept and stored with the next attempt.
+     */
+    private void storeFallbacks() {
+        for (String definitionId : ImmutableSet.copyOf(lostMatches.keySet())) {
+            final AbsoluteRange range = lostMatches.remove(definitionId);
+            if (range == null) {
+                continue;
+            }
+            try {
+                fallbackService.add(definitionId, range.getFrom(), range.getTo());
+            } catch (Exception e) {
+                LOG.error("Couldn't store search fallback for event definition <{}>, retrying", definitionId, e);
+                addLostMatches(definitionId, range.getFrom(), range.getTo());
+            }
+        }
+    }
+
+    private static AbsoluteRange extend(@Nullable AbsoluteRange range, DateTime from, DateTime to) {
+        if (range == null) {
+            return AbsoluteRange.create(from, to);
+        }
+        return AbsoluteRange.create(from.isBefore(range.getFrom()) ? from : range.getFrom(),
+                to.isAfter(range.getTo()) ? to : range.getTo());
+    }
+
+    private static class CompiledDefinition {
+        private final EventDefinition eventDefinition;
+        private final Set<String> streams;
+        private final Predicate<Message> predicate;
+
+        private CompiledDefinition(EventDefinition eventDefinition, Set<String> streams, Predicate<Message> predicate) {
+            this.eventDefinition = eventDefinition;
+            this.streams = ImmutableSet.copyOf(streams);
+            this.predicate = predicate;
+        }
+
+        private boolean isSourceStream(String streamId) {
+            // No streams means all streams
+            return streams.isEmpty() || streams.contains(streamId);
+        }
+
+        private Optional<Stream> sourceStream(Message message) {
+            for (Stream stream : message.getStreams()) {
+                if (isSourceStream(stream.getId())) {
+                    return Optional.of(stream);
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    private static class MatchedMessage {
+        private final EventDefinition eventDefinition;
+        private final Message message;
+        private final String indexName;
+        private final Set<String> sourceStreams;
+
+        private MatchedMessage(EventDefinition eventDefinition, Message message, String indexName, Set<String> sourceStreams) {
+            this.eventDefinition = eventDefinition;
+            this.message = message;
+            this.indexName = indexName;
+            this.sourceStreams = sourceStreams;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.auto.value.AutoValue;
+import org.joda.time.DateTime;
+import org.mongojack.Id;
+import org.mongojack.ObjectId;
+
+import javax.annotation.Nullable;
+
+/**
+ * The time range of messages for which a streaming filter event definition might have lost events, e.g. because
+ * the evaluation queue was full. The next execution of the event definition searches this time range.
+ */
+@AutoValue
+@JsonDeserialize(builder = StreamingFilterFallbackDto.Builder.class)
+public abstract class StreamingFilterFallbackDto {
+    private static final String FIELD_ID = "id";
+    static final String FIELD_EVENT_DEFINITION_ID = "event_definition_id";
+    static final String FIELD_FROM = "from";
+    static final String FIELD_TO = "to";
+    static final String FIELD_VERSION = "version";
+
+    @Id
+    @ObjectId
+    @Nullable
+    @JsonProperty(FIELD_ID)
+    public abstract String id();
+
+    @JsonProperty(FIELD_EVENT_DEFINITION_ID)
+    public abstract String eventDefinitionId();
+
+    @JsonProperty(FIELD_FROM)
+    public abstract DateTime from();
+
+    @JsonProperty(FIELD_TO)
+    public abstract DateTime to();
+
+    /**
+     * Incremented on every update, so a fallback is only removed if it didn't grow while it was being searched.
+     */
+    @JsonProperty(FIELD_VERSION)
+    public abstract long version();
+
+    public static Builder builder() {
+        return Builder.create();
+    }
+
+    public abstract Builder toBuilder();
+
+    @AutoValue.Builder
+    public static abstract class Builder {
+        @JsonCreator
+        public static Builder create() {
+            return new AutoValue_StreamingFilterFallbackDto.Builder().version(0L);
+        }
+
+        @Id
+        @ObjectId
+        @JsonProperty(FIELD_ID)
+        public abstract Builder id(String id);
+
+        @JsonProperty(FIELD_EVENT_DEFINITION_ID)
+        public abstract Builder eventDefinitionId(String eventDefinitionId);
+
+        @JsonProperty(FIELD_FROM)
+        public abstract Builder from(DateTime from);
+
+        @JsonProperty(FIELD_TO)
+        public abstract Builder to(DateTime to);
+
+        @JsonProperty(FIELD_VERSION)
+        public abstract Builder version(long version);
+
+        public abstract StreamingFilterFallbackDto build();
+    }
+}
@@ -18,8 +18,10 @@ package org.graylog.failure;
 
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * A structure bearing a batch of failures. It guarantees all failures
@@ -76,6 +78,18 @@ public class FailureBatch {
         return failures;
     }
 
+    /**
+     * @return the failed messages of all failures within the batch, which must be acknowledged.
+     */
+    List<Message> messagesRequiringAcknowledgement() {
+        return failures.stream()
+                .filter(Failure::requiresAcknowledgement)
+                .map(Failure::failedMessage)
+                .filter(Message.class::isInstance)
+                .map(Message.class::cast)
+                .collect(Collectors.toList());
+    }
+
     /**
      * @return a number of failures within the batch.
      */
@@ -137,12 +137,7 @@ public class FailureHandlingService extends AbstractExecutionThreadService {
                     }
                 });
 
-        final List<Message> requiresAcknowledgement = failureBatch.getFailures().stream()
-                .filter(Failure::requiresAcknowledgement)
-                .map(Failure::failedMessage)
-                .filter(Message.class::isInstance)
-                .map(Message.class::cast)
-                .collect(Collectors.toList());
+        final List<Message> requiresAcknowledgement = failureBatch.messagesRequiringAcknowledgement();
 
         if (!requiresAcknowledgement.isEmpty()) {
             acknowledger.acknowledge(requiresAcknowledgement);
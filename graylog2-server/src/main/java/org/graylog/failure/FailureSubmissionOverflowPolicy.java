@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.failure;
+
+/**
+ * Defines what happens to a failure batch submitted to a full {@link FailureSubmissionQueue}.
+ */
+public enum FailureSubmissionOverflowPolicy {
+    /**
+     * Blocks the submitting thread until the queue accepts the batch.
+     */
+    BLOCK,
+    /**
+     * Drops the oldest batch from the queue to make room for the submitted one.
+     */
+    DROP_OLDEST,
+    /**
+     * Drops the submitted batch.
+     */
+    DROP_NEWEST
+}
@@ -20,12 +20,15 @@ import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import org.graylog2.Configuration;
+import org.graylog2.plugin.Message;
+import org.graylog2.shared.messageq.MessageQueueAcknowledger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -40,7 +43,8 @@ import static com.codahale.metrics.MetricRegistry.name;
  * 1. To control pressure on the failure handling framework.
  * 2. To decouple failure producers from failure consumers.
  *
- * The capacity of the underlying queue is controlled by {@link Configuration#getFailureHandlingQueueCapacity()}}
+ * The capacity of the underlying queue is controlled by {@link Configuration#getFailureHandlingQueueCapacity()}},
+ * the behaviour on a full queue by {@link Configuration#getFailureHandlingQueueOverflowPolicy()}.
  */
 @Singleton
 class FailureSubmissionQueue {
@@ -49,26 +53,66 @@ class FailureSubmissionQueue {
 
     private final BlockingQueue<FailureBatch> queue;
     private final Configuration configuration;
+    private final FailureSubmissionOverflowPolicy overflowPolicy;
+    private final MessageQueueAcknowledger acknowledger;
     private final Meter submittedFailureBatches;
     private final Meter submittedFailures;
     private final Meter consumedFailureBatches;
     private final Meter consumedFailures;
+    private final Meter droppedFailureBatches;
+    private final Meter droppedFailures;
 
     @Inject
     FailureSubmissionQueue(Configuration configuration,
-                                  MetricRegistry metricRegistry) {
+                           MessageQueueAcknowledger acknowledger,
+                           MetricRegistry metricRegistry) {
         this.queue = new LinkedBlockingQueue<>(configuration.getFailureHandlingQueueCapacity());
         this.configuration = configuration;
+        this.overflowPolicy = configuration.getFailureHandlingQueueOverflowPolicy();
+        this.acknowledger = acknowledger;
 
         this.submittedFailureBatches = metricRegistry.meter(name(FailureSubmissionQueue.class, "submittedFailureBatches"));
         this.submittedFailures = metricRegistry.meter(name(FailureSubmissionQueue.class, "submittedFailures"));
         this.consumedFailureBatches = metricRegistry.meter(name(FailureSubmissionQueue.class, "consumedFailureBatches"));
         this.consumedFailures = metricRegistry.meter(name(FailureSubmissionQueue.class, "consumedFailures"));
+        this.droppedFailureBatches = metricRegistry.meter(name(FailureSubmissionQueue.class, "droppedFailureBatches"));
+        this.droppedFailures = metricRegistry.meter(name(FailureSubmissionQueue.class, "droppedFailures"));
 
         metricRegistry.register(MetricRegistry.name(FailureSubmissionQueue.class, "queueSize"),
                 (Gauge<Integer>) queue::size);
     }
 
+    /**
+     * Submits a failure batch for handling. If the underlying queue is full,
+     * the configured {@link FailureSubmissionOverflowPolicy} decides whether
+     * the call blocks or a batch gets dropped.
+     */
+    void submit(FailureBatch batch) throws InterruptedException {
+        switch (overflowPolicy) {
+            case DROP_NEWEST:
+                if (!queue.offer(batch)) {
+                    drop(batch);
+                    return;
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(batch)) {
+                    final FailureBatch oldest = queue.poll();
+                    if (oldest != null) {
+                        drop(oldest);
+                    }
+                }
+                break;
+            case BLOCK:
+            default:
+                submitBlocking(batch);
+                return;
+        }
+
+        submittedFailureBatches.mark();
+        submittedFailures.mark(batch.size());
+    }
+
     /**
      * Submits a failure batch for handling. If the underlying queue is full,
      * the call will block until the queue is ready to accept new batches.
@@ -84,14 +128,30 @@ class FailureSubmissionQueue {
         submittedFailures.mark(batch.size());
     }
 
+    private void drop(FailureBatch batch) {
+        logger.debug("The queue is full! Dropping a batch of {} failures. Current capacity: {}",
+                batch.size(), configuration.getFailureHandlingQueueCapacity());
+
+        droppedFailureBatches.mark();
+        droppedFailures.mark(batch.size());
+
+        // Dropped messages would otherwise never be acknowledged and block the journal
+        final List<Message> requiresAcknowledgement = batch.messagesRequiringAcknowledgement();
+        if (!requiresAcknowledgement.isEmpty()) {
+            acknowledger.acknowledge(requiresAcknowledgement);
+        }
+    }
+
     /**
      * Logs current submission/consumption stats.
      */
     void logStats(String tag) {
-        logger.info("[{}] Total number of submitted batches: {} ({} failures), total number of consumed batches: {} ({} failures)",
+        logger.info("[{}] Total number of submitted batches: {} ({} failures), total number of consumed batches: {} ({} failures), " +
+                        "total number of dropped batches: {} ({} failures)",
                 tag,
                 submittedFailureBatches.getCount(), submittedFailures.getCount(),
-                consumedFailureBatches.getCount(), consumedFailures.getCount());
+                consumedFailureBatches.getCount(), consumedFailures.getCount(),
+                droppedFailureBatches.getCount(), droppedFailures.getCount());
     }
 
     /**
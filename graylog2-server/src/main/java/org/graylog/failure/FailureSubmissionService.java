@@ -21,6 +21,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.graylog2.indexer.messages.Messages;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.Tools;
+import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -101,34 +102,37 @@ public class FailureSubmissionService {
             message.setFilterOut(true);
         }
 
-        processingErrors.forEach(pe -> submitProcessingFailure(message, pe));
+        submitProcessingFailures(message, processingErrors);
 
         return failureHandlingConfiguration.keepFailedMessageDuplicate();
     }
 
-    private void submitProcessingFailure(Message failedMessage, Message.ProcessingError processingError) {
+    private void submitProcessingFailures(Message failedMessage, List<Message.ProcessingError> processingErrors) {
         try {
             // If we store the regular message, the acknowledgement happens in the output path
             final boolean needsAcknowledgement = !failureHandlingConfiguration.keepFailedMessageDuplicate();
 
             final String messageId = StringUtils.isBlank(failedMessage.getMessageId()) ? failedMessage.getId() : failedMessage.getMessageId();
-
-            final String message = String.format(Locale.ENGLISH,
-                    "Failed to process message with id '%s': %s",
-                    StringUtils.isBlank(messageId) ? "UNKNOWN" : messageId,
-                    processingError.getMessage());
-
-            final ProcessingFailure processingFailure = new ProcessingFailure(
-                    processingError.getCause(),
-                    message,
-                    processingError.getDetails(),
-                    Tools.nowUTC(),
-                    failedMessage,
-                    needsAcknowledgement);
-
-            failureSubmissionQueue.submitBlocking(FailureBatch.processingFailureBatch(processingFailure));
+            final DateTime failureTimestamp = Tools.nowUTC();
+
+            // All errors of a message are submitted as one batch, so a message with many errors takes only one slot in the queue
+            final List<ProcessingFailure> processingFailures = processingErrors.stream()
+                    .map(processingError -> new ProcessingFailure(
+                            processingError.getCause(),
+                            String.format(Locale.ENGLISH,
+                                    "Failed to process message with id '%s': %s",
+                                    StringUtils.isBlank(messageId) ? "UNKNOWN" : messageId,
+                                    processingError.getMessage()),
+                            processingError.getDetails(),
+                            failureTimestamp,
+                            failedMessage,
+                            needsAcknowledgement))
+                    .collect(Collectors.toList());
+
+            failureSubmissionQueue.submit(FailureBatch.processingFailureBatch(processingFailures));
         } catch (InterruptedException ignored) {
-            logger.warn("Failed to submit a processing failure for failure handling. The thread has been interrupted!");
+            logger.warn("Failed to submit {} processing failures for failure handling. The thread has been interrupted!",
+                    processingErrors.size());
             Thread.currentThread().interrupt();
         }
     }
@@ -153,7 +157,7 @@ public class FailureSubmissionService {
                             .collect(Collectors.toList()));
 
             if (fb.size() > 0) {
-                failureSubmissionQueue.submitBlocking(fb);
+                failureSubmissionQueue.submit(fb);
             }
 
         } catch (InterruptedException ignored) {
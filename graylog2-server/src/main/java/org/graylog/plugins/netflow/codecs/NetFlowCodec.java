@@ -55,9 +55,7 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.util.Collection;
 import java.util.List;
@@ -80,20 +78,19 @@ public class NetFlowCodec extends AbstractCodec implements MultiMessageCodec {
     private static final Logger LOG = LoggerFactory.getLogger(NetFlowCodec.class);
     private final NetFlowV9FieldTypeRegistry typeRegistry;
     private final NetflowV9CodecAggregator netflowV9CodecAggregator;
+    private final NetFlowV9TemplateCache templateCache;
 
     @Inject
-    protected NetFlowCodec(@Assisted Configuration configuration, NetflowV9CodecAggregator netflowV9CodecAggregator) throws IOException {
+    protected NetFlowCodec(@Assisted Configuration configuration,
+                           NetflowV9CodecAggregator netflowV9CodecAggregator,
+                           NetFlowV9TemplateCache templateCache) throws IOException {
         super(configuration);
         this.netflowV9CodecAggregator = netflowV9CodecAggregator;
+        this.templateCache = templateCache;
 
         final String netFlow9DefinitionsPath = configuration.getString(CK_NETFLOW9_DEFINITION_PATH);
-        if (netFlow9DefinitionsPath == null || netFlow9DefinitionsPath.trim().isEmpty()) {
-            this.typeRegistry = NetFlowV9FieldTypeRegistry.create();
-        } else {
-            try (InputStream inputStream = new FileInputStream(netFlow9DefinitionsPath)) {
-                this.typeRegistry = NetFlowV9FieldTypeRegistry.create(inputStream);
-            }
-        }
+        final boolean useDefaultDefinitions = netFlow9DefinitionsPath == null || netFlow9DefinitionsPath.trim().isEmpty();
+        this.typeRegistry = templateCache.typeRegistry(useDefaultDefinitions ? null : netFlow9DefinitionsPath);
     }
 
     @Nullable
@@ -173,13 +170,12 @@ public class NetFlowCodec extends AbstractCodec implements MultiMessageCodec {
         // parse all templates used in the packet
         final Map<Integer, NetFlowV9Template> templateMap = Maps.newHashMap();
         rawNetflowV9.getTemplatesMap().forEach((templateId, byteString) -> {
-            final NetFlowV9Template netFlowV9Template = NetFlowV9Parser.parseTemplate(
-                    Unpooled.wrappedBuffer(byteString.toByteArray()), typeRegistry);
+            final NetFlowV9Template netFlowV9Template = templateCache.template(typeRegistry, byteString);
             templateMap.put(templateId, netFlowV9Template);
         });
         final NetFlowV9OptionTemplate[] optionTemplate = {null};
         rawNetflowV9.getOptionTemplateMap().forEach((templateId, byteString) -> {
-            optionTemplate[0] = NetFlowV9Parser.parseOptionTemplate(Unpooled.wrappedBuffer(byteString.toByteArray()), typeRegistry);
+            optionTemplate[0] = templateCache.optionTemplate(typeRegistry, byteString);
         });
 
         return rawNetflowV9.getPacketsList().stream()
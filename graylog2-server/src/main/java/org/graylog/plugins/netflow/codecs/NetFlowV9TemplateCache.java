@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.netflow.codecs;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.protobuf.ByteString;
+import io.netty.buffer.Unpooled;
+import org.graylog.plugins.netflow.v9.NetFlowV9FieldTypeRegistry;
+import org.graylog.plugins.netflow.v9.NetFlowV9OptionTemplate;
+import org.graylog.plugins.netflow.v9.NetFlowV9Parser;
+import org.graylog.plugins.netflow.v9.NetFlowV9Template;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the parsed NetFlow v9 field type registries and templates between all {@link NetFlowCodec} instances.
+ * <p>
+ * A new codec is created for every decoded message and every journal entry carries the bytes of the templates it
+ * uses, so parsing (and compiling) them per codec instance would happen for every single message.
+ */
+@Singleton
+public class NetFlowV9TemplateCache {
+    // Definitions files are only checked for modifications in this interval, not for every codec instance
+    private static final long REGISTRY_CHECK_INTERVAL_SECONDS = 10L;
+
+    private volatile NetFlowV9FieldTypeRegistry defaultTypeRegistry;
+    private final LoadingCache<String, RegistryEntry> typeRegistries = CacheBuilder.newBuilder()
+            .maximumSize(100)
+            .refreshAfterWrite(REGISTRY_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS)
+            .build(new CacheLoader<String, RegistryEntry>() {
+                @Override
+                public RegistryEntry load(String definitionsPath) throws IOException {
+                    final long lastModified = new File(definitionsPath).lastModified();
+                    try (InputStream inputStream = new FileInputStream(definitionsPath)) {
+                        return RegistryEntry.create(NetFlowV9FieldTypeRegistry.create(inputStream), lastModified);
+                    }
+                }
+
+                @Override
+                public ListenableFuture<RegistryEntry> reload(String definitionsPath, RegistryEntry oldEntry) throws IOException {
+                    // Keep the registry instance as long as the file is unchanged, templates are cached per instance
+                    if (new File(definitionsPath).lastModified() == oldEntry.lastModified()) {
+                        return Futures.immediateFuture(oldEntry);
+                    }
+                    return Futures.immediateFuture(load(definitionsPath));
+                }
+            });
+    private final Cache<TemplateCacheKey, NetFlowV9Template> templates = CacheBuilder.newBuilder()
+            .maximumSize(5000)
+            .recordStats()
+            .build();
+    private final Cache<TemplateCacheKey, NetFlowV9OptionTemplate> optionTemplates = CacheBuilder.newBuilder()
+            .maximumSize(5000)
+            .build();
+
+    @Inject
+    public NetFlowV9TemplateCache() {
+    }
+
+    /**
+     * Returns the field type registry for the given definitions file. The file is parsed again if it has been
+     * modified, which is noticed within {@value #REGISTRY_CHECK_INTERVAL_SECONDS} seconds.
+     *
+     * @param definitionsPath path to the YAML file containing the field definitions, {@code null} for the defaults
+     * @return the field type registry
+     * @throws IOException if the definitions file cannot be read
+     */
+    public NetFlowV9FieldTypeRegistry typeRegistry(@Nullable String definitionsPath) throws IOException {
+        if (definitionsPath == null) {
+            return defaultTypeRegistry();
+        }
+        try {
+            return typeRegistries.get(definitionsPath).typeRegistry();
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private NetFlowV9FieldTypeRegistry defaultTypeRegistry() throws IOException {
+        NetFlowV9FieldTypeRegistry typeRegistry = defaultTypeRegistry;
+        if (typeRegistry == null) {
+            synchronized (this) {
+                typeRegistry = defaultTypeRegistry;
+                if (typeRegistry == null) {
+                    typeRegistry = NetFlowV9FieldTypeRegistry.create();
+                    defaultTypeRegistry = typeRegistry;
+                }
+            }
+        }
+        return typeRegistry;
+    }
+
+    public NetFlowV9Template template(NetFlowV9FieldTypeRegistry typeRegistry, ByteString bytes) {
+        final TemplateCacheKey key = TemplateCacheKey.create(typeRegistry, bytes);
+        NetFlowV9Template template = templates.getIfPresent(key);
+        if (template == null) {
+            template = NetFlowV9Parser.parseTemplate(Unpooled.wrappedBuffer(bytes.asReadOnlyByteBuffer()), typeRegistry);
+            templates.put(key, template);
+        }
+        return template;
+    }
+
+    public NetFlowV9OptionTemplate optionTemplate(NetFlowV9FieldTypeRegistry typeRegistry, ByteString bytes) {
+        final TemplateCacheKey key = TemplateCacheKey.create(typeRegistry, bytes);
+        NetFlowV9OptionTemplate optionTemplate = optionTemplates.getIfPresent(key);
+        if (optionTemplate == null) {
+            optionTemplate = NetFlowV9Parser.parseOptionTemplate(Unpooled.wrappedBuffer(bytes.asReadOnlyByteBuffer()), typeRegistry);
+            optionTemplates.put(key, optionTemplate);
+        }
+        return optionTemplate;
+    }
+
+    @VisibleForTesting
+    CacheStats templateStats() {
+        return templates.stats();
+    }
+
+    @AutoValue
+    static abstract class RegistryEntry {
+        abstract NetFlowV9FieldTypeRegistry typeRegistry();
+
+        abstract long lastModified();
+
+        static RegistryEntry create(NetFlowV9FieldTypeRegistry typeRegistry, long lastModified) {
+            return new AutoValue_NetFlowV9TemplateCache_RegistryEntry(typeRegistry, lastModified);
+        }
+    }
+
+    // Templates are compiled against a field type registry, registries are compared by identity
+    @AutoValue
+    static abstract class TemplateCacheKey {
+        abstract NetFlowV9FieldTypeRegistry typeRegistry();
+
+        abstract ByteString bytes();
+
+        static TemplateCacheKey create(NetFlowV9FieldTypeRegistry typeRegistry, ByteString bytes) {
+            return new AutoValue_NetFlowV9TemplateCache_TemplateCacheKey(typeRegistry, bytes);
+        }
+    }
+}
@@ -31,9 +31,7 @@ import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
 
 
@@ -299,32 +297,22 @@ public class NetFlowV9Parser {
         int length = bb.readUnsignedShort();
         int end = bb.readerIndex() - 4 + length;
 
-        List<NetFlowV9FieldDef> defs;
+        final NetFlowV9RecordDecoder decoder;
 
         boolean isOptionTemplate = optionTemplate != null && optionTemplate.templateId() == flowSetId;
         if (isOptionTemplate) {
-            defs = optionTemplate.optionDefs();
+            decoder = optionTemplate.decoder();
         } else {
             NetFlowV9Template t = cache.get(flowSetId);
             if (t == null) {
                 return Collections.emptyList();
             }
-            defs = t.definitions();
-        }
-
-        // calculate record unit size
-        int unitSize = 0;
-        for (NetFlowV9FieldDef def : defs) {
-            unitSize += def.length();
+            decoder = t.decoder();
         }
 
+        final int unitSize = decoder.recordLength();
         while (bb.readerIndex() < end && bb.readableBytes() >= unitSize) {
-            final ImmutableMap.Builder<String, Object> fields = ImmutableMap.builder();
-            for (NetFlowV9FieldDef def : defs) {
-                final String key = def.type().name().toLowerCase(Locale.ROOT);
-                final Optional<Object> optValue = def.parse(bb);
-                optValue.ifPresent(value -> fields.put(key, value));
-            }
+            final ImmutableMap<String, Object> fields = decoder.decode(bb);
 
             if (isOptionTemplate) {
                 final ImmutableMap.Builder<Integer, Object> scopes = ImmutableMap.builder();
@@ -341,9 +329,9 @@ public class NetFlowV9Parser {
                     scopes.put(t, l);
                 }
 
-                records.add(NetFlowV9OptionRecord.create(fields.build(), scopes.build()));
+                records.add(NetFlowV9OptionRecord.create(fields, scopes.build()));
             } else {
-                records.add(NetFlowV9Record.create(fields.build()));
+                records.add(NetFlowV9Record.create(fields));
             }
             // This flowset cannot contain another record, treat as padding
             if (end - bb.readerIndex() < unitSize) {
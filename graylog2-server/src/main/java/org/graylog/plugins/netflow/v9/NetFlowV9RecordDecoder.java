@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.netflow.v9;
+
+import com.google.common.collect.ImmutableMap;
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.Nullable;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+import static com.google.common.base.Strings.emptyToNull;
+
+/**
+ * Decoder for the data records of a single template.
+ * <p>
+ * The field names, the offsets of the fields within a record and a reader for every field are computed once when the
+ * template is compiled, so decoding a record only has to read the values at their offsets. The values are the same as
+ * the ones returned by {@link NetFlowV9FieldDef#parse(ByteBuf)}.
+ */
+public final class NetFlowV9RecordDecoder {
+    private final String[] keys;
+    private final int[] offsets;
+    private final FieldReader[] readers;
+    private final int readLength;
+    private final int recordLength;
+
+    private NetFlowV9RecordDecoder(String[] keys, int[] offsets, FieldReader[] readers, int readLength, int recordLength) {
+        this.keys = keys;
+        this.offsets = offsets;
+        this.readers = readers;
+        this.readLength = readLength;
+        this.recordLength = recordLength;
+    }
+
+    public static NetFlowV9RecordDecoder compile(List<NetFlowV9FieldDef> definitions) {
+        final int fieldCount = definitions.size();
+        final String[] keys = new String[fieldCount];
+        final int[] offsets = new int[fieldCount];
+        final FieldReader[] readers = new FieldReader[fieldCount];
+        int readLength = 0;
+        int recordLength = 0;
+        for (int i = 0; i < fieldCount; i++) {
+            final NetFlowV9FieldDef fieldDef = definitions.get(i);
+            keys[i] = fieldDef.type().name().toLowerCase(Locale.ROOT);
+            offsets[i] = readLength;
+            readers[i] = reader(fieldDef);
+            readLength += readSize(fieldDef);
+            recordLength += fieldDef.length();
+        }
+
+        return new NetFlowV9RecordDecoder(keys, offsets, readers, readLength, recordLength);
+    }
+
+    /**
+     * @return the number of bytes of a single data record
+     */
+    public int recordLength() {
+        return recordLength;
+    }
+
+    /**
+     * Reads the fields of a single data record from the given buffer.
+     */
+    public ImmutableMap<String, Object> decode(ByteBuf bb) {
+        final int start = bb.readerIndex();
+        // Fails like reading the fields one by one if the buffer doesn't contain the whole record
+        bb.skipBytes(readLength);
+
+        final ImmutableMap.Builder<String, Object> fields = ImmutableMap.builderWithExpectedSize(readers.length);
+        for (int i = 0; i < readers.length; i++) {
+            final Object value = readers[i].read(bb, start + offsets[i]);
+            if (value != null) {
+                fields.put(keys[i], value);
+            }
+        }
+
+        return fields.build();
+    }
+
+    /**
+     * Returns the number of bytes {@link NetFlowV9FieldDef#parse(ByteBuf)} consumes for the given field. Signed
+     * numbers and addresses always have the size of their value type, even if the template specifies another length.
+     */
+    private static int readSize(NetFlowV9FieldDef fieldDef) {
+        final NetFlowV9FieldType.ValueType valueType = fieldDef.type().valueType();
+        switch (valueType) {
+            case UINT8:
+            case UINT16:
+            case UINT24:
+            case UINT32:
+            case UINT64:
+            case STRING:
+            case SKIP:
+                return fieldDef.length() != 0 ? fieldDef.length() : valueType.getDefaultLength();
+            default:
+                return valueType.getDefaultLength();
+        }
+    }
+
+    private static FieldReader reader(NetFlowV9FieldDef fieldDef) {
+        final int length = readSize(fieldDef);
+        switch (fieldDef.type().valueType()) {
+            case UINT8:
+            case UINT16:
+            case UINT24:
+            case UINT32:
+            case UINT64:
+                return unsignedNumberReader(length);
+            case INT8:
+                return ByteBuf::getByte;
+            case INT16:
+                return ByteBuf::getShort;
+            case INT24:
+                return ByteBuf::getMedium;
+            case INT32:
+                return ByteBuf::getInt;
+            case INT64:
+                return ByteBuf::getLong;
+            case IPV4:
+            case IPV6:
+                return (bb, index) -> {
+                    final byte[] address = new byte[length];
+                    bb.getBytes(index, address);
+                    try {
+                        return InetAddress.getByAddress(address).getHostAddress();
+                    } catch (UnknownHostException e) {
+                        return null;
+                    }
+                };
+            case MAC:
+                return (bb, index) -> String.format(Locale.ROOT, "%02x:%02x:%02x:%02x:%02x:%02x",
+                        bb.getByte(index), bb.getByte(index + 1), bb.getByte(index + 2),
+                        bb.getByte(index + 3), bb.getByte(index + 4), bb.getByte(index + 5));
+            case STRING:
+                return (bb, index) -> {
+                    final byte[] bytes = new byte[length];
+                    bb.getBytes(index, bytes);
+                    return emptyToNull(new String(bytes, StandardCharsets.UTF_8).trim());
+                };
+            default:
+                return (bb, index) -> null;
+        }
+    }
+
+    private static FieldReader unsignedNumberReader(int length) {
+        switch (length) {
+            case 1:
+                return ByteBuf::getUnsignedByte;
+            case 2:
+                return ByteBuf::getUnsignedShort;
+            case 3:
+                return ByteBuf::getUnsignedMedium;
+            case 4:
+                return ByteBuf::getUnsignedInt;
+            case 8:
+                return ByteBuf::getLong;
+            default:
+                return (bb, index) -> {
+                    final byte[] bytes = new byte[length];
+                    bb.getBytes(index, bytes);
+                    return new BigInteger(bytes);
+                };
+        }
+    }
+
+    @FunctionalInterface
+    private interface FieldReader {
+        @Nullable
+        Object read(ByteBuf bb, int index);
+    }
+}
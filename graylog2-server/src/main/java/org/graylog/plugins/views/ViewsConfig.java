@@ -17,6 +17,7 @@
 package org.graylog.plugins.views;
 
 import com.github.joschi.jadconfig.Parameter;
+import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
 import org.graylog2.plugin.PluginConfigBean;
 import org.joda.time.Duration;
 
@@ -24,7 +25,35 @@ public class ViewsConfig implements PluginConfigBean {
     private static final Duration DEFAULT_MAXIMUM_AGE_FOR_SEARCHES = Duration.standardDays(4);
     private static final String PREFIX = "views_";
     private static final String MAX_SEARCH_AGE = PREFIX + "maximum_search_age";
+    private static final String EXPORT_THREAD_POOL_SIZE = PREFIX + "export_thread_pool_size";
+    private static final String EXPORT_QUEUE_SIZE = PREFIX + "export_queue_size";
+    private static final String EXPORT_MAX_CONCURRENT_PER_USER = PREFIX + "export_max_concurrent_per_user";
+    private static final String QUERY_RESULT_CACHE_FRESHNESS = PREFIX + "query_result_cache_freshness";
+    private static final String QUERY_RESULT_CACHE_SIZE = PREFIX + "query_result_cache_size";
+    private static final String INCREMENTAL_PIVOTS = PREFIX + "incremental_pivots";
+    private static final String INCREMENTAL_PIVOTS_SETTLE_TIME = PREFIX + "incremental_pivots_settle_time";
 
     @Parameter(MAX_SEARCH_AGE)
     private Duration maxSearchAge = DEFAULT_MAXIMUM_AGE_FOR_SEARCHES;
+
+    @Parameter(value = EXPORT_THREAD_POOL_SIZE, validator = PositiveIntegerValidator.class)
+    private int exportThreadPoolSize = 4;
+
+    @Parameter(value = EXPORT_QUEUE_SIZE, validator = PositiveIntegerValidator.class)
+    private int exportQueueSize = 16;
+
+    @Parameter(value = EXPORT_MAX_CONCURRENT_PER_USER, validator = PositiveIntegerValidator.class)
+    private int exportMaxConcurrentPerUser = 2;
+
+    @Parameter(QUERY_RESULT_CACHE_FRESHNESS)
+    private com.github.joschi.jadconfig.util.Duration queryResultCacheFreshness = com.github.joschi.jadconfig.util.Duration.seconds(0);
+
+    @Parameter(value = QUERY_RESULT_CACHE_SIZE, validator = PositiveIntegerValidator.class)
+    private int queryResultCacheSize = 1000;
+
+    @Parameter(INCREMENTAL_PIVOTS)
+    private boolean incrementalPivots = false;
+
+    @Parameter(INCREMENTAL_PIVOTS_SETTLE_TIME)
+    private com.github.joschi.jadconfig.util.Duration incrementalPivotsSettleTime = com.github.joschi.jadconfig.util.Duration.minutes(1);
 }
@@ -0,0 +1,478 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.engine;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import org.graylog.plugins.views.search.GlobalOverride;
+import org.graylog.plugins.views.search.Parameter;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog.plugins.views.search.SearchType;
+import org.graylog.plugins.views.search.searchtypes.pivot.BucketSpec;
+import org.graylog.plugins.views.search.searchtypes.pivot.Pivot;
+import org.graylog.plugins.views.search.searchtypes.pivot.PivotResult;
+import org.graylog.plugins.views.search.searchtypes.pivot.PivotSort;
+import org.graylog.plugins.views.search.searchtypes.pivot.SeriesSpec;
+import org.graylog.plugins.views.search.searchtypes.pivot.SortSpec;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.DateInterval;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Time;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.TimeUnitInterval;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Max;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Min;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Sum;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.graylog2.plugin.indexer.searches.timeranges.RelativeRange;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Executes time histogram pivots over relative time ranges incrementally.
+ * <p>
+ * Dashboards refresh such pivots every few seconds, although only the most recent buckets and the partial bucket at
+ * the beginning of the time range change between two executions. The buckets which are complete (i.e. which end
+ * before the configured settle time) are kept per pivot. Subsequent executions only query the buckets following the
+ * cached ones and the partial first bucket, and merge them with the cached buckets into the same {@link PivotResult}
+ * a full execution would return.
+ * <p>
+ * Only pivots with a single row group on the timestamp field, a fixed interval of at most days, no column groups and
+ * rollup enabled are supported, because the rollup values can only be merged for count, sum, min and max series.
+ * Cached buckets are dropped regularly so messages which arrived later than the settle time are eventually included.
+ */
+@Singleton
+public class IncrementalPivots {
+    private static final String HEAD_ID_SUFFIX = "-incremental-head";
+    private static final String DOC_COUNT_SERIES_ID = "incremental-doc-count";
+    private static final long MAX_STATE_AGE_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final int MAX_STATES = 1000;
+
+    private static final Map<String, Long> UNIT_MILLIS = ImmutableMap.of(
+            "s", TimeUnit.SECONDS.toMillis(1),
+            "m", TimeUnit.MINUTES.toMillis(1),
+            "h", TimeUnit.HOURS.toMillis(1),
+            "d", TimeUnit.DAYS.toMillis(1));
+    private static final Set<String> MERGEABLE_SERIES = ImmutableSet.of(Count.NAME, Sum.NAME, Min.NAME, Max.NAME);
+
+    private final boolean enabled;
+    private final long settleTimeMs;
+    private final Cache<StateKey, State> states = Caffeine.newBuilder()
+            .maximumSize(MAX_STATES)
+            .expireAfterWrite(MAX_STATE_AGE_MS, TimeUnit.MILLISECONDS)
+            .build();
+
+    private final Meter incrementalExecutions;
+    private final Meter fullExecutions;
+    private final Meter reusedBuckets;
+
+    @Inject
+    public IncrementalPivots(@Named("views_incremental_pivots") boolean enabled,
+                             @Named("views_incremental_pivots_settle_time") Duration settleTime,
+                             MetricRegistry metricRegistry) {
+        this.enabled = enabled;
+        this.settleTimeMs = settleTime.toMilliseconds();
+        this.incrementalExecutions = metricRegistry.meter(name(IncrementalPivots.class, "incremental-executions"));
+        this.fullExecutions = metricRegistry.meter(name(IncrementalPivots.class, "full-executions"));
+        this.reusedBuckets = metricRegistry.meter(name(IncrementalPivots.class, "reused-buckets"));
+    }
+
+    static IncrementalPivots disabled() {
+        return new IncrementalPivots(false, Duration.minutes(1), new MetricRegistry());
+    }
+
+    /**
+     * Rewrites the supported pivots of the given query, so only the buckets which aren't cached are queried.
+     *
+     * @param query      the query to execute
+     * @param parameters the parameters of the search the query belongs to
+     * @return the execution holding the query to run and merging its result with the cached buckets
+     */
+    public Execution prepare(Query query, Set<Parameter> parameters) {
+        if (!enabled || !(query.timerange() instanceof RelativeRange)
+                || query.globalOverride().flatMap(GlobalOverride::timerange).isPresent()) {
+            return new Execution(query, ImmutableList.of());
+        }
+        final RelativeRange timerange = (RelativeRange) query.timerange();
+        if (!timerange.range().isPresent() || timerange.getRange() <= 0) {
+            return new Execution(query, ImmutableList.of());
+        }
+
+        final long now = Tools.nowUTC().getMillis();
+        final long from = now - TimeUnit.SECONDS.toMillis(timerange.getRange());
+        final Query queryWithoutSearchTypes = query.toBuilder().searchTypes(ImmutableSet.of()).build();
+
+        final List<PivotPlan> plans = new ArrayList<>();
+        final Set<SearchType> searchTypes = new LinkedHashSet<>();
+        for (SearchType searchType : query.searchTypes()) {
+            final Optional<DateInterval> interval = searchType instanceof Pivot ? supportedInterval(query, (Pivot) searchType) : Optional.empty();
+            if (!interval.isPresent()) {
+                searchTypes.add(searchType);
+                continue;
+            }
+            final StateKey key = StateKey.create(queryWithoutSearchTypes, (Pivot) searchType, parameters, interval.get().toString());
+            final PivotPlan plan = plan(key, interval.get(), from, now);
+            plans.add(plan);
+            searchTypes.add(plan.tail());
+            if (plan.head() != null) {
+                searchTypes.add(plan.head());
+            }
+        }
+
+        if (plans.isEmpty()) {
+            return new Execution(query, ImmutableList.of());
+        }
+        return new Execution(query.toBuilder().searchTypes(searchTypes).build(), plans);
+    }
+
+    private Optional<DateInterval> supportedInterval(Query query, Pivot pivot) {
+        if (pivot.timerange().isPresent() || !pivot.rollup() || !pivot.columnGroups().isEmpty() || pivot.rowGroups().size() != 1) {
+            return Optional.empty();
+        }
+        final BucketSpec rowGroup = pivot.rowGroups().get(0);
+        if (!(rowGroup instanceof Time) || !Message.FIELD_TIMESTAMP.equals(((Time) rowGroup).field())) {
+            return Optional.empty();
+        }
+        for (SeriesSpec series : pivot.series()) {
+            if (!MERGEABLE_SERIES.contains(series.type()) || series.id() == null || DOC_COUNT_SERIES_ID.equals(series.id())) {
+                return Optional.empty();
+            }
+        }
+        for (SortSpec sort : pivot.sort()) {
+            if (!(sort instanceof PivotSort) || !Message.FIELD_TIMESTAMP.equals(sort.field()) || sort.direction() != SortSpec.Direction.Ascending) {
+                return Optional.empty();
+            }
+        }
+
+        final DateInterval interval = ((Time) rowGroup).interval().toDateInterval(query.timerange());
+        // Buckets of these units have a fixed length and are aligned to the epoch, so we can compute their boundaries
+        if (interval == null || !UNIT_MILLIS.containsKey(interval.getUnit())
+                || interval.getQuantity().doubleValue() != interval.getQuantity().longValue() || interval.getQuantity().longValue() <= 0) {
+            return Optional.empty();
+        }
+        return Optional.of(interval);
+    }
+
+    private PivotPlan plan(StateKey key, DateInterval interval, long from, long now) {
+        final Pivot pivot = key.pivot();
+        final long intervalMs = interval.getQuantity().longValue() * UNIT_MILLIS.get(interval.getUnit());
+        final long firstFullBucket = ceil(from, intervalMs);
+        final long settledUntil = floor(now - settleTimeMs, intervalMs);
+
+        State state = states.getIfPresent(key);
+        if (state != null && (state.coveredFrom() > firstFullBucket || state.coveredTo() <= firstFullBucket)) {
+            state = null;
+        }
+
+        // The interval must not be derived from the shorter time ranges of the rewritten pivots
+        final Time timeGroup = Time.builder()
+                .field(Message.FIELD_TIMESTAMP)
+                .interval(TimeUnitInterval.Builder.builder().timeunit(interval.toString()).build())
+                .build();
+        final Optional<String> docCountSeriesId = pivot.series().stream()
+                .filter(series -> Count.NAME.equals(series.type()) && series.field() == null)
+                .map(SeriesSpec::id)
+                .findFirst();
+        final List<SeriesSpec> series = new ArrayList<>(pivot.series());
+        if (!docCountSeriesId.isPresent()) {
+            series.add(Count.builder().id(DOC_COUNT_SERIES_ID).build());
+        }
+        final Pivot rewritten = pivot.toBuilder()
+                .rowGroups(ImmutableList.of(timeGroup))
+                .series(series)
+                .build();
+
+        final Pivot head;
+        final Pivot tail;
+        final SortedMap<Long, Bucket> cachedBuckets;
+        if (state == null) {
+            fullExecutions.mark();
+            head = null;
+            tail = rewritten.toBuilder().timerange(absoluteRange(from, now)).build();
+            cachedBuckets = ImmutableSortedMap.of();
+        } else {
+            incrementalExecutions.mark();
+            head = from < firstFullBucket
+                    ? rewritten.toBuilder().id(pivot.id() + HEAD_ID_SUFFIX).timerange(absoluteRange(from, firstFullBucket - 1)).build()
+                    : null;
+            tail = rewritten.toBuilder().timerange(absoluteRange(state.coveredTo(), now)).build();
+            cachedBuckets = state.buckets().tailMap(firstFullBucket);
+            reusedBuckets.mark(cachedBuckets.size());
+        }
+
+        return new PivotPlan(key, state, head, tail, docCountSeriesId.orElse(DOC_COUNT_SERIES_ID), cachedBuckets,
+                from, now, firstFullBucket, settledUntil);
+    }
+
+    private void storeState(PivotPlan plan, SortedMap<Long, Bucket> buckets, long now) {
+        final long coveredTo = plan.state == null ? plan.settledUntil : Math.max(plan.settledUntil, plan.state.coveredTo());
+        if (coveredTo <= plan.firstFullBucket) {
+            return;
+        }
+        final long createdAt = plan.state == null ? now : plan.state.createdAt();
+        if (now - createdAt >= MAX_STATE_AGE_MS) {
+            // Start over, so buckets which received late messages are eventually queried again
+            states.invalidate(plan.key);
+            return;
+        }
+        states.put(plan.key, State.create(plan.firstFullBucket, coveredTo, createdAt,
+                ImmutableSortedMap.copyOfSorted(buckets.subMap(plan.firstFullBucket, coveredTo))));
+    }
+
+    private static AbsoluteRange absoluteRange(long from, long to) {
+        return AbsoluteRange.create(new DateTime(from, DateTimeZone.UTC), new DateTime(to, DateTimeZone.UTC));
+    }
+
+    private static long floor(long timestamp, long intervalMs) {
+        return Math.floorDiv(timestamp, intervalMs) * intervalMs;
+    }
+
+    private static long ceil(long timestamp, long intervalMs) {
+        return -Math.floorDiv(-timestamp, intervalMs) * intervalMs;
+    }
+
+    public class Execution {
+        private final Query query;
+        private final List<PivotPlan> plans;
+
+        private Execution(Query query, List<PivotPlan> plans) {
+            this.query = query;
+            this.plans = plans;
+        }
+
+        /**
+         * @return the query which has to be executed instead of the original query
+         */
+        public Query query() {
+            return query;
+        }
+
+        /**
+         * Merges the result of the rewritten query with the cached buckets.
+         *
+         * @param originalQuery the query before it has been rewritten
+         * @param result        the result of the rewritten query
+         * @param isComplete    whether the query was executed without errors, only then buckets are cached
+         * @return the result the original query would have returned
+         */
+        public QueryResult merge(Query originalQuery, QueryResult result, boolean isComplete) {
+            if (plans.isEmpty()) {
+                return result;
+            }
+            final long now = Tools.nowUTC().getMillis();
+            final Map<String, SearchType.Result> searchTypeResults = new LinkedHashMap<>(result.searchTypes());
+            for (PivotPlan plan : plans) {
+                final SearchType.Result tailResult = searchTypeResults.get(plan.tail().id());
+                final SearchType.Result headResult = plan.head() == null ? null : searchTypeResults.remove(plan.head().id());
+                if (!(tailResult instanceof PivotResult) || (plan.head() != null && !(headResult instanceof PivotResult))) {
+                    states.invalidate(plan.key);
+                    continue;
+                }
+
+                final SortedMap<Long, Bucket> buckets = new TreeMap<>(plan.cachedBuckets);
+                long total = plan.cachedBuckets.values().stream().mapToLong(Bucket::docCount).sum() + ((PivotResult) tailResult).total();
+                if (headResult != null) {
+                    addBuckets(buckets, plan, (PivotResult) headResult);
+                    total += ((PivotResult) headResult).total();
+                }
+                addBuckets(buckets, plan, (PivotResult) tailResult);
+
+                searchTypeResults.put(plan.key.pivot().id(), mergedResult(plan, buckets, total));
+                if (isComplete) {
+                    storeState(plan, buckets, now);
+                } else {
+                    states.invalidate(plan.key);
+                }
+            }
+            return result.toBuilder()
+                    .query(originalQuery)
+                    .searchTypes(searchTypeResults)
+                    .build();
+        }
+
+        private void addBuckets(SortedMap<Long, Bucket> buckets, PivotPlan plan, PivotResult result) {
+            for (PivotResult.Row row : result.rows()) {
+                // The rollup row with the empty key is computed from the merged buckets
+                if (row.key().size() != 1) {
+                    continue;
+                }
+                final long start = DateTime.parse(row.key().get(0)).getMillis();
+                long docCount = 0;
+                final PivotResult.Row.Builder rowBuilder = PivotResult.Row.builder().key(row.key()).source(row.source());
+                for (PivotResult.Value value : row.values()) {
+                    final boolean isDocCount = value.key().equals(ImmutableList.of(plan.docCountSeriesId));
+                    if (isDocCount && value.value() instanceof Number) {
+                        docCount = ((Number) value.value()).longValue();
+                    }
+                    if (!isDocCount || !DOC_COUNT_SERIES_ID.equals(plan.docCountSeriesId)) {
+                        rowBuilder.addValue(value);
+                    }
+                }
+                buckets.put(start, Bucket.create(rowBuilder.build(), docCount));
+            }
+        }
+
+        private PivotResult mergedResult(PivotPlan plan, SortedMap<Long, Bucket> buckets, long total) {
+            final Pivot pivot = plan.key.pivot();
+            final PivotResult.Builder builder = PivotResult.builder()
+                    .id(pivot.id())
+                    .total(total)
+                    .effectiveTimerange(absoluteRange(plan.from, plan.to));
+            pivot.name().ifPresent(builder::name);
+            buckets.values().forEach(bucket -> builder.addRow(bucket.row()));
+
+            final PivotResult.Row.Builder rollupRow = PivotResult.Row.builder().key(ImmutableList.of()).source("non-leaf");
+            for (SeriesSpec series : pivot.series()) {
+                rollupRow.addValue(PivotResult.Value.create(ImmutableList.of(series.id()), rollup(series, buckets), true, "row-inner"));
+            }
+            return builder.addRow(rollupRow.build()).build();
+        }
+    }
+
+    @VisibleForTesting
+    @Nullable
+    static Object rollup(SeriesSpec series, SortedMap<Long, Bucket> buckets) {
+        final ImmutableList<String> key = ImmutableList.of(series.id());
+        final List<Number> values = new ArrayList<>();
+        for (Bucket bucket : buckets.values()) {
+            bucket.row().values().stream()
+                    .filter(value -> value.key().equals(key) && value.value() instanceof Number)
+                    .map(value -> (Number) value.value())
+                    .filter(value -> !Double.isInfinite(value.doubleValue()) && !Double.isNaN(value.doubleValue()))
+                    .forEach(values::add);
+        }
+        switch (series.type()) {
+            case Count.NAME:
+                return values.stream().mapToLong(Number::longValue).sum();
+            case Sum.NAME:
+                return values.stream().mapToDouble(Number::doubleValue).sum();
+            case Min.NAME:
+                return values.stream().mapToDouble(Number::doubleValue).min().orElse(Double.POSITIVE_INFINITY);
+            case Max.NAME:
+                return values.stream().mapToDouble(Number::doubleValue).max().orElse(Double.NEGATIVE_INFINITY);
+            default:
+                throw new IllegalArgumentException("Unsupported series type " + series.type());
+        }
+    }
+
+    private static class PivotPlan {
+        private final StateKey key;
+        @Nullable
+        private final State state;
+        @Nullable
+        private final Pivot head;
+        private final Pivot tail;
+        private final String docCountSeriesId;
+        private final SortedMap<Long, Bucket> cachedBuckets;
+        private final long from;
+        private final long to;
+        private final long firstFullBucket;
+        private final long settledUntil;
+
+        private PivotPlan(StateKey key, @Nullable State state, @Nullable Pivot head, Pivot tail, String docCountSeriesId,
+                          SortedMap<Long, Bucket> cachedBuckets, long from, long to, long firstFullBucket, long settledUntil) {
+            this.key = key;
+            this.state = state;
+            this.head = head;
+            this.tail = tail;
+            this.docCountSeriesId = docCountSeriesId;
+            this.cachedBuckets = cachedBuckets;
+            this.from = from;
+            this.to = to;
+            this.firstFullBucket = firstFullBucket;
+            this.settledUntil = settledUntil;
+        }
+
+        @Nullable
+        Pivot head() {
+            return head;
+        }
+
+        Pivot tail() {
+            return tail;
+        }
+    }
+
+    @AutoValue
+    static abstract class StateKey {
+        abstract Query query();
+
+        abstract Pivot pivot();
+
+        abstract ImmutableSet<Parameter> parameters();
+
+        abstract String interval();
+
+        static StateKey create(Query query, Pivot pivot, Set<Parameter> parameters, String interval) {
+            return new AutoValue_IncrementalPivots_StateKey(query, pivot, ImmutableSet.copyOf(parameters), interval);
+        }
+    }
+
+    @AutoValue
+    static abstract class State {
+        // Start of the first and end of the last cached bucket, buckets without messages are missing in between
+        abstract long coveredFrom();
+
+        abstract long coveredTo();
+
+        abstract long createdAt();
+
+        abstract ImmutableSortedMap<Long, Bucket> buckets();
+
+        static State create(long coveredFrom, long coveredTo, long createdAt, ImmutableSortedMap<Long, Bucket> buckets) {
+            return new AutoValue_IncrementalPivots_State(coveredFrom, coveredTo, createdAt, buckets);
+        }
+    }
+
+    @AutoValue
+    static abstract class Bucket {
+        abstract PivotResult.Row row();
+
+        abstract long docCount();
+
+        static Bucket create(PivotResult.Row row, long docCount) {
+            return new AutoValue_IncrementalPivots_Bucket(row, docCount);
+        }
+    }
+}
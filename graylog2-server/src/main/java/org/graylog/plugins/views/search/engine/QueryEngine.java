@@ -53,14 +53,26 @@ public class QueryEngine {
     // TODO proper thread pool with tunable settings
     private final Executor queryPool = Executors.newFixedThreadPool(4, new ThreadFactoryBuilder().setNameFormat("query-engine-%d").build());
     private final QueryBackend<? extends GeneratedQueryContext> elasticsearchBackend;
+    private final QueryResultCache queryResultCache;
+    private final IncrementalPivots incrementalPivots;
 
     @Inject
     public QueryEngine(QueryBackend<? extends GeneratedQueryContext> elasticsearchBackend,
                        Set<QueryMetadataDecorator> queryMetadataDecorators,
-                       QueryParser queryParser) {
+                       QueryParser queryParser,
+                       QueryResultCache queryResultCache,
+                       IncrementalPivots incrementalPivots) {
         this.elasticsearchBackend = elasticsearchBackend;
         this.queryMetadataDecorators = queryMetadataDecorators;
         this.queryParser = queryParser;
+        this.queryResultCache = queryResultCache;
+        this.incrementalPivots = incrementalPivots;
+    }
+
+    public QueryEngine(QueryBackend<? extends GeneratedQueryContext> elasticsearchBackend,
+                       Set<QueryMetadataDecorator> queryMetadataDecorators,
+                       QueryParser queryParser) {
+        this(elasticsearchBackend, queryMetadataDecorators, queryParser, QueryResultCache.disabled(), IncrementalPivots.disabled());
     }
 
     // TODO: Backwards-compatible constructor to avoid breakage. Remove at some point.
@@ -156,17 +168,34 @@ public class QueryEngine {
         LOG.debug("[{}] Preparing query execution with results of queries: ({})",
                 query.id(), StreamEx.of(results.stream()).map(QueryResult::query).map(Query::id).joining());
 
+        // the result of a query depending on other results can't be reused, because those results might differ
+        if (predecessors.isEmpty()) {
+            return queryResultCache.get(query, searchJob.getSearch().parameters(), () -> generateAndRun(backend, searchJob, query, results));
+        }
+        return generateAndRun(backend, searchJob, query, results).result();
+    }
+
+    private QueryResultCache.CacheableResult generateAndRun(QueryBackend<? extends GeneratedQueryContext> backend,
+                                                            SearchJob searchJob,
+                                                            Query query,
+                                                            Set<QueryResult> results) {
         // with all the results done, we can execute the current query and eventually complete our own result
         // if any of this throws an exception, the handle in #execute will convert it to an error and return a "failed" result instead
         // if the backend already returns a "failed result" then nothing special happens here
-        final GeneratedQueryContext generatedQueryContext = backend.generate(searchJob, query, results);
+        // time histograms might only be queried for the buckets which aren't cached yet
+        final IncrementalPivots.Execution execution = incrementalPivots.prepare(query, searchJob.getSearch().parameters());
+        final GeneratedQueryContext generatedQueryContext = backend.generate(searchJob, execution.query(), results);
         LOG.trace("[{}] Generated query {}, running it on backend {}", query.id(), generatedQueryContext, backend);
-        final QueryResult result = backend.run(searchJob, query, generatedQueryContext, results);
-        LOG.debug("[{}] Query returned {}", query.id(), result);
+        final QueryResult backendResult = backend.run(searchJob, execution.query(), generatedQueryContext, results);
+        LOG.debug("[{}] Query returned {}", query.id(), backendResult);
         if (!generatedQueryContext.errors().isEmpty()) {
             generatedQueryContext.errors().forEach(searchJob::addError);
         }
-        return result;
+        final boolean isComplete = generatedQueryContext.errors().isEmpty()
+                && (backendResult.errors() == null || backendResult.errors().isEmpty())
+                && backendResult.state() == QueryResult.State.COMPLETED;
+        final QueryResult result = execution.merge(query, backendResult, isComplete);
+        return QueryResultCache.CacheableResult.create(result, isComplete);
     }
 
     private QueryBackend<? extends GeneratedQueryContext> getQueryBackend(Query query) {
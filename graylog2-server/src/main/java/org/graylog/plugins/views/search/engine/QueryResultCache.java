@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.engine;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.plugins.views.search.Parameter;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog2.plugin.Tools;
+import org.graylog2.shared.metrics.MetricUtils;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Caches the results of queries for a short freshness window, so dashboards which are displayed on many screens at
+ * the same time don't execute the same queries over and over again.
+ * <p>
+ * Results are keyed by the query (including its filter, streams, search types and time range) and the search
+ * parameters. Relative time ranges resolve to a different absolute time range on every execution, so the key also
+ * contains the current time aligned to the freshness window. Identical queries executed concurrently are coalesced
+ * into a single execution. Only complete results without errors are cached.
+ */
+@Singleton
+public class QueryResultCache {
+    private final long freshnessMs;
+    private final ConcurrentMap<Key, CompletableFuture<QueryResult>> cache;
+
+    private final Meter hits;
+    private final Meter misses;
+
+    @Inject
+    public QueryResultCache(@Named("views_query_result_cache_freshness") Duration freshness,
+                            @Named("views_query_result_cache_size") int maximumSize,
+                            MetricRegistry metricRegistry) {
+        this.freshnessMs = freshness.toMilliseconds();
+        final Cache<Key, CompletableFuture<QueryResult>> cache = Caffeine.newBuilder()
+                .expireAfterWrite(Math.max(freshnessMs, 1), TimeUnit.MILLISECONDS)
+                .maximumSize(maximumSize)
+                .build();
+        this.cache = cache.asMap();
+        this.hits = metricRegistry.meter(name(QueryResultCache.class, "hits"));
+        this.misses = metricRegistry.meter(name(QueryResultCache.class, "misses"));
+        MetricUtils.safelyRegister(metricRegistry, name(QueryResultCache.class, "size"), (Gauge<Long>) cache::estimatedSize);
+    }
+
+    static QueryResultCache disabled() {
+        return new QueryResultCache(Duration.milliseconds(0), 0, new MetricRegistry());
+    }
+
+    public boolean isEnabled() {
+        return freshnessMs > 0;
+    }
+
+    /**
+     * Returns the cached result of the given query or executes it using the given loader. If the same query is
+     * already being executed, waits for that execution instead.
+     *
+     * @param query      the query to execute
+     * @param parameters the parameters of the search the query belongs to
+     * @param loader     executes the query and tells whether its result may be cached
+     * @return the result of the query
+     */
+    public QueryResult get(Query query, Set<Parameter> parameters, Supplier<CacheableResult> loader) {
+        if (!isEnabled()) {
+            return loader.get().result();
+        }
+
+        final Key key = Key.create(query, parameters, Tools.nowUTC().getMillis() / freshnessMs);
+        final CompletableFuture<QueryResult> execution = new CompletableFuture<>();
+        final CompletableFuture<QueryResult> existing = cache.putIfAbsent(key, execution);
+        if (existing != null) {
+            final QueryResult result = awaitResult(existing);
+            if (result != null) {
+                hits.mark();
+                return result;
+            }
+            // The result of the concurrent execution wasn't cacheable, so we have to execute the query ourselves
+            misses.mark();
+            return loader.get().result();
+        }
+
+        misses.mark();
+        try {
+            final CacheableResult result = loader.get();
+            if (!result.isCacheable()) {
+                cache.remove(key, execution);
+            }
+            execution.complete(result.isCacheable() ? result.result() : null);
+            return result.result();
+        } catch (RuntimeException | Error e) {
+            cache.remove(key, execution);
+            execution.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static QueryResult awaitResult(CompletableFuture<QueryResult> execution) {
+        try {
+            return execution.join();
+        } catch (CompletionException e) {
+            // Rethrow the exception of the concurrent execution as if we had executed the query ourselves
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @AutoValue
+    public static abstract class CacheableResult {
+        public abstract QueryResult result();
+
+        public abstract boolean isCacheable();
+
+        public static CacheableResult create(QueryResult result, boolean isCacheable) {
+            return new AutoValue_QueryResultCache_CacheableResult(result, isCacheable);
+        }
+    }
+
+    @AutoValue
+    static abstract class Key {
+        abstract Query query();
+
+        abstract ImmutableSet<Parameter> parameters();
+
+        abstract long timeBucket();
+
+        static Key create(Query query, Set<Parameter> parameters, long timeBucket) {
+            return new AutoValue_QueryResultCache_Key(query, ImmutableSet.copyOf(parameters), timeBucket);
+        }
+    }
+}
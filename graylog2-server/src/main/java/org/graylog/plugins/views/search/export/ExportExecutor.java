@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.export;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.InstrumentedExecutorService;
+import com.codahale.metrics.InstrumentedThreadFactory;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.graylog2.shared.metrics.MetricUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.ServiceUnavailableException;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Runs message exports on a shared, bounded thread pool and streams their chunks to a {@link ChunkedOutput}.
+ * <p>
+ * Exports are rejected if the pool and its queue are exhausted or if the user already runs the maximum number of
+ * concurrent exports. The chunks are written on the export thread, so the search loop of the {@link ExportBackend}
+ * can't outpace the client connection and is stopped as soon as the client disconnects.
+ */
+@Singleton
+public class ExportExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(ExportExecutor.class);
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final ExecutorService executor;
+    private final int maxConcurrentPerUser;
+    private final ConcurrentMap<String, Integer> runningExportsByUser = new ConcurrentHashMap<>();
+
+    private final Meter rejectedExports;
+    private final Meter cancelledExports;
+
+    @Inject
+    public ExportExecutor(@Named("views_export_thread_pool_size") int threadPoolSize,
+                          @Named("views_export_queue_size") int queueSize,
+                          @Named("views_export_max_concurrent_per_user") int maxConcurrentPerUser,
+                          MetricRegistry metricRegistry) {
+        this.maxConcurrentPerUser = maxConcurrentPerUser;
+        this.executor = buildExecutor(threadPoolSize, queueSize, metricRegistry);
+        this.rejectedExports = metricRegistry.meter(name(ExportExecutor.class, "rejected"));
+        this.cancelledExports = metricRegistry.meter(name(ExportExecutor.class, "cancelled"));
+        MetricUtils.safelyRegister(metricRegistry, name(ExportExecutor.class, "running-users"),
+                (Gauge<Integer>) runningExportsByUser::size);
+    }
+
+    /**
+     * Runs the given export asynchronously.
+     *
+     * @param userName the name of the user requesting the export
+     * @param call     the export, which receives the consumer for its chunks
+     * @return the output the chunks of the export are written to
+     * @throws ClientErrorException        with status 429 if the user already runs the maximum number of exports
+     * @throws ServiceUnavailableException if there is no capacity left to run or queue the export
+     */
+    public ChunkedOutput<SimpleMessageChunk> runAsync(String userName, Consumer<Consumer<SimpleMessageChunk>> call) {
+        acquire(userName);
+
+        final ChunkedOutput<SimpleMessageChunk> output = new ChunkedOutput<>(SimpleMessageChunk.class);
+        try {
+            executor.execute(() -> run(userName, call, output));
+        } catch (RejectedExecutionException e) {
+            release(userName);
+            rejectedExports.mark();
+            throw new ServiceUnavailableException("Too many exports are running at the moment, please try again later.");
+        }
+        return output;
+    }
+
+    private void run(String userName, Consumer<Consumer<SimpleMessageChunk>> call, ChunkedOutput<SimpleMessageChunk> output) {
+        try {
+            call.accept(chunk -> write(output, chunk));
+        } catch (Exception e) {
+            LOG.error("Error executing export for user <{}>", userName, e);
+        } finally {
+            release(userName);
+            close(output);
+        }
+    }
+
+    private void acquire(String userName) {
+        final Integer running = runningExportsByUser.merge(userName, 1, Integer::sum);
+        if (running > maxConcurrentPerUser) {
+            release(userName);
+            rejectedExports.mark();
+            throw new ClientErrorException("User <" + userName + "> is already running " + maxConcurrentPerUser
+                    + " exports, please wait for them to finish.", TOO_MANY_REQUESTS);
+        }
+    }
+
+    private void release(String userName) {
+        runningExportsByUser.computeIfPresent(userName, (user, running) -> running > 1 ? running - 1 : null);
+    }
+
+    private void write(ChunkedOutput<SimpleMessageChunk> output, SimpleMessageChunk chunk) {
+        // The output is closed if writing to the client failed before, e.g. because the client disconnected
+        if (output.isClosed()) {
+            cancelledExports.mark();
+            throw new ExportException("Client connection is closed, aborting export.");
+        }
+        try {
+            output.write(chunk);
+        } catch (IOException e) {
+            cancelledExports.mark();
+            throw new ExportException("Failed to write to ChunkedOutput, aborting export.", e);
+        }
+    }
+
+    private void close(ChunkedOutput<SimpleMessageChunk> output) {
+        try {
+            output.close();
+        } catch (IOException e) {
+            LOG.debug("Failed to close ChunkedOutput", e);
+        }
+    }
+
+    private static ExecutorService buildExecutor(int threadPoolSize, int queueSize, MetricRegistry metricRegistry) {
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("chunked-messages-request-%d")
+                .setUncaughtExceptionHandler((t, e) -> LOG.error("Unhandled exception", e))
+                .build();
+        final InstrumentedThreadFactory itf = new InstrumentedThreadFactory(threadFactory, metricRegistry, name(ExportExecutor.class));
+        final BlockingQueue<Runnable> workQueue = new ArrayBlockingQueue<>(queueSize);
+
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threadPoolSize, threadPoolSize, 60L, TimeUnit.SECONDS, workQueue, itf);
+        executor.allowCoreThreadTimeOut(true);
+        MetricUtils.safelyRegister(metricRegistry, name(ExportExecutor.class, "queue-size"), (Gauge<Integer>) workQueue::size);
+        return new InstrumentedExecutorService(executor, metricRegistry, name(ExportExecutor.class, "executor"));
+    }
+}
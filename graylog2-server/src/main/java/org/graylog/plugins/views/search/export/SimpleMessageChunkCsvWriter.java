@@ -16,33 +16,39 @@
  */
 package org.graylog.plugins.views.search.export;
 
-import au.com.bytecode.opencsv.CSVWriter;
 import org.graylog2.rest.MoreMediaTypes;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
-import javax.ws.rs.ext.MessageBodyWriter;
 import javax.ws.rs.ext.Provider;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
-import java.util.List;
-
-import static java.util.stream.Collectors.toList;
 
+/**
+ * Writes message chunks as CSV. Every value is quoted and embedded quotes are doubled.
+ * <p>
+ * Rows are assembled in a per-thread buffer which is encoded to UTF-8 and written to the entity stream whenever it
+ * is full, so exports with millions of messages neither allocate intermediate rows nor a writer per chunk.
+ */
 @Provider
 @Produces(MoreMediaTypes.TEXT_CSV)
 public class SimpleMessageChunkCsvWriter extends SimpleMessageChunkWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char QUOTE = '"';
+    private static final char SEPARATOR = ',';
+    private static final char LINE_END = '\n';
 
-    private static final Logger LOG = LoggerFactory.getLogger(MessageBodyWriter.class);
+    private final ThreadLocal<CsvBuffer> buffers = ThreadLocal.withInitial(CsvBuffer::new);
 
     @Override
     public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
@@ -58,40 +64,105 @@ public class SimpleMessageChunkCsvWriter extends SimpleMessageChunkWriter {
             MultivaluedMap<String, Object> httpHeaders,
             OutputStream entityStream) throws IOException, WebApplicationException {
 
-        OutputStreamWriter writer = new OutputStreamWriter(entityStream, StandardCharsets.UTF_8);
-
-        try (CSVWriter csvWriter = new CSVWriter(writer)) {
+        final CsvBuffer buffer = buffers.get();
+        buffer.reset();
 
-            writeHeaderIfFirstChunk(chunk, csvWriter);
+        final String[] fields = chunk.fieldsInOrder().toArray(new String[0]);
 
-            writeValues(chunk, csvWriter);
+        if (chunk.isFirstChunk()) {
+            writeRow(buffer, fields);
+        }
 
-            if (csvWriter.checkError()) {
-                LOG.error("Encountered unspecified error when writing message result as CSV, result is likely malformed.");
+        for (SimpleMessage message : chunk.messages()) {
+            writeRow(buffer, message, fields);
+            if (buffer.isFull()) {
+                buffer.writeTo(entityStream);
             }
         }
+
+        buffer.writeTo(entityStream);
+        entityStream.flush();
     }
 
-    private void writeHeaderIfFirstChunk(SimpleMessageChunk chunk, CSVWriter csvWriter) {
-        if (chunk.isFirstChunk()) {
-            csvWriter.writeNext(chunk.fieldsInOrder().toArray(new String[0]));
+    private void writeRow(CsvBuffer buffer, String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                buffer.chars.append(SEPARATOR);
+            }
+            appendQuoted(buffer.chars, values[i]);
         }
+        buffer.chars.append(LINE_END);
     }
 
-    private void writeValues(SimpleMessageChunk chunk, CSVWriter csvWriter) {
-        List<String[]> valueMatrix = valuesAsStringsInOrder(chunk);
-        csvWriter.writeAll(valueMatrix);
+    private void writeRow(CsvBuffer buffer, SimpleMessage message, String[] fields) {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                buffer.chars.append(SEPARATOR);
+            }
+            final Object value = message.valueFor(fields[i]);
+            // Missing values are left empty instead of being written as an empty quoted string
+            if (value != null) {
+                appendQuoted(buffer.chars, value.toString());
+            }
+        }
+        buffer.chars.append(LINE_END);
     }
 
-    private List<String[]> valuesAsStringsInOrder(SimpleMessageChunk simpleMessageChunk) {
-        return Arrays.stream(simpleMessageChunk.getAllValuesInOrder())
-                .map(this::toStringArray)
-                .collect(toList());
+    private void appendQuoted(StringBuilder chars, String value) {
+        chars.append(QUOTE);
+        if (value.indexOf(QUOTE) < 0) {
+            chars.append(value);
+        } else {
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c == QUOTE) {
+                    chars.append(QUOTE);
+                }
+                chars.append(c);
+            }
+        }
+        chars.append(QUOTE);
     }
 
-    private String[] toStringArray(Object[] objects) {
-        return Arrays.stream(objects)
-                .map(o -> o == null ? null : o.toString())
-                .toArray(String[]::new);
+    private static class CsvBuffer {
+        private final StringBuilder chars = new StringBuilder(BUFFER_SIZE);
+        private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        boolean isFull() {
+            return chars.length() >= BUFFER_SIZE;
+        }
+
+        void reset() {
+            chars.setLength(0);
+            bytes.clear();
+            encoder.reset();
+        }
+
+        /**
+         * Encodes the buffered rows and writes them to the given stream. Only complete rows are buffered, so
+         * surrogate pairs are never split up between two calls.
+         */
+        void writeTo(OutputStream out) throws IOException {
+            final CharBuffer in = CharBuffer.wrap(chars);
+            encoder.reset();
+            CoderResult result;
+            do {
+                result = encoder.encode(in, bytes, true);
+                drainTo(out);
+            } while (result.isOverflow());
+            do {
+                result = encoder.flush(bytes);
+                drainTo(out);
+            } while (result.isOverflow());
+            chars.setLength(0);
+        }
+
+        private void drainTo(OutputStream out) throws IOException {
+            out.write(bytes.array(), 0, bytes.position());
+            bytes.clear();
+        }
     }
 }
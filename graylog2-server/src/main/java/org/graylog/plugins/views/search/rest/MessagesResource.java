@@ -29,8 +29,8 @@ import org.graylog.plugins.views.search.SearchDomain;
 import org.graylog.plugins.views.search.SearchExecutionGuard;
 import org.graylog.plugins.views.search.export.AuditContext;
 import org.graylog.plugins.views.search.export.AuditingMessagesExporter;
-import org.graylog.plugins.views.search.export.ChunkedRunner;
 import org.graylog.plugins.views.search.export.CommandFactory;
+import org.graylog.plugins.views.search.export.ExportExecutor;
 import org.graylog.plugins.views.search.export.ExportJob;
 import org.graylog.plugins.views.search.export.ExportJobService;
 import org.graylog.plugins.views.search.export.ExportMessagesCommand;
@@ -75,7 +75,7 @@ public class MessagesResource extends RestResource implements PluginRestResource
     private final ExportJobService exportJobService;
 
     //allow mocking
-    Function<Consumer<Consumer<SimpleMessageChunk>>, ChunkedOutput<SimpleMessageChunk>> asyncRunner = ChunkedRunner::runAsync;
+    Function<Consumer<Consumer<SimpleMessageChunk>>, ChunkedOutput<SimpleMessageChunk>> asyncRunner;
     Function<AuditContext, MessagesExporter> messagesExporterFactory;
 
     @Inject
@@ -87,7 +87,8 @@ public class MessagesResource extends RestResource implements PluginRestResource
             PermittedStreams permittedStreams,
             ObjectMapper objectMapper,
             @SuppressWarnings("UnstableApiUsage") EventBus eventBus,
-            ExportJobService exportJobService) {
+            ExportJobService exportJobService,
+            ExportExecutor exportExecutor) {
         this.commandFactory = commandFactory;
         this.searchDomain = searchDomain;
         this.executionGuard = executionGuard;
@@ -95,6 +96,7 @@ public class MessagesResource extends RestResource implements PluginRestResource
         this.objectMapper = objectMapper;
         this.exportJobService = exportJobService;
         this.messagesExporterFactory = context -> new AuditingMessagesExporter(context, eventBus, exporter);
+        this.asyncRunner = call -> exportExecutor.runAsync(userName(), call);
     }
 
     @ApiOperation(
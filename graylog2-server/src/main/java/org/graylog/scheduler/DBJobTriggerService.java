@@ -27,6 +27,7 @@ import org.graylog2.bindings.providers.MongoJackObjectMapperProvider;
 import org.graylog2.database.MongoConnection;
 import org.graylog2.plugin.system.NodeId;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.mongojack.DBCursor;
 import org.mongojack.DBQuery;
 import org.mongojack.DBSort;
@@ -55,6 +56,7 @@ public class DBJobTriggerService {
     static final String FIELD_JOB_DEFINITION_ID = JobTriggerDto.FIELD_JOB_DEFINITION_ID;
     private static final String FIELD_LOCK_OWNER = JobTriggerDto.FIELD_LOCK + "." + JobTriggerLock.FIELD_OWNER;
     private static final String FIELD_LAST_LOCK_TIME = JobTriggerDto.FIELD_LOCK + "." + JobTriggerLock.FIELD_LAST_LOCK_TIME;
+    private static final String FIELD_LOCK_EXPIRES = JobTriggerDto.FIELD_LOCK + "." + JobTriggerLock.FIELD_EXPIRES;
     private static final String FIELD_NEXT_TIME = JobTriggerDto.FIELD_NEXT_TIME;
     private static final String FIELD_START_TIME = JobTriggerDto.FIELD_START_TIME;
     private static final String FIELD_END_TIME = JobTriggerDto.FIELD_END_TIME;
@@ -311,7 +313,9 @@ public class DBJobTriggerService {
         final DBUpdate.Builder lockUpdate = DBUpdate.set(FIELD_LOCK_OWNER, nodeId)
                 .set(FIELD_STATUS, JobTriggerStatus.RUNNING)
                 .set(FIELD_TRIGGERED_AT, Optional.of(now))
-                .set(FIELD_LAST_LOCK_TIME, now);
+                .set(FIELD_LAST_LOCK_TIME, now)
+                // This lock will not be renewed, so it must not be taken over by other nodes
+                .set(FIELD_LOCK_EXPIRES, false);
 
         // Atomically update, lock and return the next runnable trigger
         final JobTriggerDto trigger = db.findAndModify(
@@ -327,6 +331,100 @@ public class DBJobTriggerService {
         return Optional.ofNullable(trigger);
     }
 
+    /**
+     * Locks and returns up to {@code limit} runnable triggers, ordered by their next time. Triggers with a lock
+     * that has been locked by this method and not been renewed within the given expiration duration are considered
+     * abandoned and are locked as well. The caller needs to
+     * take care of releasing the trigger locks and of renewing them via {@link #renewLocks(Collection)} for
+     * long-running jobs.
+     * <p>
+     * This needs three round trips to the database independent of the number of locked triggers, compared to one
+     * per trigger when using {@link #nextRunnableTrigger()}.
+     *
+     * @param limit          maximum number of triggers to lock
+     * @param lockExpiration duration after which the lock of a running trigger expires
+     * @return the locked triggers, might be empty
+     */
+    public List<JobTriggerDto> nextRunnableTriggers(int limit, Duration lockExpiration) {
+        if (limit <= 0) {
+            return ImmutableList.of();
+        }
+        final DateTime now = clock.nowUTC();
+
+        final DBQuery.Query query = DBQuery.and(
+                DBQuery.or(
+                        // We cannot lock a trigger that is already locked by another node
+                        DBQuery.and(
+                                DBQuery.is(FIELD_LOCK_OWNER, null),
+                                DBQuery.is(FIELD_STATUS, JobTriggerStatus.RUNNABLE)
+                        ),
+                        // ... unless the lock hasn't been renewed in time because the owner is gone. Locks of
+                        // nodes which don't renew them (e.g. older nodes during a rolling upgrade) never expire.
+                        DBQuery.and(
+                                DBQuery.is(FIELD_STATUS, JobTriggerStatus.RUNNING),
+                                DBQuery.is(FIELD_LOCK_EXPIRES, true),
+                                DBQuery.lessThan(FIELD_LAST_LOCK_TIME, now.minus(lockExpiration))
+                        )
+                ),
+                DBQuery.lessThanEquals(FIELD_START_TIME, now),
+                DBQuery.or( // Skip triggers that have an endTime which is due
+                        DBQuery.notExists(FIELD_END_TIME),
+                        DBQuery.is(FIELD_END_TIME, null),
+                        DBQuery.greaterThan(FIELD_END_TIME, Optional.of(now))
+                ),
+                DBQuery.lessThanEquals(FIELD_NEXT_TIME, now)
+        );
+
+        final List<ObjectId> candidateIds;
+        try (DBCursor<JobTriggerDto> cursor = db.find(query).sort(DBSort.asc(FIELD_NEXT_TIME)).limit(limit)) {
+            candidateIds = StreamEx.of(cursor.iterator()).map(this::getId).toList();
+        }
+        if (candidateIds.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        // Other nodes might lock some of the candidates in the meantime, so we repeat the query conditions
+        final DBUpdate.Builder lockUpdate = DBUpdate.set(FIELD_LOCK_OWNER, nodeId)
+                .set(FIELD_STATUS, JobTriggerStatus.RUNNING)
+                .set(FIELD_TRIGGERED_AT, Optional.of(now))
+                .set(FIELD_LAST_LOCK_TIME, now)
+                .set(FIELD_LOCK_EXPIRES, true);
+        if (db.updateMulti(DBQuery.and(DBQuery.in(FIELD_ID, candidateIds), query), lockUpdate).getN() == 0) {
+            return ImmutableList.of();
+        }
+
+        // The lock time identifies the triggers which have been locked by this call
+        final DBQuery.Query lockedQuery = DBQuery.and(
+                DBQuery.in(FIELD_ID, candidateIds),
+                DBQuery.is(FIELD_LOCK_OWNER, nodeId),
+                DBQuery.is(FIELD_STATUS, JobTriggerStatus.RUNNING),
+                DBQuery.is(FIELD_LAST_LOCK_TIME, now)
+        );
+        try (DBCursor<JobTriggerDto> cursor = db.find(lockedQuery).sort(DBSort.asc(FIELD_NEXT_TIME))) {
+            return ImmutableList.copyOf((Iterable<JobTriggerDto>) cursor);
+        }
+    }
+
+    /**
+     * Renews the locks of the given triggers if they are still owned by the calling node.
+     *
+     * @param triggers the locked triggers
+     * @return number of renewed locks
+     */
+    public int renewLocks(Collection<JobTriggerDto> triggers) {
+        if (triggers.isEmpty()) {
+            return 0;
+        }
+        final List<ObjectId> ids = triggers.stream().map(this::getId).collect(Collectors.toList());
+        final DBQuery.Query query = DBQuery.and(
+                DBQuery.in(FIELD_ID, ids),
+                DBQuery.is(FIELD_LOCK_OWNER, nodeId),
+                DBQuery.is(FIELD_STATUS, JobTriggerStatus.RUNNING)
+        );
+
+        return db.updateMulti(query, DBUpdate.set(FIELD_LAST_LOCK_TIME, clock.nowUTC())).getN();
+    }
+
     /**
      * Releases a locked trigger. The trigger is only released if it's owned by the calling node.
      *
@@ -349,7 +447,8 @@ public class DBJobTriggerService {
                 //       That next status would need to be set on release.
                 DBQuery.is(FIELD_STATUS, JobTriggerStatus.RUNNING)
         );
-        final DBUpdate.Builder update = DBUpdate.set(FIELD_LOCK_OWNER, null);
+        final DBUpdate.Builder update = DBUpdate.set(FIELD_LOCK_OWNER, null)
+                .set(FIELD_LOCK_EXPIRES, false);
 
         // An empty next time indicates that this trigger should not be fired anymore. (e.g. for "once" schedules)
         if (triggerUpdate.nextTime().isPresent()) {
@@ -391,6 +490,7 @@ public class DBJobTriggerService {
                 DBQuery.is(FIELD_STATUS, JobTriggerStatus.RUNNING)
         );
         final DBUpdate.Builder update = DBUpdate.set(FIELD_LOCK_OWNER, null)
+                .set(FIELD_LOCK_EXPIRES, false)
                 .set(FIELD_STATUS, JobTriggerStatus.RUNNABLE);
 
         return db.updateMulti(query, update).getN();
@@ -411,6 +511,7 @@ public class DBJobTriggerService {
                 DBQuery.is(FIELD_ID, getId(trigger))
         );
         final DBUpdate.Builder update = DBUpdate.set(FIELD_LOCK_OWNER, null)
+                .set(FIELD_LOCK_EXPIRES, false)
                 .set(FIELD_STATUS, JobTriggerStatus.ERROR);
 
         return db.update(query, update).getN() > 0;
@@ -17,21 +17,33 @@
 package org.graylog.scheduler;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.collect.ImmutableList;
 import com.google.inject.assistedinject.Assisted;
 import org.graylog.scheduler.eventbus.JobCompletedEvent;
 import org.graylog.scheduler.eventbus.JobSchedulerEventBus;
 import org.graylog.scheduler.worker.JobWorkerPool;
+import org.graylog2.shared.metrics.MetricUtils;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The job execution engine checks runnable triggers and starts job execution in the given worker pool.
@@ -55,10 +67,20 @@ public class JobExecutionEngine {
     private Counter executionSuccessful;
     private Counter executionFailed;
     private Timer executionTime;
+    private final Timer triggerLag;
 
     private final AtomicBoolean isRunning = new AtomicBoolean(true);
     private final AtomicBoolean shouldCleanup = new AtomicBoolean(true);
 
+    private final org.joda.time.Duration lockExpiration;
+    // Locked triggers which haven't been handed to the worker pool yet, oldest next time first
+    private final PriorityBlockingQueue<JobTriggerDto> lockedTriggers =
+            new PriorityBlockingQueue<>(11, Comparator.comparing(JobTriggerDto::nextTime));
+    // Triggers which are currently executed by the worker pool, their locks have to be renewed
+    private final Set<JobTriggerDto> runningTriggers = ConcurrentHashMap.newKeySet();
+    private final AtomicLong lastLockRenewal = new AtomicLong(System.nanoTime());
+    private final AtomicLong lastTriggerLagMs = new AtomicLong(0L);
+
     @Inject
     public JobExecutionEngine(DBJobTriggerService jobTriggerService,
                               DBJobDefinitionService jobDefinitionService,
@@ -66,7 +88,8 @@ public class JobExecutionEngine {
                               JobScheduleStrategies scheduleStrategies,
                               JobTriggerUpdates.Factory jobTriggerUpdatesFactory,
                               Map<String, Job.Factory> jobFactory,
-                              @Assisted JobWorkerPool workerPool, MetricRegistry metricRegistry) {
+                              @Assisted JobWorkerPool workerPool, MetricRegistry metricRegistry,
+                              @Named(JobSchedulerConfiguration.LOCK_EXPIRATION_DURATION) Duration lockExpiration) {
         this.jobTriggerService = jobTriggerService;
         this.jobDefinitionService = jobDefinitionService;
         this.eventBus = eventBus;
@@ -77,6 +100,9 @@ public class JobExecutionEngine {
         this.executionSuccessful = metricRegistry.counter(MetricRegistry.name(getClass(), "executions", "successful"));
         this.executionFailed = metricRegistry.counter(MetricRegistry.name(getClass(), "executions", "failed"));
         this.executionTime = metricRegistry.timer(MetricRegistry.name(getClass(), "executions", "time"));
+        this.triggerLag = metricRegistry.timer(MetricRegistry.name(getClass(), "executions", "lag"));
+        this.lockExpiration = org.joda.time.Duration.millis(lockExpiration.toMilliseconds());
+        MetricUtils.safelyRegister(metricRegistry, MetricRegistry.name(getClass(), "executions", "last-lag-ms"), (Gauge<Long>) lastTriggerLagMs::get);
     }
 
     /**
@@ -84,6 +110,32 @@ public class JobExecutionEngine {
      */
     public void shutdown() {
         isRunning.set(false);
+        releaseLockedTriggers();
+    }
+
+    private void releaseLockedTriggers() {
+        final List<JobTriggerDto> triggers = new ArrayList<>();
+        lockedTriggers.drainTo(triggers);
+        // Release the triggers with the same nextTime so other nodes can pick them up
+        triggers.forEach(trigger -> jobTriggerService.releaseTrigger(trigger, JobTriggerUpdate.withNextTime(trigger.nextTime())));
+    }
+
+    private void renewLocks() {
+        final long now = System.nanoTime();
+        // Renew well before the locks expire so other nodes don't consider them abandoned
+        if (now - lastLockRenewal.get() < TimeUnit.MILLISECONDS.toNanos(lockExpiration.getMillis() / 3)) {
+            return;
+        }
+        lastLockRenewal.set(now);
+
+        final List<JobTriggerDto> triggers = ImmutableList.<JobTriggerDto>builder()
+                .addAll(runningTriggers)
+                .addAll(lockedTriggers)
+                .build();
+        if (!triggers.isEmpty()) {
+            final int renewed = jobTriggerService.renewLocks(triggers);
+            LOG.debug("Renewed {} of {} job trigger locks", renewed, triggers.size());
+        }
     }
 
     private void cleanup() {
@@ -109,26 +161,47 @@ public class JobExecutionEngine {
             cleanup();
         }
 
-        // We want to avoid a call to the database if there are no free slots in the pool or the engine is shutting down
-        if (isRunning.get() && workerPool.hasFreeSlots()) {
-            final Optional<JobTriggerDto> triggerOptional = jobTriggerService.nextRunnableTrigger();
+        renewLocks();
 
-            if (triggerOptional.isPresent()) {
-                final JobTriggerDto trigger = triggerOptional.get();
+        if (!isRunning.get()) {
+            releaseLockedTriggers();
+            return false;
+        }
 
-                if (!workerPool.execute(() -> handleTrigger(trigger))) {
-                    // The job couldn't be executed so we have to release the trigger again with the same nextTime
-                    jobTriggerService.releaseTrigger(trigger, JobTriggerUpdate.withNextTime(trigger.nextTime()));
-                    return false;
-                }
+        // We want to avoid a call to the database if there are no free slots in the pool or the engine is shutting down
+        if (workerPool.hasFreeSlots()) {
+            if (lockedTriggers.isEmpty()) {
+                // Only lock as many triggers as we can execute right away to not keep them from other nodes
+                lockedTriggers.addAll(jobTriggerService.nextRunnableTriggers(workerPool.freeSlots(), lockExpiration));
+            }
 
-                return true;
+            boolean executed = false;
+            JobTriggerDto trigger;
+            while (workerPool.hasFreeSlots() && (trigger = lockedTriggers.poll()) != null) {
+                final JobTriggerDto lockedTrigger = trigger;
+                runningTriggers.add(lockedTrigger);
+                if (!workerPool.execute(() -> handleTrigger(lockedTrigger))) {
+                    // The job couldn't be executed so we try again in the next iteration
+                    runningTriggers.remove(lockedTrigger);
+                    lockedTriggers.add(lockedTrigger);
+                    break;
+                }
+                recordLag(lockedTrigger);
+                executed = true;
             }
+
+            return executed;
         }
 
         return false;
     }
 
+    private void recordLag(JobTriggerDto trigger) {
+        final long lagMs = Math.max(0L, DateTime.now(DateTimeZone.UTC).getMillis() - trigger.nextTime().getMillis());
+        triggerLag.update(lagMs, TimeUnit.MILLISECONDS);
+        lastTriggerLagMs.set(lagMs);
+    }
+
     private void handleTrigger(JobTriggerDto trigger) {
         LOG.trace("Locked trigger {} (owner={})", trigger.id(), trigger.lock().owner());
 
@@ -153,6 +226,7 @@ public class JobExecutionEngine {
             LOG.error("Couldn't handle trigger {} - retrying at {}", trigger.id(), nextTime, e);
             jobTriggerService.releaseTrigger(trigger, JobTriggerUpdate.withNextTime(nextTime));
         } finally {
+            runningTriggers.remove(trigger);
             eventBus.post(JobCompletedEvent.INSTANCE);
         }
     }
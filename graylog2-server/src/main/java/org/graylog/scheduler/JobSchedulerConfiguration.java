@@ -27,11 +27,19 @@ import org.graylog2.plugin.PluginConfigBean;
 @SuppressWarnings({"FieldCanBeLocal", "unused", "WeakerAccess"})
 public class JobSchedulerConfiguration implements PluginConfigBean {
     public static final String LOOP_SLEEP_DURATION = "job_scheduler_loop_sleep_duration";
+    public static final String LOCK_EXPIRATION_DURATION = "job_scheduler_lock_expiration_duration";
 
     @Parameter(value = LOOP_SLEEP_DURATION, validators = PositiveDurationValidator.class)
     private Duration loopSleepDuration = Duration.seconds(1);
 
+    @Parameter(value = LOCK_EXPIRATION_DURATION, validators = PositiveDurationValidator.class)
+    private Duration lockExpirationDuration = Duration.minutes(5);
+
     public Duration getLoopSleepDuration() {
         return loopSleepDuration;
     }
+
+    public Duration getLockExpirationDuration() {
+        return lockExpirationDuration;
+    }
 }
@@ -33,6 +33,7 @@ public abstract class JobTriggerLock {
     static final String FIELD_LAST_LOCK_TIME = "last_lock_time";
     static final String FIELD_CLOCK = "clock";
     static final String FIELD_PROGRESS = "progress";
+    static final String FIELD_EXPIRES = "expires";
 
     @JsonProperty(FIELD_OWNER)
     @Nullable
@@ -48,6 +49,13 @@ public abstract class JobTriggerLock {
     @JsonProperty(FIELD_PROGRESS)
     public abstract int progress();
 
+    /**
+     * Only nodes which periodically renew their trigger locks set this. Locks of nodes which don't renew them
+     * (e.g. older nodes during a rolling upgrade) must never be considered expired.
+     */
+    @JsonProperty(FIELD_EXPIRES)
+    public abstract boolean expires();
+
     public static JobTriggerLock empty() {
         return builder().build();
     }
@@ -64,7 +72,8 @@ public abstract class JobTriggerLock {
         public static Builder create() {
             return new AutoValue_JobTriggerLock.Builder()
                     .clock(0L)
-                    .progress(0);
+                    .progress(0)
+                    .expires(false);
         }
 
         @JsonProperty(FIELD_OWNER)
@@ -79,6 +88,9 @@ public abstract class JobTriggerLock {
         @JsonProperty(FIELD_PROGRESS)
         public abstract Builder progress(int progress);
 
+        @JsonProperty(FIELD_EXPIRES)
+        public abstract Builder expires(boolean expires);
+
         public abstract JobTriggerLock build();
     }
 }
@@ -27,7 +27,10 @@ import com.github.joschi.jadconfig.validators.PositiveDurationValidator;
 import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
 import com.github.joschi.jadconfig.validators.PositiveLongValidator;
 import com.github.joschi.jadconfig.validators.StringNotBlankValidator;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.failure.FailureSubmissionOverflowPolicy;
 import org.graylog2.plugin.BaseConfiguration;
+import org.graylog2.plugin.GlobalMetricNames;
 import org.graylog2.security.realm.RootAccountRealm;
 import org.graylog2.utilities.IPSubnetConverter;
 import org.graylog2.utilities.IpSubnet;
@@ -36,7 +39,9 @@ import org.joda.time.DateTimeZone;
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Locale;
 import java.util.Set;
 
 /**
@@ -134,6 +139,18 @@ public class Configuration extends BaseConfiguration {
     @Parameter(value = "dashboard_widget_default_cache_time", validator = PositiveDurationValidator.class)
     private Duration dashboardWidgetDefaultCacheTime = Duration.seconds(10L);
 
+    @Parameter(value = "event_aggregation_search_batch_window")
+    private Duration eventAggregationSearchBatchWindow = Duration.milliseconds(0L);
+
+    @Parameter(value = "cluster_events_tailable_cursor")
+    private boolean clusterEventsTailableCursor = true;
+
+    @Parameter(value = "event_filter_streaming_evaluation")
+    private boolean eventFilterStreamingEvaluation = false;
+
+    @Parameter(value = "grok_pattern_profiling")
+    private boolean grokPatternProfiling = false;
+
     @Parameter(value = "user_password_default_algorithm")
     private String userPasswordDefaultAlgorithm = "bcrypt";
 
@@ -152,6 +169,9 @@ public class Configuration extends BaseConfiguration {
     @Parameter(value = "index_ranges_cleanup_interval", validator = PositiveDurationValidator.class)
     private Duration indexRangesCleanupInterval = Duration.hours(1L);
 
+    @Parameter(value = "index_ranges_rebuild_concurrency", validator = PositiveIntegerValidator.class)
+    private int indexRangesRebuildConcurrency = 4;
+
     @Parameter(value = "trusted_proxies", converter = IPSubnetConverter.class)
     private Set<IpSubnet> trustedProxies = Collections.emptySet();
 
@@ -165,9 +185,31 @@ public class Configuration extends BaseConfiguration {
     @Parameter(value = "failure_handling_queue_capacity", validators = {PositiveIntegerValidator.class})
     private int failureHandlingQueueCapacity = 1000;
 
+    @Parameter(value = "failure_handling_queue_overflow_policy", validators = {StringNotBlankValidator.class})
+    private String failureHandlingQueueOverflowPolicy = "block";
+
     @Parameter(value = "failure_handling_shutdown_await", validators = {PositiveDurationValidator.class})
     private Duration failureHandlingShutdownAwait = Duration.milliseconds(3000);
 
+    @Parameter(value = "metrics_history_enabled")
+    private boolean metricsHistoryEnabled = true;
+
+    @Parameter(value = "metrics_history_metrics", converter = TrimmedStringSetConverter.class)
+    private Set<String> metricsHistoryMetrics = ImmutableSet.of(
+            GlobalMetricNames.INPUT_THROUGHPUT,
+            GlobalMetricNames.OUTPUT_THROUGHPUT,
+            GlobalMetricNames.INPUT_BUFFER_USAGE,
+            GlobalMetricNames.PROCESS_BUFFER_USAGE,
+            GlobalMetricNames.OUTPUT_BUFFER_USAGE,
+            GlobalMetricNames.JOURNAL_SIZE,
+            GlobalMetricNames.JOURNAL_UNCOMMITTED_ENTRIES);
+
+    @Parameter(value = "metrics_history_retention", validators = {PositiveDurationValidator.class})
+    private Duration metricsHistoryRetention = Duration.days(7);
+
+    @Parameter(value = "input_throttling_update_interval", validators = {PositiveDurationValidator.class})
+    private Duration inputThrottlingUpdateInterval = Duration.milliseconds(100);
+
     @Parameter(value = "is_cloud")
     private boolean isCloud = false;
 
@@ -314,10 +356,30 @@ public class Configuration extends BaseConfiguration {
         return contentPacksAutoInstall;
     }
 
+    public Duration getEventAggregationSearchBatchWindow() {
+        return eventAggregationSearchBatchWindow;
+    }
+
+    public boolean isClusterEventsTailableCursor() {
+        return clusterEventsTailableCursor;
+    }
+
+    public boolean isEventFilterStreamingEvaluation() {
+        return eventFilterStreamingEvaluation;
+    }
+
+    public boolean isGrokPatternProfiling() {
+        return grokPatternProfiling;
+    }
+
     public Duration getIndexRangesCleanupInterval() {
         return indexRangesCleanupInterval;
     }
 
+    public int getIndexRangesRebuildConcurrency() {
+        return indexRangesRebuildConcurrency;
+    }
+
     public Set<IpSubnet> getTrustedProxies() {
         return trustedProxies;
     }
@@ -334,11 +396,31 @@ public class Configuration extends BaseConfiguration {
         return failureHandlingQueueCapacity;
     }
 
+    public FailureSubmissionOverflowPolicy getFailureHandlingQueueOverflowPolicy() {
+        return FailureSubmissionOverflowPolicy.valueOf(failureHandlingQueueOverflowPolicy.trim().toUpperCase(Locale.ROOT));
+    }
+
 
     public Duration getFailureHandlingShutdownAwait() {
         return failureHandlingShutdownAwait;
     }
 
+    public boolean isMetricsHistoryEnabled() {
+        return metricsHistoryEnabled;
+    }
+
+    public Set<String> getMetricsHistoryMetrics() {
+        return metricsHistoryMetrics;
+    }
+
+    public Duration getMetricsHistoryRetention() {
+        return metricsHistoryRetention;
+    }
+
+    public Duration getInputThrottlingUpdateInterval() {
+        return inputThrottlingUpdateInterval;
+    }
+
     /**
      * This is needed for backwards compatibility. The setting in TLSProtocolsConfiguration should be used instead.
      */
@@ -356,6 +438,17 @@ public class Configuration extends BaseConfiguration {
         }
     }
 
+    @ValidatorMethod
+    @SuppressWarnings("unused")
+    public void validateFailureHandlingQueueOverflowPolicy() throws ValidationException {
+        try {
+            getFailureHandlingQueueOverflowPolicy();
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Invalid value for \"failure_handling_queue_overflow_policy\": " + failureHandlingQueueOverflowPolicy +
+                    ". Valid values are " + Arrays.toString(FailureSubmissionOverflowPolicy.values()));
+        }
+    }
+
     @ValidatorMethod
     @SuppressWarnings("unused")
     public void validateRootUser() throws ValidationException {
@@ -19,6 +19,7 @@ package org.graylog2.bindings;
 import com.google.common.util.concurrent.Service;
 import com.google.inject.AbstractModule;
 import com.google.inject.multibindings.Multibinder;
+import org.graylog2.initializers.BufferCapacityPublisherService;
 import org.graylog2.initializers.BufferSynchronizerService;
 import org.graylog2.initializers.OutputSetupService;
 
@@ -28,5 +29,6 @@ public class InitializerBindings extends AbstractModule {
         Multibinder<Service> serviceBinder = Multibinder.newSetBinder(binder(), Service.class);
         serviceBinder.addBinding().to(BufferSynchronizerService.class);
         serviceBinder.addBinding().to(OutputSetupService.class);
+        serviceBinder.addBinding().to(BufferCapacityPublisherService.class);
     }
 }
@@ -21,19 +21,26 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.eventbus.DeadEvent;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
+import com.mongodb.Cursor;
+import com.mongodb.CursorType;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
+import com.mongodb.MongoCommandException;
 import com.mongodb.MongoException;
 import com.mongodb.WriteConcern;
+import org.bson.types.ObjectId;
 import org.graylog2.bindings.providers.MongoJackObjectMapperProvider;
 import org.graylog2.database.MongoConnection;
 import org.graylog2.plugin.periodical.Periodical;
 import org.graylog2.plugin.system.NodeId;
 import org.graylog2.shared.plugins.ChainingClassLoader;
 import org.graylog2.shared.utilities.AutoValueUtils;
+import org.graylog2.system.shutdown.GracefulShutdownHook;
+import org.graylog2.system.shutdown.GracefulShutdownService;
 import org.mongojack.DBCursor;
 import org.mongojack.DBSort;
 import org.mongojack.DBUpdate;
@@ -41,23 +48,45 @@ import org.mongojack.JacksonDBCollection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Named;
 
 import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-public class ClusterEventPeriodical extends Periodical {
+public class ClusterEventPeriodical extends Periodical implements GracefulShutdownHook {
     private static final Logger LOG = LoggerFactory.getLogger(ClusterEventPeriodical.class);
 
     @VisibleForTesting
     static final String COLLECTION_NAME = "cluster_events";
 
+    @VisibleForTesting
+    static final String SIGNAL_COLLECTION_NAME = "cluster_events_signals";
+    private static final long SIGNAL_COLLECTION_SIZE_BYTES = 1024 * 1024;
+    private static final int SIGNAL_COLLECTION_MAX_DOCUMENTS = 1000;
+
+    // While the signal collection is being tailed, we only poll for missed events in this interval
+    @VisibleForTesting
+    static final long FALLBACK_POLL_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10L);
+
     private final JacksonDBCollection<ClusterEvent, String> dbCollection;
+    @Nullable
+    private final DBCollection signalCollection;
     private final NodeId nodeId;
     private final ObjectMapper objectMapper;
     private final EventBus serverEventBus;
     private final ChainingClassLoader chainingClassLoader;
+    private final GracefulShutdownService gracefulShutdownService;
+
+    @VisibleForTesting
+    Thread tailerThread;
+    @Nullable
+    private volatile Cursor tailCursor;
+    private volatile boolean tailing = false;
+    private volatile long lastPollNanos = 0L;
 
     @Inject
     public ClusterEventPeriodical(final MongoJackObjectMapperProvider mapperProvider,
@@ -65,22 +94,29 @@ public class ClusterEventPeriodical extends Periodical {
                                   final NodeId nodeId,
                                   final ChainingClassLoader chainingClassLoader,
                                   final EventBus serverEventBus,
-                                  final ClusterEventBus clusterEventBus) {
+                                  final ClusterEventBus clusterEventBus,
+                                  final GracefulShutdownService gracefulShutdownService,
+                                  @Named("cluster_events_tailable_cursor") final boolean tailableCursor) {
         this(JacksonDBCollection.wrap(prepareCollection(mongoConnection), ClusterEvent.class, String.class, mapperProvider.get()),
-                nodeId, mapperProvider.get(), chainingClassLoader, serverEventBus, clusterEventBus);
+                tailableCursor ? prepareSignalCollection(mongoConnection) : null,
+                nodeId, mapperProvider.get(), chainingClassLoader, serverEventBus, clusterEventBus, gracefulShutdownService);
     }
 
     private ClusterEventPeriodical(final JacksonDBCollection<ClusterEvent, String> dbCollection,
+                           @Nullable final DBCollection signalCollection,
                            final NodeId nodeId,
                            final ObjectMapper objectMapper,
                            final ChainingClassLoader chainingClassLoader,
                            final EventBus serverEventBus,
-                           final ClusterEventBus clusterEventBus) {
+                           final ClusterEventBus clusterEventBus,
+                           final GracefulShutdownService gracefulShutdownService) {
         this.nodeId = checkNotNull(nodeId);
         this.dbCollection = checkNotNull(dbCollection);
+        this.signalCollection = signalCollection;
         this.objectMapper = checkNotNull(objectMapper);
         this.chainingClassLoader = chainingClassLoader;
         this.serverEventBus = checkNotNull(serverEventBus);
+        this.gracefulShutdownService = checkNotNull(gracefulShutdownService);
 
         checkNotNull(clusterEventBus).registerClusterEventSubscriber(this);
     }
@@ -101,6 +137,66 @@ public class ClusterEventPeriodical extends Periodical {
         return coll;
     }
 
+    /**
+     * Prepares the capped collection which is used to notify other nodes about new cluster events.
+     *
+     * @return the signal collection, or {@code null} if it exists but isn't capped and can't be tailed
+     */
+    @VisibleForTesting
+    @Nullable
+    static DBCollection prepareSignalCollection(final MongoConnection mongoConnection) {
+        final DB db = mongoConnection.getDatabase();
+
+        if (!db.collectionExists(SIGNAL_COLLECTION_NAME)) {
+            try {
+                db.createCollection(SIGNAL_COLLECTION_NAME, new BasicDBObject("capped", true)
+                        .append("size", SIGNAL_COLLECTION_SIZE_BYTES)
+                        .append("max", SIGNAL_COLLECTION_MAX_DOCUMENTS));
+            } catch (MongoCommandException e) {
+                // Another node might have created the collection in the meantime
+                LOG.debug("Couldn't create collection \"{}\"", SIGNAL_COLLECTION_NAME, e);
+            }
+        }
+
+        final DBCollection coll = db.getCollection(SIGNAL_COLLECTION_NAME);
+        if (!coll.isCapped()) {
+            LOG.warn("Collection \"{}\" isn't capped, falling back to polling for cluster events", SIGNAL_COLLECTION_NAME);
+            return null;
+        }
+        // A tailable cursor on an empty capped collection is closed immediately, so make sure there's a document
+        if (coll.count() == 0) {
+            coll.insert(new BasicDBObject("producer", "").append("timestamp", System.currentTimeMillis()));
+        }
+
+        return coll;
+    }
+
+    @Override
+    public void initialize() {
+        if (signalCollection != null) {
+            tailerThread = new ThreadFactoryBuilder()
+                    .setNameFormat("cluster-event-tailer-%d")
+                    .setDaemon(true)
+                    .build()
+                    .newThread(this::tailSignals);
+            tailerThread.start();
+            gracefulShutdownService.register(this);
+        }
+    }
+
+    @Override
+    public void doGracefulShutdown() throws Exception {
+        if (tailerThread == null) {
+            return;
+        }
+        tailerThread.interrupt();
+        // Tailable cursors block in the MongoDB driver, which doesn't react to interrupts
+        final Cursor cursor = tailCursor;
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
+
     @Override
     public boolean runsForever() {
         return false;
@@ -143,6 +239,63 @@ public class ClusterEventPeriodical extends Periodical {
 
     @Override
     public void doRun() {
+        // New events are processed as soon as they are signalled, so we only have to look for missed events
+        if (tailing && System.nanoTime() - lastPollNanos < FALLBACK_POLL_INTERVAL_NANOS) {
+            return;
+        }
+        processEvents();
+    }
+
+    private void tailSignals() {
+        ObjectId lastSignalId = null;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (lastSignalId == null) {
+                    final DBObject lastSignal = signalCollection.findOne(new BasicDBObject(), null, new BasicDBObject("$natural", -1));
+                    lastSignalId = lastSignal == null ? null : (ObjectId) lastSignal.get("_id");
+                }
+                final DBObject query = lastSignalId == null ? new BasicDBObject() : new BasicDBObject("_id", new BasicDBObject("$gt", lastSignalId));
+                try (Cursor cursor = signalCollection.find(query).cursorType(CursorType.TailableAwait)) {
+                    tailCursor = cursor;
+                    if (Thread.currentThread().isInterrupted()) {
+                        // Shutdown might have happened before the cursor was published
+                        break;
+                    }
+                    tailing = true;
+                    // Catch up with events which might have been published before the cursor was opened
+                    processEvents();
+                    while (cursor.hasNext()) {
+                        final DBObject signal = cursor.next();
+                        lastSignalId = (ObjectId) signal.get("_id");
+                        // Locally published events have already been posted to the event bus
+                        if (!nodeId.toString().equals(signal.get("producer"))) {
+                            LOG.trace("Received cluster event signal: {}", signal);
+                            processEvents();
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                LOG.debug("Error while tailing \"{}\", falling back to polling.", SIGNAL_COLLECTION_NAME, e);
+            } finally {
+                tailCursor = null;
+                tailing = false;
+            }
+            // The cursor has been closed, e. g. because the collection got dropped or the connection got lost
+            try {
+                TimeUnit.SECONDS.sleep(1L);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        LOG.debug("Stopped tailing \"{}\"", SIGNAL_COLLECTION_NAME);
+    }
+
+    @VisibleForTesting
+    synchronized void processEvents() {
+        lastPollNanos = System.nanoTime();
         LOG.debug("Opening MongoDB cursor on \"{}\"", COLLECTION_NAME);
         try (DBCursor<ClusterEvent> cursor = eventCursor(nodeId)) {
             if (LOG.isTraceEnabled()) {
@@ -185,11 +338,26 @@ public class ClusterEventPeriodical extends Periodical {
             // by the db cursor again, avoiding double processing of the event. See #11263 for details.
             serverEventBus.post(event);
             LOG.debug("Published cluster event with ID <{}> and type <{}>", id, className);
+            signal(id);
         } catch (MongoException e) {
             LOG.error("Couldn't publish cluster event of type <" + className + ">", e);
         }
     }
 
+    private void signal(String eventId) {
+        if (signalCollection == null) {
+            return;
+        }
+        try {
+            signalCollection.insert(new BasicDBObject("producer", nodeId.toString())
+                    .append("event_id", eventId)
+                    .append("timestamp", System.currentTimeMillis()));
+        } catch (MongoException e) {
+            // Other nodes will still pick up the event when polling
+            LOG.debug("Couldn't signal cluster event with ID <{}>", eventId, e);
+        }
+    }
+
     private DBCursor<ClusterEvent> eventCursor(NodeId nodeId) {
         // Resorting to ugly MongoDB Java Client because of https://github.com/devbliss/mongojack/issues/88
         final BasicDBList consumersList = new BasicDBList();
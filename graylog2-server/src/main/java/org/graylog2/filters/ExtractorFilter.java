@@ -74,9 +74,10 @@ public class ExtractorFilter implements MessageFilter {
             return false;
         }
 
+        final Extractor.ConditionResults conditionResults = new Extractor.ConditionResults();
         for (final Extractor extractor : extractors.getOrDefault(msg.getSourceInputId(), Collections.emptyList())) {
             try {
-                extractor.runExtractor(msg);
+                extractor.runExtractor(msg, conditionResults);
             } catch (Exception e) {
                 extractor.incrementExceptions();
                 final String error = "Could not apply extractor <" + extractor.getTitle() + "(" + extractor.getId() + ")>";
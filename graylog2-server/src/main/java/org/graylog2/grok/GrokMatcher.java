@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.grok;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.hash.Hashing;
+import io.krakens.grok.api.Grok;
+import io.krakens.grok.api.Match;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Matches a compiled {@link Grok} pattern and optionally profiles the matches.
+ * <p>
+ * Besides the match time, the number of characters read by the regular expression engine per input character is
+ * recorded. A linear pattern reads every input character only a few times, a high ratio is a sign of excessive
+ * backtracking. Patterns can be built at runtime and contain arbitrary characters, so the metrics are named by a hash
+ * of the pattern. They have to be {@link #removeMetrics() removed} once the matcher isn't used anymore.
+ */
+public class GrokMatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(GrokMatcher.class);
+    static final int BACKTRACKING_WARN_RATIO = 1000;
+
+    private final String pattern;
+    private final String patternId;
+    private final String metricsPrefix;
+    private final Grok grok;
+    private final MetricRegistry metricRegistry;
+    @Nullable
+    private final Timer matchTimer;
+    @Nullable
+    private final Histogram readsPerChar;
+    private final AtomicBoolean backtrackingReported = new AtomicBoolean(false);
+
+    public GrokMatcher(String pattern, Grok grok, boolean namedCapturesOnly, MetricRegistry metricRegistry, boolean profiling) {
+        this.pattern = pattern;
+        this.patternId = patternId(pattern);
+        this.metricsPrefix = name(GrokMatcher.class, namedCapturesOnly ? "named-captures" : "all-captures", patternId);
+        this.grok = grok;
+        this.metricRegistry = metricRegistry;
+
+        if (profiling) {
+            LOG.debug("Recording metrics of Grok pattern <{}> as {}", pattern, metricsPrefix);
+            this.matchTimer = metricRegistry.timer(name(metricsPrefix, "matchTime"));
+            this.readsPerChar = metricRegistry.histogram(name(metricsPrefix, "readsPerChar"));
+        } else {
+            this.matchTimer = null;
+            this.readsPerChar = null;
+        }
+    }
+
+    static String patternId(String pattern) {
+        return Hashing.murmur3_128().hashString(pattern, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * @return the common prefix of the metric names, matchers of the same pattern share their metrics
+     */
+    public String metricsPrefix() {
+        return metricsPrefix;
+    }
+
+    public Grok grok() {
+        return grok;
+    }
+
+    public Match match(String value) {
+        if (matchTimer == null || readsPerChar == null) {
+            return grok.match(value);
+        }
+
+        final CountingCharSequence text = new CountingCharSequence(value);
+        final Match match;
+        try (final Timer.Context ignored = matchTimer.time()) {
+            match = grok.match(text);
+        }
+
+        final long ratio = text.reads() / Math.max(1, value.length());
+        readsPerChar.update(ratio);
+        if (ratio >= BACKTRACKING_WARN_RATIO && backtrackingReported.compareAndSet(false, true)) {
+            LOG.warn("Grok pattern <{}> ({}) read the input {} times per character, the pattern is probably backtracking excessively.",
+                    pattern, patternId, ratio);
+        }
+
+        return match;
+    }
+
+    /**
+     * Removes the metrics of this matcher from the metric registry.
+     */
+    public void removeMetrics() {
+        if (matchTimer != null || readsPerChar != null) {
+            metricRegistry.removeMatching((name, metric) -> metric == matchTimer || metric == readsPerChar);
+        }
+    }
+
+    /**
+     * Counts the character reads of the regular expression engine. Not thread-safe, a new instance has to be used for
+     * every match.
+     */
+    private static class CountingCharSequence implements CharSequence {
+        private final String value;
+        private long reads = 0L;
+
+        private CountingCharSequence(String value) {
+            this.value = value;
+        }
+
+        long reads() {
+            return reads;
+        }
+
+        @Override
+        public int length() {
+            return value.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            reads++;
+            return value.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return value.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+}
@@ -16,10 +16,14 @@
  */
 package org.graylog2.grok;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.UncheckedExecutionException;
@@ -33,6 +37,8 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
@@ -48,21 +54,31 @@ public class GrokPatternRegistry {
     private final GrokPatternService grokPatternService;
 
     private final AtomicReference<Set<GrokPattern>> patterns = new AtomicReference<>(Collections.emptySet());
-    private final LoadingCache<String, Grok> grokCache;
-    private final LoadingCache<String, Grok> grokCacheNamedOnly;
+    private final MetricRegistry metricRegistry;
+    private final boolean profiling;
+    // Number of cached matchers by metrics prefix, a matcher can be loaded before the one it replaces has been removed
+    private final Map<String, Integer> metricReferences = new HashMap<>();
+    private final LoadingCache<String, GrokMatcher> grokCache;
+    private final LoadingCache<String, GrokMatcher> grokCacheNamedOnly;
 
     @Inject
     public GrokPatternRegistry(EventBus serverEventBus,
                                GrokPatternService grokPatternService,
+                               MetricRegistry metricRegistry,
+                               @Named("grok_pattern_profiling") boolean profiling,
                                @Named("daemonScheduler") ScheduledExecutorService daemonExecutor) {
         this.grokPatternService = grokPatternService;
+        this.metricRegistry = metricRegistry;
+        this.profiling = profiling;
 
         grokCache = CacheBuilder.newBuilder()
                 .expireAfterAccess(1, TimeUnit.MINUTES) // prevent from hanging on to memory forever
+                .removalListener((RemovalListener<String, GrokMatcher>) this::removeMetrics)
                 .build(asyncReloading(new GrokReloader(false), daemonExecutor));
 
         grokCacheNamedOnly = CacheBuilder.newBuilder()
                 .expireAfterAccess(1, TimeUnit.MINUTES) // prevent from hanging on to memory forever
+                .removalListener((RemovalListener<String, GrokMatcher>) this::removeMetrics)
                 .build(asyncReloading(new GrokReloader(true), daemonExecutor));
 
         // trigger initial loading
@@ -92,6 +108,14 @@ public class GrokPatternRegistry {
     }
 
     public Grok cachedGrokForPattern(String pattern, boolean namedCapturesOnly) {
+        return cachedMatcherForPattern(pattern, namedCapturesOnly).grok();
+    }
+
+    /**
+     * Returns a matcher for the given pattern which records the match time and backtracking of every match if
+     * profiling is enabled.
+     */
+    public GrokMatcher cachedMatcherForPattern(String pattern, boolean namedCapturesOnly) {
         try {
             if (namedCapturesOnly) {
                 return grokCacheNamedOnly.get(pattern);
@@ -105,6 +129,35 @@ public class GrokPatternRegistry {
         }
     }
 
+    @VisibleForTesting
+    GrokMatcher createMatcher(String pattern, Grok grok, boolean namedCapturesOnly) {
+        if (!profiling) {
+            return new GrokMatcher(pattern, grok, namedCapturesOnly, metricRegistry, false);
+        }
+        // Registering the metrics and counting the reference has to be atomic, see removeMetrics()
+        synchronized (metricReferences) {
+            final GrokMatcher grokMatcher = new GrokMatcher(pattern, grok, namedCapturesOnly, metricRegistry, true);
+            metricReferences.merge(grokMatcher.metricsPrefix(), 1, Integer::sum);
+            return grokMatcher;
+        }
+    }
+
+    private void removeMetrics(RemovalNotification<String, GrokMatcher> notification) {
+        // Patterns can be built at runtime, so the metrics of expired matchers have to be removed. A matcher which
+        // has been loaded concurrently for the same pattern uses the same metric instances, they have to be kept then.
+        final GrokMatcher grokMatcher = notification.getValue();
+        if (grokMatcher == null || !profiling) {
+            return;
+        }
+        synchronized (metricReferences) {
+            final Integer references = metricReferences.computeIfPresent(grokMatcher.metricsPrefix(),
+                    (prefix, count) -> count > 1 ? count - 1 : null);
+            if (references == null) {
+                grokMatcher.removeMetrics();
+            }
+        }
+    }
+
     private void reload() {
         final Set<GrokPattern> grokPatterns = grokPatternService.loadAll();
         patterns.set(grokPatterns);
@@ -116,7 +169,7 @@ public class GrokPatternRegistry {
         return patterns.get();
     }
 
-    private class GrokReloader extends CacheLoader<String, Grok> {
+    private class GrokReloader extends CacheLoader<String, GrokMatcher> {
         private final boolean namedCapturesOnly;
 
         GrokReloader(boolean namedCapturesOnly) {
@@ -124,12 +177,13 @@ public class GrokPatternRegistry {
         }
 
         @Override
-        public Grok load(@Nonnull String pattern) throws Exception {
+        public GrokMatcher load(@Nonnull String pattern) throws Exception {
             final GrokCompiler grokCompiler = GrokCompiler.newInstance();
             for (GrokPattern grokPattern : patterns()) {
                 grokCompiler.register(grokPattern.name(), grokPattern.pattern());
             }
-            return grokCompiler.compile(pattern, namedCapturesOnly);
+            final Grok grok = grokCompiler.compile(pattern, namedCapturesOnly);
+            return createMatcher(pattern, grok, namedCapturesOnly);
         }
     }
 }
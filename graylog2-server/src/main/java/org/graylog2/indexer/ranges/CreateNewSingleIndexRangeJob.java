@@ -16,14 +16,17 @@
  */
 package org.graylog2.indexer.ranges;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
 import org.graylog2.indexer.IndexSet;
 import org.graylog2.indexer.indices.Indices;
+import org.graylog2.plugin.cluster.ClusterConfigService;
 import org.graylog2.shared.system.activities.ActivityWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.inject.Named;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -42,8 +45,11 @@ public class CreateNewSingleIndexRangeJob extends RebuildIndexRangesJob {
                                         @Assisted String indexName,
                                         ActivityWriter activityWriter,
                                         Indices indices,
-                                        IndexRangeService indexRangeService) {
-        super(indexSets, activityWriter, indexRangeService);
+                                        IndexRangeService indexRangeService,
+                                        ClusterConfigService clusterConfigService,
+                                        MetricRegistry metricRegistry,
+                                        @Named("index_ranges_rebuild_concurrency") int concurrency) {
+        super(indexSets, activityWriter, indexRangeService, clusterConfigService, metricRegistry, concurrency);
         this.indexName = checkNotNull(indexName);
         this.indices = indices;
     }
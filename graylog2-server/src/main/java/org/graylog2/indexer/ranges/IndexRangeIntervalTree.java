@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.ranges;
+
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.SortedSet;
+
+/**
+ * Immutable interval tree over {@link IndexRange index ranges}, used to answer time range queries without a
+ * database round trip.
+ * <p>
+ * The ranges are stored in an array sorted by their begin timestamp which is treated as an implicit balanced binary
+ * search tree. Every node keeps the maximum end timestamp of its subtree, so queries only visit subtrees which can
+ * contain overlapping ranges.
+ */
+class IndexRangeIntervalTree {
+    private final IndexRange[] ranges;
+    private final long[] begins;
+    private final long[] ends;
+    private final long[] maxEnds;
+    private final long createdAt;
+
+    IndexRangeIntervalTree(Collection<? extends IndexRange> indexRanges, long createdAt) {
+        this.ranges = indexRanges.stream()
+                .sorted(Comparator.comparingLong(indexRange -> indexRange.begin().getMillis()))
+                .toArray(IndexRange[]::new);
+        this.begins = Arrays.stream(ranges).mapToLong(indexRange -> indexRange.begin().getMillis()).toArray();
+        this.ends = Arrays.stream(ranges).mapToLong(indexRange -> indexRange.end().getMillis()).toArray();
+        this.maxEnds = new long[ranges.length];
+        this.createdAt = createdAt;
+
+        buildMaxEnds(0, ranges.length - 1);
+    }
+
+    private long buildMaxEnds(int low, int high) {
+        if (low > high) {
+            return Long.MIN_VALUE;
+        }
+        final int mid = (low + high) >>> 1;
+        final long maxEnd = Math.max(ends[mid], Math.max(buildMaxEnds(low, mid - 1), buildMaxEnds(mid + 1, high)));
+        maxEnds[mid] = maxEnd;
+        return maxEnd;
+    }
+
+    /**
+     * Returns all index ranges with {@code begin <= end} and {@code end >= begin}.
+     */
+    SortedSet<IndexRange> find(long begin, long end) {
+        final ImmutableSortedSet.Builder<IndexRange> result = ImmutableSortedSet.orderedBy(IndexRange.COMPARATOR);
+        find(begin, end, 0, ranges.length - 1, result);
+        return result.build();
+    }
+
+    /**
+     * Like {@link #find(long, long)} but also includes the ranges which contain the given additional timestamp.
+     */
+    SortedSet<IndexRange> find(long begin, long end, long additionalTimestamp) {
+        final ImmutableSortedSet.Builder<IndexRange> result = ImmutableSortedSet.orderedBy(IndexRange.COMPARATOR);
+        find(begin, end, 0, ranges.length - 1, result);
+        find(additionalTimestamp, additionalTimestamp, 0, ranges.length - 1, result);
+        return result.build();
+    }
+
+    private void find(long begin, long end, int low, int high, ImmutableSortedSet.Builder<IndexRange> result) {
+        if (low > high) {
+            return;
+        }
+        final int mid = (low + high) >>> 1;
+        if (maxEnds[mid] < begin) {
+            // Nothing in this subtree ends after the requested begin
+            return;
+        }
+        find(begin, end, low, mid - 1, result);
+        if (begins[mid] <= end) {
+            if (ends[mid] >= begin) {
+                result.add(ranges[mid]);
+            }
+            // The right subtree only contains ranges which begin after this one
+            find(begin, end, mid + 1, high, result);
+        }
+    }
+
+    int size() {
+        return ranges.length;
+    }
+
+    long createdAt() {
+        return createdAt;
+    }
+}
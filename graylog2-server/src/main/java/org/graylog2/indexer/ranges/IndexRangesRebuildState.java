@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.ranges;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.autovalue.WithBeanGetter;
+import org.joda.time.DateTime;
+
+import javax.annotation.Nullable;
+import java.util.Set;
+
+/**
+ * Progress of the last index range rebuild of an index set, used to resume a rebuild which has been cancelled,
+ * interrupted or couldn't calculate the ranges of all indices.
+ */
+@AutoValue
+@WithBeanGetter
+@JsonAutoDetect
+public abstract class IndexRangesRebuildState {
+    @JsonProperty("index_set_id")
+    public abstract String indexSetId();
+
+    @JsonProperty("started_at")
+    public abstract DateTime startedAt();
+
+    @JsonProperty("completed_at")
+    @Nullable
+    public abstract DateTime completedAt();
+
+    @JsonProperty("failed_indices")
+    public abstract Set<String> failedIndices();
+
+    @JsonIgnore
+    public boolean isCompleted() {
+        return completedAt() != null;
+    }
+
+    /**
+     * Completes the rebuild if the ranges of all indices have been calculated. Otherwise the rebuild stays
+     * incomplete, so the next rebuild resumes it and retries the failed indices.
+     */
+    public IndexRangesRebuildState finish(Set<String> failedIndices, DateTime finishedAt) {
+        return create(indexSetId(), startedAt(), failedIndices.isEmpty() ? finishedAt : null, failedIndices);
+    }
+
+    /**
+     * The cluster config key of the rebuild state of the given index set. Each index set has its own state, so
+     * rebuilds of different index sets don't overwrite each other's progress.
+     */
+    public static String key(String indexSetId) {
+        return IndexRangesRebuildState.class.getCanonicalName() + "." + indexSetId;
+    }
+
+    public static IndexRangesRebuildState start(String indexSetId, DateTime startedAt) {
+        return create(indexSetId, startedAt, null, ImmutableSet.of());
+    }
+
+    @JsonCreator
+    public static IndexRangesRebuildState create(@JsonProperty("index_set_id") String indexSetId,
+                                                 @JsonProperty("started_at") DateTime startedAt,
+                                                 @JsonProperty("completed_at") @Nullable DateTime completedAt,
+                                                 @JsonProperty("failed_indices") @Nullable Set<String> failedIndices) {
+        return new AutoValue_IndexRangesRebuildState(indexSetId, startedAt, completedAt,
+                failedIndices == null ? ImmutableSet.of() : ImmutableSet.copyOf(failedIndices));
+    }
+}
@@ -31,11 +31,13 @@ import org.graylog2.audit.AuditEventSender;
 import org.graylog2.bindings.providers.MongoJackObjectMapperProvider;
 import org.graylog2.database.MongoConnection;
 import org.graylog2.database.NotFoundException;
+import org.graylog2.events.ClusterEventBus;
 import org.graylog2.indexer.IndexSetRegistry;
 import org.graylog2.indexer.indices.Indices;
 import org.graylog2.indexer.indices.events.IndicesClosedEvent;
 import org.graylog2.indexer.indices.events.IndicesDeletedEvent;
 import org.graylog2.indexer.indices.events.IndicesReopenedEvent;
+import org.graylog2.indexer.ranges.events.IndexRangesUpdatedEvent;
 import org.graylog2.indexer.searches.IndexRangeStats;
 import org.graylog2.plugin.system.NodeId;
 import org.joda.time.DateTime;
@@ -51,6 +53,7 @@ import javax.inject.Inject;
 import java.util.Iterator;
 import java.util.SortedSet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.graylog2.audit.AuditEventTypes.ES_INDEX_RANGE_CREATE;
 import static org.graylog2.audit.AuditEventTypes.ES_INDEX_RANGE_DELETE;
@@ -59,12 +62,19 @@ import static org.graylog2.indexer.indices.Indices.checkIfHealthy;
 public class MongoIndexRangeService implements IndexRangeService {
     private static final Logger LOG = LoggerFactory.getLogger(MongoIndexRangeService.class);
     private static final String COLLECTION_NAME = "index_ranges";
+    // Upper bound for the age of the in-memory index ranges, in case an update event got lost
+    private static final long MAX_INTERVAL_TREE_AGE_MILLIS = TimeUnit.MINUTES.toMillis(1L);
 
     private final Indices indices;
     private final IndexSetRegistry indexSetRegistry;
     private final AuditEventSender auditEventSender;
     private final NodeId nodeId;
     private final JacksonDBCollection<MongoIndexRange, ObjectId> collection;
+    private final ClusterEventBus clusterEventBus;
+
+    // In-memory copy of all index ranges, answering find() without a database round trip. Reloaded on demand.
+    private volatile IndexRangeIntervalTree intervalTree;
+    private final AtomicLong intervalTreeGeneration = new AtomicLong();
 
     @Inject
     public MongoIndexRangeService(MongoConnection mongoConnection,
@@ -73,8 +83,10 @@ public class MongoIndexRangeService implements IndexRangeService {
                                   IndexSetRegistry indexSetRegistry,
                                   AuditEventSender auditEventSender,
                                   NodeId nodeId,
-                                  EventBus eventBus) {
+                                  EventBus eventBus,
+                                  ClusterEventBus clusterEventBus) {
         this.indices = indices;
+        this.clusterEventBus = clusterEventBus;
         this.indexSetRegistry = indexSetRegistry;
         this.auditEventSender = auditEventSender;
         this.nodeId = nodeId;
@@ -108,24 +120,37 @@ public class MongoIndexRangeService implements IndexRangeService {
 
     @Override
     public SortedSet<IndexRange> find(DateTime begin, DateTime end) {
-        final DBQuery.Query query = DBQuery.or(
-                DBQuery.and(
-                        DBQuery.notExists("start"),  // "start" has been used by the old index ranges in MongoDB
-                        DBQuery.lessThanEquals(IndexRange.FIELD_BEGIN, end.getMillis()),
-                        DBQuery.greaterThanEquals(IndexRange.FIELD_END, begin.getMillis())
-                ),
-                DBQuery.and(
-                        DBQuery.notExists("start"),  // "start" has been used by the old index ranges in MongoDB
-                        DBQuery.lessThanEquals(IndexRange.FIELD_BEGIN, 0L),
-                        DBQuery.greaterThanEquals(IndexRange.FIELD_END, 0L)
-                )
-        );
-
-        try (DBCursor<MongoIndexRange> indexRanges = collection.find(query)) {
-            return ImmutableSortedSet.copyOf(IndexRange.COMPARATOR, (Iterator<? extends IndexRange>) indexRanges);
+        // Index ranges with begin and end set to 0 are still being calculated and have to be included
+        return intervalTree().find(begin.getMillis(), end.getMillis(), 0L);
+    }
+
+    private IndexRangeIntervalTree intervalTree() {
+        final IndexRangeIntervalTree tree = intervalTree;
+        if (tree != null && System.currentTimeMillis() - tree.createdAt() < MAX_INTERVAL_TREE_AGE_MILLIS) {
+            return tree;
+        }
+        synchronized (intervalTreeGeneration) {
+            final IndexRangeIntervalTree currentTree = intervalTree;
+            if (currentTree != null && currentTree != tree) {
+                // Another thread reloaded the index ranges in the meantime
+                return currentTree;
+            }
+            final long generation = intervalTreeGeneration.get();
+            final IndexRangeIntervalTree newTree = new IndexRangeIntervalTree(findAll(), System.currentTimeMillis());
+            // Don't publish the new tree if the index ranges changed while loading them
+            if (intervalTreeGeneration.get() == generation) {
+                intervalTree = newTree;
+            }
+            LOG.debug("Loaded {} index ranges into memory.", newTree.size());
+            return newTree;
         }
     }
 
+    private void invalidateIntervalTree() {
+        intervalTreeGeneration.incrementAndGet();
+        intervalTree = null;
+    }
+
     @Override
     public SortedSet<IndexRange> findAll() {
         try (DBCursor<MongoIndexRange> cursor = collection.find(DBQuery.notExists("start"))) {
@@ -156,15 +181,32 @@ public class MongoIndexRangeService implements IndexRangeService {
 
     @Override
     public WriteResult<MongoIndexRange, ObjectId> save(IndexRange indexRange) {
-        remove(indexRange.indexName());
+        collection.remove(DBQuery.in(IndexRange.FIELD_INDEX_NAME, indexRange.indexName()));
         final WriteResult<MongoIndexRange, ObjectId> save = collection.save(MongoIndexRange.create(indexRange));
+        indexRangesUpdated(indexRange.indexName());
         return save;
     }
 
     @Override
     public boolean remove(String index) {
         final WriteResult<MongoIndexRange, ObjectId> remove = collection.remove(DBQuery.in(IndexRange.FIELD_INDEX_NAME, index));
-        return remove.getN() > 0;
+        final boolean removed = remove.getN() > 0;
+        if (removed) {
+            indexRangesUpdated(index);
+        }
+        return removed;
+    }
+
+    private void indexRangesUpdated(String index) {
+        invalidateIntervalTree();
+        clusterEventBus.post(IndexRangesUpdatedEvent.create(index));
+    }
+
+    @Subscribe
+    @AllowConcurrentEvents
+    public void handleIndexRangesUpdated(IndexRangesUpdatedEvent event) {
+        LOG.debug("Index ranges of {} have been updated. Reloading index ranges.", event.indexNames());
+        invalidateIntervalTree();
     }
 
     @Subscribe
@@ -16,23 +16,44 @@
  */
 package org.graylog2.indexer.ranges;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.MultimapBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
 import org.graylog2.database.NotFoundException;
 import org.graylog2.indexer.IndexSet;
 import org.graylog2.indexer.indices.TooManyAliasesException;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.cluster.ClusterConfigService;
 import org.graylog2.shared.system.activities.Activity;
 import org.graylog2.shared.system.activities.ActivityWriter;
 import org.graylog2.system.jobs.SystemJob;
+import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.codahale.metrics.MetricRegistry.name;
 
 public class RebuildIndexRangesJob extends SystemJob {
     public interface Factory {
@@ -49,14 +70,29 @@ public class RebuildIndexRangesJob extends SystemJob {
     protected final Set<IndexSet> indexSets;
     private final ActivityWriter activityWriter;
     protected final IndexRangeService indexRangeService;
+    private final ClusterConfigService clusterConfigService;
+    private final int concurrency;
+    private final Meter calculatedIndices;
+    private final Meter skippedIndices;
+    private final Meter failedIndices;
+    private final Timer calculationTime;
 
     @AssistedInject
     public RebuildIndexRangesJob(@Assisted Set<IndexSet> indexSets,
                                  ActivityWriter activityWriter,
-                                 IndexRangeService indexRangeService) {
+                                 IndexRangeService indexRangeService,
+                                 ClusterConfigService clusterConfigService,
+                                 MetricRegistry metricRegistry,
+                                 @Named("index_ranges_rebuild_concurrency") int concurrency) {
         this.indexSets = indexSets;
         this.activityWriter = activityWriter;
         this.indexRangeService = indexRangeService;
+        this.clusterConfigService = clusterConfigService;
+        this.concurrency = concurrency;
+        this.calculatedIndices = metricRegistry.meter(name(RebuildIndexRangesJob.class, "calculated-indices"));
+        this.skippedIndices = metricRegistry.meter(name(RebuildIndexRangesJob.class, "skipped-indices"));
+        this.failedIndices = metricRegistry.meter(name(RebuildIndexRangesJob.class, "failed-indices"));
+        this.calculationTime = metricRegistry.timer(name(RebuildIndexRangesJob.class, "calculation-time"));
     }
 
     @Override
@@ -99,7 +135,11 @@ public class RebuildIndexRangesJob extends SystemJob {
         indicesToCalculate = indexSets.values().size();
 
         Stopwatch sw = Stopwatch.createStarted();
+        final Map<IndexSet, IndexRangesRebuildState> states = new HashMap<>();
+        final List<String> indicesToRecalculate = new ArrayList<>();
         for (IndexSet indexSet : indexSets.keySet()) {
+            final IndexRangesRebuildState state = startOrResume(indexSet);
+            states.put(indexSet, state);
             LOG.info("Recalculating index ranges for index set {} ({}): {} indices affected.",
                     indexSet.getConfig().title(),
                     indexSet.getIndexWildcard(),
@@ -128,25 +168,120 @@ public class RebuildIndexRangesJob extends SystemJob {
                     indicesCalculated.incrementAndGet();
                     continue;
                 }
-                if (cancelRequested) {
-                    info("Stop requested. Not calculating next index range, not updating ranges.");
-                    sw.stop();
-                    return;
-                }
 
-                try {
-                    final IndexRange indexRange = indexRangeService.calculateRange(index);
-                    indexRangeService.save(indexRange);
-                    LOG.info("Created ranges for index {}: {}", index, indexRange);
-                } catch (Exception e) {
-                    LOG.info("Could not calculate range of index [" + index + "]. Skipping.", e);
-                } finally {
+                // Index ranges calculated after the start of a resumed rebuild don't need to be calculated again
+                if (!state.failedIndices().contains(index) && isCalculatedAfter(index, state.startedAt())) {
+                    LOG.debug("Range of index {} has already been calculated by a previous run, skipping it.", index);
+                    skippedIndices.mark();
                     indicesCalculated.incrementAndGet();
+                    continue;
                 }
+                indicesToRecalculate.add(index);
             }
         }
 
-        info("Done calculating index ranges for " + indicesToCalculate + " indices. Took " + sw.stop().elapsed(TimeUnit.MILLISECONDS) + "ms.");
+        final Set<String> failedIndices = ConcurrentHashMap.newKeySet();
+        if (!calculateRanges(indicesToRecalculate, failedIndices)) {
+            info("Stop requested. Not calculating next index range, not updating ranges.");
+            sw.stop();
+            return;
+        }
+
+        for (Map.Entry<IndexSet, IndexRangesRebuildState> entry : states.entrySet()) {
+            final Set<String> failedIndicesOfIndexSet = indexSets.get(entry.getKey()).stream()
+                    .filter(failedIndices::contains)
+                    .collect(Collectors.toSet());
+            final IndexRangesRebuildState state = entry.getValue();
+            clusterConfigService.write(IndexRangesRebuildState.key(state.indexSetId()), state.finish(failedIndicesOfIndexSet, Tools.nowUTC()));
+        }
+        if (failedIndices.isEmpty()) {
+            info("Done calculating index ranges for " + indicesToCalculate + " indices. Took " + sw.stop().elapsed(TimeUnit.MILLISECONDS) + "ms.");
+        } else {
+            info("Done calculating index ranges for " + indicesToCalculate + " indices, " + failedIndices.size()
+                    + " failed and will be retried by the next rebuild. Took " + sw.stop().elapsed(TimeUnit.MILLISECONDS) + "ms.");
+        }
+    }
+
+    /**
+     * Resumes the previous rebuild of the given index set if it didn't complete, otherwise starts a new one.
+     */
+    private IndexRangesRebuildState startOrResume(IndexSet indexSet) {
+        final String indexSetId = indexSet.getConfig().id();
+        final String key = IndexRangesRebuildState.key(indexSetId);
+        final IndexRangesRebuildState previousState = clusterConfigService.get(key, IndexRangesRebuildState.class);
+        if (previousState != null && !previousState.isCompleted()) {
+            info("Resuming index range rebuild of index set " + indexSetId + " started at " + previousState.startedAt() + ".");
+            return previousState;
+        }
+
+        final IndexRangesRebuildState state = IndexRangesRebuildState.start(indexSetId, Tools.nowUTC());
+        clusterConfigService.write(key, state);
+        return state;
+    }
+
+    private boolean isCalculatedAfter(String index, @Nullable DateTime cutoff) {
+        try {
+            final IndexRange indexRange = indexRangeService.get(index);
+            // Ranges with begin and end set to 0 have never been calculated
+            return !(indexRange.begin().getMillis() == 0 && indexRange.end().getMillis() == 0)
+                    && cutoff != null && indexRange.calculatedAt().isAfter(cutoff);
+        } catch (NotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Calculates the ranges of the given indices with at most {@link #concurrency} requests in parallel. Indices
+     * whose range couldn't be calculated are added to {@code failedIndices}.
+     *
+     * @return {@code false} if the job has been cancelled, {@code true} otherwise
+     */
+    private boolean calculateRanges(List<String> indices, Set<String> failedIndices) {
+        if (indices.isEmpty()) {
+            return !cancelRequested;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, indices.size())),
+                new ThreadFactoryBuilder().setNameFormat("rebuild-index-ranges-%d").setDaemon(true).build());
+        try {
+            final List<Future<?>> futures = new ArrayList<>(indices.size());
+            for (String index : indices) {
+                futures.add(executor.submit(() -> {
+                    if (!calculateRange(index)) {
+                        failedIndices.add(index);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            requestCancel();
+        } catch (ExecutionException e) {
+            LOG.error("Unexpected error while calculating index ranges.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return !cancelRequested;
+    }
+
+    private boolean calculateRange(String index) {
+        if (cancelRequested) {
+            return false;
+        }
+        try (final Timer.Context ignored = calculationTime.time()) {
+            final IndexRange indexRange = indexRangeService.calculateRange(index);
+            indexRangeService.save(indexRange);
+            calculatedIndices.mark();
+            LOG.info("Created ranges for index {}: {}", index, indexRange);
+            return true;
+        } catch (Exception e) {
+            failedIndices.mark();
+            LOG.info("Could not calculate range of index [" + index + "]. Skipping.", e);
+            return false;
+        } finally {
+            indicesCalculated.incrementAndGet();
+        }
     }
 
     protected void info(String what) {
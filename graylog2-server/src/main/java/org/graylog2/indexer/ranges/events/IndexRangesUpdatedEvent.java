@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.ranges.events;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+
+/**
+ * Cluster event which is posted when index ranges have been created, updated or removed.
+ */
+@AutoValue
+public abstract class IndexRangesUpdatedEvent {
+    @JsonProperty("index_names")
+    public abstract Set<String> indexNames();
+
+    public static IndexRangesUpdatedEvent create(String indexName) {
+        return create(ImmutableSet.of(indexName));
+    }
+
+    @JsonCreator
+    public static IndexRangesUpdatedEvent create(@JsonProperty("index_names") Set<String> indexNames) {
+        return new AutoValue_IndexRangesUpdatedEvent(ImmutableSet.copyOf(indexNames));
+    }
+}
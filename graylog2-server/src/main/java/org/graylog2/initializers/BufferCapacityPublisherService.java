@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.initializers;
+
+import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import org.graylog2.Configuration;
+import org.graylog2.plugin.BufferCapacityState;
+import org.graylog2.plugin.buffers.InputBuffer;
+import org.graylog2.shared.buffers.ProcessBuffer;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the free capacity of the input buffer and, if the message journal is disabled, the process buffer on the
+ * event bus, so that {@link org.graylog2.plugin.inputs.transports.ThrottleableTransport throttleable transports} can
+ * stop reading within milliseconds when the buffers fill up, instead of waiting for the next journal based
+ * {@link org.graylog2.plugin.ThrottleState}.
+ */
+@Singleton
+public class BufferCapacityPublisherService extends AbstractScheduledService {
+    private final InputBuffer inputBuffer;
+    private final ProcessBuffer processBuffer;
+    private final EventBus eventBus;
+    private final long intervalMillis;
+    private final boolean journalEnabled;
+
+    @Inject
+    public BufferCapacityPublisherService(InputBuffer inputBuffer,
+                                          ProcessBuffer processBuffer,
+                                          EventBus eventBus,
+                                          Configuration configuration) {
+        this.inputBuffer = inputBuffer;
+        this.processBuffer = processBuffer;
+        this.eventBus = eventBus;
+        this.intervalMillis = configuration.getInputThrottlingUpdateInterval().toMilliseconds();
+        this.journalEnabled = configuration.isMessageJournalEnabled();
+    }
+
+    @Override
+    protected void runOneIteration() {
+        if (journalEnabled) {
+            // The journal decouples the inputs from the process buffer, its utilization is covered by the ThrottleState
+            eventBus.post(BufferCapacityState.inputBufferOnly(inputBuffer.getRemainingCapacity(), inputBuffer.getRingBufferSize()));
+            return;
+        }
+        eventBus.post(new BufferCapacityState(
+                inputBuffer.getRemainingCapacity(),
+                inputBuffer.getRingBufferSize(),
+                processBuffer.getRemainingCapacity(),
+                processBuffer.getRingBufferSize()));
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+}
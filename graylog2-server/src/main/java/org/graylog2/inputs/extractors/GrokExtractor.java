@@ -18,9 +18,9 @@ package org.graylog2.inputs.extractors;
 
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Strings;
-import io.krakens.grok.api.Grok;
 import io.krakens.grok.api.Match;
 import org.graylog2.ConfigurationException;
+import org.graylog2.grok.GrokMatcher;
 import org.graylog2.grok.GrokPatternRegistry;
 import org.graylog2.plugin.inputs.Converter;
 import org.graylog2.plugin.inputs.Extractor;
@@ -73,10 +73,10 @@ public class GrokExtractor extends Extractor {
 
     @Override
     protected Result[] run(String value) {
-        final Grok grok = grokPatternRegistry.cachedGrokForPattern(this.pattern, this.namedCapturesOnly);
+        final GrokMatcher grokMatcher = grokPatternRegistry.cachedMatcherForPattern(this.pattern, this.namedCapturesOnly);
 
         // the extractor instance is rebuilt every second anyway
-        final Match match = grok.match(value);
+        final Match match = grokMatcher.match(value);
         final Map<String, Object> matches = match.captureFlattened();
         final List<Result> results = new ArrayList<>(matches.size());
 
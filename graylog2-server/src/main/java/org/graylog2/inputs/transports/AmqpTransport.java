@@ -101,6 +101,7 @@ public class AmqpTransport extends ThrottleableTransport {
                                     public Long getValue() { return 0L;
                                     }
                                 });
+        localRegistry.registerAll(throttleMetrics());
     }
 
     @Subscribe
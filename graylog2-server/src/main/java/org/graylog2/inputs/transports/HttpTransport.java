@@ -98,7 +98,7 @@ public class HttpTransport extends AbstractTcpTransport {
         handlers.put("decompressor", HttpContentDecompressor::new);
         handlers.put("encoder", HttpResponseEncoder::new);
         handlers.put("aggregator", () -> new HttpObjectAggregator(maxChunkSize));
-        handlers.put("http-handler", () -> new HttpHandler(enableCors));
+        handlers.put("http-handler", () -> new HttpHandler(enableCors, input));
         handlers.putAll(super.getCustomChildChannelHandlers(input));
 
         return handlers;
@@ -18,8 +18,10 @@ package org.graylog2.inputs.transports;
 
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.InstrumentedExecutorService;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.MetricSet;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.eventbus.EventBus;
@@ -28,11 +30,16 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.InvalidOffsetException;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.AuthorizationException;
 import org.apache.kafka.common.errors.WakeupException;
 import org.apache.kafka.common.serialization.ByteArrayDeserializer;
@@ -71,9 +78,15 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -120,6 +133,8 @@ public class KafkaTransport extends ThrottleableTransport {
     private final AtomicLong lastSecBytesRead = new AtomicLong(0);
     private final AtomicLong lastSecBytesReadTmp = new AtomicLong(0);
     private final ExecutorService executor;
+    private final ConcurrentMap<TopicPartition, Meter> partitionRecords = new ConcurrentHashMap<>();
+    private final ConcurrentMap<TopicPartition, AtomicLong> partitionLags = new ConcurrentHashMap<>();
 
     private volatile boolean stopped = false;
     private volatile boolean paused = true;
@@ -170,6 +185,7 @@ public class KafkaTransport extends ThrottleableTransport {
                 return 0L;
             }
         });
+        localRegistry.registerAll(throttleMetrics());
     }
 
     @Subscribe
@@ -231,9 +247,8 @@ public class KafkaTransport extends ThrottleableTransport {
         // Map largest -> latest, smallest -> earliest
         final String resetValue = configuration.getString(CK_OFFSET_RESET, DEFAULT_OFFSET_RESET);
         props.put("auto.offset.reset", resetValue.equals("largest") ? "latest" : "earliest");
-        // Default auto commit interval is 60 seconds. Reduce to 1 second to minimize message duplication
-        // if something breaks.
-        props.put("auto.commit.interval.ms", "1000");
+        // Offsets are committed by the consumer threads once a batch of records has been handed over to the input.
+        props.put("enable.auto.commit", "false");
         props.put(org.apache.kafka.clients.consumer.ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
         props.put(org.apache.kafka.clients.consumer.ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
 
@@ -248,47 +263,130 @@ public class KafkaTransport extends ThrottleableTransport {
         IntStream.range(0, numThreads).forEach(i -> executor.submit(new ConsumerRunnable(props, input, i)));
     }
 
-    private class ConsumerRunnable implements Runnable {
+    @VisibleForTesting
+    class ConsumerRunnable implements Runnable, ConsumerRebalanceListener {
         private final MessageInput input;
-        private final KafkaConsumer<byte[], byte[]> consumer;
+        private final org.apache.kafka.clients.consumer.Consumer<byte[], byte[]> consumer;
+        // Offsets of the records which have been handed over to the input, per partition assigned to this consumer
+        private final Map<TopicPartition, OffsetAndMetadata> handedOverOffsets = new HashMap<>();
+        private long lastLagUpdate = 0L;
 
         public ConsumerRunnable(Properties props, MessageInput input, int threadId) {
+            this(createConsumer(props, input, threadId), input);
+        }
+
+        @VisibleForTesting
+        ConsumerRunnable(org.apache.kafka.clients.consumer.Consumer<byte[], byte[]> consumer, MessageInput input) {
             this.input = input;
-            final Properties nprops = (Properties) props.clone();
-            nprops.put("client.id", "gl2-" + nodeId.getShortNodeId() + "-" + input.getId() + "-" + threadId);
-            consumer = new KafkaConsumer<>(nprops);
+            this.consumer = consumer;
             //noinspection ConstantConditions
-            consumer.subscribe(Pattern.compile(configuration.getString(CK_TOPIC_FILTER)));
+            consumer.subscribe(Pattern.compile(configuration.getString(CK_TOPIC_FILTER)), this);
         }
 
-        private void consumeRecords(ConsumerRecords<byte[], byte[]> consumerRecords) {
-            for (final ConsumerRecord<byte[], byte[]> record : consumerRecords) {
-                if (paused) {
-                    // we try not to spin here, so we wait until the lifecycle goes back to running.
-                    LOG.debug("Message processing is paused, blocking until message processing is turned back on.");
-                    Uninterruptibles.awaitUninterruptibly(pausedLatch);
+        /**
+         * Called from within {@code poll()} before partitions are reassigned to other consumers. The asynchronous
+         * commits might not have completed yet, so the offsets of all handed over records are committed synchronously
+         * to keep the new owner from consuming them again.
+         */
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            for (final TopicPartition partition : partitions) {
+                final OffsetAndMetadata offset = handedOverOffsets.remove(partition);
+                if (offset != null) {
+                    offsets.put(partition, offset);
                 }
-                // check for being stopped before actually getting the message, otherwise we could end up losing that message
-                if (stopped) {
-                    break;
+            }
+            if (!offsets.isEmpty()) {
+                try {
+                    consumer.commitSync(offsets);
+                } catch (KafkaException e) {
+                    LOG.warn("Couldn't commit offsets {} of revoked partitions: {}", offsets, e.getMessage());
+                }
+            }
+            removePartitionMetrics(partitions);
+        }
+
+        /**
+         * The partitions already belong to other consumers, so committing their offsets would fail.
+         */
+        @Override
+        public void onPartitionsLost(Collection<TopicPartition> partitions) {
+            partitions.forEach(handedOverOffsets::remove);
+            removePartitionMetrics(partitions);
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        }
+
+        @VisibleForTesting
+        void consumeRecords(ConsumerRecords<byte[], byte[]> consumerRecords) {
+            if (consumerRecords.isEmpty()) {
+                return;
+            }
+            if (paused) {
+                // we try not to spin here, so we wait until the lifecycle goes back to running.
+                LOG.debug("Message processing is paused, blocking until message processing is turned back on.");
+                Uninterruptibles.awaitUninterruptibly(pausedLatch);
+            }
+            if (isThrottled()) {
+                blockUntilUnthrottled();
+            }
+            // check for being stopped before handing over the records. their offsets have not been committed yet,
+            // so they will be consumed again after the input has been started again.
+            if (stopped) {
+                return;
+            }
+
+            final List<RawMessage> rawMessages = new ArrayList<>(consumerRecords.count());
+            final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            for (final TopicPartition partition : consumerRecords.partitions()) {
+                final List<ConsumerRecord<byte[], byte[]>> records = consumerRecords.records(partition);
+                long bytesRead = 0;
+                for (final ConsumerRecord<byte[], byte[]> record : records) {
+                    final byte[] bytes = record.value();
+
+                    // it is possible that the message is null
+                    if (bytes == null) {
+                        continue;
+                    }
+                    bytesRead += bytes.length;
+                    rawMessages.add(new RawMessage(bytes));
                 }
-                if (isThrottled()) {
-                    blockUntilUnthrottled();
+                totalBytesRead.addAndGet(bytesRead);
+                lastSecBytesReadTmp.addAndGet(bytesRead);
+                partitionRecords(partition).mark(records.size());
+                offsets.put(partition, new OffsetAndMetadata(records.get(records.size() - 1).offset() + 1));
+            }
+
+            input.processRawMessages(rawMessages);
+            handedOverOffsets.putAll(offsets);
+            consumer.commitAsync(offsets, (committedOffsets, e) -> {
+                if (e != null) {
+                    LOG.warn("Couldn't commit offsets {}: {}", committedOffsets, e.getMessage());
                 }
+            });
+        }
 
-                // process the message, this will immediately mark the message as having been processed. this gets tricky
-                // if we get an exception about processing it down below.
-                final byte[] bytes = record.value();
+        private void updatePartitionLags() {
+            final long now = System.currentTimeMillis();
+            if (now - lastLagUpdate < 1000) {
+                return;
+            }
+            lastLagUpdate = now;
 
-                // it is possible that the message is null
-                if (bytes == null) {
+            for (final Map.Entry<MetricName, ? extends Metric> entry : consumer.metrics().entrySet()) {
+                final MetricName metricName = entry.getKey();
+                if (!"records-lag".equals(metricName.name())) {
                     continue;
                 }
-                totalBytesRead.addAndGet(bytes.length);
-                lastSecBytesReadTmp.addAndGet(bytes.length);
-
-                final RawMessage rawMessage = new RawMessage(bytes);
-                input.processRawMessage(rawMessage);
+                final String topic = metricName.tags().get("topic");
+                final String partition = metricName.tags().get("partition");
+                final Object value = entry.getValue().metricValue();
+                if (topic != null && partition != null && value instanceof Number && !Double.isNaN(((Number) value).doubleValue())) {
+                    partitionLag(new TopicPartition(topic, Integer.parseInt(partition))).set(((Number) value).longValue());
+                }
             }
         }
 
@@ -323,20 +421,54 @@ public class KafkaTransport extends ThrottleableTransport {
                 }
                 try {
                     consumeRecords(consumerRecords.get());
+                    updatePartitionLags();
                 } catch (Exception e) {
                     LOG.error("Exception in consumer thread. Stopping input", e);
                     stopped = true;
                     break;
                 }
             }
-            // explicitly commit our offsets when stopping.
-            // this might trigger a couple of times, but it won't hurt
-            consumer.commitAsync();
+            // the offsets of all records which have been handed over to the input have already been committed,
+            // closing the consumer waits for pending commits.
             stopLatch.countDown();
             consumer.close(Duration.ofSeconds(5));
         }
     }
 
+    private KafkaConsumer<byte[], byte[]> createConsumer(Properties props, MessageInput input, int threadId) {
+        final Properties nprops = (Properties) props.clone();
+        nprops.put("client.id", "gl2-" + nodeId.getShortNodeId() + "-" + input.getId() + "-" + threadId);
+        return new KafkaConsumer<>(nprops);
+    }
+
+    private Meter partitionRecords(TopicPartition partition) {
+        return partitionRecords.computeIfAbsent(partition,
+                p -> localRegistry.meter(name("partitions", p.toString(), "records")));
+    }
+
+    private AtomicLong partitionLag(TopicPartition partition) {
+        return partitionLags.computeIfAbsent(partition, p -> {
+            final AtomicLong lag = new AtomicLong(0);
+            localRegistry.register(name("partitions", p.toString(), "lag"), (Gauge<Long>) lag::get);
+            return lag;
+        });
+    }
+
+    private void removePartitionMetrics(Collection<TopicPartition> partitions) {
+        // Removing the metrics within the map operation keeps other consumer threads, which might have been
+        // assigned the partitions in the meantime, from registering them concurrently.
+        for (final TopicPartition partition : partitions) {
+            partitionRecords.computeIfPresent(partition, (p, meter) -> {
+                localRegistry.remove(name("partitions", p.toString(), "records"));
+                return null;
+            });
+            partitionLags.computeIfPresent(partition, (p, lag) -> {
+                localRegistry.remove(name("partitions", p.toString(), "lag"));
+                return null;
+            });
+        }
+    }
+
     private void doLaunchLegacy(final MessageInput input) {
         final Properties props = new Properties();
 
@@ -40,9 +40,8 @@ public class EnvelopeMessageHandler extends SimpleChannelInboundHandler<Addresse
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, AddressedEnvelope<ByteBuf, InetSocketAddress> envelope) throws Exception {
         final ByteBuf msg = envelope.content();
-        final byte[] bytes = new byte[msg.readableBytes()];
-        msg.readBytes(bytes);
-        final RawMessage raw = new RawMessage(bytes, envelope.sender());
+        // Copies the readable bytes straight from the (possibly pooled and direct) buffer into the message
+        final RawMessage raw = new RawMessage(msg.nioBuffer(), envelope.sender());
         input.processRawMessage(raw);
     }
 
@@ -17,6 +17,7 @@
 package org.graylog2.inputs.transports.netty;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
@@ -32,12 +33,35 @@ import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ByteProcessor;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.journal.RawMessage;
+
+import javax.annotation.Nullable;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 public class HttpHandler extends SimpleChannelInboundHandler<HttpRequest> {
+    private static final ByteProcessor FIND_NON_WHITESPACE = value -> value != ' ' && value != '\t' && value != '\r';
+
     private final boolean enableCors;
+    @Nullable
+    private final MessageInput input;
 
     public HttpHandler(boolean enableCors) {
+        this(enableCors, null);
+    }
+
+    /**
+     * @param input the input which receives the messages of bulk requests to {@code /gelf/bulk}, which are not
+     *              available if {@code null}
+     */
+    public HttpHandler(boolean enableCors, @Nullable MessageInput input) {
         this.enableCors = enableCors;
+        this.input = input;
     }
 
     @Override
@@ -64,19 +88,81 @@ public class HttpHandler extends SimpleChannelInboundHandler<HttpRequest> {
             // send on to raw message handler
             writeResponse(channel, keepAlive, httpRequestVersion, HttpResponseStatus.ACCEPTED, origin);
             ctx.fireChannelRead(buffer.retain());
+        } else if (input != null && "/gelf/bulk".equals(request.uri()) && request instanceof FullHttpRequest) {
+            handleBulkRequest(channel, keepAlive, httpRequestVersion, origin, ((FullHttpRequest) request).content());
         } else {
             writeResponse(channel, keepAlive, httpRequestVersion, HttpResponseStatus.NOT_FOUND, origin);
         }
     }
 
+    /**
+     * Splits the newline delimited request body into one raw message per GELF message and hands all of them to the
+     * input at once. Lines which can't be a GELF message are rejected, empty lines are ignored.
+     */
+    private void handleBulkRequest(Channel channel,
+                                   boolean keepAlive,
+                                   HttpVersion httpRequestVersion,
+                                   String origin,
+                                   ByteBuf content) {
+        final InetSocketAddress remoteAddress = channel.remoteAddress() instanceof InetSocketAddress ? (InetSocketAddress) channel.remoteAddress() : null;
+        final List<RawMessage> rawMessages = new ArrayList<>();
+        int rejected = 0;
+
+        int lineStart = content.readerIndex();
+        final int end = content.writerIndex();
+        while (lineStart < end) {
+            int lineEnd = content.forEachByte(lineStart, end - lineStart, ByteProcessor.FIND_LF);
+            final int nextLineStart;
+            if (lineEnd == -1) {
+                lineEnd = end;
+                nextLineStart = end;
+            } else {
+                nextLineStart = lineEnd + 1;
+            }
+
+            final int messageStart = content.forEachByte(lineStart, lineEnd - lineStart, FIND_NON_WHITESPACE);
+            if (messageStart != -1) {
+                final int messageEnd = content.forEachByteDesc(messageStart, lineEnd - messageStart, FIND_NON_WHITESPACE) + 1;
+                if (content.getByte(messageStart) == '{') {
+                    rawMessages.add(new RawMessage(content.nioBuffer(messageStart, messageEnd - messageStart), remoteAddress));
+                } else {
+                    rejected++;
+                }
+            }
+            lineStart = nextLineStart;
+        }
+
+        if (!rawMessages.isEmpty()) {
+            input.processRawMessages(rawMessages);
+        }
+
+        final HttpResponseStatus status = rawMessages.isEmpty() && rejected > 0 ? HttpResponseStatus.BAD_REQUEST : HttpResponseStatus.ACCEPTED;
+        final String body = String.format(Locale.ROOT, "{\"accepted\":%d,\"rejected\":%d}", rawMessages.size(), rejected);
+        writeResponse(channel, keepAlive, httpRequestVersion, status, origin,
+                Unpooled.copiedBuffer(body, StandardCharsets.UTF_8), HttpHeaderValues.APPLICATION_JSON);
+    }
+
     private void writeResponse(Channel channel,
                                boolean keepAlive,
                                HttpVersion httpRequestVersion,
                                HttpResponseStatus status,
                                String origin) {
-        final HttpResponse response = new DefaultFullHttpResponse(httpRequestVersion, status);
+        writeResponse(channel, keepAlive, httpRequestVersion, status, origin, Unpooled.EMPTY_BUFFER, null);
+    }
 
-        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+    private void writeResponse(Channel channel,
+                               boolean keepAlive,
+                               HttpVersion httpRequestVersion,
+                               HttpResponseStatus status,
+                               String origin,
+                               ByteBuf content,
+                               @Nullable CharSequence contentType) {
+        final HttpResponse response = new DefaultFullHttpResponse(httpRequestVersion, status, content);
+
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
+        if (contentType != null) {
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+        }
         response.headers().set(HttpHeaderNames.CONNECTION, keepAlive ? HttpHeaderValues.KEEP_ALIVE : HttpHeaderValues.CLOSE);
 
         if (enableCors && origin != null && !origin.isEmpty()) {
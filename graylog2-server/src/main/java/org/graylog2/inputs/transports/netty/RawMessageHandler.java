@@ -38,9 +38,8 @@ public class RawMessageHandler extends SimpleChannelInboundHandler<ByteBuf> {
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
-        final byte[] bytes = new byte[msg.readableBytes()];
-        msg.readBytes(bytes);
-        final RawMessage raw = new RawMessage(bytes, (InetSocketAddress) ctx.channel().remoteAddress());
+        // Copies the readable bytes straight from the (possibly pooled and direct) buffer into the message
+        final RawMessage raw = new RawMessage(msg.nioBuffer(), (InetSocketAddress) ctx.channel().remoteAddress());
         input.processRawMessage(raw);
     }
 
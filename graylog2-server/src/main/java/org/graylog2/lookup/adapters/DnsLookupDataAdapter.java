@@ -61,6 +61,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 public class DnsLookupDataAdapter extends LookupDataAdapter {
@@ -246,6 +248,18 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
         return builder.build();
     }
 
+    private List<ADnsAnswer> awaitAddresses(CompletableFuture<List<ADnsAnswer>> future) throws InterruptedException, ExecutionException {
+        try {
+            return dnsClient.await(future);
+        } catch (ExecutionException e) {
+            // UnknownHostException is a valid case when the DNS record does not exist. Silently ignore and do not log an error.
+            if (e.getCause() instanceof UnknownHostException) {
+                return Collections.emptyList();
+            }
+            throw e;
+        }
+    }
+
     /**
      * Resolves all IPv4 and IPv6 addresses for the hostname. A single IP address will be returned in the singleValue
      * field (IPv4 address will be returned if present). All IPv4 and IPv6 addresses will be included in the multiValue
@@ -256,19 +270,12 @@ public class DnsLookupDataAdapter extends LookupDataAdapter {
     private LookupResult resolveAllAddressesForHostname(Object key) {
 
         try {
-            List<ADnsAnswer> ip4Answers = new ArrayList<>();
-            List<ADnsAnswer> ip6Answers = new ArrayList<>();
+            // Run both queries concurrently instead of waiting for the A records before asking for the AAAA records
+            final CompletableFuture<List<ADnsAnswer>> ip4Future = dnsClient.resolveIPv4AddressForHostnameAsync(key.toString(), true); // Include IP version
+            final CompletableFuture<List<ADnsAnswer>> ip6Future = dnsClient.resolveIPv6AddressForHostnameAsync(key.toString(), true); // Include IP version
 
-            // UnknownHostException is a valid case when the DNS record does not exist. Silently ignore and do not log an error.
-            try {
-                ip4Answers = dnsClient.resolveIPv4AddressForHostname(key.toString(), true); // Include IP version
-            } catch (UnknownHostException e) {
-            }
-
-            try {
-                ip6Answers = dnsClient.resolveIPv6AddressForHostname(key.toString(), true); // Include IP version
-            } catch (UnknownHostException e) {
-            }
+            final List<ADnsAnswer> ip4Answers = awaitAddresses(ip4Future);
+            final List<ADnsAnswer> ip6Answers = awaitAddresses(ip6Future);
 
             // Select answer for single value. Prefer use of IPv4 address. Only return IPv6 address if no IPv6 address found.
             final String singleValue;
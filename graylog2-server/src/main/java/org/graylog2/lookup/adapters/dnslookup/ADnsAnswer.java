@@ -57,6 +57,8 @@ public abstract class ADnsAnswer implements DnsAnswer {
     @JsonProperty(FIELD_DNS_TTL)
     public abstract long dnsTTL();
 
+    abstract Builder toBuilder();
+
     public static Builder builder() {
         return new AutoValue_ADnsAnswer.Builder();
     }
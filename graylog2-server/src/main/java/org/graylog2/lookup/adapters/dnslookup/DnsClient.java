@@ -16,6 +16,12 @@
  */
 package org.graylog2.lookup.adapters.dnslookup;
 
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
@@ -39,24 +45,31 @@ import io.netty.resolver.dns.DnsNameResolverBuilder;
 import io.netty.resolver.dns.DnsServerAddressStreamProvider;
 import io.netty.resolver.dns.SequentialDnsServerAddressStreamProvider;
 import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.ScheduledFuture;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.checkerframework.checker.nullness.qual.NonNull;
 import org.graylog2.shared.utilities.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
@@ -67,6 +80,7 @@ public class DnsClient {
 
     private static final int DEFAULT_DNS_PORT = 53;
     private static final int DEFAULT_REQUEST_TIMEOUT_INCREMENT = 100;
+    private static final long DEFAULT_RESOLVER_CACHE_SIZE = 10_000L;
     private static final Pattern VALID_HOSTNAME_PATTERN = Pattern.compile("^(([a-zA-Z0-9]|[a-zA-Z0-9][a-zA-Z0-9\\-]*[a-zA-Z0-9])\\.)*([A-Za-z0-9]|[A-Za-z0-9][A-Za-z0-9\\-]*[A-Za-z0-9])$");
 
     // Use fully qualified reverse lookup domain names (with dot at end).
@@ -81,6 +95,11 @@ public class DnsClient {
     private final long queryTimeout;
     private final long requestTimeout;
 
+    /* Answers are cached for the TTL of their records. Queries which are still in flight are kept in the cache as
+     * well, so concurrent requests for the same name share a single DNS query. */
+    private final AsyncCache<QueryKey, CachedAnswer> resolverCache;
+    private final Ticker ticker;
+
     private NioEventLoopGroup nettyEventLoop;
     private DnsNameResolver resolver;
 
@@ -108,8 +127,33 @@ public class DnsClient {
      * @param requestTimeout the request timeout
      */
     public DnsClient(long queryTimeout, long requestTimeout) {
+        this(queryTimeout, requestTimeout, DEFAULT_RESOLVER_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a new DNS client with the given query and request timeout and a resolver cache holding at most
+     * {@code resolverCacheSize} answers. A cache size of {@code 0} disables caching of answers, concurrent queries
+     * for the same name are still coalesced.
+     *
+     * @param queryTimeout      the query timeout
+     * @param requestTimeout    the request timeout
+     * @param resolverCacheSize the maximum number of cached answers
+     * @see #DnsClient(long, long)
+     */
+    public DnsClient(long queryTimeout, long requestTimeout, long resolverCacheSize) {
+        this(queryTimeout, requestTimeout, resolverCacheSize, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    DnsClient(long queryTimeout, long requestTimeout, long resolverCacheSize, Ticker ticker) {
         this.queryTimeout = queryTimeout;
         this.requestTimeout = requestTimeout;
+        this.ticker = ticker;
+        final Caffeine<Object, Object> cacheBuilder = Caffeine.newBuilder().ticker(ticker);
+        if (resolverCacheSize > 0) {
+            cacheBuilder.maximumSize(resolverCacheSize);
+        }
+        this.resolverCache = cacheBuilder.expireAfter(new AnswerExpiry(resolverCacheSize > 0)).buildAsync();
     }
 
     public void start(String dnsServerIps) {
@@ -164,6 +208,7 @@ public class DnsClient {
 
         // Make sure to close the resolver before shutting down the event loop
         resolver.close();
+        resolverCache.synchronous().invalidateAll();
 
         // Shutdown event loop (required by Netty).
         final Future<?> shutdownFuture = nettyEventLoop.shutdownGracefully();
@@ -173,17 +218,34 @@ public class DnsClient {
     public List<ADnsAnswer> resolveIPv4AddressForHostname(String hostName, boolean includeIpVersion)
             throws InterruptedException, ExecutionException, UnknownHostException {
 
-        return resolveIpAddresses(hostName, DnsRecordType.A, includeIpVersion);
+        return await(resolveIPv4AddressForHostnameAsync(hostName, includeIpVersion));
     }
 
     public List<ADnsAnswer> resolveIPv6AddressForHostname(String hostName, boolean includeIpVersion)
             throws InterruptedException, ExecutionException, UnknownHostException {
 
+        return await(resolveIPv6AddressForHostnameAsync(hostName, includeIpVersion));
+    }
+
+    /**
+     * Non-blocking variant of {@link #resolveIPv4AddressForHostname(String, boolean)}. The returned future fails
+     * with a {@link TimeoutException} if the request doesn't complete within the request timeout.
+     */
+    public CompletableFuture<List<ADnsAnswer>> resolveIPv4AddressForHostnameAsync(String hostName, boolean includeIpVersion) {
+
+        return resolveIpAddresses(hostName, DnsRecordType.A, includeIpVersion);
+    }
+
+    /**
+     * Non-blocking variant of {@link #resolveIPv6AddressForHostname(String, boolean)}. The returned future fails
+     * with a {@link TimeoutException} if the request doesn't complete within the request timeout.
+     */
+    public CompletableFuture<List<ADnsAnswer>> resolveIPv6AddressForHostnameAsync(String hostName, boolean includeIpVersion) {
+
         return resolveIpAddresses(hostName, DnsRecordType.AAAA, includeIpVersion);
     }
 
-    private List<ADnsAnswer> resolveIpAddresses(String hostName, DnsRecordType dnsRecordType, boolean includeIpVersion)
-            throws InterruptedException, ExecutionException {
+    private CompletableFuture<List<ADnsAnswer>> resolveIpAddresses(String hostName, DnsRecordType dnsRecordType, boolean includeIpVersion) {
 
         LOG.debug("Attempting to resolve [{}] records for [{}]", dnsRecordType, hostName);
 
@@ -193,18 +255,17 @@ public class DnsClient {
 
         validateHostName(hostName);
 
-        final DefaultDnsQuestion aRecordDnsQuestion = new DefaultDnsQuestion(hostName, dnsRecordType);
-
-        /* The DnsNameResolver.resolveAll(DnsQuestion) method handles all redirects through CNAME records to
-         * ultimately resolve a list of IP addresses with TTL values. */
-        try {
-            return resolver.resolveAll(aRecordDnsQuestion).get(requestTimeout, TimeUnit.MILLISECONDS).stream()
-                           .map(dnsRecord -> decodeDnsRecord(dnsRecord, includeIpVersion))
-                           .filter(Objects::nonNull) // Removes any entries which the IP address could not be extracted for.
-                           .collect(Collectors.toList());
-        } catch (TimeoutException e) {
-            throw new ExecutionException("Resolver future didn't return a result in " + requestTimeout + " ms", e);
-        }
+        return cachedQuery(QueryKey.create(dnsRecordType, hostName, includeIpVersion), () -> {
+            final DefaultDnsQuestion aRecordDnsQuestion = new DefaultDnsQuestion(hostName, dnsRecordType);
+
+            /* The DnsNameResolver.resolveAll(DnsQuestion) method handles all redirects through CNAME records to
+             * ultimately resolve a list of IP addresses with TTL values. */
+            return toCompletableFuture(resolver.resolveAll(aRecordDnsQuestion))
+                    .thenApply(dnsRecords -> dnsRecords.stream()
+                            .map(dnsRecord -> decodeDnsRecord(dnsRecord, includeIpVersion))
+                            .filter(Objects::nonNull) // Removes any entries which the IP address could not be extracted for.
+                            .collect(Collectors.collectingAndThen(Collectors.toList(), Collections::unmodifiableList)));
+        });
     }
 
     /**
@@ -260,6 +321,15 @@ public class DnsClient {
 
     public PtrDnsAnswer reverseLookup(String ipAddress) throws InterruptedException, ExecutionException {
 
+        return await(reverseLookupAsync(ipAddress));
+    }
+
+    /**
+     * Non-blocking variant of {@link #reverseLookup(String)}. The returned future completes with {@code null} if
+     * no PTR record exists.
+     */
+    public CompletableFuture<PtrDnsAnswer> reverseLookupAsync(String ipAddress) {
+
         LOG.debug("Attempting to perform reverse lookup for IP address [{}]", ipAddress);
 
         if (isShutdown()) {
@@ -270,41 +340,45 @@ public class DnsClient {
 
         final String inverseAddressFormat = getInverseAddressFormat(ipAddress);
 
-        DnsResponse content = null;
-        try {
-            content = resolver.query(new DefaultDnsQuestion(inverseAddressFormat, DnsRecordType.PTR)).get(requestTimeout, TimeUnit.MILLISECONDS).content();
-            for (int i = 0; i < content.count(DnsSection.ANSWER); i++) {
-
-                // Return the first PTR record, because there should be only one as per
-                // http://tools.ietf.org/html/rfc1035#section-3.5
-                final DnsRecord dnsRecord = content.recordAt(DnsSection.ANSWER, i);
-                if (dnsRecord instanceof DefaultDnsPtrRecord) {
-
-                    final DefaultDnsPtrRecord ptrRecord = (DefaultDnsPtrRecord) dnsRecord;
-                    final PtrDnsAnswer.Builder dnsAnswerBuilder = PtrDnsAnswer.builder();
-
-                    final String hostname = ptrRecord.hostname();
-                    LOG.trace("PTR record retrieved with hostname [{}]", hostname);
-
-                    try {
-                        parseReverseLookupDomain(dnsAnswerBuilder, hostname);
-                    } catch (IllegalArgumentException e) {
-                        LOG.debug("Reverse lookup of [{}] was partially successful. The DNS server returned [{}], " +
-                                  "which is an invalid host name. The \"domain\" field will be left blank.",
-                                  ipAddress, hostname);
-                        dnsAnswerBuilder.domain("");
-                    }
-
-                    return dnsAnswerBuilder.dnsTTL(ptrRecord.timeToLive())
-                                           .build();
+        return cachedQuery(QueryKey.create(DnsRecordType.PTR, inverseAddressFormat, false), () ->
+                toCompletableFuture(resolver.query(new DefaultDnsQuestion(inverseAddressFormat, DnsRecordType.PTR)))
+                        .thenApply(envelope -> {
+                            final DnsResponse content = envelope.content();
+                            try {
+                                return decodePtrRecord(content, ipAddress);
+                            } finally {
+                                // Must manually release references on content object since the DnsResponse class extends ReferenceCounted
+                                content.release();
+                            }
+                        }));
+    }
+
+    private static PtrDnsAnswer decodePtrRecord(DnsResponse content, String ipAddress) {
+
+        for (int i = 0; i < content.count(DnsSection.ANSWER); i++) {
+
+            // Return the first PTR record, because there should be only one as per
+            // http://tools.ietf.org/html/rfc1035#section-3.5
+            final DnsRecord dnsRecord = content.recordAt(DnsSection.ANSWER, i);
+            if (dnsRecord instanceof DefaultDnsPtrRecord) {
+
+                final DefaultDnsPtrRecord ptrRecord = (DefaultDnsPtrRecord) dnsRecord;
+                final PtrDnsAnswer.Builder dnsAnswerBuilder = PtrDnsAnswer.builder();
+
+                final String hostname = ptrRecord.hostname();
+                LOG.trace("PTR record retrieved with hostname [{}]", hostname);
+
+                try {
+                    parseReverseLookupDomain(dnsAnswerBuilder, hostname);
+                } catch (IllegalArgumentException e) {
+                    LOG.debug("Reverse lookup of [{}] was partially successful. The DNS server returned [{}], " +
+                              "which is an invalid host name. The \"domain\" field will be left blank.",
+                              ipAddress, hostname);
+                    dnsAnswerBuilder.domain("");
                 }
-            }
-        } catch (TimeoutException e) {
-            throw new ExecutionException("Resolver future didn't return a result in " + requestTimeout + " ms", e);
-        } finally {
-            if (content != null) {
-                // Must manually release references on content object since the DnsResponse class extends ReferenceCounted
-                content.release();
+
+                return dnsAnswerBuilder.dnsTTL(ptrRecord.timeToLive())
+                                       .build();
             }
         }
 
@@ -348,6 +422,14 @@ public class DnsClient {
 
     public List<TxtDnsAnswer> txtLookup(String hostName) throws InterruptedException, ExecutionException {
 
+        return await(txtLookupAsync(hostName));
+    }
+
+    /**
+     * Non-blocking variant of {@link #txtLookup(String)}.
+     */
+    public CompletableFuture<List<TxtDnsAnswer>> txtLookupAsync(String hostName) {
+
         if (isShutdown()) {
             throw new DnsClientNotRunningException();
         }
@@ -356,42 +438,133 @@ public class DnsClient {
 
         validateHostName(hostName);
 
-        DnsResponse content = null;
-        try {
-            content = resolver.query(new DefaultDnsQuestion(hostName, DnsRecordType.TXT)).get(requestTimeout, TimeUnit.MILLISECONDS).content();
-            int count = content.count(DnsSection.ANSWER);
-            final ArrayList<TxtDnsAnswer> txtRecords = new ArrayList<>(count);
-            for (int i = 0; i < count; i++) {
+        return cachedQuery(QueryKey.create(DnsRecordType.TXT, hostName, false), () ->
+                toCompletableFuture(resolver.query(new DefaultDnsQuestion(hostName, DnsRecordType.TXT)))
+                        .thenApply(envelope -> {
+                            final DnsResponse content = envelope.content();
+                            try {
+                                return decodeTxtRecords(content);
+                            } finally {
+                                // Must manually release references on content object since the DnsResponse class extends ReferenceCounted
+                                content.release();
+                            }
+                        }));
+    }
 
-                final DnsRecord dnsRecord = content.recordAt(DnsSection.ANSWER, i);
-                LOG.trace("TXT record [{}] retrieved with content [{}].", i, dnsRecord);
+    private static List<TxtDnsAnswer> decodeTxtRecords(DnsResponse content) {
 
-                if (dnsRecord instanceof DefaultDnsRawRecord) {
-                    final DefaultDnsRawRecord txtRecord = (DefaultDnsRawRecord) dnsRecord;
+        int count = content.count(DnsSection.ANSWER);
+        final ArrayList<TxtDnsAnswer> txtRecords = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
 
-                    final TxtDnsAnswer.Builder dnsAnswerBuilder = TxtDnsAnswer.builder();
-                    final String decodeTxtRecord = decodeTxtRecord(txtRecord);
-                    LOG.trace("The decoded TXT record is [{}]", decodeTxtRecord);
+            final DnsRecord dnsRecord = content.recordAt(DnsSection.ANSWER, i);
+            LOG.trace("TXT record [{}] retrieved with content [{}].", i, dnsRecord);
 
-                    dnsAnswerBuilder.value(decodeTxtRecord)
-                                    .dnsTTL(txtRecord.timeToLive())
-                                    .build();
+            if (dnsRecord instanceof DefaultDnsRawRecord) {
+                final DefaultDnsRawRecord txtRecord = (DefaultDnsRawRecord) dnsRecord;
 
-                    txtRecords.add(dnsAnswerBuilder.build());
-                }
+                final TxtDnsAnswer.Builder dnsAnswerBuilder = TxtDnsAnswer.builder();
+                final String decodeTxtRecord = decodeTxtRecord(txtRecord);
+                LOG.trace("The decoded TXT record is [{}]", decodeTxtRecord);
+
+                dnsAnswerBuilder.value(decodeTxtRecord)
+                                .dnsTTL(txtRecord.timeToLive())
+                                .build();
+
+                txtRecords.add(dnsAnswerBuilder.build());
             }
+        }
+
+        return Collections.unmodifiableList(txtRecords);
+    }
 
-            return txtRecords;
+    /**
+     * Waits for the given future to complete, at most for the request timeout.
+     */
+    public <T> T await(CompletableFuture<T> future) throws InterruptedException, ExecutionException {
+
+        try {
+            return future.get(requestTimeout, TimeUnit.MILLISECONDS);
         } catch (TimeoutException e) {
             throw new ExecutionException("Resolver future didn't return a result in " + requestTimeout + " ms", e);
-        } finally {
-            if (content != null) {
-                // Must manually release references on content object since the DnsResponse class extends ReferenceCounted
-                content.release();
-            }
         }
     }
 
+    /**
+     * Returns the cached or in-flight answer for the given query or runs the query. Failed queries are not cached.
+     * The TTLs of cached answers are reduced by the time the answer has been cached, so callers which cache the
+     * answer themselves don't keep it longer than the DNS server allowed.
+     */
+    @VisibleForTesting
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> cachedQuery(QueryKey key, Supplier<CompletableFuture<T>> query) {
+
+        return resolverCache.get(key, (k, executor) -> {
+            final CompletableFuture<CachedAnswer> future = new CompletableFuture<>();
+            // Make sure a hanging request doesn't block other requests for the same name forever
+            final ScheduledFuture<?> timeout = nettyEventLoop.schedule(() -> future.completeExceptionally(
+                    new TimeoutException("Resolver future didn't return a result in " + requestTimeout + " ms")),
+                    requestTimeout, TimeUnit.MILLISECONDS);
+            query.get().whenComplete((answer, throwable) -> {
+                timeout.cancel(false);
+                if (throwable != null) {
+                    future.completeExceptionally(throwable);
+                } else {
+                    future.complete(CachedAnswer.create(answer, ticker.read()));
+                }
+            });
+            return future;
+        }).thenApply(cachedAnswer -> (T) withElapsedTime(cachedAnswer.answer(), ticker.read() - cachedAnswer.loadTime()));
+    }
+
+    /**
+     * Reduces the TTLs of the given answer by the given time. TTLs never drop below zero.
+     */
+    @VisibleForTesting
+    @Nullable
+    static Object withElapsedTime(@Nullable Object answer, long elapsedNanos) {
+
+        final long elapsedSeconds = TimeUnit.NANOSECONDS.toSeconds(elapsedNanos);
+        if (answer == null || elapsedSeconds <= 0) {
+            return answer;
+        }
+        if (answer instanceof ADnsAnswer) {
+            final ADnsAnswer aDnsAnswer = (ADnsAnswer) answer;
+            return aDnsAnswer.toBuilder().dnsTTL(remainingTTL(aDnsAnswer, elapsedSeconds)).build();
+        }
+        if (answer instanceof PtrDnsAnswer) {
+            final PtrDnsAnswer ptrDnsAnswer = (PtrDnsAnswer) answer;
+            return ptrDnsAnswer.toBuilder().dnsTTL(remainingTTL(ptrDnsAnswer, elapsedSeconds)).build();
+        }
+        if (answer instanceof TxtDnsAnswer) {
+            final TxtDnsAnswer txtDnsAnswer = (TxtDnsAnswer) answer;
+            return txtDnsAnswer.toBuilder().dnsTTL(remainingTTL(txtDnsAnswer, elapsedSeconds)).build();
+        }
+        if (answer instanceof List) {
+            return ((List<?>) answer).stream()
+                    .map(element -> withElapsedTime(element, elapsedNanos))
+                    .collect(Collectors.collectingAndThen(Collectors.toList(), Collections::unmodifiableList));
+        }
+        return answer;
+    }
+
+    private static long remainingTTL(DnsAnswer answer, long elapsedSeconds) {
+        return Math.max(0L, answer.dnsTTL() - elapsedSeconds);
+    }
+
+    private static <T> CompletableFuture<T> toCompletableFuture(Future<T> nettyFuture) {
+
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        nettyFuture.addListener((FutureListener<T>) f -> {
+            if (f.isSuccess()) {
+                future.complete(f.getNow());
+            } else {
+                future.completeExceptionally(f.cause());
+            }
+        });
+        return future;
+    }
+
     private boolean isShutdown() {
         return nettyEventLoop == null || nettyEventLoop.isShutdown();
     }
@@ -542,4 +715,78 @@ public class DnsClient {
 
         return false;
     }
+
+    @VisibleForTesting
+    @AutoValue
+    abstract static class QueryKey {
+        abstract String recordType();
+
+        abstract String name();
+
+        abstract boolean includeIpVersion();
+
+        static QueryKey create(DnsRecordType recordType, String name, boolean includeIpVersion) {
+            return new AutoValue_DnsClient_QueryKey(recordType.name(), name.toLowerCase(Locale.ENGLISH), includeIpVersion);
+        }
+    }
+
+    @VisibleForTesting
+    @AutoValue
+    abstract static class CachedAnswer {
+        @Nullable
+        abstract Object answer();
+
+        // Ticker time in nanoseconds at which the answer has been received
+        abstract long loadTime();
+
+        static CachedAnswer create(@Nullable Object answer, long loadTime) {
+            return new AutoValue_DnsClient_CachedAnswer(answer, loadTime);
+        }
+    }
+
+    /**
+     * Expires cached answers after the lowest TTL of their records. Empty answers are not cached.
+     */
+    @VisibleForTesting
+    static class AnswerExpiry implements Expiry<QueryKey, CachedAnswer> {
+        private final boolean cachingEnabled;
+
+        AnswerExpiry(boolean cachingEnabled) {
+            this.cachingEnabled = cachingEnabled;
+        }
+
+        @Override
+        public long expireAfterCreate(@NonNull QueryKey key, @NonNull CachedAnswer cachedAnswer, long currentTime) {
+            if (!cachingEnabled) {
+                return 0L;
+            }
+            final long elapsedNanos = Math.max(0L, currentTime - cachedAnswer.loadTime());
+            return Math.max(0L, TimeUnit.SECONDS.toNanos(minimumTTL(cachedAnswer.answer())) - elapsedNanos);
+        }
+
+        @Override
+        public long expireAfterUpdate(@NonNull QueryKey key, @NonNull CachedAnswer cachedAnswer, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, cachedAnswer, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(@NonNull QueryKey key, @NonNull CachedAnswer cachedAnswer, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+        @VisibleForTesting
+        static long minimumTTL(Object answer) {
+            if (answer instanceof DnsAnswer) {
+                return Math.max(0L, ((DnsAnswer) answer).dnsTTL());
+            }
+            if (answer instanceof List) {
+                long minimumTTL = Long.MAX_VALUE;
+                for (Object element : (List<?>) answer) {
+                    minimumTTL = Math.min(minimumTTL, minimumTTL(element));
+                }
+                return minimumTTL == Long.MAX_VALUE ? 0L : minimumTTL;
+            }
+            return 0L;
+        }
+    }
 }
@@ -46,6 +46,8 @@ public abstract class PtrDnsAnswer implements DnsAnswer {
     @JsonProperty(FIELD_DNS_TTL)
     public abstract long dnsTTL();
 
+    abstract Builder toBuilder();
+
     public static Builder builder() {
         return new AutoValue_PtrDnsAnswer.Builder();
     }
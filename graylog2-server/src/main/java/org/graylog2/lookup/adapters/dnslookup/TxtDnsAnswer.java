@@ -47,6 +47,8 @@ public abstract class TxtDnsAnswer implements DnsAnswer {
     @JsonProperty(FIELD_DNS_TTL)
     public abstract long dnsTTL();
 
+    abstract Builder toBuilder();
+
     public static Builder builder() {
         return new AutoValue_TxtDnsAnswer.Builder();
     }
@@ -16,33 +16,50 @@
  */
 package org.graylog2.lookup.caches;
 
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
 import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.github.benmanes.caffeine.cache.stats.StatsCounter;
 import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.graylog.autovalue.WithBeanGetter;
+import org.graylog2.lookup.db.DBCacheEntryService;
+import org.graylog2.plugin.Tools;
 import org.graylog2.plugin.lookup.LookupCache;
 import org.graylog2.plugin.lookup.LookupCacheConfiguration;
 import org.graylog2.plugin.lookup.LookupCacheKey;
 import org.graylog2.plugin.lookup.LookupResult;
+import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.inject.Named;
 import javax.validation.constraints.Min;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -52,56 +69,133 @@ public class CaffeineLookupCache extends LookupCache {
 
     // Use the old GuavaLookupCache name, so we don't have to deal with migrations
     public static final String NAME = "guava_cache";
-    private final Cache<LookupCacheKey, LookupResult> cache;
+    // Interval in which entries persisted by other nodes are loaded into the in-memory cache
+    private static final long SECOND_LEVEL_SYNC_INTERVAL_SECONDS = 10;
+    private final Cache<LookupCacheKey, CachedResult> cache;
+    private final Config config;
+    private final Ticker ticker;
+    private final long refreshAfterWriteNanos;
+    @Nullable
+    private final ExecutorService refreshExecutor;
+    // Keys with a background refresh in flight, used to coalesce refreshes of the same key
+    private final Set<LookupCacheKey> refreshingKeys = ConcurrentHashMap.newKeySet();
+    // Second level store, only set if entries should be persisted
+    @Nullable
+    private final DBCacheEntryService entryService;
+    @Nullable
+    private final ScheduledExecutorService scheduler;
+    @Nullable
+    private ScheduledFuture<?> secondLevelSyncFuture;
+    // Update time of the newest persisted entry which has been loaded into the in-memory cache
+    @Nullable
+    private DateTime secondLevelSyncedUntil;
+
+    private final Timer refreshTimer;
+    private final Meter staleHits;
+    private final Meter refreshFailures;
+    private final Meter secondLevelLoads;
 
     @Inject
     public CaffeineLookupCache(@Assisted("id") String id,
                                @Assisted("name") String name,
                                @Assisted LookupCacheConfiguration c,
                                @Named("processbuffer_processors") int processorCount,
-                               MetricRegistry metricRegistry) {
+                               MetricRegistry metricRegistry,
+                               DBCacheEntryService entryService,
+                               @Named("daemonScheduler") ScheduledExecutorService scheduler) {
+        this(id, name, c, metricRegistry, Ticker.systemTicker(), buildRefreshExecutor((Config) c, name, processorCount),
+                ((Config) c).persistEntries() ? entryService : null, scheduler);
+    }
+
+    @VisibleForTesting
+    CaffeineLookupCache(String id,
+                        String name,
+                        LookupCacheConfiguration c,
+                        MetricRegistry metricRegistry,
+                        Ticker ticker,
+                        @Nullable ExecutorService refreshExecutor,
+                        @Nullable DBCacheEntryService entryService,
+                        @Nullable ScheduledExecutorService scheduler) {
         super(id, name, c, metricRegistry);
-        Config config = (Config) c;
+        this.config = (Config) c;
+        this.ticker = ticker;
+        this.entryService = entryService;
+        this.scheduler = scheduler;
         Caffeine<Object, Object> builder = Caffeine.newBuilder();
 
         builder.recordStats(() -> new MetricStatsCounter(this));
 
         builder.maximumSize(config.maxSize());
         builder.expireAfter(buildExpiry(config));
+        builder.ticker(ticker);
 
         cache = builder.build();
+
+        //noinspection ConstantConditions
+        this.refreshAfterWriteNanos = config.refreshEnabled() ? config.refreshAfterWriteUnit().toNanos(config.refreshAfterWrite()) : 0L;
+        this.refreshExecutor = refreshExecutor;
+
+        this.refreshTimer = metricRegistry.timer(MetricRegistry.name("org.graylog2.lookup.caches", id, "refreshTime"));
+        this.staleHits = metricRegistry.meter(MetricRegistry.name("org.graylog2.lookup.caches", id, "staleHits"));
+        this.refreshFailures = metricRegistry.meter(MetricRegistry.name("org.graylog2.lookup.caches", id, "refreshFailures"));
+        this.secondLevelLoads = metricRegistry.meter(MetricRegistry.name("org.graylog2.lookup.caches", id, "secondLevelLoads"));
     }
 
-    private Expiry<LookupCacheKey, LookupResult> buildExpiry(Config config) {
-       return new Expiry<LookupCacheKey, LookupResult>() {
+    private static long expireAfterWriteNanos(Config config, LookupResult lookupResult) {
+        if (lookupResult.hasTTL()) {
+            return TimeUnit.MILLISECONDS.toNanos(lookupResult.cacheTTL());
+        } else {
+            if (lookupResult.isEmpty() && config.negativeTTLEnabled()) {
+                //noinspection ConstantConditions
+                return config.expireAfterWriteNegativeUnit().toNanos(config.expireAfterWriteNegative());
+            }
+            if (config.expireAfterWrite() > 0 && config.expireAfterWriteUnit() != null) {
+                //noinspection ConstantConditions
+                return config.expireAfterWriteUnit().toNanos(config.expireAfterWrite());
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
+    @Nullable
+    private static ExecutorService buildRefreshExecutor(Config config, String name, int processorCount) {
+        if (!config.refreshEnabled()) {
+            return null;
+        }
+        return Executors.newFixedThreadPool(Math.max(1, processorCount),
+                new ThreadFactoryBuilder().setNameFormat("lookup-cache-refresh-" + name + "-%d").setDaemon(true).build());
+    }
+
+    private Expiry<LookupCacheKey, CachedResult> buildExpiry(Config config) {
+       return new Expiry<LookupCacheKey, CachedResult>() {
            @Override
-           public long expireAfterCreate(@NonNull LookupCacheKey lookupCacheKey, @NonNull LookupResult lookupResult, long currentTime) {
-               if (lookupResult.hasTTL()) {
-                   return TimeUnit.MILLISECONDS.toNanos(lookupResult.cacheTTL());
-               } else {
-                   if (config.expireAfterWrite() > 0 && config.expireAfterWriteUnit() != null) {
-                       //noinspection ConstantConditions
-                       return config.expireAfterWriteUnit().toNanos(config.expireAfterWrite());
-                   }
-                   return Long.MAX_VALUE;
-               }
+           public long expireAfterCreate(@NonNull LookupCacheKey lookupCacheKey, @NonNull CachedResult cachedResult, long currentTime) {
+               return Math.min(expireAfterWriteNanos(config, cachedResult.result()), remainingNanos(cachedResult, currentTime));
            }
            @Override
-           public long expireAfterUpdate(@NonNull LookupCacheKey lookupCacheKey, @NonNull LookupResult lookupResult, long currentTime, long currentDuration) {
-               return currentDuration;
+           public long expireAfterUpdate(@NonNull LookupCacheKey lookupCacheKey, @NonNull CachedResult cachedResult, long currentTime, long currentDuration) {
+               // Updates only happen when a background refresh replaces a stale entry, which restarts its lifetime
+               return expireAfterCreate(lookupCacheKey, cachedResult, currentTime);
            }
 
            @Override
-           public long expireAfterRead(@NonNull LookupCacheKey lookupCacheKey, @NonNull LookupResult lookupResult, long currentTime, long currentDuration) {
+           public long expireAfterRead(@NonNull LookupCacheKey lookupCacheKey, @NonNull CachedResult cachedResult, long currentTime, long currentDuration) {
                if (config.expireAfterAccess() > 0 && config.expireAfterAccessUnit() != null) {
                    //noinspection ConstantConditions
-                   return config.expireAfterAccessUnit().toNanos(config.expireAfterAccess());
+                   return Math.min(config.expireAfterAccessUnit().toNanos(config.expireAfterAccess()), remainingNanos(cachedResult, currentTime));
                }
                return currentDuration;
            }
        };
     }
 
+    private static long remainingNanos(CachedResult cachedResult, long currentTime) {
+        if (cachedResult.expiresAt() == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0L, cachedResult.expiresAt() - currentTime);
+    }
+
     @Override
     public long entryCount() {
         if (cache != null) {
@@ -113,39 +207,170 @@ public class CaffeineLookupCache extends LookupCache {
 
     @Override
     protected void doStart() throws Exception {
+        if (entryService != null && id() != null) {
+            // Warm the in-memory cache with the entries other nodes or a previous run have persisted
+            final List<DBCacheEntryService.Entry> entries = entryService.findRecent(id(), config.maxSize());
+            loadPersistedEntries(entries);
+            LOG.debug("Loaded {} persisted entries into cache <{}/{}>", entries.size(), name(), id());
+
+            // Misses are loaded from the data adapter, reading the database on the processing threads would slow
+            // down every miss. Entries persisted by other nodes are picked up in the background instead.
+            if (scheduler != null) {
+                secondLevelSyncFuture = scheduler.scheduleWithFixedDelay(this::syncSecondLevel,
+                        SECOND_LEVEL_SYNC_INTERVAL_SECONDS, SECOND_LEVEL_SYNC_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            }
+        }
     }
 
     @Override
     protected void doStop() throws Exception {
+        if (secondLevelSyncFuture != null) {
+            secondLevelSyncFuture.cancel(false);
+        }
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void syncSecondLevel() {
+        if (entryService == null || id() == null) {
+            return;
+        }
+        try {
+            final List<DBCacheEntryService.Entry> entries = secondLevelSyncedUntil == null
+                    ? entryService.findRecent(id(), config.maxSize())
+                    : entryService.findUpdatedSince(id(), secondLevelSyncedUntil, config.maxSize());
+            loadPersistedEntries(entries);
+        } catch (Exception e) {
+            LOG.warn("Couldn't load persisted entries into cache <{}/{}>", name(), id(), e);
+        }
+    }
+
+    private synchronized void loadPersistedEntries(List<DBCacheEntryService.Entry> entries) {
+        final long now = ticker.read();
+        final long nowMillis = Tools.nowUTC().getMillis();
+        for (DBCacheEntryService.Entry entry : entries) {
+            if (secondLevelSyncedUntil == null || entry.updatedAt().isAfter(secondLevelSyncedUntil)) {
+                secondLevelSyncedUntil = entry.updatedAt();
+            }
+            // Persisted entries only live as long as they had left, they don't get a new lifetime in this cache
+            final long expiresAt;
+            if (entry.expiresAt() == null) {
+                expiresAt = Long.MAX_VALUE;
+            } else {
+                final long remainingMillis = entry.expiresAt().getMillis() - nowMillis;
+                if (remainingMillis <= 0) {
+                    continue;
+                }
+                expiresAt = now + TimeUnit.MILLISECONDS.toNanos(remainingMillis);
+            }
+            // Never replace entries which have been loaded by this node in the meantime
+            if (cache.asMap().putIfAbsent(entry.key(), CachedResult.create(entry.result(), now, expiresAt)) == null) {
+                secondLevelLoads.mark();
+            }
+        }
     }
 
     @Override
     public LookupResult get(LookupCacheKey key, Callable<LookupResult> loader) {
-        final Function<LookupCacheKey, LookupResult> mapFunction = unused -> {
-            try {
-                return loader.call();
-            } catch (Exception e) {
-                LOG.warn("Loading value from data adapter failed for key {}, returning empty result", key, e);
-                return LookupResult.withError();
-            }
+        // Caffeine only runs one mapping function per key at a time, so concurrent misses on the same key are coalesced
+        final Function<LookupCacheKey, CachedResult> mapFunction = unused -> {
+            final LookupResult result = load(key, loader);
+            persist(key, result);
+            return CachedResult.create(result, ticker.read());
         };
         try (final Timer.Context ignored = lookupTimer()) {
-            return cache.get(key, mapFunction);
+            final CachedResult cachedResult = cache.get(key, mapFunction);
+            if (cachedResult == null) {
+                return LookupResult.empty();
+            }
+            if (isStale(cachedResult)) {
+                staleHits.mark();
+                scheduleRefresh(key, loader);
+            }
+            return cachedResult.result();
+        }
+    }
+
+    private void persist(LookupCacheKey key, LookupResult result) {
+        if (entryService == null || id() == null || result.hasError()) {
+            return;
+        }
+        long ttlNanos = expireAfterWriteNanos(config, result);
+        if (ttlNanos == Long.MAX_VALUE && config.expireAfterAccess() > 0 && config.expireAfterAccessUnit() != null) {
+            // Entries which are only evicted on access would otherwise stay in the database forever
+            //noinspection ConstantConditions
+            ttlNanos = config.expireAfterAccessUnit().toNanos(config.expireAfterAccess());
+        }
+        final DateTime expiresAt = ttlNanos == Long.MAX_VALUE ? null : Tools.nowUTC().plus(TimeUnit.NANOSECONDS.toMillis(ttlNanos));
+        entryService.saveAsync(id(), key, result, expiresAt);
+    }
+
+    private LookupResult load(LookupCacheKey key, Callable<LookupResult> loader) {
+        try {
+            return loader.call();
+        } catch (Exception e) {
+            LOG.warn("Loading value from data adapter failed for key {}, returning empty result", key, e);
+            return LookupResult.withError();
+        }
+    }
+
+    private boolean isStale(CachedResult cachedResult) {
+        // Error results carry their own short TTL and are never served stale
+        return refreshAfterWriteNanos > 0
+                && !cachedResult.result().hasError()
+                && ticker.read() - cachedResult.writeTime() >= refreshAfterWriteNanos;
+    }
+
+    private void scheduleRefresh(LookupCacheKey key, Callable<LookupResult> loader) {
+        if (refreshExecutor == null || !refreshingKeys.add(key)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> refresh(key, loader));
+        } catch (RejectedExecutionException e) {
+            // The cache is being stopped, keep serving the stale value until it expires
+            refreshingKeys.remove(key);
+        }
+    }
+
+    @VisibleForTesting
+    void refresh(LookupCacheKey key, Callable<LookupResult> loader) {
+        try (final Timer.Context ignored = refreshTimer.time()) {
+            final LookupResult result = loader.call();
+            if (result == null || result.hasError()) {
+                // Keep serving the stale value, it will be refreshed again on the next access
+                refreshFailures.mark();
+                return;
+            }
+            // Don't resurrect entries that have been purged or expired while the refresh was running
+            if (cache.asMap().computeIfPresent(key, (k, v) -> CachedResult.create(result, ticker.read())) != null) {
+                persist(key, result);
+            }
+        } catch (Exception e) {
+            refreshFailures.mark();
+            LOG.warn("Refreshing value from data adapter failed for key {}, keeping stale value", key, e);
+        } finally {
+            refreshingKeys.remove(key);
         }
     }
 
     @Override
     public LookupResult getIfPresent(LookupCacheKey key) {
-        final LookupResult cacheEntry = cache.getIfPresent(key);
+        final CachedResult cacheEntry = cache.getIfPresent(key);
         if (cacheEntry == null) {
             return LookupResult.empty();
         }
-        return cacheEntry;
+        return cacheEntry.result();
     }
 
     @Override
     public void purge() {
         cache.invalidateAll();
+        if (entryService != null && id() != null) {
+            entryService.deleteAllAsync(id());
+        }
     }
 
     @Override
@@ -160,6 +385,9 @@ public class CaffeineLookupCache extends LookupCache {
         } else {
             cache.invalidate(purgeKey);
         }
+        if (entryService != null && id() != null) {
+            entryService.deleteAsync(id(), purgeKey);
+        }
     }
 
     public interface Factory extends LookupCache.Factory {
@@ -183,6 +411,9 @@ public class CaffeineLookupCache extends LookupCache {
                     .expireAfterAccess(60)
                     .expireAfterAccessUnit(TimeUnit.SECONDS)
                     .expireAfterWrite(0)
+                    .refreshAfterWrite(0)
+                    .expireAfterWriteNegative(0)
+                    .persistEntries(false)
                     .build();
         }
     }
@@ -190,7 +421,7 @@ public class CaffeineLookupCache extends LookupCache {
     @JsonAutoDetect
     @AutoValue
     @WithBeanGetter
-    @JsonDeserialize(builder = AutoValue_CaffeineLookupCache_Config.Builder.class)
+    @JsonDeserialize(builder = CaffeineLookupCache.Config.Builder.class)
     @JsonTypeName(NAME)
     public abstract static class Config implements LookupCacheConfiguration {
 
@@ -214,12 +445,60 @@ public class CaffeineLookupCache extends LookupCache {
         @JsonProperty("expire_after_write_unit")
         public abstract TimeUnit expireAfterWriteUnit();
 
+        /**
+         * Entries older than this are still served, but trigger an asynchronous reload from the data adapter.
+         * A value of {@code 0} disables refreshing.
+         */
+        @Min(0)
+        @JsonProperty("refresh_after_write")
+        public abstract long refreshAfterWrite();
+
+        @Nullable
+        @JsonProperty("refresh_after_write_unit")
+        public abstract TimeUnit refreshAfterWriteUnit();
+
+        /**
+         * Lifetime of empty lookup results. A value of {@code 0} uses the regular expire after write setting.
+         */
+        @Min(0)
+        @JsonProperty("expire_after_write_negative")
+        public abstract long expireAfterWriteNegative();
+
+        @Nullable
+        @JsonProperty("expire_after_write_negative_unit")
+        public abstract TimeUnit expireAfterWriteNegativeUnit();
+
+        /**
+         * Whether loaded entries are persisted in MongoDB. Persisted entries are shared with the other nodes and
+         * are used to warm the cache on startup.
+         */
+        @JsonProperty("persist_entries")
+        public abstract boolean persistEntries();
+
+        @JsonIgnore
+        public boolean refreshEnabled() {
+            return refreshAfterWrite() > 0 && refreshAfterWriteUnit() != null;
+        }
+
+        @JsonIgnore
+        public boolean negativeTTLEnabled() {
+            return expireAfterWriteNegative() > 0 && expireAfterWriteNegativeUnit() != null;
+        }
+
         public static Builder builder() {
             return new AutoValue_CaffeineLookupCache_Config.Builder();
         }
 
         @AutoValue.Builder
         public abstract static class Builder {
+            @JsonCreator
+            public static Builder create() {
+                return Config.builder()
+                        .refreshAfterWrite(0)
+                        .expireAfterWriteNegative(0)
+                        .persistEntries(false);
+            }
+
             @JsonProperty("type")
             public abstract Builder type(String type);
 
@@ -238,10 +517,45 @@ public class CaffeineLookupCache extends LookupCache {
             @JsonProperty("expire_after_write_unit")
             public abstract Builder expireAfterWriteUnit(@Nullable TimeUnit expireAfterWriteUnit);
 
+            @JsonProperty("refresh_after_write")
+            public abstract Builder refreshAfterWrite(long refreshAfterWrite);
+
+            @JsonProperty("refresh_after_write_unit")
+            public abstract Builder refreshAfterWriteUnit(@Nullable TimeUnit refreshAfterWriteUnit);
+
+            @JsonProperty("expire_after_write_negative")
+            public abstract Builder expireAfterWriteNegative(long expireAfterWriteNegative);
+
+            @JsonProperty("expire_after_write_negative_unit")
+            public abstract Builder expireAfterWriteNegativeUnit(@Nullable TimeUnit expireAfterWriteNegativeUnit);
+
+            @JsonProperty("persist_entries")
+            public abstract Builder persistEntries(boolean persistEntries);
+
             public abstract Config build();
         }
     }
 
+    @AutoValue
+    abstract static class CachedResult {
+        abstract LookupResult result();
+
+        // Ticker time in nanoseconds at which the result was loaded
+        abstract long writeTime();
+
+        // Ticker time in nanoseconds after which the result must not be served anymore, regardless of the cache
+        // settings. Only set for results which have been persisted by another node or a previous run.
+        abstract long expiresAt();
+
+        static CachedResult create(LookupResult result, long writeTime) {
+            return create(result, writeTime, Long.MAX_VALUE);
+        }
+
+        static CachedResult create(LookupResult result, long writeTime, long expiresAt) {
+            return new AutoValue_CaffeineLookupCache_CachedResult(result, writeTime, expiresAt);
+        }
+    }
+
     private static class MetricStatsCounter implements StatsCounter {
         private final LookupCache cache;
 
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.db;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.BasicDBObject;
+import org.bson.types.ObjectId;
+import org.graylog2.bindings.providers.MongoJackObjectMapperProvider;
+import org.graylog2.database.MongoConnection;
+import org.graylog2.database.MongoDBUpsertRetryer;
+import org.graylog2.lookup.dto.CacheEntryDto;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.lookup.LookupCacheKey;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.joda.time.DateTime;
+import org.mongojack.DBCursor;
+import org.mongojack.DBQuery;
+import org.mongojack.DBSort;
+import org.mongojack.DBUpdate;
+import org.mongojack.JacksonDBCollection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Second level store for lookup cache entries. Entries are shared by all nodes in the cluster and survive restarts,
+ * so a node can warm its in-memory cache on startup and avoid repeating expensive data adapter lookups.
+ * <p>
+ * The indices and the writer thread are only created once a cache actually uses the store.
+ */
+@Singleton
+public class DBCacheEntryService {
+    private static final Logger LOG = LoggerFactory.getLogger(DBCacheEntryService.class);
+
+    static final String COLLECTION_NAME = "lut_cache_entries";
+    private static final int WRITE_QUEUE_SIZE = 10_000;
+
+    private final JacksonDBCollection<CacheEntryDto, ObjectId> db;
+    private final ObjectMapper objectMapper;
+    private final Meter droppedWrites;
+    private volatile ExecutorService writeExecutor;
+
+    @Inject
+    public DBCacheEntryService(MongoConnection mongoConnection,
+                               MongoJackObjectMapperProvider mapper,
+                               ObjectMapper objectMapper,
+                               MetricRegistry metricRegistry) {
+        this.db = JacksonDBCollection.wrap(mongoConnection.getDatabase().getCollection(COLLECTION_NAME),
+                CacheEntryDto.class,
+                ObjectId.class,
+                mapper.get());
+        this.objectMapper = objectMapper;
+        this.droppedWrites = metricRegistry.meter(name(DBCacheEntryService.class, "droppedWrites"));
+    }
+
+    private ExecutorService initialize() {
+        ExecutorService executor = writeExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = writeExecutor;
+                if (executor == null) {
+                    createIndices();
+                    // Writes happen off the processing threads. If MongoDB can't keep up, entries are dropped instead
+                    // of slowing down lookups, they will be written again on the next load.
+                    executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(WRITE_QUEUE_SIZE),
+                            new ThreadFactoryBuilder().setNameFormat("lookup-cache-entry-writer-%d").setDaemon(true).build());
+                    writeExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    private void createIndices() {
+        db.createIndex(new BasicDBObject(ImmutableMap.of(
+                CacheEntryDto.FIELD_CACHE_ID, 1,
+                CacheEntryDto.FIELD_PREFIX, 1,
+                CacheEntryDto.FIELD_KEY, 1,
+                CacheEntryDto.FIELD_KEY_TYPE, 1
+        )), new BasicDBObject("unique", true));
+        db.createIndex(new BasicDBObject(ImmutableMap.of(
+                CacheEntryDto.FIELD_CACHE_ID, 1,
+                CacheEntryDto.FIELD_UPDATED_AT, -1
+        )));
+        // Documents without an expiry field are never removed by the TTL monitor
+        db.createIndex(new BasicDBObject(CacheEntryDto.FIELD_EXPIRES_AT, 1), new BasicDBObject("expireAfterSeconds", 0L));
+    }
+
+    /**
+     * Returns the most recently written, not yet expired entries of the given cache.
+     */
+    public List<Entry> findRecent(String cacheId, int limit) {
+        initialize();
+        return find(DBQuery.is(CacheEntryDto.FIELD_CACHE_ID, cacheId), limit);
+    }
+
+    /**
+     * Returns the not yet expired entries of the given cache which have been written after the given time.
+     */
+    public List<Entry> findUpdatedSince(String cacheId, DateTime since, int limit) {
+        initialize();
+        return find(DBQuery.and(
+                DBQuery.is(CacheEntryDto.FIELD_CACHE_ID, cacheId),
+                DBQuery.greaterThan(CacheEntryDto.FIELD_UPDATED_AT, since)
+        ), limit);
+    }
+
+    private List<Entry> find(DBQuery.Query query, int limit) {
+        final ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+        try (DBCursor<CacheEntryDto> cursor = db.find(query)
+                .sort(DBSort.desc(CacheEntryDto.FIELD_UPDATED_AT))
+                .limit(limit)) {
+            for (CacheEntryDto entry : cursor) {
+                if (!isExpired(entry)) {
+                    toEntry(entry).ifPresent(entries::add);
+                }
+            }
+        }
+        return entries.build();
+    }
+
+    /**
+     * Persists the given result in the background. Keys of types other than strings, numbers and booleans are not
+     * persisted.
+     */
+    public void saveAsync(String cacheId, LookupCacheKey key, LookupResult result, @Nullable DateTime expiresAt) {
+        if (!key.isPrefixOnly() && KeyType.of(key.key()).isPresent()) {
+            submit(() -> save(cacheId, key, result, expiresAt));
+        }
+    }
+
+    /**
+     * Removes a single entry or, if the key only contains a prefix, all entries with that prefix.
+     */
+    public void deleteAsync(String cacheId, LookupCacheKey key) {
+        submit(() -> delete(cacheId, key));
+    }
+
+    /**
+     * Removes all entries of the given cache, e.g. because the cache has been deleted or its configuration changed.
+     */
+    public void deleteAllAsync(String cacheId) {
+        final DBQuery.Query query = DBQuery.is(CacheEntryDto.FIELD_CACHE_ID, cacheId);
+        if (writeExecutor == null) {
+            // Entries of previous runs might exist, but there's no need to set up the store just to remove them
+            db.remove(query);
+        } else {
+            submit(() -> db.remove(query));
+        }
+    }
+
+    private void submit(Runnable runnable) {
+        try {
+            initialize().execute(runnable);
+        } catch (RejectedExecutionException e) {
+            droppedWrites.mark();
+        }
+    }
+
+    private void save(String cacheId, LookupCacheKey key, LookupResult result, @Nullable DateTime expiresAt) {
+        final String serializedResult;
+        try {
+            serializedResult = objectMapper.writeValueAsString(result);
+        } catch (JsonProcessingException e) {
+            LOG.warn("Couldn't serialize lookup result for key {} in cache <{}>", key, cacheId, e);
+            return;
+        }
+        //noinspection OptionalGetWithoutIsPresent
+        final KeyType keyType = KeyType.of(key.key()).get();
+        // Only set the fields so an upsert inserts the key fields from the query and keeps the ID of existing entries
+        final DBUpdate.Builder update = DBUpdate.set(CacheEntryDto.FIELD_RESULT, serializedResult)
+                .set(CacheEntryDto.FIELD_UPDATED_AT, Tools.nowUTC());
+        if (expiresAt == null) {
+            update.unset(CacheEntryDto.FIELD_EXPIRES_AT);
+        } else {
+            update.set(CacheEntryDto.FIELD_EXPIRES_AT, expiresAt);
+        }
+        try {
+            MongoDBUpsertRetryer.run(() -> db.update(keyQuery(cacheId, key, keyType), update, true, false));
+        } catch (Exception e) {
+            LOG.warn("Couldn't persist lookup cache entry for key {} in cache <{}>", key, cacheId, e);
+        }
+    }
+
+    private void delete(String cacheId, LookupCacheKey key) {
+        if (key.isPrefixOnly()) {
+            db.remove(DBQuery.and(
+                    DBQuery.is(CacheEntryDto.FIELD_CACHE_ID, cacheId),
+                    DBQuery.is(CacheEntryDto.FIELD_PREFIX, key.prefix())
+            ));
+        } else {
+            KeyType.of(key.key()).ifPresent(keyType -> db.remove(keyQuery(cacheId, key, keyType)));
+        }
+    }
+
+    private DBQuery.Query keyQuery(String cacheId, LookupCacheKey key, KeyType keyType) {
+        return DBQuery.and(
+                DBQuery.is(CacheEntryDto.FIELD_CACHE_ID, cacheId),
+                DBQuery.is(CacheEntryDto.FIELD_PREFIX, key.prefix()),
+                DBQuery.is(CacheEntryDto.FIELD_KEY, String.valueOf(key.key())),
+                DBQuery.is(CacheEntryDto.FIELD_KEY_TYPE, keyType.name())
+        );
+    }
+
+    private boolean isExpired(CacheEntryDto entry) {
+        // The TTL monitor only runs once a minute, so expired documents might still be around
+        return entry.expiresAt() != null && entry.expiresAt().isBefore(Tools.nowUTC());
+    }
+
+    private Optional<Entry> toEntry(CacheEntryDto entry) {
+        final Optional<KeyType> keyType = Arrays.stream(KeyType.values())
+                .filter(type -> type.name().equals(entry.keyType()))
+                .findFirst();
+        if (!keyType.isPresent()) {
+            LOG.warn("Unknown key type <{}> of lookup cache entry <{}>, ignoring it", entry.keyType(), entry.id());
+            return Optional.empty();
+        }
+        try {
+            final Object key = keyType.get().parse(entry.key());
+            final LookupResult result = objectMapper.readValue(entry.result(), LookupResult.class);
+            return Optional.of(Entry.create(LookupCacheKey.createFromJSON(entry.prefix(), key), result,
+                    entry.updatedAt(), entry.expiresAt()));
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.warn("Couldn't deserialize lookup cache entry <{}>, ignoring it", entry.id(), e);
+            return Optional.empty();
+        }
+    }
+
+    private enum KeyType {
+        STRING(String.class, value -> value),
+        LONG(Long.class, Long::valueOf),
+        INTEGER(Integer.class, Integer::valueOf),
+        DOUBLE(Double.class, Double::valueOf),
+        FLOAT(Float.class, Float::valueOf),
+        BOOLEAN(Boolean.class, Boolean::valueOf);
+
+        private final Class<?> type;
+        private final Function<String, Object> parser;
+
+        KeyType(Class<?> type, Function<String, Object> parser) {
+            this.type = type;
+            this.parser = parser;
+        }
+
+        Object parse(String value) {
+            return parser.apply(value);
+        }
+
+        static Optional<KeyType> of(@Nullable Object key) {
+            if (key == null) {
+                return Optional.empty();
+            }
+            return Arrays.stream(values()).filter(keyType -> keyType.type.equals(key.getClass())).findFirst();
+        }
+    }
+
+    @AutoValue
+    public abstract static class Entry {
+        public abstract LookupCacheKey key();
+
+        public abstract LookupResult result();
+
+        public abstract DateTime updatedAt();
+
+        @Nullable
+        public abstract DateTime expiresAt();
+
+        public static Entry create(LookupCacheKey key, LookupResult result, DateTime updatedAt, @Nullable DateTime expiresAt) {
+            return new AutoValue_DBCacheEntryService_Entry(key, result, updatedAt, expiresAt);
+        }
+    }
+}
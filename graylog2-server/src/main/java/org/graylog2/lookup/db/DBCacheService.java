@@ -42,17 +42,20 @@ import java.util.stream.Collectors;
 public class DBCacheService {
     private final JacksonDBCollection<CacheDto, ObjectId> db;
     private final ClusterEventBus clusterEventBus;
+    private final DBCacheEntryService cacheEntryService;
 
     @Inject
     public DBCacheService(MongoConnection mongoConnection,
                           MongoJackObjectMapperProvider mapper,
-                          ClusterEventBus clusterEventBus) {
+                          ClusterEventBus clusterEventBus,
+                          DBCacheEntryService cacheEntryService) {
 
         this.db = JacksonDBCollection.wrap(mongoConnection.getDatabase().getCollection("lut_caches"),
                 CacheDto.class,
                 ObjectId.class,
                 mapper.get());
         this.clusterEventBus = clusterEventBus;
+        this.cacheEntryService = cacheEntryService;
 
         db.createIndex(new BasicDBObject("name", 1), new BasicDBObject("unique", true));
     }
@@ -70,6 +73,10 @@ public class DBCacheService {
     public CacheDto save(CacheDto table) {
         WriteResult<CacheDto, ObjectId> save = db.save(table);
         final CacheDto savedCache = save.getSavedObject();
+        if (table.id() != null) {
+            // Persisted entries might not match the changed configuration, e.g. their TTL
+            cacheEntryService.deleteAllAsync(savedCache.id());
+        }
         clusterEventBus.post(CachesUpdated.create(savedCache.id()));
 
         return savedCache;
@@ -94,7 +101,10 @@ public class DBCacheService {
         cacheDto.map(CacheDto::id)
                 .map(ObjectId::new)
                 .ifPresent(db::removeById);
-        cacheDto.ifPresent(cache -> clusterEventBus.post(CachesDeleted.create(cache.id())));
+        cacheDto.ifPresent(cache -> {
+            cacheEntryService.deleteAllAsync(cache.id());
+            clusterEventBus.post(CachesDeleted.create(cache.id()));
+        });
     }
 
     public Collection<CacheDto> findByIds(Set<String> idSet) {
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.auto.value.AutoValue;
+import org.joda.time.DateTime;
+import org.mongojack.Id;
+import org.mongojack.ObjectId;
+
+import javax.annotation.Nullable;
+
+/**
+ * A lookup result persisted by a lookup cache, shared by all nodes and surviving restarts.
+ */
+@AutoValue
+@JsonDeserialize(builder = CacheEntryDto.Builder.class)
+public abstract class CacheEntryDto {
+    public static final String FIELD_ID = "id";
+    public static final String FIELD_CACHE_ID = "cache_id";
+    public static final String FIELD_PREFIX = "prefix";
+    public static final String FIELD_KEY = "key";
+    public static final String FIELD_KEY_TYPE = "key_type";
+    public static final String FIELD_RESULT = "result";
+    public static final String FIELD_UPDATED_AT = "updated_at";
+    public static final String FIELD_EXPIRES_AT = "expires_at";
+
+    @Id
+    @ObjectId
+    @Nullable
+    @JsonProperty(FIELD_ID)
+    public abstract String id();
+
+    @JsonProperty(FIELD_CACHE_ID)
+    public abstract String cacheId();
+
+    @JsonProperty(FIELD_PREFIX)
+    public abstract String prefix();
+
+    /**
+     * The string representation of the key, see {@link #keyType()}.
+     */
+    @JsonProperty(FIELD_KEY)
+    public abstract String key();
+
+    /**
+     * The type of the key. Keys are stored as strings, so numeric keys are deserialized to their original type and
+     * are equal to the keys used for lookups.
+     */
+    @JsonProperty(FIELD_KEY_TYPE)
+    public abstract String keyType();
+
+    /**
+     * The JSON serialized {@link org.graylog2.plugin.lookup.LookupResult}. Multi value maps may contain keys
+     * which are not valid MongoDB field names, so the result is not stored as a document.
+     */
+    @JsonProperty(FIELD_RESULT)
+    public abstract String result();
+
+    @JsonProperty(FIELD_UPDATED_AT)
+    public abstract DateTime updatedAt();
+
+    @JsonProperty(FIELD_EXPIRES_AT)
+    @Nullable
+    public abstract DateTime expiresAt();
+
+    public static Builder builder() {
+        return Builder.create();
+    }
+
+    @AutoValue.Builder
+    public abstract static class Builder {
+        @JsonCreator
+        public static Builder create() {
+            return new AutoValue_CacheEntryDto.Builder();
+        }
+
+        @Id
+        @ObjectId
+        @JsonProperty(FIELD_ID)
+        public abstract Builder id(@Nullable String id);
+
+        @JsonProperty(FIELD_CACHE_ID)
+        public abstract Builder cacheId(String cacheId);
+
+        @JsonProperty(FIELD_PREFIX)
+        public abstract Builder prefix(String prefix);
+
+        @JsonProperty(FIELD_KEY)
+        public abstract Builder key(String key);
+
+        @JsonProperty(FIELD_KEY_TYPE)
+        public abstract Builder keyType(String keyType);
+
+        @JsonProperty(FIELD_RESULT)
+        public abstract Builder result(String result);
+
+        @JsonProperty(FIELD_UPDATED_AT)
+        public abstract Builder updatedAt(DateTime updatedAt);
+
+        @JsonProperty(FIELD_EXPIRES_AT)
+        public abstract Builder expiresAt(@Nullable DateTime expiresAt);
+
+        public abstract CacheEntryDto build();
+    }
+}
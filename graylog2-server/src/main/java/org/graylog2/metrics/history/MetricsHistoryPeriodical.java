@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.metrics.history;
+
+import com.codahale.metrics.Counting;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import org.graylog2.Configuration;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.periodical.Periodical;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the metrics configured in {@link Configuration#getMetricsHistoryMetrics()} every second and records them
+ * in the {@link MetricsHistoryStore}. Gauges are recorded with their current value, counters, meters, histograms and
+ * timers with their rate per second.
+ */
+public class MetricsHistoryPeriodical extends Periodical {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsHistoryPeriodical.class);
+    private static final long CLEANUP_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final MetricRegistry metricRegistry;
+    private final MetricsHistoryStore store;
+    private final Set<String> metricNames;
+    private final boolean enabled;
+    private final Map<String, CountSample> previousCounts = new HashMap<>();
+    private long lastCleanup = 0L;
+
+    @Inject
+    public MetricsHistoryPeriodical(MetricRegistry metricRegistry,
+                                    MetricsHistoryStore store,
+                                    Configuration configuration) {
+        this.metricRegistry = metricRegistry;
+        this.store = store;
+        this.metricNames = configuration.getMetricsHistoryMetrics();
+        this.enabled = configuration.isMetricsHistoryEnabled();
+    }
+
+    @Override
+    public boolean runsForever() {
+        return false;
+    }
+
+    @Override
+    public boolean stopOnGracefulShutdown() {
+        return true;
+    }
+
+    @Override
+    public boolean masterOnly() {
+        return false;
+    }
+
+    @Override
+    public boolean startOnThisNode() {
+        return enabled;
+    }
+
+    @Override
+    public boolean isDaemon() {
+        return true;
+    }
+
+    @Override
+    public int getInitialDelaySeconds() {
+        return 0;
+    }
+
+    @Override
+    public int getPeriodSeconds() {
+        return 1;
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return LOG;
+    }
+
+    @Override
+    public void doRun() {
+        final long now = Tools.nowUTC().getMillis();
+        final Map<String, Metric> metrics = metricRegistry.getMetrics();
+        for (String metricName : metricNames) {
+            final Metric metric = metrics.get(metricName);
+            if (metric instanceof Gauge) {
+                final Object value = ((Gauge<?>) metric).getValue();
+                if (value instanceof Number) {
+                    store.record(metricName, now, ((Number) value).doubleValue());
+                }
+            } else if (metric instanceof Counting) {
+                final long count = ((Counting) metric).getCount();
+                final CountSample previous = previousCounts.put(metricName, new CountSample(now, count));
+                // The first sample only serves as baseline for the rate
+                if (previous != null && now > previous.timestamp) {
+                    store.record(metricName, now, (count - previous.count) * 1000.0d / (now - previous.timestamp));
+                }
+            }
+        }
+
+        if (now - lastCleanup >= CLEANUP_INTERVAL_MS) {
+            store.deleteExpired(now);
+            lastCleanup = now;
+        }
+    }
+
+    private static class CountSample {
+        private final long timestamp;
+        private final long count;
+
+        private CountSample(long timestamp, long count) {
+            this.timestamp = timestamp;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.metrics.history;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.BaseEncoding;
+import org.graylog2.Configuration;
+import org.graylog2.plugin.Tools;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Stores the history of selected metrics of this node, so the minutes before an incident can be inspected without an
+ * external time-series database.
+ * <p>
+ * The samples of the last hour are kept in memory at their original resolution of one second. Additionally, the
+ * samples are rolled up into one record (count, min, max and sum) per minute, which is appended to one file per metric
+ * and day in the data directory. The timestamps of these records are stored as variable-length offsets into the day,
+ * so a record takes less than 30 bytes. Files older than the configured retention are deleted by
+ * {@link #deleteExpired(long)}.
+ */
+@Singleton
+public class MetricsHistoryStore {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsHistoryStore.class);
+
+    static final int RAW_RETENTION_SECONDS = 3600;
+    private static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final String FILE_SUFFIX = ".dat";
+
+    private final Path directory;
+    private final long retentionMs;
+    private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<>();
+
+    @Inject
+    public MetricsHistoryStore(Configuration configuration) {
+        this(configuration.getDataDir().resolve("metrics-history"), configuration.getMetricsHistoryRetention());
+    }
+
+    @VisibleForTesting
+    MetricsHistoryStore(Path directory, Duration retention) {
+        this.directory = directory.normalize();
+        this.retentionMs = retention.toMilliseconds();
+    }
+
+    /**
+     * Records a sample of the given metric. Samples must be recorded in chronological order.
+     *
+     * @param name      the name of the metric
+     * @param timestamp the time of the sample in milliseconds since the epoch
+     * @param value     the sampled value
+     */
+    public void record(String name, long timestamp, double value) {
+        series.computeIfAbsent(name, Series::new).record(timestamp, value);
+    }
+
+    /**
+     * Returns the samples of the given metric in the given time range. If the time range starts within the last hour,
+     * the samples are returned at their original resolution, otherwise the per-minute rollups are returned.
+     *
+     * @param name the name of the metric
+     * @param from the start of the time range in milliseconds since the epoch (inclusive)
+     * @param to   the end of the time range in milliseconds since the epoch (inclusive)
+     * @return the samples in chronological order
+     */
+    public List<DataPoint> query(String name, long from, long to) {
+        final Series metricSeries = series.get(name);
+        if (metricSeries != null && metricSeries.coversRaw(from)) {
+            return metricSeries.raw(from, to);
+        }
+        return rollups(name, from, to);
+    }
+
+    /**
+     * Deletes all files containing only rollups older than the configured retention.
+     *
+     * @param now the current time in milliseconds since the epoch
+     */
+    public void deleteExpired(long now) {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        final String oldestRetainedFile = fileName(new LocalDate(now - retentionMs, DateTimeZone.UTC));
+        try (DirectoryStream<Path> seriesDirectories = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path seriesDirectory : seriesDirectories) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(seriesDirectory, "*" + FILE_SUFFIX)) {
+                    for (Path file : files) {
+                        // The file names are ISO dates, so they sort chronologically
+                        if (file.getFileName().toString().compareTo(oldestRetainedFile) < 0) {
+                            LOG.debug("Deleting expired metrics history file <{}>", file);
+                            Files.deleteIfExists(file);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Couldn't delete expired metrics history files in <{}>", directory, e);
+        }
+    }
+
+    private List<DataPoint> rollups(String name, long from, long to) {
+        final List<DataPoint> dataPoints = new ArrayList<>();
+        final Path seriesDirectory = seriesDirectory(name);
+        // Don't look for files which have already been deleted
+        final long earliest = Math.max(from, Tools.nowUTC().getMillis() - retentionMs - TimeUnit.DAYS.toMillis(1));
+        for (LocalDate day = new LocalDate(earliest, DateTimeZone.UTC); !day.isAfter(new LocalDate(to, DateTimeZone.UTC)); day = day.plusDays(1)) {
+            final long dayStart = day.toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis();
+            try (InputStream inputStream = Files.newInputStream(seriesDirectory.resolve(fileName(day)))) {
+                final DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream));
+                while (true) {
+                    final Rollup rollup;
+                    try {
+                        rollup = Rollup.read(input, dayStart);
+                    } catch (EOFException e) {
+                        // End of file or a record which is currently being written
+                        break;
+                    }
+                    if (rollup.minute >= from && rollup.minute <= to) {
+                        dataPoints.add(rollup.toDataPoint());
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // No samples on this day
+            } catch (IOException e) {
+                LOG.warn("Couldn't read metrics history of <{}> for {}", name, day, e);
+            }
+        }
+        return dataPoints;
+    }
+
+    private void append(String name, Rollup rollup) {
+        final LocalDate day = new LocalDate(rollup.minute, DateTimeZone.UTC);
+        final Path seriesDirectory = seriesDirectory(name);
+        try {
+            Files.createDirectories(seriesDirectory);
+            try (OutputStream outputStream = Files.newOutputStream(seriesDirectory.resolve(fileName(day)),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+                rollup.write(output, day.toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis());
+                output.flush();
+            }
+        } catch (IOException e) {
+            LOG.warn("Couldn't write metrics history of <{}>", name, e);
+        }
+    }
+
+    /**
+     * Metric names are passed in by REST requests, so they are encoded to keep them from escaping the history
+     * directory. The encoding is also unique, unlike replacing characters which aren't valid in file names.
+     */
+    @VisibleForTesting
+    Path seriesDirectory(String name) {
+        final Path seriesDirectory = directory.resolve(BaseEncoding.base64Url().omitPadding().encode(name.getBytes(StandardCharsets.UTF_8)));
+        checkArgument(directory.equals(seriesDirectory.normalize().getParent()), "Invalid metric name <%s>", name);
+        return seriesDirectory;
+    }
+
+    private static String fileName(LocalDate day) {
+        return day.toString() + FILE_SUFFIX;
+    }
+
+    private class Series {
+        private final String name;
+        private final long[] seconds = new long[RAW_RETENTION_SECONDS];
+        private final double[] values = new double[RAW_RETENTION_SECONDS];
+        private long firstSecond = Long.MAX_VALUE;
+        private long lastSecond = Long.MIN_VALUE;
+        private Rollup currentRollup;
+
+        private Series(String name) {
+            this.name = name;
+        }
+
+        synchronized void record(long timestamp, double value) {
+            final long second = Math.floorDiv(timestamp, 1000L);
+            final int slot = (int) Math.floorMod(second, (long) RAW_RETENTION_SECONDS);
+            seconds[slot] = second;
+            values[slot] = value;
+            firstSecond = Math.min(firstSecond, second);
+            lastSecond = Math.max(lastSecond, second);
+
+            final long minute = Math.floorDiv(timestamp, MINUTE_MS) * MINUTE_MS;
+            if (currentRollup != null && currentRollup.minute != minute) {
+                append(name, currentRollup);
+                currentRollup = null;
+            }
+            if (currentRollup == null) {
+                currentRollup = new Rollup(minute);
+            }
+            currentRollup.add(value);
+        }
+
+        synchronized boolean coversRaw(long from) {
+            return firstSecond != Long.MAX_VALUE
+                    && Math.floorDiv(from, 1000L) >= Math.max(firstSecond, lastSecond - RAW_RETENTION_SECONDS + 1);
+        }
+
+        synchronized List<DataPoint> raw(long from, long to) {
+            final List<DataPoint> dataPoints = new ArrayList<>();
+            final long fromSecond = -Math.floorDiv(-from, 1000L);
+            final long toSecond = Math.min(Math.floorDiv(to, 1000L), fromSecond + RAW_RETENTION_SECONDS - 1);
+            for (long second = fromSecond; second <= toSecond; second++) {
+                final int slot = (int) Math.floorMod(second, (long) RAW_RETENTION_SECONDS);
+                if (seconds[slot] == second) {
+                    final double value = values[slot];
+                    dataPoints.add(DataPoint.create(new DateTime(second * 1000L, DateTimeZone.UTC), value, value, value, 1));
+                }
+            }
+            return dataPoints;
+        }
+    }
+
+    private static class Rollup {
+        private final long minute;
+        private long count;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double sum;
+
+        private Rollup(long minute) {
+            this.minute = minute;
+        }
+
+        void add(double value) {
+            count++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+        }
+
+        DataPoint toDataPoint() {
+            return DataPoint.create(new DateTime(minute, DateTimeZone.UTC), sum / count, min, max, count);
+        }
+
+        void write(DataOutputStream output, long dayStart) throws IOException {
+            writeVarLong(output, (minute - dayStart) / MINUTE_MS);
+            writeVarLong(output, count);
+            output.writeDouble(min);
+            output.writeDouble(max);
+            output.writeDouble(sum);
+        }
+
+        static Rollup read(DataInputStream input, long dayStart) throws IOException {
+            final Rollup rollup = new Rollup(dayStart + readVarLong(input) * MINUTE_MS);
+            rollup.count = readVarLong(input);
+            rollup.min = input.readDouble();
+            rollup.max = input.readDouble();
+            rollup.sum = input.readDouble();
+            return rollup;
+        }
+
+        private static void writeVarLong(DataOutputStream output, long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                output.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            output.writeByte((int) value);
+        }
+
+        private static long readVarLong(DataInputStream input) throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = input.readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed variable-length number");
+        }
+    }
+
+    @AutoValue
+    @JsonAutoDetect
+    public static abstract class DataPoint {
+        @JsonProperty("timestamp")
+        public abstract DateTime timestamp();
+
+        @JsonProperty("value")
+        public abstract double value();
+
+        @JsonProperty("min")
+        public abstract double min();
+
+        @JsonProperty("max")
+        public abstract double max();
+
+        @JsonProperty("samples")
+        public abstract long samples();
+
+        public static DataPoint create(DateTime timestamp, double value, double min, double max, long samples) {
+            return new AutoValue_MetricsHistoryStore_DataPoint(timestamp, value, min, max, samples);
+        }
+    }
+}
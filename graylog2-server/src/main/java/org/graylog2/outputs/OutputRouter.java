@@ -16,6 +16,10 @@
  */
 package org.graylog2.outputs;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.outputs.MessageOutput;
 import org.graylog2.plugin.streams.Output;
@@ -24,10 +28,18 @@ import org.graylog2.plugin.streams.Stream;
 import javax.inject.Inject;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class OutputRouter {
     private final MessageOutput defaultMessageOutput;
     private final OutputRegistry outputRegistry;
+    // Most messages are routed to one of a few stream combinations, so the outputs are resolved once per combination.
+    // The entries expire quickly to pick up changed stream outputs and outputs which could not be started before.
+    private final Cache<Set<Stream>, Set<MessageOutput>> streamOutputsCache = CacheBuilder.newBuilder()
+            .expireAfterWrite(1, TimeUnit.SECONDS)
+            .maximumSize(1000)
+            .build();
 
     @Inject
     public OutputRouter(@DefaultMessageOutput MessageOutput defaultMessageOutput,
@@ -49,19 +61,38 @@ public class OutputRouter {
     }
 
     public Set<MessageOutput> getOutputsForMessage(final Message msg) {
-        final Set<MessageOutput> result = getStreamOutputsForMessage(msg);
+        final Set<MessageOutput> result = new HashSet<>(getStreamOutputsForMessage(msg));
         result.add(defaultMessageOutput);
 
         return result;
     }
 
+    /**
+     * Returns the outputs of all streams of the given message.
+     *
+     * @return an immutable set of message outputs, shared between messages with the same streams
+     */
     public Set<MessageOutput> getStreamOutputsForMessage(final Message msg) {
-        final Set<MessageOutput> result = new HashSet<>();
+        final Set<Stream> streams = msg.getStreams();
+        if (streams.isEmpty()) {
+            return ImmutableSet.of();
+        }
+
+        try {
+            return streamOutputsCache.get(streams, () -> getStreamOutputs(streams));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            // Resolve the outputs without the cache to surface the original exception
+            return getStreamOutputs(streams);
+        }
+    }
+
+    private Set<MessageOutput> getStreamOutputs(Set<Stream> streams) {
+        final ImmutableSet.Builder<MessageOutput> result = ImmutableSet.builder();
 
-        for (Stream stream : msg.getStreams()) {
+        for (Stream stream : streams) {
             result.addAll(getMessageOutputsForStream(stream));
         }
 
-        return result;
+        return result.build();
     }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Snapshot of the free capacity of the input buffer and the process buffer, which is published frequently to
+ * allow {@link org.graylog2.plugin.inputs.transports.ThrottleableTransport throttleable transports} to react to
+ * full buffers before the journal grows.
+ */
+public class BufferCapacityState {
+    public final long inputBufferCapacity;
+    public final long inputBufferSize;
+    public final long processBufferCapacity;
+    public final long processBufferSize;
+
+    public BufferCapacityState(long inputBufferCapacity,
+                               long inputBufferSize,
+                               long processBufferCapacity,
+                               long processBufferSize) {
+        this.inputBufferCapacity = inputBufferCapacity;
+        this.inputBufferSize = inputBufferSize;
+        this.processBufferCapacity = processBufferCapacity;
+        this.processBufferSize = processBufferSize;
+    }
+
+    /**
+     * Creates a state which only considers the input buffer. With the message journal enabled, the process buffer
+     * stays full as long as there is a backlog in the journal, which must not stop inputs from reading.
+     */
+    public static BufferCapacityState inputBufferOnly(long inputBufferCapacity, long inputBufferSize) {
+        return new BufferCapacityState(inputBufferCapacity, inputBufferSize, 0L, 0L);
+    }
+
+    /**
+     * Buffers with a size of 0 are ignored.
+     *
+     * @return the ratio of free slots (between 0 and 1) of the buffer which is fuller
+     */
+    public double freeRatio() {
+        return Math.min(ratio(inputBufferCapacity, inputBufferSize), ratio(processBufferCapacity, processBufferSize));
+    }
+
+    private static double ratio(long capacity, long size) {
+        return size <= 0 ? 1.0d : capacity / (double) size;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("ibCapacity", inputBufferCapacity)
+                .add("ibSize", inputBufferSize)
+                .add("pbCapacity", processBufferCapacity)
+                .add("pbSize", processBufferSize)
+                .toString();
+    }
+}
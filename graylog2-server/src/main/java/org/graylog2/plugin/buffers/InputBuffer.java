@@ -18,6 +18,30 @@ package org.graylog2.plugin.buffers;
 
 import org.graylog2.plugin.journal.RawMessage;
 
+import java.util.List;
+
 public interface InputBuffer extends EventBuffer {
     void insert(RawMessage message);
+
+    /**
+     * Inserts the given messages. Implementations backed by a ring buffer should override this to claim the slots
+     * for all messages at once.
+     */
+    default void insert(List<RawMessage> messages) {
+        for (RawMessage message : messages) {
+            insert(message);
+        }
+    }
+
+    /**
+     * Implementations which can't tell their free capacity return 0 for the {@link #getRingBufferSize() size} which
+     * disables the throttling of inputs based on this buffer.
+     */
+    default long getRemainingCapacity() {
+        return 0L;
+    }
+
+    default int getRingBufferSize() {
+        return 0;
+    }
 }
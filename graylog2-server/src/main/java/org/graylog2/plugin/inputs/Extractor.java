@@ -19,6 +19,7 @@ package org.graylog2.plugin.inputs;
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import com.google.common.base.CharMatcher;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -30,6 +31,7 @@ import org.graylog2.shared.utilities.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -38,6 +40,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -45,6 +48,7 @@ import static com.codahale.metrics.MetricRegistry.name;
 
 public abstract class Extractor implements EmbeddedPersistable {
     private static final Logger LOG = LoggerFactory.getLogger(Extractor.class);
+    private static final CharMatcher REGEX_META_CHARACTERS = CharMatcher.anyOf("\\^$.|?*+()[]{}");
 
     public static final String FIELD_ID = "id";
     public static final String FIELD_TITLE = "title";
@@ -115,6 +119,9 @@ public abstract class Extractor implements EmbeddedPersistable {
     protected long order;
 
     protected Pattern regexConditionPattern;
+    // Regex conditions without any meta characters are evaluated as plain substring search
+    private String regexConditionLiteral;
+    private final String conditionKey;
 
     private final Counter conditionHitsCounter;
     private final Counter conditionMissesCounter;
@@ -173,7 +180,11 @@ public abstract class Extractor implements EmbeddedPersistable {
 
         if (conditionType.equals(ConditionType.REGEX)) {
             this.regexConditionPattern = Pattern.compile(conditionValue, Pattern.DOTALL);
+            if (REGEX_META_CHARACTERS.matchesNoneOf(conditionValue)) {
+                this.regexConditionLiteral = conditionValue;
+            }
         }
+        this.conditionKey = conditionType + ":" + conditionValue;
 
         final String metricsPrefix = name(getClass(), getType().toString().toLowerCase(Locale.ENGLISH), getId());
         this.conditionHitsCounterName = name(metricsPrefix, "conditionHits");
@@ -191,6 +202,17 @@ public abstract class Extractor implements EmbeddedPersistable {
     }
 
     public void runExtractor(Message msg) {
+        runExtractor(msg, null);
+    }
+
+    /**
+     * Runs the extractor on the given message.
+     *
+     * @param msg              the message to extract from
+     * @param conditionResults the condition results of the extractors which already ran on the message, to avoid
+     *                         evaluating the same condition on the same field value more than once
+     */
+    public void runExtractor(Message msg, @Nullable ConditionResults conditionResults) {
         try(final Timer.Context ignored = completeTimer.time()) {
             final String field;
             try (final Timer.Context ignored2 = conditionTimer.time()) {
@@ -203,15 +225,11 @@ public abstract class Extractor implements EmbeddedPersistable {
                 field = (String) msg.getField(sourceField);
 
                 // Decide if to extract at all.
-                if (conditionType.equals(ConditionType.STRING)) {
-                    if (field.contains(conditionValue)) {
-                        conditionHitsCounter.inc();
-                    } else {
-                        conditionMissesCounter.inc();
-                        return;
-                    }
-                } else if (conditionType.equals(ConditionType.REGEX)) {
-                    if (regexConditionPattern.matcher(field).find()) {
+                if (!conditionType.equals(ConditionType.NONE)) {
+                    final boolean matches = conditionResults == null
+                            ? conditionMatches(field)
+                            : conditionResults.matches(conditionKey, field, this::conditionMatches);
+                    if (matches) {
                         conditionHitsCounter.inc();
                     } else {
                         conditionMissesCounter.inc();
@@ -268,6 +286,17 @@ public abstract class Extractor implements EmbeddedPersistable {
         }
     }
 
+    private boolean conditionMatches(String field) {
+        switch (conditionType) {
+            case STRING:
+                return field.contains(conditionValue);
+            case REGEX:
+                return regexConditionLiteral != null ? field.contains(regexConditionLiteral) : regexConditionPattern.matcher(field).find();
+            default:
+                return true;
+        }
+    }
+
     private void runConverters(Message msg) {
         try(final Timer.Context ignored = converterTimer.time()) {
             for (Converter converter : converters) {
@@ -313,6 +342,36 @@ public abstract class Extractor implements EmbeddedPersistable {
         }
     }
 
+    /**
+     * Condition results of the extractors which ran on a single message. Extractors with the same condition only
+     * evaluate it once as long as the value of the source field stays the same.
+     * <p>
+     * Not thread-safe, a new instance has to be used for every message.
+     */
+    public static class ConditionResults {
+        private final Map<String, ConditionResult> results = new HashMap<>();
+
+        private boolean matches(String conditionKey, String field, Predicate<String> condition) {
+            final ConditionResult result = results.get(conditionKey);
+            if (result != null && result.field.equals(field)) {
+                return result.matches;
+            }
+            final boolean matches = condition.test(field);
+            results.put(conditionKey, new ConditionResult(field, matches));
+            return matches;
+        }
+
+        private static class ConditionResult {
+            private final String field;
+            private final boolean matches;
+
+            private ConditionResult(String field, boolean matches) {
+                this.field = field;
+                this.matches = matches;
+            }
+        }
+    }
+
     public static class ReservedFieldException extends Exception {
         public ReservedFieldException(String msg) {
             super(msg);
@@ -35,12 +35,15 @@ import org.graylog2.plugin.configuration.ConfigurationException;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
 import org.graylog2.plugin.inputs.codecs.Codec;
 import org.graylog2.plugin.inputs.transports.Transport;
+import org.graylog2.plugin.journal.JournalMessages;
 import org.graylog2.plugin.journal.RawMessage;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public abstract class MessageInput implements Stoppable {
@@ -79,6 +82,8 @@ public abstract class MessageInput implements Stoppable {
      * avoid serialising those parts of the configuration in order to save bytes on disk/network.
      */
     private final Configuration codecConfig;
+    // The codec name and serialized codec configuration, which are the same for all messages of this input
+    private volatile JournalMessages.CodecInfo codecInfo;
     private final Counter globalIncomingMessages;
     private final Counter emptyMessages;
     private final Counter globalRawSize;
@@ -330,7 +335,7 @@ public abstract class MessageInput implements Stoppable {
     }
 
     public void processRawMessage(RawMessage rawMessage) {
-        final int payloadLength = rawMessage.getPayload().length;
+        final int payloadLength = rawMessage.getPayloadSize();
         if (payloadLength == 0) {
             LOG.debug("Discarding empty message {} from input [{}/{}] (remote address {}). Turn logger org.graylog2.plugin.journal.RawMessage to TRACE to see originating stack trace.",
                       rawMessage.getId(),
@@ -341,10 +346,7 @@ public abstract class MessageInput implements Stoppable {
             return;
         }
 
-        // add the common message metadata for this input/codec
-        rawMessage.setCodecName(codec.getName());
-        rawMessage.setCodecConfig(codecConfig);
-        rawMessage.addSourceNode(getId(), serverStatus.getNodeId());
+        setMessageMetadata(rawMessage);
 
         inputBuffer.insert(rawMessage);
 
@@ -354,6 +356,52 @@ public abstract class MessageInput implements Stoppable {
         globalRawSize.inc(payloadLength);
     }
 
+    /**
+     * Processes a batch of raw messages which has been received at once, e.g. from a single poll of a message queue.
+     *
+     * @param rawMessages the raw messages in the order they have been received
+     */
+    public void processRawMessages(List<RawMessage> rawMessages) {
+        final List<RawMessage> nonEmptyMessages = new ArrayList<>(rawMessages.size());
+        long payloadLength = 0;
+        for (RawMessage rawMessage : rawMessages) {
+            final int messageLength = rawMessage.getPayloadSize();
+            if (messageLength == 0) {
+                LOG.debug("Discarding empty message {} from input [{}/{}] (remote address {}).",
+                          rawMessage.getId(),
+                          getTitle(),
+                          getId(),
+                          rawMessage.getRemoteAddress() == null ? "unknown" : rawMessage.getRemoteAddress());
+                emptyMessages.inc();
+                continue;
+            }
+            setMessageMetadata(rawMessage);
+            nonEmptyMessages.add(rawMessage);
+            payloadLength += messageLength;
+        }
+        if (nonEmptyMessages.isEmpty()) {
+            return;
+        }
+
+        inputBuffer.insert(nonEmptyMessages);
+
+        incomingMessages.mark(nonEmptyMessages.size());
+        globalIncomingMessages.inc(nonEmptyMessages.size());
+        rawSize.mark(payloadLength);
+        globalRawSize.inc(payloadLength);
+    }
+
+    private void setMessageMetadata(RawMessage rawMessage) {
+        // add the common message metadata for this input/codec
+        JournalMessages.CodecInfo codecInfo = this.codecInfo;
+        if (codecInfo == null) {
+            codecInfo = RawMessage.codecInfo(codec.getName(), codecConfig);
+            this.codecInfo = codecInfo;
+        }
+        rawMessage.setCodec(codecInfo, codecConfig);
+        rawMessage.addSourceNode(getId(), serverStatus.getNodeId());
+    }
+
     public String getType() {
         return this.getClass().getCanonicalName();
     }
@@ -16,8 +16,14 @@
  */
 package org.graylog2.plugin.inputs.transports;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
+import org.graylog2.plugin.BufferCapacityState;
+import org.graylog2.plugin.MetricSets;
 import org.graylog2.plugin.ThrottleState;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
@@ -32,20 +38,27 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Placeholder class for implementing logic to throttle certain transports which support back pressure.
- * The built in transports that support this by reading less are the Kafka and AMQP transports.
+ * Base class for transports which support back pressure by reading less, like the Kafka and AMQP transports.
  * <br/>
- * Empty for now, since the process buffer provides natural throttling for now, but once that is async we need
- * to supply back pressure in some other way.
+ * A transport is throttled if either the journal based {@link ThrottleState}, which is published once per second,
+ * or the {@link BufferCapacityState} of the input and process buffers, which is published every few milliseconds,
+ * asks for it.
  */
 public abstract class ThrottleableTransport implements Transport {
     private static final Logger log = LoggerFactory.getLogger(ThrottleableTransport.class);
     public static final String CK_THROTTLING_ALLOWED = "throttling_allowed";
+    // Ratios of free buffer slots below which the transport gets throttled and above which it gets unthrottled again
+    private static final double BUFFER_THROTTLE_RATIO = 0.1;
+    private static final double BUFFER_UNTHROTTLE_RATIO = 0.5;
     private final boolean throttlingAllowed;
     private final AtomicBoolean currentlyThrottled = new AtomicBoolean(false);
     private final EventBus eventBus;
     private volatile CountDownLatch blockLatch = null;
     private long lastUncommitted;
+    private boolean throttledByJournal = false;
+    private boolean throttledByBuffers = false;
+    private long throttledSince;
+    private long throttledTimeMillis = 0L;
 
     public static class Config implements Transport.Config {
         @Override
@@ -123,8 +136,28 @@ public abstract class ThrottleableTransport implements Transport {
         if (!throttlingAllowed) {
             return;
         }
-        // check if we are throttled
-        final boolean throttled = determineIfThrottled(throttleState);
+        synchronized (this) {
+            throttledByJournal = determineIfThrottled(throttleState);
+            applyThrottledState(throttledByJournal || throttledByBuffers);
+        }
+    }
+
+    /**
+     * Only executed if the Allow Throttling checkbox is set in the input's configuration.
+     * @param bufferCapacityState current free capacity of the input and process buffers
+     */
+    @Subscribe
+    public void updateBufferCapacityState(BufferCapacityState bufferCapacityState) {
+        if (!throttlingAllowed) {
+            return;
+        }
+        synchronized (this) {
+            throttledByBuffers = determineIfThrottled(bufferCapacityState, throttledByBuffers);
+            applyThrottledState(throttledByJournal || throttledByBuffers);
+        }
+    }
+
+    private void applyThrottledState(boolean throttled) {
         if (currentlyThrottled.get()) {
             // no need to unblock
             if (throttled) {
@@ -136,10 +169,12 @@ public abstract class ThrottleableTransport implements Transport {
                 return;
             }
             currentlyThrottled.set(false);
+            throttledTimeMillis += System.currentTimeMillis() - throttledSince;
             handleChangedThrottledState(false);
             blockLatch.countDown();
         } else if (throttled) {
             currentlyThrottled.set(true);
+            throttledSince = System.currentTimeMillis();
             handleChangedThrottledState(true);
             blockLatch = new CountDownLatch(1);
         }
@@ -212,6 +247,46 @@ public abstract class ThrottleableTransport implements Transport {
         return false;
     }
 
+    /**
+     * Decides whether the transport will be throttled because the input buffer or the process buffer is almost full.
+     * Once throttled, the transport stays throttled until the buffers have drained to avoid flapping.
+     * <p>
+     * If the transport was started without the <code>throttling_allowed</code> flag enabled, this method will <b>not</b> be called!
+     * </p>
+     * @param state            the current capacity of the buffers
+     * @param currentlyThrottled whether the buffers currently throttle the transport
+     * @return true if transport should be throttled, false if not.
+     */
+    protected boolean determineIfThrottled(BufferCapacityState state, boolean currentlyThrottled) {
+        final double freeRatio = state.freeRatio();
+        if (currentlyThrottled) {
+            return freeRatio < BUFFER_UNTHROTTLE_RATIO;
+        }
+        if (freeRatio < BUFFER_THROTTLE_RATIO) {
+            log.debug("[{}] [throttled] less than {}% free slots in buffers {}",
+                    getClass().getSimpleName(), (int) (BUFFER_THROTTLE_RATIO * 100), state);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Metrics about the throttling of this transport, to be included in the {@link #getMetricSet() metrics} of the
+     * transport.
+     */
+    protected MetricSet throttleMetrics() {
+        return MetricSets.of(ImmutableMap.<String, Metric>of(
+                "throttled", (Gauge<Integer>) () -> isThrottled() ? 1 : 0,
+                "throttled_time_ms", (Gauge<Long>) this::getThrottledTimeMillis));
+    }
+
+    private synchronized long getThrottledTimeMillis() {
+        if (currentlyThrottled.get()) {
+            return throttledTimeMillis + System.currentTimeMillis() - throttledSince;
+        }
+        return throttledTimeMillis;
+    }
+
     /**
      * Blocks until the blockLatch is released.
      */
@@ -68,6 +68,8 @@ public class RawMessage implements Serializable {
     private final UUID id;
     private Object messageQueueId;
     private Configuration codecConfig;
+    // Whether the codec info in the builder already contains the serialized codec configuration
+    private boolean codecConfigSerialized;
 
     public RawMessage(@Nonnull byte[] payload) {
         this(payload, (ResolvableInetSocketAddress)null);
@@ -86,9 +88,29 @@ public class RawMessage implements Serializable {
                       DateTime timestamp,
                       @Nullable ResolvableInetSocketAddress remoteAddress,
                       @Nonnull byte[] payload) {
+        this(journalOffset, id, timestamp, remoteAddress, ByteString.copyFrom(checkNotNull(payload, "The message payload must not be null!")));
+    }
+
+    /**
+     * Creates a raw message with a copy of the remaining bytes of the given buffer. Unlike the constructors taking a
+     * byte array, this doesn't need an intermediate copy of buffers which aren't backed by an array, like pooled
+     * direct Netty buffers. The position of the buffer isn't changed.
+     *
+     * @param payload       the buffer containing the payload
+     * @param remoteAddress the address the payload was received from
+     */
+    public RawMessage(@Nonnull ByteBuffer payload, @Nullable InetSocketAddress remoteAddress) {
+        this(Long.MIN_VALUE, new UUID(), Tools.nowUTC(), ResolvableInetSocketAddress.wrap(remoteAddress),
+                ByteString.copyFrom(checkNotNull(payload, "The message payload must not be null!").duplicate()));
+    }
+
+    private RawMessage(long journalOffset,
+                       UUID id,
+                       DateTime timestamp,
+                       @Nullable ResolvableInetSocketAddress remoteAddress,
+                       ByteString payload) {
         checkNotNull(id, "The message id must not be null!");
-        checkNotNull(payload, "The message payload must not be null!");
-        if (payload.length == 0 && log.isTraceEnabled()) {
+        if (payload.isEmpty() && log.isTraceEnabled()) {
             log.trace("The message payload should not be empty, message {} from {} will be discarded.",
                       id,
                       remoteAddress == null ? "unknown" : remoteAddress,
@@ -109,7 +131,7 @@ public class RawMessage implements Serializable {
             setRemoteAddress(remoteAddress);
         }
 
-        msgBuilder.setPayload(ByteString.copyFrom(payload));
+        msgBuilder.setPayload(payload);
     }
 
     public void addSourceNode(String sourceInputId, NodeId nodeId) {
@@ -125,6 +147,7 @@ public class RawMessage implements Serializable {
         id = new UUID(journalMessage.getUuidTime(), journalMessage.getUuidClockseq());
         msgBuilder = JournalMessage.newBuilder(journalMessage);
         codecConfig = Configuration.deserializeFromJson(journalMessage.getCodec().getConfig());
+        codecConfigSerialized = true;
     }
 
     @Nullable
@@ -157,14 +180,15 @@ public class RawMessage implements Serializable {
 
     public byte[] encode() {
         try {
-            final JournalMessages.CodecInfo codec = msgBuilder.getCodec();
-            final JournalMessages.CodecInfo.Builder builder = JournalMessages.CodecInfo.newBuilder(codec);
-
-            final String codecConfigJson = codecConfig.serializeToJson();
-            if (codecConfigJson != null) {
-                builder.setConfig(codecConfigJson);
+            if (!codecConfigSerialized) {
+                final JournalMessages.CodecInfo.Builder builder = JournalMessages.CodecInfo.newBuilder(msgBuilder.getCodec());
+
+                final String codecConfigJson = codecConfig.serializeToJson();
+                if (codecConfigJson != null) {
+                    builder.setConfig(codecConfigJson);
+                }
+                msgBuilder.setCodec(builder.build());
             }
-            msgBuilder.setCodec(builder.build());
 
             final JournalMessage journalMessage = msgBuilder.build();
             return journalMessage.toByteArray();
@@ -188,6 +212,13 @@ public class RawMessage implements Serializable {
         return msgBuilder.getPayload().toByteArray(); // TODO PERFORMANCE array copy
     }
 
+    /**
+     * @return the size of the payload in bytes, without copying the payload like {@link #getPayload()}
+     */
+    public int getPayloadSize() {
+        return msgBuilder.getPayload().size();
+    }
+
     public UUID getId() {
         return id;
     }
@@ -248,6 +279,39 @@ public class RawMessage implements Serializable {
 
     public void setCodecConfig(Configuration codecConfig) {
         this.codecConfig = codecConfig;
+        this.codecConfigSerialized = false;
+    }
+
+    /**
+     * Sets the codec name and configuration at once, using codec info which has been created by
+     * {@link #codecInfo(String, Configuration)} with the same configuration. This avoids serializing the codec
+     * configuration of every single message when it's written to the journal.
+     *
+     * @param codecInfo   the codec name and serialized configuration
+     * @param codecConfig the codec configuration
+     */
+    public void setCodec(JournalMessages.CodecInfo codecInfo, Configuration codecConfig) {
+        msgBuilder.setCodec(codecInfo);
+        this.codecConfig = codecConfig;
+        this.codecConfigSerialized = true;
+    }
+
+    /**
+     * Creates the codec info for {@link #setCodec(JournalMessages.CodecInfo, Configuration)}. It should be created once
+     * and reused for all messages with the same codec configuration, e.g. by the input.
+     *
+     * @param codecName   the name of the codec
+     * @param codecConfig the codec configuration
+     * @return the codec info containing the codec name and serialized configuration
+     */
+    public static JournalMessages.CodecInfo codecInfo(String codecName, Configuration codecConfig) {
+        checkArgument(!isNullOrEmpty(codecName), "The payload type must not be null or empty!");
+        final JournalMessages.CodecInfo.Builder builder = JournalMessages.CodecInfo.newBuilder().setName(codecName);
+        final String codecConfigJson = codecConfig.serializeToJson();
+        if (codecConfigJson != null) {
+            builder.setConfig(codecConfigJson);
+        }
+        return builder.build();
     }
 
     public List<SourceNode> getSourceNodes() {
@@ -266,7 +330,7 @@ public class RawMessage implements Serializable {
         helper.add("id", getId())
                 .add("messageQueueId", getMessageQueueId())
                 .add("codec", getCodecName())
-                .add("payloadSize", getPayload().length)
+                .add("payloadSize", getPayloadSize())
                 .add("timestamp", getTimestamp());
         if (getRemoteAddress() != null) {
             helper.add("remoteAddress", getRemoteAddress().getInetSocketAddress().toString());
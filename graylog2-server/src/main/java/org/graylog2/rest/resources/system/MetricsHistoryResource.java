@@ -16,18 +16,18 @@
  */
 package org.graylog2.rest.resources.system;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.annotation.Timed;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.mongodb.BasicDBObject;
-import com.mongodb.DBCollection;
-import com.mongodb.DBCursor;
-import com.mongodb.DBObject;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import org.apache.shiro.authz.annotation.RequiresAuthentication;
-import org.graylog2.database.MongoConnection;
+import org.graylog2.metrics.history.MetricsHistoryStore;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.system.NodeId;
 import org.graylog2.shared.rest.resources.RestResource;
 import org.graylog2.shared.security.RestPermissions;
 
@@ -39,121 +39,54 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @RequiresAuthentication
 @Api(value = "System/Metrics/History", description = "Get history of metrics")
 @Path("/system/metrics/{metricName}/history")
 @Produces(MediaType.APPLICATION_JSON)
 public class MetricsHistoryResource extends RestResource {
-    private final MongoConnection mongoConnection;
+    private static final long DEFAULT_HISTORY_MS = TimeUnit.MINUTES.toMillis(5);
 
-    @Inject
-    public MetricsHistoryResource(MongoConnection mongoConnection) {
-        this.mongoConnection = mongoConnection;
-    }
+    private final MetricsHistoryStore metricsHistoryStore;
+    private final MetricRegistry metricRegistry;
+    private final NodeId nodeId;
 
-    enum MetricType {
-        GAUGE,
-        COUNTER,
-        HISTOGRAM,
-        METER,
-        TIMER
+    @Inject
+    public MetricsHistoryResource(MetricsHistoryStore metricsHistoryStore, MetricRegistry metricRegistry, NodeId nodeId) {
+        this.metricsHistoryStore = metricsHistoryStore;
+        this.metricRegistry = metricRegistry;
+        this.nodeId = nodeId;
     }
 
     @GET
     @Timed
-    @ApiOperation(value = "Get history of a single metric", notes = "The maximum retention time is currently only 5 minutes.")
+    @ApiOperation(value = "Get history of a single metric",
+            notes = "Only metrics configured in \"metrics_history_metrics\" are recorded. Values of the last hour have a " +
+                    "resolution of one second, older values are rolled up per minute. Gauges are recorded with their " +
+                    "value, all other metrics with their rate per second.")
     public Map<String, Object> historicSingleMetric(
             @ApiParam(name = "metricName", required = true)
             @PathParam("metricName") String metricName,
-            @ApiParam(name = "after", value = "Only values for after this UTC timestamp (1970 epoch)")
-            @QueryParam("after") @DefaultValue("-1") long after
+            @ApiParam(name = "after", value = "Only values for after this UTC timestamp (1970 epoch). Defaults to the last 5 minutes.")
+            @QueryParam("after") @DefaultValue("-1") long after,
+            @ApiParam(name = "before", value = "Only values for before this UTC timestamp (1970 epoch)")
+            @QueryParam("before") @DefaultValue("-1") long before
     ) {
         checkPermission(RestPermissions.METRICS_READHISTORY, metricName);
 
-        BasicDBObject andQuery = new BasicDBObject();
-
-        final List<BasicDBObject> obj = new ArrayList<BasicDBObject>();
-        obj.add(new BasicDBObject("name", metricName));
-        if (after != -1) {
-            obj.add(new BasicDBObject("$gt", new BasicDBObject("$gt", new Date(after))));
-        }
-        andQuery.put("$and", obj);
-
-        final DBCollection dbCollection = mongoConnection.getDatabase().getCollection("graylog2_metrics");
-        try(DBCursor cursor = dbCollection.find(andQuery).sort(new BasicDBObject("timestamp", 1))) {
-            final Map<String, Object> metricsData = Maps.newHashMap();
-            metricsData.put("name", metricName);
-            final List<Object> values = Lists.newArrayList();
-            metricsData.put("values", values);
-
-            while (cursor.hasNext()) {
-                final DBObject value = cursor.next();
-                metricsData.put("node", value.get("node"));
-
-                final MetricType metricType = MetricType.valueOf(((String) value.get("type")).toUpperCase(Locale.ENGLISH));
-                Map<String, Object> dataPoint = Maps.newHashMap();
-                values.add(dataPoint);
-
-                dataPoint.put("timestamp", value.get("timestamp"));
-                metricsData.put("type", metricType.toString().toLowerCase(Locale.ENGLISH));
-
-                switch (metricType) {
-                    case GAUGE:
-                        final Object gaugeValue = value.get("value");
-                        dataPoint.put("value", gaugeValue);
-                        break;
-                    case COUNTER:
-                        dataPoint.put("count", value.get("count"));
-                        break;
-                    case HISTOGRAM:
-                        dataPoint.put("75-percentile", value.get("75-percentile"));
-                        dataPoint.put("95-percentile", value.get("95-percentile"));
-                        dataPoint.put("98-percentile", value.get("98-percentile"));
-                        dataPoint.put("99-percentile", value.get("99-percentile"));
-                        dataPoint.put("999-percentile", value.get("999-percentile"));
-                        dataPoint.put("max", value.get("max"));
-                        dataPoint.put("min", value.get("min"));
-                        dataPoint.put("mean", value.get("mean"));
-                        dataPoint.put("median", value.get("median"));
-                        dataPoint.put("std_dev", value.get("std_dev"));
-                        break;
-                    case METER:
-                        dataPoint.put("count", value.get("count"));
-                        dataPoint.put("1-minute-rate", value.get("1-minute-rate"));
-                        dataPoint.put("5-minute-rate", value.get("5-minute-rate"));
-                        dataPoint.put("15-minute-rate", value.get("15-minute-rate"));
-                        dataPoint.put("mean-rate", value.get("mean-rate"));
-                        break;
-                    case TIMER:
-                        dataPoint.put("count", value.get("count"));
-                        dataPoint.put("rate-unit", value.get("rate-unit"));
-                        dataPoint.put("1-minute-rate", value.get("1-minute-rate"));
-                        dataPoint.put("5-minute-rate", value.get("5-minute-rate"));
-                        dataPoint.put("15-minute-rate", value.get("15-minute-rate"));
-                        dataPoint.put("mean-rate", value.get("mean-rate"));
-                        dataPoint.put("duration-unit", value.get("duration-unit"));
-                        dataPoint.put("75-percentile", value.get("75-percentile"));
-                        dataPoint.put("95-percentile", value.get("95-percentile"));
-                        dataPoint.put("98-percentile", value.get("98-percentile"));
-                        dataPoint.put("99-percentile", value.get("99-percentile"));
-                        dataPoint.put("999-percentile", value.get("999-percentile"));
-                        dataPoint.put("max", value.get("max"));
-                        dataPoint.put("min", value.get("min"));
-                        dataPoint.put("mean", value.get("mean"));
-                        dataPoint.put("median", value.get("median"));
-                        dataPoint.put("stddev", value.get("stddev"));
-                        break;
-                }
+        final long now = Tools.nowUTC().getMillis();
+        final long from = after == -1 ? now - DEFAULT_HISTORY_MS : after + 1;
+        final long to = before == -1 ? now : before - 1;
 
-            }
+        final Metric metric = metricRegistry.getMetrics().get(metricName);
+        final Map<String, Object> metricsData = Maps.newHashMap();
+        metricsData.put("name", metricName);
+        metricsData.put("node", nodeId.toString());
+        metricsData.put("type", metric == null || metric instanceof Gauge ? "gauge" : "rate");
+        metricsData.put("values", metricsHistoryStore.query(metricName, from, to));
 
-            return metricsData;
-        }
+        return metricsData;
     }
 }
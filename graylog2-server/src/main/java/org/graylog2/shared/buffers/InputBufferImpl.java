@@ -34,6 +34,7 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
+import java.util.List;
 import java.util.concurrent.ThreadFactory;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -103,11 +104,34 @@ public class InputBufferImpl implements InputBuffer {
         incomingMessages.mark();
     }
 
+    @Override
+    public void insert(List<RawMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        final RawMessage[] batch = messages.toArray(new RawMessage[0]);
+        final int ringSize = ringBuffer.getBufferSize();
+        for (int offset = 0; offset < batch.length; offset += ringSize) {
+            ringBuffer.publishEvents(RawMessageEvent.TRANSLATOR, offset, Math.min(ringSize, batch.length - offset), batch);
+        }
+        incomingMessages.mark(batch.length);
+    }
+
     @Override
     public long getUsage() {
         return ringBuffer.getBufferSize() - ringBuffer.remainingCapacity();
     }
 
+    @Override
+    public long getRemainingCapacity() {
+        return ringBuffer.remainingCapacity();
+    }
+
+    @Override
+    public int getRingBufferSize() {
+        return ringBuffer.getBufferSize();
+    }
+
     private ThreadFactory threadFactory(final MetricRegistry metricRegistry) {
         final ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("inputbufferprocessor-%d").build();
         return new InstrumentedThreadFactory(threadFactory, metricRegistry, name(this.getClass(), "thread-factory"));
@@ -40,6 +40,7 @@ import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.util.List;
 import java.util.concurrent.ThreadFactory;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -111,6 +112,24 @@ public class ProcessBuffer extends Buffer {
         afterInsert(1);
     }
 
+    /**
+     * Inserts the raw messages claiming one contiguous range of sequences per ring buffer sized chunk.
+     */
+    public void insertBlocking(@Nonnull List<RawMessage> rawMessages) {
+        final int ringSize = ringBuffer.getBufferSize();
+        for (int offset = 0; offset < rawMessages.size(); offset += ringSize) {
+            final int length = Math.min(ringSize, rawMessages.size() - offset);
+            final long hi = ringBuffer.next(length);
+            final long lo = hi - (length - 1);
+            for (long sequence = lo; sequence <= hi; sequence++) {
+                final MessageEvent event = ringBuffer.get(sequence);
+                event.setRaw(rawMessages.get(offset + (int) (sequence - lo)));
+            }
+            ringBuffer.publish(lo, hi);
+            afterInsert(length);
+        }
+    }
+
     @Override
     protected void afterInsert(int n) {
         incomingMessages.mark(n);
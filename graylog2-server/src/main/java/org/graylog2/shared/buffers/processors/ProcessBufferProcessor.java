@@ -24,6 +24,7 @@ import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
 import com.lmax.disruptor.WorkHandler;
 import de.huxhorn.sulky.ulid.ULID;
+import org.graylog.events.processor.aggregation.StreamingFilterEventEvaluator;
 import org.graylog.failure.FailureSubmissionService;
 import org.graylog2.buffers.OutputBuffer;
 import org.graylog2.messageprocessors.OrderedMessageProcessors;
@@ -61,6 +62,7 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
     private final DecodingProcessor decodingProcessor;
     private final Provider<Stream> defaultStreamProvider;
     private final FailureSubmissionService failureSubmissionService;
+    private final StreamingFilterEventEvaluator streamingFilterEventEvaluator;
     private volatile Message currentMessage;
 
     @AssistedInject
@@ -71,7 +73,8 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
                                   ULID ulid,
                                   @Assisted DecodingProcessor decodingProcessor,
                                   @DefaultStream Provider<Stream> defaultStreamProvider,
-                                  FailureSubmissionService failureSubmissionService) {
+                                  FailureSubmissionService failureSubmissionService,
+                                  StreamingFilterEventEvaluator streamingFilterEventEvaluator) {
         this.orderedMessageProcessors = orderedMessageProcessors;
         this.outputBuffer = outputBuffer;
         this.processingStatusRecorder = processingStatusRecorder;
@@ -79,6 +82,7 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
         this.decodingProcessor = decodingProcessor;
         this.defaultStreamProvider = defaultStreamProvider;
         this.failureSubmissionService = failureSubmissionService;
+        this.streamingFilterEventEvaluator = streamingFilterEventEvaluator;
 
         incomingMessages = metricRegistry.meter(name(ProcessBufferProcessor.class, "incomingMessages"));
         outgoingMessages = metricRegistry.meter(name(ProcessBufferProcessor.class, "outgoingMessages"));
@@ -169,6 +173,7 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
             processingStatusRecorder.updatePostProcessingReceiveTime(message.getReceiveTime());
 
             if(failureSubmissionService.submitProcessingErrors(message)) {
+                streamingFilterEventEvaluator.evaluate(message);
                 outputBuffer.insertBlocking(message);
             }
         }
@@ -34,6 +34,7 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Semaphore;
 
@@ -125,6 +126,7 @@ public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
                 readMessages.mark(encodedRawMessages.size());
                 readerMetrics.readMessages().mark(encodedRawMessages.size());
                 log.debug("Processing {} messages from journal.", encodedRawMessages.size());
+                final List<RawMessage> rawMessages = new ArrayList<>(encodedRawMessages.size());
                 for (final Journal.JournalReadEntry encodedRawMessage : encodedRawMessages) {
                     final RawMessage rawMessage = RawMessage.decode(encodedRawMessage.getPayload(),
                                                                     encodedRawMessage.getOffset());
@@ -135,8 +137,9 @@ public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
                         journal.markJournalOffsetCommitted(encodedRawMessage.getOffset());
                         continue;
                     }
-                    processBuffer.insertBlocking(rawMessage);
+                    rawMessages.add(rawMessage);
                 }
+                processBuffer.insertBlocking(rawMessages);
             }
         }
         log.info("Stopping.");
@@ -20,7 +20,6 @@ import com.codahale.metrics.Timer;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.SimpleTimeLimiter;
 import com.google.common.util.concurrent.TimeLimiter;
 import com.google.common.util.concurrent.UncheckedTimeoutException;
@@ -37,10 +36,10 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Provider;
+import java.util.BitSet;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -74,7 +73,7 @@ public class StreamRouterEngine {
                               StreamFaultManager streamFaultManager,
                               StreamMetrics streamMetrics,
                               @DefaultStream Provider<Stream> defaultStreamProvider) {
-        this.streams = streams;
+        this.streams = ImmutableList.copyOf(streams);
         this.streamFaultManager = streamFaultManager;
         this.streamMetrics = streamMetrics;
         this.timeLimiter = SimpleTimeLimiter.create(executorService);
@@ -91,11 +90,12 @@ public class StreamRouterEngine {
         final List<Rule> containsRules = Lists.newArrayList();
         final List<Rule> matchInputRules = Lists.newArrayList();
 
-        for (Stream stream : streams) {
+        for (int streamIndex = 0; streamIndex < this.streams.size(); streamIndex++) {
+            final Stream stream = this.streams.get(streamIndex);
             for (StreamRule streamRule : stream.getStreamRules()) {
                 final Rule rule;
                 try {
-                    rule = new Rule(stream, streamRule, stream.getMatchingType());
+                    rule = new Rule(stream, streamIndex, streamRule, stream.getMatchingType());
                 } catch (InvalidStreamRuleTypeException e) {
                     LOG.warn("Invalid stream rule type. Skipping matching for this rule. " + e.getMessage(), e);
                     continue;
@@ -160,17 +160,19 @@ public class StreamRouterEngine {
     }
 
     /**
-     * Returns a list of matching streams for the given message.
+     * Returns a list of matching streams for the given message, in the order of the streams of the engine.
      *
      * @param message the message
      * @return the list of matching streams
      */
     public List<Stream> match(Message message) {
-        final Set<Stream> result = Sets.newHashSet();
-        final Set<String> blackList = Sets.newHashSet();
+        // Streams are tracked by their index in the stream list of the engine
+        final BitSet result = new BitSet(streams.size());
+        final BitSet blackList = new BitSet(streams.size());
 
         for (final Rule rule : rulesList) {
-            if (blackList.contains(rule.getStreamId())) {
+            final int streamIndex = rule.getStreamIndex();
+            if (blackList.get(streamIndex)) {
                 continue;
             }
 
@@ -180,9 +182,9 @@ public class StreamRouterEngine {
             if (!ruleTypesNotNeedingFieldPresence.contains(streamRuleType)
                 && !message.hasField(streamRule.getField())) {
                 if (matchingType == Stream.MatchingType.AND) {
-                    result.remove(rule.getStream());
+                    result.clear(streamIndex);
                     // blacklist stream because it can't match anymore
-                    blackList.add(rule.getStreamId());
+                    blackList.set(streamIndex);
                 }
 
                 continue;
@@ -197,22 +199,25 @@ public class StreamRouterEngine {
 
             if (stream == null) {
                 if (matchingType == Stream.MatchingType.AND) {
-                    result.remove(rule.getStream());
+                    result.clear(streamIndex);
                     // blacklist stream because it can't match anymore
-                    blackList.add(rule.getStreamId());
+                    blackList.set(streamIndex);
                 }
             } else {
-                result.add(stream);
+                result.set(streamIndex);
                 if (matchingType == Stream.MatchingType.OR) {
                     // blacklist stream because it is already matched
-                    blackList.add(rule.getStreamId());
+                    blackList.set(streamIndex);
                 }
             }
         }
 
+        final ImmutableList.Builder<Stream> matchedStreams = ImmutableList.builderWithExpectedSize(result.cardinality());
         final Stream defaultStream = defaultStreamProvider.get();
         boolean alreadyRemovedDefaultStream = false;
-        for (Stream stream : result) {
+        for (int streamIndex = result.nextSetBit(0); streamIndex >= 0; streamIndex = result.nextSetBit(streamIndex + 1)) {
+            final Stream stream = streams.get(streamIndex);
+            matchedStreams.add(stream);
             streamMetrics.markIncomingMeter(stream.getId());
             if (stream.getRemoveMatchesFromDefaultStream()) {
                 if (alreadyRemovedDefaultStream || message.removeStream(defaultStream)) {
@@ -233,7 +238,7 @@ public class StreamRouterEngine {
             streamMetrics.markIncomingMeter(defaultStream.getId());
         }
 
-        return ImmutableList.copyOf(result);
+        return matchedStreams.build();
     }
 
     /**
@@ -245,12 +250,13 @@ public class StreamRouterEngine {
     public List<StreamTestMatch> testMatch(Message message) {
         final List<StreamTestMatch> matches = Lists.newArrayList();
 
-        for (final Stream stream : streams) {
+        for (int streamIndex = 0; streamIndex < streams.size(); streamIndex++) {
+            final Stream stream = streams.get(streamIndex);
             final StreamTestMatch match = new StreamTestMatch(stream);
 
             for (final StreamRule streamRule : stream.getStreamRules()) {
                 try {
-                    final Rule rule = new Rule(stream, streamRule, stream.getMatchingType());
+                    final Rule rule = new Rule(stream, streamIndex, streamRule, stream.getMatchingType());
                     match.addRule(rule);
                 } catch (InvalidStreamRuleTypeException e) {
                     LOG.warn("Invalid stream rule type. Skipping matching for this rule. " + e.getMessage(), e);
@@ -267,14 +273,16 @@ public class StreamRouterEngine {
 
     private class Rule {
         private final Stream stream;
+        private final int streamIndex;
         private final StreamRule rule;
         private final String streamId;
         private final String streamRuleId;
         private final StreamRuleMatcher matcher;
         private final Stream.MatchingType matchingType;
 
-        public Rule(Stream stream, StreamRule rule, Stream.MatchingType matchingType) throws InvalidStreamRuleTypeException {
+        public Rule(Stream stream, int streamIndex, StreamRule rule, Stream.MatchingType matchingType) throws InvalidStreamRuleTypeException {
             this.stream = stream;
+            this.streamIndex = streamIndex;
             this.rule = rule;
             this.streamId = stream.getId();
             this.streamRuleId = rule.getId();
@@ -336,6 +344,10 @@ public class StreamRouterEngine {
         public String getStreamId() {
             return streamId;
         }
+
+        public int getStreamIndex() {
+            return streamIndex;
+        }
     }
 
     /**
@@ -50,12 +50,14 @@ import org.mockito.junit.MockitoRule;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatCode;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.never;
@@ -83,6 +85,10 @@ public class AggregationEventProcessorTest {
     @Mock
     private StreamService streamService;
     @Mock
+    private StreamingFilterEventEvaluator streamingEvaluator;
+    @Mock
+    private DBStreamingFilterFallbackService fallbackService;
+    @Mock
     private Consumer<List<MessageSummary>> messageConsumer;
 
     @Test
@@ -103,7 +109,7 @@ public class AggregationEventProcessorTest {
                 .build();
 
         final AggregationEventProcessor eventProcessor = new AggregationEventProcessor(
-                eventDefinitionDto, searchFactory, eventProcessorDependencyCheck, stateService, moreSearch, streamService, messages);
+                eventDefinitionDto, searchFactory, eventProcessorDependencyCheck, stateService, moreSearch, streamService, messages, streamingEvaluator, fallbackService);
 
         final AggregationResult result = AggregationResult.builder()
                 .effectiveTimerange(timerange)
@@ -202,7 +208,7 @@ public class AggregationEventProcessorTest {
                 .timerange(timerange)
                 .build();
 
-        final AggregationEventProcessor eventProcessor = new AggregationEventProcessor(eventDefinitionDto, searchFactory, eventProcessorDependencyCheck, stateService, moreSearch, streamService, messages);
+        final AggregationEventProcessor eventProcessor = new AggregationEventProcessor(eventDefinitionDto, searchFactory, eventProcessorDependencyCheck, stateService, moreSearch, streamService, messages, streamingEvaluator, fallbackService);
 
         final AggregationResult result = AggregationResult.builder()
                 .effectiveTimerange(timerange)
@@ -309,7 +315,7 @@ public class AggregationEventProcessorTest {
                 .timerange(timerange)
                 .build();
 
-        final AggregationEventProcessor eventProcessor = new AggregationEventProcessor(eventDefinitionDto, searchFactory, eventProcessorDependencyCheck, stateService, moreSearch, streamService, messages);
+        final AggregationEventProcessor eventProcessor = new AggregationEventProcessor(eventDefinitionDto, searchFactory, eventProcessorDependencyCheck, stateService, moreSearch, streamService, messages, streamingEvaluator, fallbackService);
 
         assertThatCode(() -> eventProcessor.createEvents(eventFactory, parameters, (events) -> {})).doesNotThrowAnyException();
 
@@ -343,7 +349,7 @@ public class AggregationEventProcessorTest {
                 .timerange(timerange)
                 .build();
 
-        final AggregationEventProcessor eventProcessor = new AggregationEventProcessor(eventDefinitionDto, searchFactory, eventProcessorDependencyCheck, stateService, moreSearch, streamService, messages);
+        final AggregationEventProcessor eventProcessor = new AggregationEventProcessor(eventDefinitionDto, searchFactory, eventProcessorDependencyCheck, stateService, moreSearch, streamService, messages, streamingEvaluator, fallbackService);
 
         // If the dependency check returns true, there should be no exception raised and the state service should be called
         when(eventProcessorDependencyCheck.hasMessagesIndexedUpTo(timerange.to())).thenReturn(true);
@@ -384,6 +390,48 @@ public class AggregationEventProcessorTest {
         );
     }
 
+    @Test
+    public void createEventsForStreamingDefinitionOnlySearchesFallbackTimerange() throws Exception {
+        final DateTime now = DateTime.now(DateTimeZone.UTC);
+        final AbsoluteRange timerange = AbsoluteRange.create(now.minusMinutes(1), now);
+        final EventDefinitionDto eventDefinitionDto = buildEventDefinitionDto(ImmutableSet.of(), ImmutableList.of(), null);
+        final AggregationEventProcessorParameters parameters = AggregationEventProcessorParameters.builder()
+                .timerange(timerange)
+                .build();
+        final AggregationEventProcessor eventProcessor = new AggregationEventProcessor(eventDefinitionDto, searchFactory, eventProcessorDependencyCheck, stateService, moreSearch, streamService, messages, streamingEvaluator, fallbackService);
+
+        when(eventProcessorDependencyCheck.hasMessagesIndexedUpTo(timerange.to())).thenReturn(true);
+        when(streamingEvaluator.isStreaming("dto-id-1")).thenReturn(true);
+
+        // Without a fallback there is nothing to search
+        when(fallbackService.get("dto-id-1")).thenReturn(Optional.empty());
+        eventProcessor.createEvents(eventFactory, parameters, (events) -> {});
+
+        verify(moreSearch, never()).scrollQuery(any(), any(), any(), any(), anyInt(), any());
+        verify(stateService, times(1)).setState("dto-id-1", timerange.from(), timerange.to());
+
+        // Fallbacks are searched up to the end of the current time range, the rest is searched by later executions
+        final StreamingFilterFallbackDto fallback = StreamingFilterFallbackDto.builder()
+                .eventDefinitionId("dto-id-1")
+                .from(now.minusHours(1))
+                .to(now.plusMinutes(1))
+                .version(3L)
+                .build();
+        when(fallbackService.get("dto-id-1")).thenReturn(Optional.of(fallback));
+        eventProcessor.createEvents(eventFactory, parameters, (events) -> {});
+
+        verify(moreSearch, times(1)).scrollQuery(
+                eq("aQueryString"),
+                eq(ImmutableSet.of()),
+                eq(ImmutableSet.of()),
+                eq(AbsoluteRange.create(now.minusHours(1), now)),
+                eq(parameters.batchSize()),
+                any(MoreSearch.ScrollCallback.class)
+        );
+        verify(fallbackService, times(1)).complete(fallback, now);
+        verify(stateService, times(2)).setState("dto-id-1", timerange.from(), timerange.to());
+    }
+
     @Test
     public void testEventsFromAggregationResultWithEmptyResultUsesEventDefinitionStreamAsSourceStreams() {
         final DateTime now = DateTime.now(DateTimeZone.UTC);
@@ -401,7 +449,7 @@ public class AggregationEventProcessorTest {
                 .timerange(timerange)
                 .build();
 
-        final AggregationEventProcessor eventProcessor = new AggregationEventProcessor(eventDefinitionDto, searchFactory, eventProcessorDependencyCheck, stateService, moreSearch, streamService, messages);
+        final AggregationEventProcessor eventProcessor = new AggregationEventProcessor(eventDefinitionDto, searchFactory, eventProcessorDependencyCheck, stateService, moreSearch, streamService, messages, streamingEvaluator, fallbackService);
         final AggregationResult result = buildAggregationResult(timerange, now, ImmutableList.of("one", "two"));
         final ImmutableList<EventWithContext> eventsWithContext = eventProcessor.eventsFromAggregationResult(eventFactory, parameters, result);
 
@@ -454,7 +502,7 @@ public class AggregationEventProcessorTest {
                 .timerange(timerange)
                 .build();
 
-        final AggregationEventProcessor eventProcessor = new AggregationEventProcessor(eventDefinitionDto, searchFactory, eventProcessorDependencyCheck, stateService, moreSearch, streamService, messages);
+        final AggregationEventProcessor eventProcessor = new AggregationEventProcessor(eventDefinitionDto, searchFactory, eventProcessorDependencyCheck, stateService, moreSearch, streamService, messages, streamingEvaluator, fallbackService);
         final AggregationResult result = buildAggregationResult(timerange, now, ImmutableList.of("one", "two"));
         final ImmutableList<EventWithContext> eventsWithContext = eventProcessor.eventsFromAggregationResult(eventFactory, parameters, result);
 
@@ -546,7 +594,7 @@ public class AggregationEventProcessorTest {
                 .build();
         final EventDefinitionDto eventDefinitionDto = buildEventDefinitionDto(ImmutableSet.of(), ImmutableList.of(series), null);
         final AggregationEventProcessor eventProcessor = new AggregationEventProcessor(
-                eventDefinitionDto, searchFactory, eventProcessorDependencyCheck, stateService, moreSearch, streamService, messages);
+                eventDefinitionDto, searchFactory, eventProcessorDependencyCheck, stateService, moreSearch, streamService, messages, streamingEvaluator, fallbackService);
 
         eventProcessor.sourceMessagesForEvent(event, messageConsumer, batchLimit);
     }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.graylog2.indexer.fieldtypes.FieldTypeDTO;
+import org.graylog2.indexer.fieldtypes.IndexFieldTypesDTO;
+import org.graylog2.plugin.Message;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FilterQueryMatcherTest {
+    private static final Set<String> EXACT_FIELDS = ImmutableSet.of("action", "user", "status");
+
+    private Message message() {
+        final Message message = new Message("hello world", "source", DateTime.now(DateTimeZone.UTC));
+        message.addField("action", "login failed");
+        message.addField("user", "jane");
+        message.addField("status", 403);
+        return message;
+    }
+
+    private boolean matches(String query) {
+        final Optional<Predicate<Message>> predicate = FilterQueryMatcher.compile(query, EXACT_FIELDS);
+        assertThat(predicate).isPresent();
+        return predicate.get().test(message());
+    }
+
+    @Test
+    public void matchesEverythingWithoutQuery() {
+        assertThat(matches("")).isTrue();
+        assertThat(matches("*")).isTrue();
+    }
+
+    @Test
+    public void matchesTerms() {
+        assertThat(matches("user:jane")).isTrue();
+        assertThat(matches("user:john")).isFalse();
+        assertThat(matches("action:\"login failed\"")).isTrue();
+        assertThat(matches("status:403")).isTrue();
+        assertThat(matches("status:403.0")).isTrue();
+        assertThat(matches("_exists_:user")).isTrue();
+        assertThat(matches("_exists_:group")).isFalse();
+    }
+
+    @Test
+    public void matchesConjunctionsAndNegations() {
+        assertThat(matches("user:jane AND status:403")).isTrue();
+        assertThat(matches("user:jane AND status:200")).isFalse();
+        assertThat(matches("user:jane AND NOT status:200")).isTrue();
+        assertThat(matches("NOT user:jane")).isFalse();
+    }
+
+    @Test
+    public void rejectsUnsupportedQueries() {
+        assertThat(FilterQueryMatcher.compile("user:jane status:403", EXACT_FIELDS)).isEmpty();
+        assertThat(FilterQueryMatcher.compile("user:jane OR status:403", EXACT_FIELDS)).isEmpty();
+        assertThat(FilterQueryMatcher.compile("user:ja*", EXACT_FIELDS)).isEmpty();
+        assertThat(FilterQueryMatcher.compile("message:hello", EXACT_FIELDS)).isEmpty();
+        assertThat(FilterQueryMatcher.compile("hello", EXACT_FIELDS)).isEmpty();
+        assertThat(FilterQueryMatcher.compile("status:[400 TO 499]", EXACT_FIELDS)).isEmpty();
+        assertThat(FilterQueryMatcher.compile("(user:jane AND status:403)", EXACT_FIELDS)).isEmpty();
+        assertThat(FilterQueryMatcher.compile("user:jane AND", EXACT_FIELDS)).isEmpty();
+    }
+
+    @Test
+    public void rejectsTermsOnFieldsWithoutExactType() {
+        final Set<String> exactFields = FilterQueryMatcher.exactFields(ImmutableList.of(
+                IndexFieldTypesDTO.create("index-set-1", "graylog_0", ImmutableSet.of(
+                        FieldTypeDTO.create("message", "text"),
+                        FieldTypeDTO.create("user", "keyword"),
+                        FieldTypeDTO.create("status", "long"),
+                        FieldTypeDTO.create("action", "keyword"),
+                        FieldTypeDTO.create("custom_text", "text"),
+                        FieldTypeDTO.create("timestamp", "date"))),
+                IndexFieldTypesDTO.create("index-set-1", "graylog_1", ImmutableSet.of(
+                        FieldTypeDTO.create("user", "keyword"),
+                        // Custom index mappings can analyze fields in some indices only
+                        FieldTypeDTO.create("action", "text")))));
+
+        assertThat(exactFields).containsOnly("user", "status");
+        assertThat(FilterQueryMatcher.compile("user:jane AND status:403", exactFields)).isPresent();
+        assertThat(FilterQueryMatcher.compile("custom_text:hello", exactFields)).isEmpty();
+        assertThat(FilterQueryMatcher.compile("action:failed", exactFields)).isEmpty();
+        assertThat(FilterQueryMatcher.compile("timestamp:2021", exactFields)).isEmpty();
+        // Fields which haven't been indexed yet have an unknown type
+        assertThat(FilterQueryMatcher.compile("group:admins", exactFields)).isEmpty();
+    }
+}
@@ -55,6 +55,8 @@ public class PivotAggregationSearchTest {
     private MoreSearch moreSearch;
     @Mock
     private PermittedStreams permittedStreams;
+    @Mock
+    private SharedAggregationSearch sharedAggregationSearch;
 
     @Test
     public void testExtractValuesWithGroupBy() throws Exception {
@@ -85,7 +87,8 @@ public class PivotAggregationSearchTest {
                 queryEngine,
                 EventsConfigurationTestProvider.create(),
                 moreSearch,
-                permittedStreams);
+                permittedStreams,
+                sharedAggregationSearch);
 
         final String toString = timerange.getTo().toString();
         final PivotResult pivotResult = PivotResult.builder()
@@ -181,7 +184,8 @@ public class PivotAggregationSearchTest {
                 queryEngine,
                 EventsConfigurationTestProvider.create(),
                 moreSearch,
-                permittedStreams);
+                permittedStreams,
+                sharedAggregationSearch);
 
         final PivotResult pivotResult = PivotResult.builder()
                 .id("test")
@@ -252,7 +256,8 @@ public class PivotAggregationSearchTest {
                 queryEngine,
                 EventsConfigurationTestProvider.create(),
                 moreSearch,
-                permittedStreams);
+                permittedStreams,
+                sharedAggregationSearch);
 
         final PivotResult pivotResult = PivotResult.builder()
                 .id("test")
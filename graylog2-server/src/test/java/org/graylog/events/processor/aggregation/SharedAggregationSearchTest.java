@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.events.EventsConfigurationTestProvider;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog.plugins.views.search.Search;
+import org.graylog.plugins.views.search.SearchJob;
+import org.graylog.plugins.views.search.SearchType;
+import org.graylog.plugins.views.search.db.SearchJobService;
+import org.graylog.plugins.views.search.elasticsearch.ElasticsearchQueryString;
+import org.graylog.plugins.views.search.engine.QueryEngine;
+import org.graylog.plugins.views.search.errors.SearchTypeError;
+import org.graylog.plugins.views.search.filter.OrFilter;
+import org.graylog.plugins.views.search.filter.StreamFilter;
+import org.graylog.plugins.views.search.rest.PermittedStreams;
+import org.graylog.plugins.views.search.searchtypes.pivot.Pivot;
+import org.graylog.plugins.views.search.searchtypes.pivot.PivotResult;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Values;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SharedAggregationSearchTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private SearchJobService searchJobService;
+    @Mock
+    private QueryEngine queryEngine;
+    @Mock
+    private PermittedStreams permittedStreams;
+
+    private final AbsoluteRange timerange = AbsoluteRange.create(
+            new DateTime(2020, 1, 1, 0, 0, DateTimeZone.UTC), new DateTime(2020, 1, 1, 0, 1, DateTimeZone.UTC));
+    // Searches with this time range block until the latch is released
+    private final AbsoluteRange blockingTimerange = AbsoluteRange.create(
+            new DateTime(2020, 1, 1, 1, 0, DateTimeZone.UTC), new DateTime(2020, 1, 1, 1, 1, DateTimeZone.UTC));
+    private final CountDownLatch blockingSearchStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseBlockingSearch = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        when(searchJobService.create(any(Search.class), anyString()))
+                .thenAnswer(invocation -> new SearchJob("job", invocation.getArgument(0), invocation.getArgument(1)));
+        // Answers every search type of every query with an empty pivot result carrying the search type ID
+        when(queryEngine.execute(any(SearchJob.class))).thenAnswer(invocation -> {
+            final SearchJob searchJob = invocation.getArgument(0);
+            if (searchJob.getSearch().queries().stream().anyMatch(query -> blockingTimerange.equals(query.timerange()))) {
+                blockingSearchStarted.countDown();
+                releaseBlockingSearch.await();
+            }
+            for (Query query : searchJob.getSearch().queries()) {
+                final Map<String, SearchType.Result> results = query.searchTypes().stream()
+                        .collect(Collectors.toMap(SearchType::id, searchType -> PivotResult.builder()
+                                .id(searchType.id())
+                                .effectiveTimerange(timerange)
+                                .total(0)
+                                .build()));
+                searchJob.addQueryResultFuture(query.id(), CompletableFuture.completedFuture(QueryResult.builder()
+                        .query(query)
+                        .searchTypes(results)
+                        .build()));
+            }
+            return searchJob.seal();
+        });
+    }
+
+    private SharedAggregationSearch createSharedSearch(Duration batchWindow) {
+        return new SharedAggregationSearch(searchJobService, queryEngine, EventsConfigurationTestProvider.create(),
+                permittedStreams, new MetricRegistry(), batchWindow);
+    }
+
+    private Query aggregationQuery(String groupByField) {
+        final Pivot pivot = Pivot.builder()
+                .id("pivot-1")
+                .rollup(true)
+                .rowGroups(ImmutableList.of(Values.builder().field(groupByField).limit(10).build()))
+                .series(ImmutableList.of(Count.builder().id("count").build()))
+                .build();
+        return Query.builder()
+                .id("query-1")
+                .searchTypes(ImmutableSet.of(pivot))
+                .query(ElasticsearchQueryString.builder().queryString("source:foo").build())
+                .timerange(timerange)
+                .filter(OrFilter.builder().filters(ImmutableSet.of(StreamFilter.ofId("stream-1"))).build())
+                .build();
+    }
+
+    private Query streamsQuery() {
+        return Query.builder()
+                .id("streams-query-1")
+                .searchTypes(ImmutableSet.of(Pivot.builder()
+                        .id("streams-pivot-1")
+                        .rollup(true)
+                        .rowGroups(ImmutableList.of(Values.builder().field("streams").limit(10).build()))
+                        .series(ImmutableList.of(Count.builder().id("streams-count").build()))
+                        .build()))
+                .query(ElasticsearchQueryString.builder().queryString("source:foo").build())
+                .timerange(timerange)
+                .filter(OrFilter.builder().filters(ImmutableSet.of(StreamFilter.ofId("stream-1"))).build())
+                .build();
+    }
+
+    @Test
+    public void combinesConcurrentCompatibleSearches() throws Exception {
+        final SharedAggregationSearch sharedSearch = createSharedSearch(Duration.milliseconds(500));
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // Searches only wait for others to join them while other searches are running
+            final Query otherSearch = aggregationQuery("source").toBuilder().timerange(blockingTimerange).build();
+            final Future<Map<String, QueryResult>> running = executor.submit(() -> sharedSearch.execute("event-processor-other", otherSearch, streamsQuery()));
+            assertThat(blockingSearchStarted.await(10, TimeUnit.SECONDS)).isTrue();
+
+            // Every event definition runs its searches with its own owner
+            final BiFunction<String, String, Future<Map<String, QueryResult>>> submit = (owner, field) ->
+                    executor.submit(() -> sharedSearch.execute(owner, aggregationQuery(field), streamsQuery()));
+            final Future<Map<String, QueryResult>> first = submit.apply("event-processor-1", "source");
+            final Future<Map<String, QueryResult>> second = submit.apply("event-processor-2", "facility");
+            final Future<Map<String, QueryResult>> third = submit.apply("event-processor-3", "source");
+
+            for (Future<Map<String, QueryResult>> future : ImmutableList.of(first, second, third)) {
+                final Map<String, QueryResult> results = future.get();
+                assertThat(results).containsKeys("query-1", "streams-query-1");
+                assertThat(results.get("query-1").searchTypes()).containsOnlyKeys("pivot-1");
+            }
+            // The first and third search use identical pivots
+            assertThat(((PivotResult) first.get().get("query-1").searchTypes().get("pivot-1")).id())
+                    .isEqualTo(((PivotResult) third.get().get("query-1").searchTypes().get("pivot-1")).id())
+                    .isNotEqualTo(((PivotResult) second.get().get("query-1").searchTypes().get("pivot-1")).id());
+
+            releaseBlockingSearch.countDown();
+            assertThat(running.get().get("query-1").searchTypes()).containsOnlyKeys("pivot-1");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // One search job for the combined searches and one for the other search
+        verify(searchJobService, times(1)).create(any(Search.class), eq(SharedAggregationSearch.SHARED_OWNER));
+        verify(searchJobService, times(1)).create(any(Search.class), eq("event-processor-other"));
+        verify(searchJobService, times(2)).create(any(Search.class), anyString());
+    }
+
+    @Test
+    public void doesNotWaitWithoutOtherPendingSearches() throws Exception {
+        final SharedAggregationSearch sharedSearch = createSharedSearch(Duration.minutes(1));
+
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        final Map<String, QueryResult> results = sharedSearch.execute("admin", aggregationQuery("source"), streamsQuery());
+
+        assertThat(results.get("query-1").searchTypes()).containsOnlyKeys("pivot-1");
+        assertThat(stopwatch.elapsed(TimeUnit.SECONDS)).isLessThan(30L);
+    }
+
+    @Test
+    public void isDisabledWithoutBatchWindow() {
+        assertThat(createSharedSearch(Duration.milliseconds(0)).isEnabled()).isFalse();
+        assertThat(createSharedSearch(Duration.milliseconds(100)).isEnabled()).isTrue();
+    }
+
+    @Test
+    public void doesNotCombineSearchesWithDifferentTimeranges() throws Exception {
+        final SharedAggregationSearch sharedSearch = createSharedSearch(Duration.milliseconds(1));
+        final Query otherTimerange = aggregationQuery("source").toBuilder()
+                .timerange(AbsoluteRange.create(timerange.getFrom().plusMinutes(1), timerange.getTo().plusMinutes(1)))
+                .build();
+
+        sharedSearch.execute("event-processor-1", aggregationQuery("source"), streamsQuery());
+        sharedSearch.execute("event-processor-2", otherTimerange, streamsQuery());
+
+        // Searches which don't get combined keep their owner
+        verify(searchJobService, times(1)).create(any(Search.class), eq("event-processor-1"));
+        verify(searchJobService, times(1)).create(any(Search.class), eq("event-processor-2"));
+    }
+
+    @Test
+    public void resultsForOnlyKeepsOwnPivotAndErrors() {
+        final Query query = aggregationQuery("source");
+        final PivotResult ownResult = PivotResult.builder().id("shared-pivot-0").effectiveTimerange(timerange).total(1).build();
+        final PivotResult otherResult = PivotResult.builder().id("shared-pivot-1").effectiveTimerange(timerange).total(2).build();
+        final SearchTypeError otherError = new SearchTypeError(query, "shared-pivot-1", "boom");
+        final QueryResult queryResult = QueryResult.builder()
+                .query(query)
+                .searchTypes(ImmutableMap.of("shared-pivot-0", ownResult, "shared-pivot-1", otherResult))
+                .errors(ImmutableSet.of(otherError))
+                .build();
+        final QueryResult streamsResult = mock(QueryResult.class);
+
+        final Map<String, QueryResult> results = SharedAggregationSearch.resultsFor(
+                ImmutableMap.of("query-1", queryResult, "streams-query-1", streamsResult),
+                "query-1", "pivot-1", "shared-pivot-0");
+
+        assertThat(results.get("streams-query-1")).isSameAs(streamsResult);
+        assertThat(results.get("query-1").searchTypes()).containsExactly(entry("pivot-1", ownResult));
+        assertThat(results.get("query-1").errors()).isEmpty();
+    }
+}
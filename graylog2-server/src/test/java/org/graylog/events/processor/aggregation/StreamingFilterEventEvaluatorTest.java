@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.events.event.EventProcessorEventFactory;
+import org.graylog.events.event.EventWithContext;
+import org.graylog.events.event.TestEvent;
+import org.graylog.events.notifications.EventNotificationSettings;
+import org.graylog.events.processor.DBEventDefinitionService;
+import org.graylog.events.processor.EventDefinition;
+import org.graylog.events.processor.EventDefinitionDto;
+import org.graylog.events.processor.EventProcessorEngine;
+import org.graylog.events.processor.EventProcessorException;
+import org.graylog.scheduler.DBJobDefinitionService;
+import org.graylog.scheduler.JobDefinitionDto;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.indexer.fieldtypes.FieldTypeDTO;
+import org.graylog2.indexer.fieldtypes.IndexFieldTypesDTO;
+import org.graylog2.indexer.fieldtypes.IndexFieldTypesService;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.system.NodeId;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+public class StreamingFilterEventEvaluatorTest {
+    private static final DateTime NOW = new DateTime(2021, 6, 1, 12, 0, DateTimeZone.UTC);
+
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private DBEventDefinitionService eventDefinitionService;
+    @Mock
+    private DBJobDefinitionService jobDefinitionService;
+    @Mock
+    private DBStreamingFilterFallbackService fallbackService;
+    @Mock
+    private IndexFieldTypesService indexFieldTypesService;
+    @Mock
+    private EventProcessorEngine eventProcessorEngine;
+    @Mock
+    private EventProcessorEventFactory eventFactory;
+    @Mock
+    private NodeId nodeId;
+    @Mock
+    private ScheduledExecutorService executorService;
+    @Mock
+    private Stream stream;
+    @Mock
+    private IndexSet indexSet;
+
+    private List<EventDefinitionDto> eventDefinitions;
+
+    @Before
+    public void setUp() throws Exception {
+        DateTimeUtils.setCurrentMillisFixed(NOW.getMillis());
+
+        eventDefinitions = ImmutableList.of(eventDefinition("user:jane"));
+        when(eventDefinitionService.streamAll()).thenAnswer(invocation -> eventDefinitions.stream());
+        when(jobDefinitionService.getAllByConfigField(anyString(), any())).thenAnswer(invocation -> {
+            final Collection<?> ids = invocation.getArgument(1);
+            return ids.stream().collect(Collectors.toMap(String::valueOf, id -> ImmutableList.<JobDefinitionDto>of()));
+        });
+        when(indexFieldTypesService.findForStreamIds(ImmutableSet.of("stream-1"))).thenReturn(ImmutableList.of(
+                IndexFieldTypesDTO.create("index-set-1", "graylog_0", ImmutableSet.of(FieldTypeDTO.create("user", "keyword")))));
+        when(fallbackService.lastSeen("node-1")).thenReturn(Optional.empty());
+        when(eventFactory.createEvent(any(EventDefinition.class), any(DateTime.class), anyString()))
+                .thenAnswer(invocation -> new TestEvent(invocation.getArgument(1)));
+        when(nodeId.toString()).thenReturn("node-1");
+        when(stream.getId()).thenReturn("stream-1");
+        when(stream.getIndexSet()).thenReturn(indexSet);
+        when(indexSet.getWriteIndexAlias()).thenReturn("graylog_deflector");
+    }
+
+    @After
+    public void tearDown() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    private StreamingFilterEventEvaluator evaluator(boolean enabled, int queueCapacity) {
+        return new StreamingFilterEventEvaluator(enabled, eventDefinitionService, jobDefinitionService, fallbackService,
+                indexFieldTypesService, () -> eventProcessorEngine, () -> eventFactory, nodeId, new MetricRegistry(), executorService, queueCapacity);
+    }
+
+    private EventDefinitionDto eventDefinition(String query) {
+        return EventDefinitionDto.builder()
+                .id("definition-1")
+                .title("Failed logins")
+                .description("")
+                .priority(1)
+                .alert(false)
+                .notificationSettings(EventNotificationSettings.withGracePeriod(60000))
+                .config(AggregationEventProcessorConfig.builder()
+                        .query(query)
+                        .streams(ImmutableSet.of("stream-1"))
+                        .groupBy(ImmutableList.of())
+                        .series(ImmutableList.of())
+                        .conditions(null)
+                        .searchWithinMs(30000)
+                        .executeEveryMs(30000)
+                        .build())
+                .keySpec(ImmutableList.of())
+                .build();
+    }
+
+    private Message message(String user, DateTime timestamp) {
+        final Message message = new Message("login failed", "source", timestamp);
+        message.addField("user", user);
+        message.addStream(stream);
+        return message;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<EventWithContext> emittedEvents() throws EventProcessorException {
+        final ArgumentCaptor<List<EventWithContext>> captor = ArgumentCaptor.forClass(List.class);
+        verify(eventProcessorEngine, times(1)).emit(eq(eventDefinitions.get(0)), captor.capture());
+        return captor.getValue();
+    }
+
+    @Test
+    public void emitsEventsForMatchingMessages() throws Exception {
+        final StreamingFilterEventEvaluator evaluator = evaluator(true, 10);
+        evaluator.startUp();
+        assertThat(evaluator.isStreaming("definition-1")).isTrue();
+
+        evaluator.evaluate(message("jane", NOW.minusSeconds(2)));
+        evaluator.evaluate(message("john", NOW.minusSeconds(1)));
+        evaluator.emitEvents();
+
+        final List<EventWithContext> events = emittedEvents();
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0).event().getEventTimestamp()).isEqualTo(NOW.minusSeconds(2));
+        assertThat(events.get(0).event().getSourceStreams()).containsOnly("stream-1");
+        assertThat(events.get(0).event().getOriginContext()).contains("graylog_deflector");
+    }
+
+    @Test
+    public void storesFallbackForMatchesDroppedFromFullQueue() throws Exception {
+        final StreamingFilterEventEvaluator evaluator = evaluator(true, 1);
+        evaluator.startUp();
+        reset(fallbackService);
+
+        evaluator.evaluate(message("jane", NOW.minusSeconds(30)));
+        evaluator.evaluate(message("jane", NOW.minusSeconds(20)));
+        evaluator.evaluate(message("jane", NOW.minusSeconds(10)));
+        evaluator.emitEvents();
+
+        assertThat(emittedEvents()).hasSize(1);
+        verify(fallbackService, times(1)).add("definition-1", NOW.minusSeconds(20), NOW.minusSeconds(10));
+    }
+
+    @Test
+    public void storesFallbackIfEmittingEventsFails() throws Exception {
+        final StreamingFilterEventEvaluator evaluator = evaluator(true, 10);
+        evaluator.startUp();
+        reset(fallbackService);
+        doThrow(new EventProcessorException("Boom", false, "definition-1"))
+                .when(eventProcessorEngine).emit(any(EventDefinition.class), any());
+
+        evaluator.evaluate(message("jane", NOW.minusSeconds(30)));
+        evaluator.evaluate(message("jane", NOW.minusSeconds(10)));
+        evaluator.emitEvents();
+
+        verify(fallbackService, times(1)).add("definition-1", NOW.minusSeconds(30), NOW.minusSeconds(10));
+    }
+
+    @Test
+    public void retriesStoringFallbacks() throws Exception {
+        final StreamingFilterEventEvaluator evaluator = evaluator(true, 1);
+        evaluator.startUp();
+        reset(fallbackService);
+        doThrow(new RuntimeException("MongoDB is down"))
+                .doNothing()
+                .when(fallbackService).add(anyString(), any(DateTime.class), any(DateTime.class));
+
+        evaluator.evaluate(message("jane", NOW.minusSeconds(30)));
+        evaluator.evaluate(message("jane", NOW.minusSeconds(20)));
+        evaluator.emitEvents();
+        evaluator.emitEvents();
+
+        verify(fallbackService, times(2)).add("definition-1", NOW.minusSeconds(20), NOW.minusSeconds(20));
+    }
+
+    @Test
+    public void storesFallbackForNewAndChangedDefinitions() throws Exception {
+        final StreamingFilterEventEvaluator evaluator = evaluator(true, 10);
+        evaluator.startUp();
+
+        // Messages processed by other nodes before they picked up the definition haven't been evaluated
+        verify(fallbackService, times(1)).add("definition-1", NOW.minusSeconds(20), NOW);
+        verify(fallbackService, times(1)).markAsAlive("node-1", NOW);
+
+        reset(fallbackService);
+        evaluator.refreshDefinitions();
+        verify(fallbackService, never()).add(anyString(), any(DateTime.class), any(DateTime.class));
+
+        DateTimeUtils.setCurrentMillisFixed(NOW.plusMinutes(1).getMillis());
+        eventDefinitions = ImmutableList.of(eventDefinition("user:john"));
+        evaluator.refreshDefinitions();
+        verify(fallbackService, times(1)).add("definition-1", NOW.plusMinutes(1).minusSeconds(20), NOW.plusMinutes(1));
+
+        eventDefinitions = ImmutableList.of(eventDefinition("user:john OR user:jane"));
+        evaluator.refreshDefinitions();
+        assertThat(evaluator.isStreaming("definition-1")).isFalse();
+    }
+
+    @Test
+    public void storesFallbackForMessagesProcessedBeforeStartAndAfterUncleanStop() throws Exception {
+        when(fallbackService.lastSeen("node-1")).thenReturn(Optional.of(NOW.minusMinutes(1)));
+        final StreamingFilterEventEvaluator evaluator = evaluator(true, 10);
+
+        evaluator.evaluate(message("jane", NOW.minusMinutes(5)));
+        evaluator.startUp();
+
+        verify(fallbackService, times(1)).add("definition-1", NOW.minusSeconds(20), NOW);
+        verify(fallbackService, times(1)).add("definition-1", NOW.minusMinutes(5), NOW);
+        verify(eventProcessorEngine, never()).emit(any(), any());
+    }
+
+    @Test
+    public void marksNodeAsStoppedAfterEmittingAllEvents() throws Exception {
+        final StreamingFilterEventEvaluator evaluator = evaluator(true, 10);
+        evaluator.startUp();
+
+        evaluator.evaluate(message("jane", NOW.minusSeconds(2)));
+        evaluator.shutDown();
+
+        assertThat(emittedEvents()).hasSize(1);
+        verify(fallbackService, times(1)).markAsStopped("node-1");
+    }
+
+    @Test
+    public void doesNotStopCleanlyWithFallbacksLeft() throws Exception {
+        final StreamingFilterEventEvaluator evaluator = evaluator(true, 10);
+        evaluator.startUp();
+        doThrow(new RuntimeException("MongoDB is down"))
+                .when(fallbackService).add(anyString(), any(DateTime.class), any(DateTime.class));
+        doThrow(new EventProcessorException("Boom", false, "definition-1"))
+                .when(eventProcessorEngine).emit(any(EventDefinition.class), any());
+
+        evaluator.evaluate(message("jane", NOW.minusSeconds(2)));
+        evaluator.shutDown();
+
+        verify(fallbackService, never()).markAsStopped(anyString());
+    }
+
+    @Test
+    public void doesNothingWhenDisabled() throws Exception {
+        final StreamingFilterEventEvaluator evaluator = evaluator(false, 10);
+        evaluator.startUp();
+
+        evaluator.evaluate(message("jane", NOW));
+        evaluator.emitEvents();
+        evaluator.shutDown();
+
+        assertThat(evaluator.isStreaming("definition-1")).isFalse();
+        verifyNoInteractions(eventDefinitionService, fallbackService, eventProcessorEngine);
+    }
+}
@@ -54,8 +54,9 @@ public class FailureHandlingServiceTest {
     @BeforeEach
     public void setup() {
         when(configuration.getFailureHandlingQueueCapacity()).thenReturn(1000);
+        when(configuration.getFailureHandlingQueueOverflowPolicy()).thenReturn(FailureSubmissionOverflowPolicy.BLOCK);
 
-        failureSubmissionQueue = new FailureSubmissionQueue(configuration, metricRegistry);
+        failureSubmissionQueue = new FailureSubmissionQueue(configuration, acknowledger, metricRegistry);
     }
 
     @Test
@@ -19,22 +19,30 @@ package org.graylog.failure;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.graylog2.Configuration;
+import org.graylog2.plugin.Message;
+import org.graylog2.shared.messageq.MessageQueueAcknowledger;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 public class FailureSubmissionQueueTest {
 
     private final Configuration configuration = mock(Configuration.class);
 
+    private final MessageQueueAcknowledger acknowledger = mock(MessageQueueAcknowledger.class);
+
     private final MetricRegistry metricRegistry = new MetricRegistry();
 
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1, new ThreadFactoryBuilder()
@@ -42,12 +50,17 @@ public class FailureSubmissionQueueTest {
             .setDaemon(false)
             .build());
 
+    @Before
+    public void setUp() {
+        when(configuration.getFailureHandlingQueueOverflowPolicy()).thenReturn(FailureSubmissionOverflowPolicy.BLOCK);
+    }
+
     @Test
     public void submitBlocking_whenQueueNotFull_acceptsNewBatches() throws Exception {
         //given
         when(configuration.getFailureHandlingQueueCapacity()).thenReturn(1000);
 
-        final FailureSubmissionQueue underTest = new FailureSubmissionQueue(configuration, metricRegistry);
+        final FailureSubmissionQueue underTest = new FailureSubmissionQueue(configuration, acknowledger, metricRegistry);
 
         final ProcessingFailure prcFailure1 = createProcessingFailure();
         final ProcessingFailure prcFailure2 = createProcessingFailure();
@@ -67,7 +80,7 @@ public class FailureSubmissionQueueTest {
         //given
         when(configuration.getFailureHandlingQueueCapacity()).thenReturn(2);
 
-        final FailureSubmissionQueue underTest = new FailureSubmissionQueue(configuration, metricRegistry);
+        final FailureSubmissionQueue underTest = new FailureSubmissionQueue(configuration, acknowledger, metricRegistry);
 
         final ProcessingFailure prcFailure1 = createProcessingFailure();
         final ProcessingFailure prcFailure2 = createProcessingFailure();
@@ -103,7 +116,7 @@ public class FailureSubmissionQueueTest {
         //given
         when(configuration.getFailureHandlingQueueCapacity()).thenReturn(2);
 
-        final FailureSubmissionQueue underTest = new FailureSubmissionQueue(configuration, metricRegistry);
+        final FailureSubmissionQueue underTest = new FailureSubmissionQueue(configuration, acknowledger, metricRegistry);
 
         final ProcessingFailure prcFailure1 = createProcessingFailure();
 
@@ -130,7 +143,7 @@ public class FailureSubmissionQueueTest {
         //given
         when(configuration.getFailureHandlingQueueCapacity()).thenReturn(2);
 
-        final FailureSubmissionQueue underTest = new FailureSubmissionQueue(configuration, metricRegistry);
+        final FailureSubmissionQueue underTest = new FailureSubmissionQueue(configuration, acknowledger, metricRegistry);
 
         final ProcessingFailure prcFailure1 = createProcessingFailure();
 
@@ -157,7 +170,7 @@ public class FailureSubmissionQueueTest {
         //given
         when(configuration.getFailureHandlingQueueCapacity()).thenReturn(2);
 
-        final FailureSubmissionQueue underTest = new FailureSubmissionQueue(configuration, metricRegistry);
+        final FailureSubmissionQueue underTest = new FailureSubmissionQueue(configuration, acknowledger, metricRegistry);
 
         final ProcessingFailure prcFailure1 = createProcessingFailure();
 
@@ -176,6 +189,78 @@ public class FailureSubmissionQueueTest {
         assertThat(consumedBatch).isNull();
     }
 
+    @Test
+    public void submit_whenQueueIsFullAndPolicyIsDropNewest_submittedBatchIsDroppedAndAcknowledged() throws Exception {
+        //given
+        when(configuration.getFailureHandlingQueueCapacity()).thenReturn(1);
+        when(configuration.getFailureHandlingQueueOverflowPolicy()).thenReturn(FailureSubmissionOverflowPolicy.DROP_NEWEST);
+
+        final FailureSubmissionQueue underTest = new FailureSubmissionQueue(configuration, acknowledger, metricRegistry);
+
+        final Message message = mock(Message.class);
+        final ProcessingFailure prcFailure1 = createProcessingFailure();
+        final ProcessingFailure prcFailure2 = createProcessingFailure(message);
+
+        // when
+        underTest.submit(FailureBatch.processingFailureBatch(prcFailure1));
+        underTest.submit(FailureBatch.processingFailureBatch(prcFailure2));
+
+        // then
+        assertThat(underTest.queueSize()).isEqualTo(1);
+        assertThat(underTest.consumeBlocking()).isEqualTo(FailureBatch.processingFailureBatch(prcFailure1));
+        assertThat(metricRegistry.meter("org.graylog.failure.FailureSubmissionQueue.droppedFailures").getCount()).isEqualTo(1);
+        verify(acknowledger).acknowledge(Collections.singletonList(message));
+    }
+
+    @Test
+    public void submit_whenQueueIsFullAndPolicyIsDropOldest_oldestBatchIsDroppedAndAcknowledged() throws Exception {
+        //given
+        when(configuration.getFailureHandlingQueueCapacity()).thenReturn(2);
+        when(configuration.getFailureHandlingQueueOverflowPolicy()).thenReturn(FailureSubmissionOverflowPolicy.DROP_OLDEST);
+
+        final FailureSubmissionQueue underTest = new FailureSubmissionQueue(configuration, acknowledger, metricRegistry);
+
+        final Message message = mock(Message.class);
+        final ProcessingFailure prcFailure1 = createProcessingFailure(message);
+        final ProcessingFailure prcFailure2 = createProcessingFailure();
+        final ProcessingFailure prcFailure3 = createProcessingFailure();
+
+        // when
+        underTest.submit(FailureBatch.processingFailureBatch(prcFailure1));
+        underTest.submit(FailureBatch.processingFailureBatch(prcFailure2));
+        underTest.submit(FailureBatch.processingFailureBatch(prcFailure3));
+
+        // then
+        assertThat(underTest.queueSize()).isEqualTo(2);
+        assertThat(underTest.consumeBlocking()).isEqualTo(FailureBatch.processingFailureBatch(prcFailure2));
+        assertThat(underTest.consumeBlocking()).isEqualTo(FailureBatch.processingFailureBatch(prcFailure3));
+        verify(acknowledger).acknowledge(Collections.singletonList(message));
+    }
+
+    @Test
+    public void submit_whenQueueNotFull_nothingIsDropped() throws Exception {
+        //given
+        when(configuration.getFailureHandlingQueueCapacity()).thenReturn(2);
+        when(configuration.getFailureHandlingQueueOverflowPolicy()).thenReturn(FailureSubmissionOverflowPolicy.DROP_OLDEST);
+
+        final FailureSubmissionQueue underTest = new FailureSubmissionQueue(configuration, acknowledger, metricRegistry);
+
+        // when
+        underTest.submit(FailureBatch.processingFailureBatch(createProcessingFailure()));
+        underTest.submit(FailureBatch.processingFailureBatch(createProcessingFailure()));
+
+        // then
+        assertThat(underTest.queueSize()).isEqualTo(2);
+        verifyNoInteractions(acknowledger);
+    }
+
+    private ProcessingFailure createProcessingFailure(Message failedMessage) {
+        return new ProcessingFailure(
+                ProcessingFailureCause.UNKNOWN, "message", "details",
+                DateTime.now(DateTimeZone.UTC), failedMessage,
+                true);
+    }
+
     private ProcessingFailure createProcessingFailure() {
         return new ProcessingFailure(
                 ProcessingFailureCause.UNKNOWN, "message", "details",
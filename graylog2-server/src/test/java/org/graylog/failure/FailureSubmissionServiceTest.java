@@ -59,7 +59,7 @@ public class FailureSubmissionServiceTest {
         underTest.submitIndexingErrors(indexingErrors);
 
         // then
-        verify(failureSubmissionQueue, times(1)).submitBlocking(failureBatchCaptor.capture());
+        verify(failureSubmissionQueue, times(1)).submit(failureBatchCaptor.capture());
 
         assertThat(failureBatchCaptor.getValue()).satisfies(fb -> {
             assertThat(fb.containsIndexingFailures()).isTrue();
@@ -134,11 +134,11 @@ public class FailureSubmissionServiceTest {
 
         assertThat(notFilterOut).isTrue();
 
-        verify(failureSubmissionQueue, times(2)).submitBlocking(failureBatchCaptor.capture());
+        verify(failureSubmissionQueue, times(1)).submit(failureBatchCaptor.capture());
 
-        assertThat(failureBatchCaptor.getAllValues().get(0)).satisfies(fb -> {
+        assertThat(failureBatchCaptor.getValue()).satisfies(fb -> {
             assertThat(fb.containsProcessingFailures()).isTrue();
-            assertThat(fb.size()).isEqualTo(1);
+            assertThat(fb.size()).isEqualTo(2);
 
             assertThat(fb.getFailures().get(0)).satisfies(processingFailure -> {
                 assertThat(processingFailure.failureType()).isEqualTo(FailureType.PROCESSING);
@@ -150,13 +150,8 @@ public class FailureSubmissionServiceTest {
                 assertThat(processingFailure.targetIndex()).isNull();
                 assertThat(processingFailure.requiresAcknowledgement()).isFalse();
             });
-        });
 
-        assertThat(failureBatchCaptor.getAllValues().get(1)).satisfies(fb -> {
-            assertThat(fb.containsProcessingFailures()).isTrue();
-            assertThat(fb.size()).isEqualTo(1);
-
-            assertThat(fb.getFailures().get(0)).satisfies(processingFailure -> {
+            assertThat(fb.getFailures().get(1)).satisfies(processingFailure -> {
                 assertThat(processingFailure.failureType()).isEqualTo(FailureType.PROCESSING);
                 assertThat(processingFailure.failureCause().label()).isEqualTo("Cause 2");
                 assertThat(processingFailure.message()).isEqualTo("Failed to process message with id 'msg-x': Message 2");
@@ -288,7 +283,7 @@ public class FailureSubmissionServiceTest {
 
         verify(msg).setFilterOut(true);
 
-        verify(failureSubmissionQueue, times(1)).submitBlocking(failureBatchCaptor.capture());
+        verify(failureSubmissionQueue, times(1)).submit(failureBatchCaptor.capture());
 
         assertThat(failureBatchCaptor.getValue()).satisfies(fb -> {
             assertThat(fb.containsProcessingFailures()).isTrue();
@@ -324,7 +319,7 @@ public class FailureSubmissionServiceTest {
 
         assertThat(notFilterOut).isTrue();
 
-        verify(failureSubmissionQueue, times(1)).submitBlocking(failureBatchCaptor.capture());
+        verify(failureSubmissionQueue, times(1)).submit(failureBatchCaptor.capture());
 
         assertThat(failureBatchCaptor.getValue()).satisfies(fb -> {
             assertThat(fb.containsProcessingFailures()).isTrue();
@@ -359,7 +354,7 @@ public class FailureSubmissionServiceTest {
         underTest.submitUnknownProcessingError(msg, "Details of the unknown error!");
 
         // then
-        verify(failureSubmissionQueue, times(1)).submitBlocking(failureBatchCaptor.capture());
+        verify(failureSubmissionQueue, times(1)).submit(failureBatchCaptor.capture());
 
         assertThat(failureBatchCaptor.getValue()).satisfies(fb -> {
             assertThat(fb.containsProcessingFailures()).isTrue();
@@ -18,7 +18,12 @@ package org.graylog.plugins.netflow.codecs;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Resources;
+import com.google.protobuf.ByteString;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import org.graylog.plugins.netflow.flows.FlowException;
+import org.graylog.plugins.netflow.v9.NetFlowV9Journal;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.journal.RawMessage;
@@ -45,11 +50,13 @@ public class NetFlowCodecTest {
 
     private NetFlowCodec codec;
     private NetflowV9CodecAggregator codecAggregator;
+    private NetFlowV9TemplateCache templateCache;
 
     @Before
     public void setUp() throws Exception {
         codecAggregator = new NetflowV9CodecAggregator();
-        codec = new NetFlowCodec(Configuration.EMPTY_CONFIGURATION, codecAggregator);
+        templateCache = new NetFlowV9TemplateCache();
+        codec = new NetFlowCodec(Configuration.EMPTY_CONFIGURATION, codecAggregator, templateCache);
     }
 
     @Test
@@ -62,7 +69,7 @@ public class NetFlowCodecTest {
         final Configuration configuration = new Configuration(configMap);
 
         assertThatExceptionOfType(FileNotFoundException.class)
-                .isThrownBy(() -> new NetFlowCodec(configuration, codecAggregator))
+                .isThrownBy(() -> new NetFlowCodec(configuration, codecAggregator, templateCache))
                 .withMessageEndingWith("(No such file or directory)");
     }
 
@@ -72,7 +79,7 @@ public class NetFlowCodecTest {
                 NetFlowCodec.CK_NETFLOW9_DEFINITION_PATH, "");
         final Configuration configuration = new Configuration(configMap);
 
-        assertThat(new NetFlowCodec(configuration, codecAggregator)).isNotNull();
+        assertThat(new NetFlowCodec(configuration, codecAggregator, templateCache)).isNotNull();
     }
 
     @Test
@@ -81,7 +88,7 @@ public class NetFlowCodecTest {
                 NetFlowCodec.CK_NETFLOW9_DEFINITION_PATH, "   ");
         final Configuration configuration = new Configuration(configMap);
 
-        assertThat(new NetFlowCodec(configuration, codecAggregator)).isNotNull();
+        assertThat(new NetFlowCodec(configuration, codecAggregator, templateCache)).isNotNull();
     }
 
     @Test
@@ -94,10 +101,21 @@ public class NetFlowCodecTest {
         final Configuration configuration = new Configuration(configMap);
 
         assertThatIllegalArgumentException()
-                .isThrownBy(() -> new NetFlowCodec(configuration, codecAggregator))
+                .isThrownBy(() -> new NetFlowCodec(configuration, codecAggregator, templateCache))
                 .withMessageMatching("Unable to parse NetFlow 9 definitions");
     }
 
+    @Test
+    public void typeRegistriesAreSharedPerDefinitionsFile() throws Exception {
+        final File definitionsFile = temporaryFolder.newFile();
+        Files.write(definitionsFile.toPath(), Resources.toByteArray(Resources.getResource("netflow9.yml")));
+
+        assertThat(templateCache.typeRegistry(definitionsFile.getAbsolutePath()))
+                .isSameAs(templateCache.typeRegistry(definitionsFile.getAbsolutePath()))
+                .isNotSameAs(templateCache.typeRegistry(null));
+        assertThat(templateCache.typeRegistry(null)).isSameAs(templateCache.typeRegistry(null));
+    }
+
     @Test
     public void decodeThrowsUnsupportedOperationException() throws Exception {
         assertThatExceptionOfType(UnsupportedOperationException.class)
@@ -142,4 +160,36 @@ public class NetFlowCodecTest {
 
         assertThat(codec.decodeMessages(new RawMessage(b, source))).isNull();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void templatesAreSharedBetweenCodecInstances() throws Exception {
+        final NetFlowCodec codec1 = new NetFlowCodec(Configuration.EMPTY_CONFIGURATION, codecAggregator, templateCache);
+        final NetFlowCodec codec2 = new NetFlowCodec(Configuration.EMPTY_CONFIGURATION, codecAggregator, templateCache);
+
+        // Template 1024 with a single field: ipv4_src_addr (8), 4 bytes
+        final ByteString template = ByteString.copyFrom(new byte[]{0x04, 0x00, 0x00, 0x01, 0x00, 0x08, 0x00, 0x04});
+        final ByteBuf packet = Unpooled.buffer()
+                // Header: version, count, sys_uptime, unix_secs, sequence, source_id
+                .writeShort(9).writeShort(1).writeInt(1000).writeInt(1600000000).writeInt(1).writeInt(0)
+                // Data flow set for template 1024 with a single record
+                .writeShort(1024).writeShort(8).writeBytes(new byte[]{10, 0, 0, 1});
+        final byte[] journalEntry = NetFlowV9Journal.RawNetflowV9.newBuilder()
+                .putTemplates(1024, template)
+                .addPackets(ByteString.copyFrom(ByteBufUtil.getBytes(packet)))
+                .build()
+                .toByteArray();
+        final InetSocketAddress source = new InetSocketAddress(InetAddress.getLocalHost(), 12345);
+
+        assertThat(codec1.decodeV9(source, Unpooled.wrappedBuffer(journalEntry)))
+                .hasSize(1)
+                .allSatisfy(message -> assertThat(message.getField("nf_src_address")).isEqualTo("10.0.0.1"));
+        assertThat(templateCache.templateStats().missCount()).isEqualTo(1);
+
+        // The second codec doesn't parse the template again
+        assertThat(codec2.decodeV9(source, Unpooled.wrappedBuffer(journalEntry)))
+                .hasSize(1)
+                .allSatisfy(message -> assertThat(message.getField("nf_src_address")).isEqualTo("10.0.0.1"));
+        assertThat(templateCache.templateStats().missCount()).isEqualTo(1);
+        assertThat(templateCache.templateStats().hitCount()).isEqualTo(1);
+    }
+}
@@ -60,6 +60,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 public class NetflowV9CodecAggregatorTest {
     private NetFlowCodec codec;
     private NetflowV9CodecAggregator codecAggregator;
+    private NetFlowV9TemplateCache templateCache;
     private InetSocketAddress source;
 
     public NetflowV9CodecAggregatorTest() throws IOException {
@@ -71,7 +72,8 @@ public class NetflowV9CodecAggregatorTest {
         // the codec aggregator creates "netflowv9"ish packets, that always contain all necessary templates before the data flows
         // this is not an RFC netflow packet, but greatly simplifies decoding
         codecAggregator = new NetflowV9CodecAggregator();
-        codec = new NetFlowCodec(Configuration.EMPTY_CONFIGURATION, codecAggregator);
+        templateCache = new NetFlowV9TemplateCache();
+        codec = new NetFlowCodec(Configuration.EMPTY_CONFIGURATION, codecAggregator, templateCache);
     }
 
 
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.netflow.v9;
+
+import com.google.common.collect.ImmutableList;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class NetFlowV9RecordDecoderTest {
+    private final NetFlowV9Template template = NetFlowV9Template.create(256, 3, ImmutableList.of(
+            NetFlowV9FieldDef.create(NetFlowV9FieldType.create(8, NetFlowV9FieldType.ValueType.IPV4, "IPV4_SRC_ADDR"), 4),
+            NetFlowV9FieldDef.create(NetFlowV9FieldType.create(7, NetFlowV9FieldType.ValueType.UINT16, "L4_SRC_PORT"), 2),
+            NetFlowV9FieldDef.create(NetFlowV9FieldType.create(210, NetFlowV9FieldType.ValueType.SKIP, "PADDING"), 2)));
+
+    @Test
+    public void compilesTemplateOnce() {
+        assertThat(template.decoder()).isSameAs(template.decoder());
+        assertThat(template.decoder().recordLength()).isEqualTo(8);
+    }
+
+    @Test
+    public void decodesRecordsInTemplateOrder() {
+        final ByteBuf buf = Unpooled.wrappedBuffer(new byte[]{
+                10, 0, 0, 1, 0x01, (byte) 0xbb, 0, 0,
+                10, 0, 0, 2, 0x00, 0x50, 0, 0
+        });
+
+        final Map<String, Object> first = template.decoder().decode(buf);
+        final Map<String, Object> second = template.decoder().decode(buf);
+
+        assertThat(first).containsOnly(
+                entry("ipv4_src_addr", "10.0.0.1"),
+                entry("l4_src_port", 443));
+        assertThat(second).containsOnly(
+                entry("ipv4_src_addr", "10.0.0.2"),
+                entry("l4_src_port", 80));
+        assertThat(buf.isReadable()).isFalse();
+    }
+
+    @Test
+    public void decodesValuesLikeFieldDefinitions() {
+        final ImmutableList.Builder<NetFlowV9FieldDef> definitions = ImmutableList.builder();
+        int id = 1;
+        for (NetFlowV9FieldType.ValueType valueType : NetFlowV9FieldType.ValueType.values()) {
+            definitions.add(NetFlowV9FieldDef.create(NetFlowV9FieldType.create(id++, valueType, "FIELD_" + valueType), valueType.getDefaultLength()));
+        }
+        // Lengths which differ from the default length of the value type
+        definitions.add(NetFlowV9FieldDef.create(NetFlowV9FieldType.create(id++, NetFlowV9FieldType.ValueType.UINT64, "LONG_UNSIGNED"), 9));
+        definitions.add(NetFlowV9FieldDef.create(NetFlowV9FieldType.create(id++, NetFlowV9FieldType.ValueType.UINT32, "SHORT_UNSIGNED"), 2));
+        definitions.add(NetFlowV9FieldDef.create(NetFlowV9FieldType.create(id++, NetFlowV9FieldType.ValueType.STRING, "STRING"), 5));
+        definitions.add(NetFlowV9FieldDef.create(NetFlowV9FieldType.create(id, NetFlowV9FieldType.ValueType.SKIP, "SKIP"), 3));
+        final List<NetFlowV9FieldDef> fieldDefs = definitions.build();
+
+        final byte[] bytes = new byte[256];
+        new Random(42L).nextBytes(bytes);
+        final ByteBuf expectedBuf = Unpooled.wrappedBuffer(bytes);
+        final Map<String, Object> expected = new HashMap<>();
+        for (NetFlowV9FieldDef fieldDef : fieldDefs) {
+            fieldDef.parse(expectedBuf).ifPresent(value -> expected.put(fieldDef.type().name().toLowerCase(Locale.ROOT), value));
+        }
+        final ByteBuf buf = Unpooled.wrappedBuffer(bytes);
+
+        assertThat(NetFlowV9RecordDecoder.compile(fieldDefs).decode(buf)).isEqualTo(expected);
+        assertThat(buf.readerIndex()).isEqualTo(expectedBuf.readerIndex());
+    }
+}
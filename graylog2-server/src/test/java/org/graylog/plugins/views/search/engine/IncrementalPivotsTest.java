@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.engine;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog.plugins.views.search.SearchType;
+import org.graylog.plugins.views.search.searchtypes.pivot.Pivot;
+import org.graylog.plugins.views.search.searchtypes.pivot.PivotResult;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.AutoInterval;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Time;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.TimeUnitInterval;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Values;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Average;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.graylog2.plugin.indexer.searches.timeranges.InvalidRangeParametersException;
+import org.graylog2.plugin.indexer.searches.timeranges.RelativeRange;
+import org.graylog2.plugin.indexer.searches.timeranges.TimeRange;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IncrementalPivotsTest {
+    private static final DateTime NOW = new DateTime(2020, 10, 1, 12, 0, DateTimeZone.UTC);
+    private static final String PIVOT_ID = "pivot-1";
+    private static final String HEAD_ID = "pivot-1-incremental-head";
+
+    private final Pivot pivot = Pivot.builder()
+            .id(PIVOT_ID)
+            .rowGroups(ImmutableList.of(Time.builder().field("timestamp").interval(AutoInterval.create()).build()))
+            .series(ImmutableList.of(Count.builder().build()))
+            .rollup(true)
+            .build();
+    private IncrementalPivots sut;
+
+    @BeforeEach
+    void setUp() {
+        DateTimeUtils.setCurrentMillisFixed(NOW.getMillis());
+        sut = new IncrementalPivots(true, Duration.minutes(1), new MetricRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    void leavesUnsupportedPivotsUnchanged() throws Exception {
+        final Pivot valuesPivot = pivot.toBuilder()
+                .rowGroups(ImmutableList.of(Values.builder().field("source").limit(10).build()))
+                .build();
+        final Pivot averagePivot = pivot.toBuilder()
+                .series(ImmutableList.of(Average.builder().field("took_ms").build()))
+                .build();
+        final Query query = query(valuesPivot, averagePivot);
+
+        assertThat(sut.prepare(query, ImmutableSet.of()).query()).isEqualTo(query);
+    }
+
+    @Test
+    void leavesAbsoluteTimeRangesUnchanged() throws Exception {
+        final Query query = query(pivot).toBuilder()
+                .timerange(AbsoluteRange.create(NOW.minusHours(1), NOW))
+                .build();
+
+        assertThat(sut.prepare(query, ImmutableSet.of()).query()).isEqualTo(query);
+    }
+
+    @Test
+    void queriesWholeRangeWithFixedIntervalInitially() throws Exception {
+        final Query query = query(pivot);
+
+        final Query rewritten = sut.prepare(query, ImmutableSet.of()).query();
+
+        assertThat(rewritten.searchTypes()).hasSize(1);
+        final Pivot tail = (Pivot) rewritten.searchTypes().iterator().next();
+        assertThat(tail.id()).isEqualTo(PIVOT_ID);
+        assertThat(((Time) tail.rowGroups().get(0)).interval()).isEqualTo(TimeUnitInterval.Builder.builder().timeunit("1m").build());
+        assertThat(timerangeOf(rewritten, tail)).isEqualTo(AbsoluteRange.create(NOW.minusHours(1), NOW));
+    }
+
+    @Test
+    void onlyQueriesUncachedBucketsAndMergesThemWithCachedOnes() throws Exception {
+        final Query query = query(pivot);
+
+        final IncrementalPivots.Execution first = sut.prepare(query, ImmutableSet.of());
+        final QueryResult firstResult = first.merge(query, result(first.query(),
+                pivotResult(PIVOT_ID, 6, row("11:00", 2), row("11:30", 3), row("11:59", 1))), true);
+
+        assertThat(pivotResultOf(firstResult).rows())
+                .containsExactly(row("11:00", 2), row("11:30", 3), row("11:59", 1), rollupRow(6));
+        assertThat(pivotResultOf(firstResult).total()).isEqualTo(6);
+
+        DateTimeUtils.setCurrentMillisFixed(NOW.plusSeconds(30).getMillis());
+
+        final IncrementalPivots.Execution second = sut.prepare(query, ImmutableSet.of());
+        assertThat(second.query().searchTypes()).extracting(SearchType::id).containsExactly(PIVOT_ID, HEAD_ID);
+        final Pivot tail = pivotOf(second.query(), PIVOT_ID);
+        final Pivot head = pivotOf(second.query(), HEAD_ID);
+        // the partial first bucket and everything after the last settled bucket
+        assertThat(timerangeOf(second.query(), head)).isEqualTo(AbsoluteRange.create(at("11:00:30"), at("11:00:59.999")));
+        assertThat(timerangeOf(second.query(), tail)).isEqualTo(AbsoluteRange.create(at("11:59:00"), NOW.plusSeconds(30)));
+
+        final QueryResult secondResult = second.merge(query, result(second.query(),
+                pivotResult(HEAD_ID, 1, row("11:00", 1)),
+                pivotResult(PIVOT_ID, 3, row("11:59", 2), row("12:00", 1))), true);
+
+        assertThat(secondResult.query()).isEqualTo(query);
+        assertThat(secondResult.searchTypes()).containsOnlyKeys(PIVOT_ID);
+        final PivotResult merged = pivotResultOf(secondResult);
+        assertThat(merged.rows())
+                .containsExactly(row("11:00", 1), row("11:30", 3), row("11:59", 2), row("12:00", 1), rollupRow(7));
+        assertThat(merged.total()).isEqualTo(7);
+        assertThat(merged.effectiveTimerange()).isEqualTo(AbsoluteRange.create(at("11:00:30"), NOW.plusSeconds(30)));
+    }
+
+    @Test
+    void queriesWholeRangeAgainAfterIncompleteExecution() throws Exception {
+        final Query query = query(pivot);
+
+        final IncrementalPivots.Execution first = sut.prepare(query, ImmutableSet.of());
+        first.merge(query, result(first.query(), pivotResult(PIVOT_ID, 2, row("11:00", 2))), false);
+
+        DateTimeUtils.setCurrentMillisFixed(NOW.plusSeconds(30).getMillis());
+
+        assertThat(sut.prepare(query, ImmutableSet.of()).query().searchTypes()).extracting(SearchType::id).containsExactly(PIVOT_ID);
+    }
+
+    private Query query(Pivot... pivots) throws InvalidRangeParametersException {
+        return Query.emptyRoot().toBuilder()
+                .id("query-1")
+                .timerange(RelativeRange.create(3600))
+                .searchTypes(ImmutableSet.copyOf(pivots))
+                .build();
+    }
+
+    private QueryResult result(Query query, PivotResult... results) {
+        return QueryResult.builder()
+                .query(query)
+                .searchTypes(Arrays.stream(results).collect(Collectors.toMap(PivotResult::id, result -> (SearchType.Result) result)))
+                .build();
+    }
+
+    private PivotResult pivotResult(String id, long total, PivotResult.Row... rows) {
+        return PivotResult.builder()
+                .id(id)
+                .total(total)
+                .effectiveTimerange(AbsoluteRange.create(NOW.minusHours(1), NOW))
+                .addAllRows(Arrays.asList(rows))
+                .build();
+    }
+
+    private PivotResult.Row row(String time, long count) {
+        return PivotResult.Row.builder()
+                .key(ImmutableList.of(at(time + ":00").toString()))
+                .addValue(PivotResult.Value.create(ImmutableList.of("count()"), count, true, "row-leaf"))
+                .source("leaf")
+                .build();
+    }
+
+    private PivotResult.Row rollupRow(long count) {
+        return PivotResult.Row.builder()
+                .key(ImmutableList.of())
+                .addValue(PivotResult.Value.create(ImmutableList.of("count()"), count, true, "row-inner"))
+                .source("non-leaf")
+                .build();
+    }
+
+    private PivotResult pivotResultOf(QueryResult result) {
+        return (PivotResult) result.searchTypes().get(PIVOT_ID);
+    }
+
+    private Pivot pivotOf(Query query, String id) {
+        return (Pivot) query.searchTypes().stream().filter(searchType -> searchType.id().equals(id)).findFirst()
+                .orElseThrow(IllegalStateException::new);
+    }
+
+    private TimeRange timerangeOf(Query query, Pivot pivot) {
+        return pivot.timerange().map(timerange -> timerange.effectiveTimeRange(query, pivot)).orElse(null);
+    }
+
+    private DateTime at(String time) {
+        return DateTime.parse("2020-10-01T" + time + "Z").withZone(DateTimeZone.UTC);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.engine;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class QueryResultCacheTest {
+    private static final DateTime NOW = new DateTime(2020, 10, 1, 12, 0, DateTimeZone.UTC);
+
+    private final Query query = Query.emptyRoot().toBuilder().id("query-1").build();
+    private final AtomicInteger executions = new AtomicInteger();
+    private QueryResultCache sut;
+
+    @BeforeEach
+    void setUp() {
+        DateTimeUtils.setCurrentMillisFixed(NOW.getMillis());
+        sut = new QueryResultCache(Duration.seconds(10), 100, new MetricRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    void returnsCachedResultWithinFreshnessWindow() {
+        final QueryResult first = sut.get(query, ImmutableSet.of(), this::execute);
+        DateTimeUtils.setCurrentMillisFixed(NOW.plusSeconds(9).getMillis());
+        final QueryResult second = sut.get(query, ImmutableSet.of(), this::execute);
+
+        assertThat(second).isSameAs(first);
+        assertThat(executions).hasValue(1);
+    }
+
+    @Test
+    void executesQueryAgainInNextTimeBucket() {
+        sut.get(query, ImmutableSet.of(), this::execute);
+        DateTimeUtils.setCurrentMillisFixed(NOW.plusSeconds(10).getMillis());
+        sut.get(query, ImmutableSet.of(), this::execute);
+
+        assertThat(executions).hasValue(2);
+    }
+
+    @Test
+    void executesDifferentQueriesSeparately() {
+        sut.get(query, ImmutableSet.of(), this::execute);
+        sut.get(query.toBuilder().id("query-2").build(), ImmutableSet.of(), this::execute);
+
+        assertThat(executions).hasValue(2);
+    }
+
+    @Test
+    void doesNotCacheResultsWithErrors() {
+        sut.get(query, ImmutableSet.of(), () -> {
+            executions.incrementAndGet();
+            return QueryResultCache.CacheableResult.create(QueryResult.incomplete(), false);
+        });
+        sut.get(query, ImmutableSet.of(), this::execute);
+
+        assertThat(executions).hasValue(2);
+    }
+
+    @Test
+    void doesNotCacheIfDisabled() {
+        sut = QueryResultCache.disabled();
+
+        sut.get(query, ImmutableSet.of(), this::execute);
+        sut.get(query, ImmutableSet.of(), this::execute);
+
+        assertThat(executions).hasValue(2);
+    }
+
+    @Test
+    void coalescesConcurrentExecutions() throws Exception {
+        final CountDownLatch executionStarted = new CountDownLatch(1);
+        final CountDownLatch executionBlocked = new CountDownLatch(1);
+
+        final CompletableFuture<QueryResult> first = CompletableFuture.supplyAsync(() -> sut.get(query, ImmutableSet.of(), () -> {
+            executionStarted.countDown();
+            try {
+                executionBlocked.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return execute();
+        }));
+        assertThat(executionStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+        final CompletableFuture<QueryResult> second = CompletableFuture.supplyAsync(() -> sut.get(query, ImmutableSet.of(), this::execute));
+        executionBlocked.countDown();
+
+        assertThat(second.get(5, TimeUnit.SECONDS)).isSameAs(first.get(5, TimeUnit.SECONDS));
+        assertThat(executions).hasValue(1);
+    }
+
+    @Test
+    void rethrowsExceptionOfConcurrentExecution() throws Exception {
+        final CountDownLatch executionStarted = new CountDownLatch(1);
+        final CountDownLatch executionBlocked = new CountDownLatch(1);
+        final IllegalStateException failure = new IllegalStateException("Search failed");
+
+        final CompletableFuture<QueryResult> first = CompletableFuture.supplyAsync(() -> sut.get(query, ImmutableSet.of(), () -> {
+            executionStarted.countDown();
+            try {
+                executionBlocked.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw failure;
+        }));
+        assertThat(executionStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+        final CountDownLatch secondStarted = new CountDownLatch(1);
+        final CompletableFuture<Throwable> second = CompletableFuture.supplyAsync(() -> {
+            secondStarted.countDown();
+            try {
+                sut.get(query, ImmutableSet.of(), this::execute);
+                return null;
+            } catch (Throwable t) {
+                return t;
+            }
+        });
+        assertThat(secondStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        // Give the second execution a chance to find the pending one
+        Thread.sleep(100);
+        executionBlocked.countDown();
+
+        assertThatThrownBy(() -> first.get(5, TimeUnit.SECONDS)).hasCause(failure);
+        // The waiting execution gets the original exception instead of a CompletionException
+        assertThat(second.get(5, TimeUnit.SECONDS)).isSameAs(failure);
+        assertThat(executions).hasValue(0);
+    }
+
+    private QueryResultCache.CacheableResult execute() {
+        executions.incrementAndGet();
+        return QueryResultCache.CacheableResult.create(QueryResult.emptyResult().toBuilder().query(query).build(), true);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.export;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.ServiceUnavailableException;
+import java.util.LinkedHashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.awaitility.Awaitility.await;
+
+class ExportExecutorTest {
+    private final CountDownLatch exportsBlocked = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        exportsBlocked.countDown();
+    }
+
+    @Test
+    void closesOutputWhenExportIsDone() {
+        final ExportExecutor sut = new ExportExecutor(1, 1, 1, new MetricRegistry());
+
+        final ChunkedOutput<SimpleMessageChunk> output = sut.runAsync("peterchen", chunks -> {});
+
+        await().atMost(5, TimeUnit.SECONDS).until(output::isClosed);
+    }
+
+    @Test
+    void rejectsExportsExceedingLimitPerUser() {
+        final ExportExecutor sut = new ExportExecutor(2, 1, 1, new MetricRegistry());
+
+        sut.runAsync("peterchen", blockingExport());
+
+        assertThatExceptionOfType(ClientErrorException.class)
+                .isThrownBy(() -> sut.runAsync("peterchen", blockingExport()))
+                .satisfies(e -> assertThat(e.getResponse().getStatus()).isEqualTo(429));
+
+        assertThat(sut.runAsync("hansdampf", blockingExport())).isNotNull();
+    }
+
+    @Test
+    void allowsNewExportsOfUserAfterPreviousExportFinished() {
+        final ExportExecutor sut = new ExportExecutor(1, 1, 1, new MetricRegistry());
+
+        final ChunkedOutput<SimpleMessageChunk> output = sut.runAsync("peterchen", chunks -> {});
+        await().atMost(5, TimeUnit.SECONDS).until(output::isClosed);
+
+        assertThat(sut.runAsync("peterchen", chunks -> {})).isNotNull();
+    }
+
+    @Test
+    void rejectsExportsIfPoolAndQueueAreExhausted() {
+        final ExportExecutor sut = new ExportExecutor(1, 1, 5, new MetricRegistry());
+
+        sut.runAsync("peterchen", blockingExport());
+        sut.runAsync("peterchen", blockingExport());
+
+        assertThatExceptionOfType(ServiceUnavailableException.class)
+                .isThrownBy(() -> sut.runAsync("peterchen", blockingExport()));
+    }
+
+    @Test
+    void abortsExportIfOutputIsClosed() throws Exception {
+        final ExportExecutor sut = new ExportExecutor(1, 1, 1, new MetricRegistry());
+        final CountDownLatch outputClosed = new CountDownLatch(1);
+        final CountDownLatch exportDone = new CountDownLatch(1);
+        final Exception[] thrown = new Exception[1];
+
+        final ChunkedOutput<SimpleMessageChunk> output = sut.runAsync("peterchen", chunks -> {
+            Uninterruptibles.awaitUninterruptibly(outputClosed);
+            try {
+                chunks.accept(SimpleMessageChunk.from(new LinkedHashSet<>()));
+            } catch (Exception e) {
+                thrown[0] = e;
+            } finally {
+                exportDone.countDown();
+            }
+        });
+        output.close();
+        outputClosed.countDown();
+
+        assertThat(exportDone.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(thrown[0]).isInstanceOf(ExportException.class);
+    }
+
+    private Consumer<Consumer<SimpleMessageChunk>> blockingExport() {
+        return chunks -> Uninterruptibles.awaitUninterruptibly(exportsBlocked);
+    }
+}
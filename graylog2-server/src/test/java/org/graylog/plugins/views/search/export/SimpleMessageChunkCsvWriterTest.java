@@ -117,6 +117,23 @@ class SimpleMessageChunkCsvWriterTest {
                         "\"2015-01-01 01:00:00.000\",\"source-1\",\"some text\"");
     }
 
+    @Test
+    void writesMultiByteCharactersOfChunksExceedingBuffer() {
+        final String text = "Grüße aus Köln \uD83D\uDC1F";
+        final Object[][] values = new Object[10_000][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new Object[]{i, text};
+        }
+        SimpleMessageChunk chunk = simpleMessageChunk("id,message", values);
+
+        String result = write(chunk);
+
+        assertThat(result.split("\n"))
+                .hasSize(values.length)
+                .allSatisfy(line -> assertThat(line).endsWith(",\"" + text + "\""))
+                .endsWith("\"9999\",\"" + text + "\"");
+    }
+
     private String write(SimpleMessageChunk chunk) {
         ByteArrayOutputStream entityStream = new ByteArrayOutputStream();
         try {
@@ -31,6 +31,7 @@ import org.graylog2.plugin.system.NodeId;
 import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -499,6 +500,106 @@ public class DBJobTriggerServiceTest {
         assertThat(dbJobTriggerService.nextRunnableTrigger()).isEmpty();
     }
 
+    @Test
+    @MongoDBFixtures("job-triggers.json")
+    public void nextRunnableTriggers() {
+        // Set clock to base date used in the fixture file
+        final JobSchedulerTestClock clock = new JobSchedulerTestClock(DateTime.parse("2019-01-01T00:00:00.000Z"));
+        final DBJobTriggerService service = new DBJobTriggerService(mongodb.mongoConnection(), mapperProvider, nodeId, clock);
+        final Duration lockExpiration = Duration.standardMinutes(5);
+
+        final NodeId otherNodeId = mock(NodeId.class);
+        when(otherNodeId.toString()).thenReturn("node-2");
+        final DBJobTriggerService otherService = new DBJobTriggerService(mongodb.mongoConnection(), mapperProvider, otherNodeId, clock);
+
+        // No triggers yet because 54e3deadbeefdeadbeef0002 is locked by another node
+        assertThat(service.nextRunnableTriggers(10, lockExpiration)).isEmpty();
+
+        clock.plus(2, TimeUnit.HOURS);
+
+        // The lock of 54e3deadbeefdeadbeef0002 is old, but it has been created by a node which doesn't renew
+        // its locks (e.g. during a rolling upgrade) so it must not be taken over
+        assertThat(otherService.nextRunnableTriggers(10, lockExpiration))
+                .hasSize(1)
+                .allSatisfy(trigger -> {
+                    assertThat(trigger.id()).isEqualTo("54e3deadbeefdeadbeef0000");
+                    assertThat(trigger.lock().owner()).isEqualTo("node-2");
+                    assertThat(trigger.lock().expires()).isTrue();
+                });
+
+        // Everything is locked by other nodes
+        assertThat(service.nextRunnableTriggers(10, lockExpiration)).isEmpty();
+
+        clock.plus(6, TimeUnit.MINUTES);
+
+        // The other node didn't renew its lock on 54e3deadbeefdeadbeef0000 in time
+        assertThat(service.nextRunnableTriggers(10, lockExpiration))
+                .hasSize(1)
+                .allSatisfy(trigger -> {
+                    assertThat(trigger.id()).isEqualTo("54e3deadbeefdeadbeef0000");
+                    assertThat(trigger.status()).isEqualTo(JobTriggerStatus.RUNNING);
+                    assertThat(trigger.triggeredAt()).isPresent().get().isEqualTo(clock.nowUTC());
+                    assertThat(trigger.lock().owner()).isEqualTo(NODE_ID);
+                    assertThat(trigger.lock().lastLockTime()).isEqualTo(clock.nowUTC());
+                    assertThat(trigger.lock().expires()).isTrue();
+                });
+
+        // All runnable triggers are locked now
+        assertThat(service.nextRunnableTriggers(10, lockExpiration)).isEmpty();
+        assertThat(service.get("54e3deadbeefdeadbeef0002"))
+                .isPresent()
+                .get()
+                .satisfies(trigger -> assertThat(trigger.lock().owner()).isEqualTo("node-a"));
+    }
+
+    @Test
+    @MongoDBFixtures("job-triggers.json")
+    public void releasedTriggerLocksDontExpire() {
+        final JobSchedulerTestClock clock = new JobSchedulerTestClock(DateTime.parse("2019-01-01T02:00:00.000Z"));
+        final DBJobTriggerService service = new DBJobTriggerService(mongodb.mongoConnection(), mapperProvider, nodeId, clock);
+        final Duration lockExpiration = Duration.standardMinutes(5);
+
+        final List<JobTriggerDto> locked = service.nextRunnableTriggers(10, lockExpiration);
+        assertThat(locked).hasSize(1);
+
+        final JobTriggerDto trigger = locked.get(0);
+        assertThat(service.releaseTrigger(trigger, JobTriggerUpdate.withNextTime(clock.nowUTC()))).isTrue();
+        assertThat(service.get(trigger.id()))
+                .isPresent()
+                .get()
+                .satisfies(released -> {
+                    assertThat(released.lock().owner()).isNull();
+                    assertThat(released.lock().expires()).isFalse();
+                });
+
+        // Locking with the single trigger method doesn't renew the lock, so it must not expire either
+        assertThat(service.nextRunnableTrigger()).isPresent();
+        clock.plus(10, TimeUnit.MINUTES);
+        assertThat(service.nextRunnableTriggers(10, lockExpiration)).isEmpty();
+    }
+
+    @Test
+    @MongoDBFixtures("job-triggers.json")
+    public void renewLocks() {
+        final JobSchedulerTestClock clock = new JobSchedulerTestClock(DateTime.parse("2019-01-01T02:00:00.000Z"));
+        final DBJobTriggerService service = new DBJobTriggerService(mongodb.mongoConnection(), mapperProvider, nodeId, clock);
+        final Duration lockExpiration = Duration.standardMinutes(5);
+
+        final List<JobTriggerDto> locked = service.nextRunnableTriggers(10, lockExpiration);
+        assertThat(locked).hasSize(1);
+
+        clock.plus(4, TimeUnit.MINUTES);
+        assertThat(service.renewLocks(locked)).isEqualTo(1);
+
+        // The renewed locks don't expire
+        clock.plus(4, TimeUnit.MINUTES);
+        assertThat(service.nextRunnableTriggers(10, lockExpiration)).isEmpty();
+        assertThat(service.get("54e3deadbeefdeadbeef0000"))
+                .isPresent()
+                .get()
+                .satisfies(trigger -> assertThat(trigger.lock().lastLockTime()).isEqualTo(clock.nowUTC().minusMinutes(4)));
+    }
+
     @Test
     @MongoDBFixtures("job-triggers.json")
     public void nextRunnableTriggerWithEndTime() {
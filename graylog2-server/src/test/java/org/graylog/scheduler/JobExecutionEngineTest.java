@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.scheduler;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.graylog.events.JobSchedulerTestClock;
+import org.graylog.scheduler.eventbus.JobCompletedEvent;
+import org.graylog.scheduler.eventbus.JobSchedulerEventBus;
+import org.graylog.scheduler.schedule.IntervalJobSchedule;
+import org.graylog.scheduler.worker.JobWorkerPool;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class JobExecutionEngineTest {
+    private static final String JOB_TYPE = "test-job";
+
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private DBJobTriggerService jobTriggerService;
+    @Mock
+    private DBJobDefinitionService jobDefinitionService;
+    @Mock
+    private JobSchedulerEventBus eventBus;
+    @Mock
+    private JobScheduleStrategies scheduleStrategies;
+    @Mock
+    private JobTriggerUpdates.Factory jobTriggerUpdatesFactory;
+    @Mock
+    private JobWorkerPool workerPool;
+    @Mock
+    private Job job;
+
+    private final JobSchedulerTestClock clock = new JobSchedulerTestClock(DateTime.now(DateTimeZone.UTC));
+    private final List<Runnable> dispatchedJobs = new ArrayList<>();
+    private int freeSlots;
+
+    @Before
+    public void setUp() throws Exception {
+        when(workerPool.freeSlots()).thenAnswer(invocation -> freeSlots);
+        when(workerPool.hasFreeSlots()).thenAnswer(invocation -> freeSlots > 0);
+        when(workerPool.execute(any(Runnable.class))).thenAnswer(invocation -> {
+            if (freeSlots <= 0) {
+                return false;
+            }
+            freeSlots--;
+            dispatchedJobs.add(invocation.getArgument(0));
+            return true;
+        });
+
+        final JobDefinitionConfig config = mock(JobDefinitionConfig.class);
+        when(config.type()).thenReturn(JOB_TYPE);
+        when(jobDefinitionService.get(anyString())).thenReturn(Optional.of(JobDefinitionDto.builder()
+                .id("job-1")
+                .title("Test")
+                .description("Test")
+                .config(config)
+                .build()));
+        when(jobTriggerUpdatesFactory.create(any(JobTriggerDto.class))).thenReturn(mock(JobTriggerUpdates.class));
+        when(job.execute(any(JobExecutionContext.class))).thenReturn(JobTriggerUpdate.withNextTime(clock.nowUTC().plusMinutes(1)));
+    }
+
+    private JobExecutionEngine createEngine(Duration lockExpiration) {
+        final Job.Factory jobFactory = jobDefinition -> job;
+        return new JobExecutionEngine(jobTriggerService, jobDefinitionService, eventBus, scheduleStrategies,
+                jobTriggerUpdatesFactory, ImmutableMap.of(JOB_TYPE, jobFactory), workerPool, new MetricRegistry(),
+                lockExpiration);
+    }
+
+    private JobTriggerDto trigger(String id, int nextTimeOffsetSeconds) {
+        return JobTriggerDto.Builder.create(clock)
+                .id(id)
+                .jobDefinitionId("job-1")
+                .nextTime(clock.nowUTC().plusSeconds(nextTimeOffsetSeconds))
+                .status(JobTriggerStatus.RUNNING)
+                .schedule(IntervalJobSchedule.builder()
+                        .interval(1)
+                        .unit(TimeUnit.MINUTES)
+                        .build())
+                .build();
+    }
+
+    @Test
+    public void dispatchesLockedTriggersUpToFreeSlots() {
+        final JobTriggerDto trigger1 = trigger("trigger-1", 0);
+        final JobTriggerDto trigger2 = trigger("trigger-2", 1);
+        freeSlots = 2;
+        when(jobTriggerService.nextRunnableTriggers(eq(2), any())).thenReturn(ImmutableList.of(trigger2, trigger1));
+
+        final JobExecutionEngine engine = createEngine(Duration.minutes(5));
+
+        assertThat(engine.execute()).isTrue();
+        verify(jobTriggerService).forceReleaseOwnedTriggers();
+        assertThat(dispatchedJobs).hasSize(2);
+
+        // No free slots, so the database isn't queried again
+        assertThat(engine.execute()).isFalse();
+        verify(jobTriggerService).nextRunnableTriggers(anyInt(), any());
+
+        // Executing the jobs releases the triggers with the job's trigger update
+        dispatchedJobs.forEach(Runnable::run);
+        verify(jobTriggerService).releaseTrigger(eq(trigger1), any(JobTriggerUpdate.class));
+        verify(jobTriggerService).releaseTrigger(eq(trigger2), any(JobTriggerUpdate.class));
+        verify(eventBus, times(2)).post(JobCompletedEvent.INSTANCE);
+    }
+
+    @Test
+    public void requeuesTriggersWhichCouldNotBeDispatched() {
+        final JobTriggerDto trigger1 = trigger("trigger-1", 0);
+        final JobTriggerDto trigger2 = trigger("trigger-2", 1);
+        freeSlots = 2;
+        when(jobTriggerService.nextRunnableTriggers(eq(2), any())).thenReturn(ImmutableList.of(trigger1, trigger2));
+        // The pool reports free slots but only accepts a single job
+        when(workerPool.execute(any(Runnable.class))).thenAnswer(invocation -> {
+            if (!dispatchedJobs.isEmpty()) {
+                return false;
+            }
+            dispatchedJobs.add(invocation.getArgument(0));
+            return true;
+        });
+
+        final JobExecutionEngine engine = createEngine(Duration.minutes(5));
+
+        assertThat(engine.execute()).isTrue();
+        assertThat(dispatchedJobs).hasSize(1);
+
+        // The remaining trigger is still locked and dispatched before new triggers are locked
+        dispatchedJobs.clear();
+        assertThat(engine.execute()).isTrue();
+        assertThat(dispatchedJobs).hasSize(1);
+        verify(jobTriggerService).nextRunnableTriggers(anyInt(), any());
+
+        dispatchedJobs.get(0).run();
+        verify(jobTriggerService).releaseTrigger(eq(trigger2), any(JobTriggerUpdate.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void renewsLocksOfRunningAndQueuedTriggers() throws Exception {
+        final JobTriggerDto trigger1 = trigger("trigger-1", 0);
+        final JobTriggerDto trigger2 = trigger("trigger-2", 1);
+        freeSlots = 2;
+        when(jobTriggerService.nextRunnableTriggers(eq(2), any())).thenReturn(ImmutableList.of(trigger1, trigger2));
+        final List<Collection<JobTriggerDto>> renewed = new ArrayList<>();
+        when(jobTriggerService.renewLocks(any())).thenAnswer(invocation -> {
+            renewed.add(ImmutableList.copyOf((Collection<JobTriggerDto>) invocation.getArgument(0)));
+            return 1;
+        });
+
+        final JobExecutionEngine engine = createEngine(Duration.milliseconds(300));
+
+        // Only one job can be executed, the other trigger stays queued
+        when(workerPool.execute(any(Runnable.class))).thenAnswer(invocation -> {
+            if (!dispatchedJobs.isEmpty()) {
+                return false;
+            }
+            dispatchedJobs.add(invocation.getArgument(0));
+            return true;
+        });
+        assertThat(engine.execute()).isTrue();
+        assertThat(renewed).isEmpty();
+
+        // Locks are renewed after a third of the lock expiration duration
+        Thread.sleep(150);
+        freeSlots = 0;
+        assertThat(engine.execute()).isFalse();
+        assertThat(renewed).hasSize(1);
+        assertThat(renewed.get(0)).containsExactlyInAnyOrder(trigger1, trigger2);
+
+        // Finished triggers are not renewed anymore
+        dispatchedJobs.get(0).run();
+        Thread.sleep(150);
+        assertThat(engine.execute()).isFalse();
+        assertThat(renewed).hasSize(2);
+        assertThat(renewed.get(1)).containsExactly(trigger2);
+    }
+
+    @Test
+    public void releasesQueuedTriggersOnShutdown() {
+        final JobTriggerDto trigger1 = trigger("trigger-1", 0);
+        final JobTriggerDto trigger2 = trigger("trigger-2", 1);
+        freeSlots = 2;
+        when(jobTriggerService.nextRunnableTriggers(eq(2), any())).thenReturn(ImmutableList.of(trigger1, trigger2));
+        when(workerPool.execute(any(Runnable.class))).thenAnswer(invocation -> {
+            if (!dispatchedJobs.isEmpty()) {
+                return false;
+            }
+            dispatchedJobs.add(invocation.getArgument(0));
+            return true;
+        });
+
+        final JobExecutionEngine engine = createEngine(Duration.minutes(5));
+        assertThat(engine.execute()).isTrue();
+
+        engine.shutdown();
+
+        // The queued trigger is released with its original next time, the running one is left to its job
+        verify(jobTriggerService).releaseTrigger(trigger2, JobTriggerUpdate.withNextTime(trigger2.nextTime()));
+        verify(jobTriggerService, never()).releaseTrigger(eq(trigger1), any(JobTriggerUpdate.class));
+        assertThat(engine.execute()).isFalse();
+        verify(jobTriggerService).nextRunnableTriggers(anyInt(), any());
+    }
+}
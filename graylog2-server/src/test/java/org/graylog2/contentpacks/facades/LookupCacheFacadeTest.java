@@ -16,6 +16,7 @@
  */
 package org.graylog2.contentpacks.facades;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
@@ -36,6 +37,7 @@ import org.graylog2.contentpacks.model.entities.NativeEntityDescriptor;
 import org.graylog2.contentpacks.model.entities.references.ReferenceMapUtils;
 import org.graylog2.contentpacks.model.entities.references.ValueReference;
 import org.graylog2.events.ClusterEventBus;
+import org.graylog2.lookup.db.DBCacheEntryService;
 import org.graylog2.lookup.db.DBCacheService;
 import org.graylog2.lookup.dto.CacheDto;
 import org.graylog2.plugin.PluginMetaData;
@@ -68,10 +70,12 @@ public class LookupCacheFacadeTest {
     @SuppressForbidden("Using Executors.newSingleThreadExecutor() is okay in tests")
     public void setUp() throws Exception {
         final ClusterEventBus clusterEventBus = new ClusterEventBus("cluster-event-bus", Executors.newSingleThreadExecutor());
+        final MongoJackObjectMapperProvider mapperProvider = new MongoJackObjectMapperProvider(objectMapper);
         cacheService = new DBCacheService(
                 mongodb.mongoConnection(),
-                new MongoJackObjectMapperProvider(objectMapper),
-                clusterEventBus);
+                mapperProvider,
+                clusterEventBus,
+                new DBCacheEntryService(mongodb.mongoConnection(), mapperProvider, objectMapper, new MetricRegistry()));
         pluginMetaData = new HashSet<>();
 
         facade = new LookupCacheFacade(objectMapper, cacheService, pluginMetaData);
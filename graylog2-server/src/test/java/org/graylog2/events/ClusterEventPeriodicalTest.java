@@ -34,6 +34,7 @@ import org.graylog2.plugin.system.NodeId;
 import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
 import org.graylog2.shared.plugins.ChainingClassLoader;
 import org.graylog2.system.debug.DebugEvent;
+import org.graylog2.system.shutdown.GracefulShutdownService;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
 import org.joda.time.DateTimeZone;
@@ -49,6 +50,7 @@ import org.mockito.junit.MockitoRule;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -74,6 +76,8 @@ public class ClusterEventPeriodicalTest {
     private EventBus serverEventBus;
     @Spy
     private ClusterEventBus clusterEventBus;
+    @Mock
+    private GracefulShutdownService gracefulShutdownService;
     private MongoConnection mongoConnection;
     private ClusterEventPeriodical clusterEventPeriodical;
 
@@ -92,7 +96,9 @@ public class ClusterEventPeriodicalTest {
                 nodeId,
                 new ChainingClassLoader(getClass().getClassLoader()),
                 serverEventBus,
-                clusterEventBus
+                clusterEventBus,
+                gracefulShutdownService,
+                false
         );
     }
 
@@ -304,6 +310,79 @@ public class ClusterEventPeriodicalTest {
         assertThat(collection.getWriteConcern()).isEqualTo(WriteConcern.JOURNALED);
     }
 
+    @Test
+    public void prepareSignalCollectionCreatesCappedCollection() throws Exception {
+        @SuppressWarnings("deprecation")
+        final DB database = mongoConnection.getDatabase();
+        database.getCollection(ClusterEventPeriodical.SIGNAL_COLLECTION_NAME).drop();
+
+        final DBCollection collection = ClusterEventPeriodical.prepareSignalCollection(mongoConnection);
+
+        assertThat(collection).isNotNull();
+        assertThat(collection.isCapped()).isTrue();
+        assertThat(collection.count()).isEqualTo(1L);
+    }
+
+    @Test
+    public void prepareSignalCollectionIgnoresUncappedCollection() throws Exception {
+        @SuppressWarnings("deprecation")
+        final DB database = mongoConnection.getDatabase();
+        database.getCollection(ClusterEventPeriodical.SIGNAL_COLLECTION_NAME).drop();
+        database.getCollection(ClusterEventPeriodical.SIGNAL_COLLECTION_NAME).insert(new BasicDBObjectBuilder().add("foo", "bar").get());
+
+        assertThat(ClusterEventPeriodical.prepareSignalCollection(mongoConnection)).isNull();
+    }
+
+    @Test
+    public void publishClusterEventSignalsOtherNodes() throws Exception {
+        @SuppressWarnings("deprecation")
+        final DB database = mongoConnection.getDatabase();
+        database.getCollection(ClusterEventPeriodical.SIGNAL_COLLECTION_NAME).drop();
+        final ClusterEventPeriodical periodical = new ClusterEventPeriodical(
+                new MongoJackObjectMapperProvider(objectMapper),
+                mongoConnection,
+                nodeId,
+                new ChainingClassLoader(getClass().getClassLoader()),
+                serverEventBus,
+                clusterEventBus,
+                gracefulShutdownService,
+                true
+        );
+
+        periodical.publishClusterEvent(new SimpleEvent("test"));
+
+        final DBCollection signals = database.getCollection(ClusterEventPeriodical.SIGNAL_COLLECTION_NAME);
+        final DBObject signal = signals.findOne(new BasicDBObjectBuilder().add("producer", "ID").get());
+        assertThat(signal).isNotNull();
+        assertThat(signal.get("event_id")).isNotNull();
+    }
+
+    @Test
+    public void gracefulShutdownStopsTailingSignalCollection() throws Exception {
+        @SuppressWarnings("deprecation")
+        final DB database = mongoConnection.getDatabase();
+        database.getCollection(ClusterEventPeriodical.SIGNAL_COLLECTION_NAME).drop();
+        final ClusterEventPeriodical periodical = new ClusterEventPeriodical(
+                new MongoJackObjectMapperProvider(objectMapper),
+                mongoConnection,
+                nodeId,
+                new ChainingClassLoader(getClass().getClassLoader()),
+                serverEventBus,
+                clusterEventBus,
+                gracefulShutdownService,
+                true
+        );
+
+        periodical.initialize();
+        verify(gracefulShutdownService, times(1)).register(periodical);
+        assertThat(periodical.tailerThread.isAlive()).isTrue();
+
+        periodical.doGracefulShutdown();
+        periodical.tailerThread.join(TimeUnit.SECONDS.toMillis(10L));
+
+        assertThat(periodical.tailerThread.isAlive()).isFalse();
+    }
+
     @Test
     public void localNodeIsMarkedAsHavingConsumedEvent() {
         @SuppressWarnings("deprecation")
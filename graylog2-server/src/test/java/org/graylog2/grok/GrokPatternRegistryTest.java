@@ -16,6 +16,7 @@
  */
 package org.graylog2.grok;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.eventbus.EventBus;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.krakens.grok.api.Grok;
@@ -48,15 +49,18 @@ public class GrokPatternRegistryTest {
 
     private GrokPatternRegistry grokPatternRegistry;
     private EventBus eventBus;
+    private MetricRegistry metricRegistry;
+    private ScheduledExecutorService executor;
     @Mock
     private GrokPatternService grokPatternService;
 
     @Before
     public void setUp() {
         eventBus = new EventBus("Test");
-        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("updater-%d").build());
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("updater-%d").build());
         when(grokPatternService.loadAll()).thenReturn(GROK_PATTERNS);
-        grokPatternRegistry = new GrokPatternRegistry(eventBus, grokPatternService, executor);
+        metricRegistry = new MetricRegistry();
+        grokPatternRegistry = new GrokPatternRegistry(eventBus, grokPatternService, metricRegistry, true, executor);
     }
 
     @Test
@@ -106,6 +110,59 @@ public class GrokPatternRegistryTest {
         grokPatternRegistry.cachedGrokForPattern("%{EMPTY}", true);
     }
 
+    @Test
+    public void cachedMatcherForPatternRecordsMatches() {
+        final GrokMatcher grokMatcher = grokPatternRegistry.cachedMatcherForPattern("%{TESTNUM:num}", true);
+        final String metricsPrefix = "org.graylog2.grok.GrokMatcher.named-captures." + GrokMatcher.patternId("%{TESTNUM:num}");
+
+        assertThat(grokMatcher.match("abc 123").captureFlattened()).containsEntry("num", "123");
+        assertThat(grokMatcher.match("abc").captureFlattened()).isEmpty();
+
+        assertThat(metricRegistry.getTimers()).hasEntrySatisfying(
+                metricsPrefix + ".matchTime",
+                timer -> assertThat(timer.getCount()).isEqualTo(2L));
+        assertThat(metricRegistry.getHistograms()).hasEntrySatisfying(
+                metricsPrefix + ".readsPerChar",
+                histogram -> assertThat(histogram.getSnapshot().getMax()).isGreaterThanOrEqualTo(1L));
+    }
+
+    @Test
+    public void cachedMatcherMetricsAreRemovedOnReload() {
+        grokPatternRegistry.cachedMatcherForPattern("%{TESTNUM:num}", true).match("abc 123");
+        grokPatternRegistry.cachedMatcherForPattern("%{TESTNUM:num}", false).match("abc 123");
+        assertThat(metricRegistry.getMetrics()).hasSize(4);
+
+        eventBus.post(GrokPatternsUpdatedEvent.create(Collections.singleton("TESTNUM")));
+
+        assertThat(metricRegistry.getMetrics()).isEmpty();
+    }
+
+    @Test
+    public void cachedMatcherMetricsAreKeptForConcurrentlyLoadedMatcher() {
+        final GrokMatcher grokMatcher = grokPatternRegistry.cachedMatcherForPattern("%{TESTNUM:num}", true);
+        // A matcher for the same pattern which has been loaded before the cached one is removed
+        final GrokMatcher reloadedMatcher = grokPatternRegistry.createMatcher("%{TESTNUM:num}", grokMatcher.grok(), true);
+        final String metricsPrefix = reloadedMatcher.metricsPrefix();
+
+        eventBus.post(GrokPatternsUpdatedEvent.create(Collections.singleton("TESTNUM")));
+
+        reloadedMatcher.match("abc 123");
+        assertThat(metricRegistry.getTimers()).hasEntrySatisfying(
+                metricsPrefix + ".matchTime",
+                timer -> assertThat(timer.getCount()).isEqualTo(1L));
+        assertThat(metricRegistry.getHistograms()).containsKey(metricsPrefix + ".readsPerChar");
+    }
+
+    @Test
+    public void cachedMatcherDoesNotRecordMatchesWithoutProfiling() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final GrokPatternRegistry grokPatternRegistry = new GrokPatternRegistry(new EventBus(), grokPatternService, metricRegistry, false, executor);
+        final GrokMatcher grokMatcher = grokPatternRegistry.cachedMatcherForPattern("%{TESTNUM:num}", true);
+
+        assertThat(grokMatcher.match("abc 123").captureFlattened()).containsEntry("num", "123");
+        assertThat(metricRegistry.getMetrics()).isEmpty();
+    }
+
     @Test
     public void patterns() {
         assertThat(grokPatternRegistry.patterns()).isEqualTo(GROK_PATTERNS);
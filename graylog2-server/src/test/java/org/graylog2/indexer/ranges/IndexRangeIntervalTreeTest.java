@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.ranges;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IndexRangeIntervalTreeTest {
+    private static IndexRange range(String indexName, long begin, long end) {
+        return MongoIndexRange.create(indexName, new DateTime(begin, DateTimeZone.UTC), new DateTime(end, DateTimeZone.UTC), new DateTime(0L, DateTimeZone.UTC), 0);
+    }
+
+    @Test
+    public void findReturnsOverlappingRanges() {
+        final List<IndexRange> ranges = new ArrayList<>();
+        ranges.add(range("graylog_1", 100L, 200L));
+        ranges.add(range("graylog_2", 200L, 300L));
+        ranges.add(range("graylog_3", 300L, 400L));
+        ranges.add(range("graylog_4", 400L, 500L));
+        final IndexRangeIntervalTree tree = new IndexRangeIntervalTree(ranges, 0L);
+
+        assertThat(tree.find(250L, 350L)).extracting(IndexRange::indexName).containsExactly("graylog_2", "graylog_3");
+        assertThat(tree.find(0L, 99L)).isEmpty();
+        assertThat(tree.find(501L, 600L)).isEmpty();
+        assertThat(tree.find(0L, 1000L)).hasSize(4);
+    }
+
+    @Test
+    public void findIncludesRangesContainingAdditionalTimestamp() {
+        final List<IndexRange> ranges = new ArrayList<>();
+        ranges.add(range("graylog_1", 100L, 200L));
+        ranges.add(range("graylog_deflector", 0L, 0L));
+        final IndexRangeIntervalTree tree = new IndexRangeIntervalTree(ranges, 0L);
+
+        assertThat(tree.find(150L, 160L)).extracting(IndexRange::indexName).containsExactly("graylog_1");
+        assertThat(tree.find(150L, 160L, 0L)).extracting(IndexRange::indexName).containsExactly("graylog_deflector", "graylog_1");
+    }
+
+    @Test
+    public void findMatchesLinearScan() {
+        final Random random = new Random(42L);
+        final List<IndexRange> ranges = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            final long begin = random.nextInt(100_000);
+            ranges.add(range("graylog_" + i, begin, begin + random.nextInt(5_000)));
+        }
+        final IndexRangeIntervalTree tree = new IndexRangeIntervalTree(ranges, 0L);
+
+        for (int i = 0; i < 200; i++) {
+            final long begin = random.nextInt(110_000);
+            final long end = begin + random.nextInt(10_000);
+            final List<IndexRange> expected = ranges.stream()
+                    .filter(range -> range.begin().getMillis() <= end && range.end().getMillis() >= begin)
+                    .sorted(IndexRange.COMPARATOR)
+                    .collect(Collectors.toList());
+
+            assertThat(tree.find(begin, end)).containsExactlyElementsOf(expected);
+        }
+    }
+}
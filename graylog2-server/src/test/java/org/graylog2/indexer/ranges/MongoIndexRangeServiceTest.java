@@ -25,6 +25,7 @@ import org.graylog.testing.mongodb.MongoDBInstance;
 import org.graylog2.audit.NullAuditEventSender;
 import org.graylog2.bindings.providers.MongoJackObjectMapperProvider;
 import org.graylog2.database.NotFoundException;
+import org.graylog2.events.ClusterEventBus;
 import org.graylog2.indexer.ElasticsearchException;
 import org.graylog2.indexer.IndexSetRegistry;
 import org.graylog2.indexer.indices.HealthStatus;
@@ -32,6 +33,7 @@ import org.graylog2.indexer.indices.Indices;
 import org.graylog2.indexer.indices.events.IndicesClosedEvent;
 import org.graylog2.indexer.indices.events.IndicesDeletedEvent;
 import org.graylog2.indexer.indices.events.IndicesReopenedEvent;
+import org.graylog2.indexer.ranges.events.IndexRangesUpdatedEvent;
 import org.graylog2.indexer.searches.IndexRangeStats;
 import org.graylog2.plugin.system.NodeId;
 import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
@@ -73,7 +75,7 @@ public class MongoIndexRangeServiceTest {
     @Before
     public void setUp() throws Exception {
         localEventBus = new EventBus("local-event-bus");
-        indexRangeService = new MongoIndexRangeService(mongodb.mongoConnection(), objectMapperProvider, indices, indexSetRegistry, new NullAuditEventSender(), mock(NodeId.class), localEventBus);
+        indexRangeService = new MongoIndexRangeService(mongodb.mongoConnection(), objectMapperProvider, indices, indexSetRegistry, new NullAuditEventSender(), mock(NodeId.class), localEventBus, new ClusterEventBus());
     }
 
     @Test
@@ -243,6 +245,36 @@ public class MongoIndexRangeServiceTest {
         assertThat(after.calculationDuration()).isEqualTo(2);
     }
 
+    @Test
+    public void findReturnsSavedAndRemovedIndexRanges() throws Exception {
+        final DateTime begin = new DateTime(2015, 1, 1, 0, 0, DateTimeZone.UTC);
+        final DateTime end = new DateTime(2015, 1, 2, 0, 0, DateTimeZone.UTC);
+        final IndexRange indexRange = MongoIndexRange.create("graylog", begin, end, DateTime.now(DateTimeZone.UTC), 42);
+
+        assertThat(indexRangeService.find(begin, end)).isEmpty();
+
+        indexRangeService.save(indexRange);
+        assertThat(indexRangeService.find(begin, end)).extracting(IndexRange::indexName).containsExactly("graylog");
+
+        indexRangeService.remove("graylog");
+        assertThat(indexRangeService.find(begin, end)).isEmpty();
+    }
+
+    @Test
+    public void findReloadsIndexRangesAfterUpdateEvent() throws Exception {
+        final DateTime begin = new DateTime(2015, 1, 1, 0, 0, DateTimeZone.UTC);
+        final DateTime end = new DateTime(2015, 1, 2, 0, 0, DateTimeZone.UTC);
+
+        assertThat(indexRangeService.find(begin, end)).isEmpty();
+
+        // Simulate another node saving an index range
+        final MongoIndexRangeService otherNodeService = new MongoIndexRangeService(mongodb.mongoConnection(), objectMapperProvider, indices, indexSetRegistry, new NullAuditEventSender(), mock(NodeId.class), new EventBus(), new ClusterEventBus());
+        otherNodeService.save(MongoIndexRange.create("graylog", begin, end, DateTime.now(DateTimeZone.UTC), 42));
+        localEventBus.post(IndexRangesUpdatedEvent.create("graylog"));
+
+        assertThat(indexRangeService.find(begin, end)).extracting(IndexRange::indexName).containsExactly("graylog");
+    }
+
     @Test
     @MongoDBFixtures("MongoIndexRangeServiceTest.json")
     public void remove() throws Exception {
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.ranges;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableSet;
+import org.graylog2.database.NotFoundException;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.indexer.indexset.IndexSetConfig;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.cluster.ClusterConfigService;
+import org.graylog2.shared.system.activities.ActivityWriter;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RebuildIndexRangesJobTest {
+    private static final DateTime NOW = new DateTime(2021, 6, 1, 12, 0, DateTimeZone.UTC);
+
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private ActivityWriter activityWriter;
+    @Mock
+    private IndexRangeService indexRangeService;
+    @Mock
+    private ClusterConfigService clusterConfigService;
+
+    private final Map<String, IndexRange> indexRanges = new HashMap<>();
+    private final Map<String, Object> clusterConfig = new HashMap<>();
+    private final Set<String> failingIndices = new HashSet<>();
+    private final Set<String> calculatedIndices = new HashSet<>();
+
+    @Before
+    public void setUp() throws Exception {
+        DateTimeUtils.setCurrentMillisFixed(NOW.getMillis());
+
+        when(indexRangeService.get(anyString())).thenAnswer(invocation -> {
+            final IndexRange indexRange = indexRanges.get(invocation.<String>getArgument(0));
+            if (indexRange == null) {
+                throw new NotFoundException();
+            }
+            return indexRange;
+        });
+        when(indexRangeService.calculateRange(anyString())).thenAnswer(invocation -> {
+            final String index = invocation.getArgument(0);
+            if (failingIndices.contains(index)) {
+                throw new RuntimeException("Boom");
+            }
+            synchronized (calculatedIndices) {
+                calculatedIndices.add(index);
+            }
+            // Every calculation takes a second
+            return MongoIndexRange.create(index, NOW.minusDays(1), NOW, Tools.nowUTC().plusSeconds(1), 1000);
+        });
+        doAnswer(invocation -> {
+            final IndexRange indexRange = invocation.getArgument(0);
+            synchronized (indexRanges) {
+                indexRanges.put(indexRange.indexName(), indexRange);
+            }
+            return null;
+        }).when(indexRangeService).save(any(IndexRange.class));
+
+        when(clusterConfigService.get(anyString(), eq(IndexRangesRebuildState.class)))
+                .thenAnswer(invocation -> clusterConfig.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> clusterConfig.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(clusterConfigService).write(anyString(), any());
+    }
+
+    @After
+    public void tearDown() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void completesStateOfEachIndexSet() throws Exception {
+        final IndexSet indexSet1 = indexSet("set-1", "graylog_0", "graylog_1", "graylog_2");
+        final IndexSet indexSet2 = indexSet("set-2", "other_0", "other_1");
+
+        job(indexSet1).execute();
+        job(indexSet2).execute();
+
+        assertThat(calculatedIndices).containsOnly("graylog_0", "graylog_1", "other_0");
+        assertThat(state("set-1").isCompleted()).isTrue();
+        assertThat(state("set-2").isCompleted()).isTrue();
+    }
+
+    @Test
+    public void failedIndicesAreNotMarkedAsDone() throws Exception {
+        final IndexSet indexSet = indexSet("set-1", "graylog_0", "graylog_1", "graylog_2", "graylog_3");
+        failingIndices.add("graylog_1");
+
+        job(indexSet).execute();
+
+        assertThat(calculatedIndices).containsOnly("graylog_0", "graylog_2");
+        final IndexRangesRebuildState state = state("set-1");
+        assertThat(state.isCompleted()).isFalse();
+        assertThat(state.startedAt()).isEqualTo(NOW);
+        assertThat(state.failedIndices()).containsOnly("graylog_1");
+    }
+
+    @Test
+    public void resumesIncompleteRebuildAndRetriesFailedIndices() throws Exception {
+        final IndexSet indexSet = indexSet("set-1", "graylog_0", "graylog_1", "graylog_2", "graylog_3");
+        failingIndices.add("graylog_1");
+        job(indexSet).execute();
+
+        calculatedIndices.clear();
+        failingIndices.clear();
+        DateTimeUtils.setCurrentMillisFixed(NOW.plusMinutes(5).getMillis());
+        job(indexSet).execute();
+
+        // Only the failed index is calculated again, the others have been calculated after the rebuild started
+        assertThat(calculatedIndices).containsOnly("graylog_1");
+        final IndexRangesRebuildState state = state("set-1");
+        assertThat(state.isCompleted()).isTrue();
+        assertThat(state.startedAt()).isEqualTo(NOW);
+        assertThat(state.failedIndices()).isEmpty();
+    }
+
+    @Test
+    public void resumesRebuildWhichDidNotFinish() throws Exception {
+        final IndexSet indexSet = indexSet("set-1", "graylog_0", "graylog_1", "graylog_2", "graylog_3");
+        // graylog_2 has been calculated by an interrupted rebuild, graylog_1 before it started
+        clusterConfig.put(IndexRangesRebuildState.key("set-1"), IndexRangesRebuildState.start("set-1", NOW.minusMinutes(10)));
+        indexRanges.put("graylog_2", MongoIndexRange.create("graylog_2", NOW.minusDays(2), NOW.minusDays(1), NOW.minusMinutes(5), 0));
+        indexRanges.put("graylog_1", MongoIndexRange.create("graylog_1", NOW.minusDays(3), NOW.minusDays(2), NOW.minusDays(1), 0));
+
+        job(indexSet).execute();
+
+        assertThat(calculatedIndices).containsOnly("graylog_0", "graylog_1");
+        assertThat(state("set-1").isCompleted()).isTrue();
+        assertThat(state("set-1").startedAt()).isEqualTo(NOW.minusMinutes(10));
+    }
+
+    @Test
+    public void rebuildsOfOtherIndexSetsDoNotResetState() throws Exception {
+        final IndexSet indexSet1 = indexSet("set-1", "graylog_0", "graylog_1", "graylog_2");
+        final IndexSet indexSet2 = indexSet("set-2", "other_0", "other_1");
+        failingIndices.add("graylog_0");
+
+        job(indexSet1).execute();
+        job(indexSet2).execute();
+
+        assertThat(state("set-1").isCompleted()).isFalse();
+        assertThat(state("set-1").failedIndices()).containsOnly("graylog_0");
+        assertThat(state("set-2").isCompleted()).isTrue();
+    }
+
+    private RebuildIndexRangesJob job(IndexSet... indexSets) {
+        return new RebuildIndexRangesJob(ImmutableSet.copyOf(indexSets), activityWriter, indexRangeService,
+                clusterConfigService, new MetricRegistry(), 2);
+    }
+
+    private IndexRangesRebuildState state(String indexSetId) {
+        return (IndexRangesRebuildState) clusterConfig.get(IndexRangesRebuildState.key(indexSetId));
+    }
+
+    /**
+     * Creates an index set with the given indices, the last one being the write index.
+     */
+    private IndexSet indexSet(String id, String... indices) throws Exception {
+        final String writeIndex = indices[indices.length - 1];
+        final IndexSetConfig config = mock(IndexSetConfig.class);
+        when(config.id()).thenReturn(id);
+        when(config.title()).thenReturn(id);
+        final IndexSet indexSet = mock(IndexSet.class);
+        when(indexSet.getConfig()).thenReturn(config);
+        when(indexSet.getIndexWildcard()).thenReturn(writeIndex.replaceAll("_\\d+$", "_*"));
+        when(indexSet.getActiveWriteIndex()).thenReturn(writeIndex);
+        when(indexSet.getManagedIndices()).thenReturn(indices);
+        when(indexRangeService.createUnknownRange(writeIndex))
+                .thenReturn(MongoIndexRange.create(writeIndex, new DateTime(0L, DateTimeZone.UTC), new DateTime(0L, DateTimeZone.UTC), NOW, 0));
+        return indexSet;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.initializers;
+
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.Configuration;
+import org.graylog2.plugin.BufferCapacityState;
+import org.graylog2.plugin.buffers.InputBuffer;
+import org.graylog2.shared.buffers.ProcessBuffer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BufferCapacityPublisherServiceTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private InputBuffer inputBuffer;
+    @Mock
+    private ProcessBuffer processBuffer;
+    @Mock
+    private EventBus eventBus;
+    @Mock
+    private Configuration configuration;
+
+    @Before
+    public void setUp() {
+        when(configuration.getInputThrottlingUpdateInterval()).thenReturn(Duration.milliseconds(100));
+        when(inputBuffer.getRemainingCapacity()).thenReturn(900L);
+        when(inputBuffer.getRingBufferSize()).thenReturn(1000);
+        when(processBuffer.getRemainingCapacity()).thenReturn(0L);
+        when(processBuffer.getRingBufferSize()).thenReturn(1000);
+    }
+
+    @Test
+    public void publishesInputAndProcessBufferCapacity() {
+        when(configuration.isMessageJournalEnabled()).thenReturn(false);
+
+        new BufferCapacityPublisherService(inputBuffer, processBuffer, eventBus, configuration).runOneIteration();
+
+        assertThat(publishedState().freeRatio()).isEqualTo(0.0d);
+    }
+
+    @Test
+    public void ignoresProcessBufferWithJournal() {
+        when(configuration.isMessageJournalEnabled()).thenReturn(true);
+
+        new BufferCapacityPublisherService(inputBuffer, processBuffer, eventBus, configuration).runOneIteration();
+
+        assertThat(publishedState().freeRatio()).isEqualTo(0.9d);
+    }
+
+    private BufferCapacityState publishedState() {
+        final ArgumentCaptor<BufferCapacityState> captor = ArgumentCaptor.forClass(BufferCapacityState.class);
+        verify(eventBus).post(captor.capture());
+        return captor.getValue();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.transports;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.EventBus;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.graylog2.plugin.LocalMetricRegistry;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.inputs.transports.ThrottleableTransport;
+import org.graylog2.plugin.lifecycles.Lifecycle;
+import org.graylog2.plugin.system.NodeId;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class KafkaTransportTest {
+    private static final TopicPartition PARTITION = new TopicPartition("logs", 0);
+
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private NodeId nodeId;
+    @Mock
+    private ServerStatus serverStatus;
+    @Mock
+    private ScheduledExecutorService scheduler;
+    @Mock
+    private MessageInput input;
+
+    private final LocalMetricRegistry localRegistry = new LocalMetricRegistry();
+    private final List<Map<TopicPartition, OffsetAndMetadata>> syncCommits = new ArrayList<>();
+    private MockConsumer<byte[], byte[]> consumer;
+    private KafkaTransport transport;
+
+    @Before
+    public void setUp() {
+        final Configuration configuration = new Configuration(ImmutableMap.of(
+                KafkaTransport.CK_THREADS, 1,
+                KafkaTransport.CK_TOPIC_FILTER, "^logs$",
+                ThrottleableTransport.CK_THROTTLING_ALLOWED, false));
+        final EventBus eventBus = new EventBus();
+        transport = new KafkaTransport(configuration, localRegistry, nodeId, eventBus, serverStatus, scheduler);
+        // The transport listens for lifecycle changes once it has been launched
+        eventBus.register(transport);
+        consumer = new MockConsumer<byte[], byte[]>(OffsetResetStrategy.EARLIEST) {
+            @Override
+            public synchronized void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets) {
+                syncCommits.add(offsets);
+                super.commitSync(offsets);
+            }
+        };
+    }
+
+    private KafkaTransport.ConsumerRunnable consumerRunnable() {
+        final KafkaTransport.ConsumerRunnable runnable = transport.new ConsumerRunnable(consumer, input);
+        consumer.rebalance(Collections.singleton(PARTITION));
+        return runnable;
+    }
+
+    @Test
+    public void commitsOffsetsAfterRecordsHaveBeenHandedOver() {
+        final KafkaTransport.ConsumerRunnable runnable = consumerRunnable();
+        transport.lifecycleStateChange(Lifecycle.RUNNING);
+        final List<Map<TopicPartition, OffsetAndMetadata>> committedWhileProcessing = new ArrayList<>();
+        doAnswer(invocation -> {
+            committedWhileProcessing.add(consumer.committed(Collections.singleton(PARTITION)));
+            return null;
+        }).when(input).processRawMessages(anyList());
+
+        runnable.consumeRecords(records(10L, 11L, 12L));
+
+        assertThat(committedWhileProcessing).containsExactly(Collections.emptyMap());
+        assertThat(consumer.committed(Collections.singleton(PARTITION)))
+                .containsEntry(PARTITION, new OffsetAndMetadata(13L));
+        assertThat(localRegistry.getMetrics()).containsKey("partitions.logs-0.records");
+    }
+
+    @Test
+    public void doesNotHandOverOrCommitRecordsWhenStoppedMidBatch() throws Exception {
+        final KafkaTransport.ConsumerRunnable runnable = consumerRunnable();
+
+        // Message processing is paused, so the consumer thread blocks before handing over the records
+        final CompletableFuture<Void> consuming = CompletableFuture.runAsync(() -> runnable.consumeRecords(records(10L, 11L)));
+        Thread.sleep(100);
+        assertThat(consuming).isNotDone();
+
+        transport.doStop();
+        consuming.get(5, TimeUnit.SECONDS);
+
+        verify(input, never()).processRawMessages(anyList());
+        assertThat(consumer.committed(Collections.singleton(PARTITION))).isEmpty();
+    }
+
+    @Test
+    public void commitsAndRemovesMetricsOfRevokedPartitions() {
+        final KafkaTransport.ConsumerRunnable runnable = consumerRunnable();
+        transport.lifecycleStateChange(Lifecycle.RUNNING);
+
+        runnable.consumeRecords(records(10L, 11L));
+        assertThat(localRegistry.getMetrics()).containsKey("partitions.logs-0.records");
+
+        runnable.onPartitionsRevoked(Collections.singleton(PARTITION));
+
+        assertThat(syncCommits).containsExactly(Collections.singletonMap(PARTITION, new OffsetAndMetadata(12L)));
+        assertThat(localRegistry.getMetrics()).doesNotContainKey("partitions.logs-0.records");
+
+        // Nothing to commit after the partition has been revoked
+        runnable.onPartitionsRevoked(Collections.singleton(PARTITION));
+        assertThat(syncCommits).hasSize(1);
+    }
+
+    @Test
+    public void removesMetricsOfLostPartitionsWithoutCommitting() {
+        final KafkaTransport.ConsumerRunnable runnable = consumerRunnable();
+        transport.lifecycleStateChange(Lifecycle.RUNNING);
+
+        runnable.consumeRecords(records(10L));
+        runnable.onPartitionsLost(Collections.singleton(PARTITION));
+
+        assertThat(syncCommits).isEmpty();
+        assertThat(localRegistry.getMetrics()).doesNotContainKey("partitions.logs-0.records");
+    }
+
+    private static ConsumerRecords<byte[], byte[]> records(long... offsets) {
+        final List<ConsumerRecord<byte[], byte[]>> records = new ArrayList<>();
+        for (long offset : offsets) {
+            records.add(new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), offset, null, ("message-" + offset).getBytes(StandardCharsets.UTF_8)));
+        }
+        return new ConsumerRecords<>(Collections.singletonMap(PARTITION, records));
+    }
+}
@@ -20,6 +20,7 @@ import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.http.DefaultFullHttpRequest;
 import io.netty.handler.codec.http.DefaultHttpRequest;
 import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpHeaders;
@@ -28,12 +29,20 @@ import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.journal.RawMessage;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 public class HttpHandlerTest {
     private static final byte[] GELF_MESSAGE = "{\"version\":\"1.1\",\"short_message\":\"Foo\",\"host\":\"localhost\"}".getBytes(StandardCharsets.UTF_8);
@@ -200,4 +209,49 @@ public class HttpHandlerTest {
         assertThat(headers.get(HttpHeaderNames.ACCESS_CONTROL_ALLOW_HEADERS)).isEqualTo("Authorization, Content-Type");
     }
 
-}
\ No newline at end of file
+    @Test
+    public void bulkRequestHandsAllMessagesToTheInputAtOnce() {
+        final MessageInput input = mock(MessageInput.class);
+        channel = new EmbeddedChannel(new HttpHandler(true, input));
+
+        final FullHttpRequest httpRequest = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/gelf/bulk");
+        httpRequest.headers().add(HttpHeaderNames.HOST, "localhost");
+        httpRequest.headers().add(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+        httpRequest.content().writeBytes(GELF_MESSAGE);
+        httpRequest.content().writeCharSequence("\r\n\n  not gelf\n  ", StandardCharsets.UTF_8);
+        httpRequest.content().writeBytes(GELF_MESSAGE);
+
+        channel.writeInbound(httpRequest);
+        channel.finish();
+
+        final FullHttpResponse httpResponse = channel.readOutbound();
+        assertThat(httpResponse.status()).isEqualTo(HttpResponseStatus.ACCEPTED);
+        assertThat(httpResponse.content().toString(StandardCharsets.UTF_8)).isEqualTo("{\"accepted\":2,\"rejected\":1}");
+        assertThat(httpResponse.headers().get(HttpHeaderNames.CONNECTION)).isEqualTo(HttpHeaderValues.KEEP_ALIVE.toString());
+
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<List<RawMessage>> captor = ArgumentCaptor.forClass(List.class);
+        verify(input).processRawMessages(captor.capture());
+        assertThat(captor.getValue())
+                .extracting(RawMessage::getPayload)
+                .containsExactly(GELF_MESSAGE, GELF_MESSAGE);
+    }
+
+    @Test
+    public void bulkRequestWithoutGelfMessagesIsRejected() {
+        final MessageInput input = mock(MessageInput.class);
+        channel = new EmbeddedChannel(new HttpHandler(true, input));
+
+        final FullHttpRequest httpRequest = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/gelf/bulk");
+        httpRequest.headers().add(HttpHeaderNames.HOST, "localhost");
+        httpRequest.content().writeCharSequence("foo\nbar", StandardCharsets.UTF_8);
+
+        channel.writeInbound(httpRequest);
+        channel.finish();
+
+        final FullHttpResponse httpResponse = channel.readOutbound();
+        assertThat(httpResponse.status()).isEqualTo(HttpResponseStatus.BAD_REQUEST);
+        assertThat(httpResponse.content().toString(StandardCharsets.UTF_8)).isEqualTo("{\"accepted\":0,\"rejected\":2}");
+        verify(input, never()).processRawMessages(anyList());
+    }
+}
@@ -17,9 +17,19 @@
 package org.graylog2.lookup.adapters.dnslookup;
 
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.net.InternetDomainName;
+import io.netty.handler.codec.dns.DnsRecordType;
 import org.junit.Test;
 
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
 import static org.junit.Assert.*;
 
 public class DnsClientTest {
@@ -115,6 +125,119 @@ public class DnsClientTest {
         assertEquals("HahaOneWordDomainTryingToBreakTheSoftware", result.domain());
     }
 
+    @Test
+    public void testResolverCacheExpiresAfterMinimumTTL() {
+
+        final ADnsAnswer shortAnswer = ADnsAnswer.builder().ipAddress("10.0.0.1").dnsTTL(30L).build();
+        final ADnsAnswer longAnswer = ADnsAnswer.builder().ipAddress("10.0.0.2").dnsTTL(300L).build();
+
+        assertEquals(30L, DnsClient.AnswerExpiry.minimumTTL(ImmutableList.of(longAnswer, shortAnswer)));
+        assertEquals(300L, DnsClient.AnswerExpiry.minimumTTL(longAnswer));
+        // Empty answers are not cached
+        assertEquals(0L, DnsClient.AnswerExpiry.minimumTTL(ImmutableList.of()));
+
+        final DnsClient.QueryKey key = DnsClient.QueryKey.create(DnsRecordType.A, "example.org", false);
+        final DnsClient.CachedAnswer cachedAnswer = DnsClient.CachedAnswer.create(ImmutableList.of(shortAnswer), 0L);
+        assertEquals(0L, new DnsClient.AnswerExpiry(false).expireAfterCreate(key, cachedAnswer, 0L));
+        assertEquals(30_000_000_000L, new DnsClient.AnswerExpiry(true).expireAfterCreate(key, cachedAnswer, 0L));
+        // The time between receiving the answer and caching it counts against the TTL
+        assertEquals(20_000_000_000L, new DnsClient.AnswerExpiry(true).expireAfterCreate(key, cachedAnswer, 10_000_000_000L));
+    }
+
+    @Test
+    public void testCachedAnswersReturnRemainingTTL() throws Exception {
+
+        final AtomicLong nanos = new AtomicLong();
+        final DnsClient dnsClient = new DnsClient(5000, 5100, 100, nanos::get);
+        dnsClient.start("127.0.0.1");
+        try {
+            final DnsClient.QueryKey key = DnsClient.QueryKey.create(DnsRecordType.A, "example.org", false);
+            final AtomicInteger queries = new AtomicInteger();
+            final Supplier<CompletableFuture<List<ADnsAnswer>>> query = () -> {
+                queries.incrementAndGet();
+                return CompletableFuture.completedFuture(ImmutableList.of(
+                        ADnsAnswer.builder().ipAddress("10.0.0.1").dnsTTL(30L).build(),
+                        ADnsAnswer.builder().ipAddress("10.0.0.2").dnsTTL(300L).build()));
+            };
+
+            assertEquals(30L, dnsClient.cachedQuery(key, query).get().get(0).dnsTTL());
+
+            nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+            final List<ADnsAnswer> cachedAnswers = dnsClient.cachedQuery(key, query).get();
+            assertEquals(1, queries.get());
+            assertEquals(20L, cachedAnswers.get(0).dnsTTL());
+            assertEquals(290L, cachedAnswers.get(1).dnsTTL());
+
+            // The answer expires with its lowest TTL
+            nanos.addAndGet(TimeUnit.SECONDS.toNanos(21));
+            assertEquals(30L, dnsClient.cachedQuery(key, query).get().get(0).dnsTTL());
+            assertEquals(2, queries.get());
+        } finally {
+            dnsClient.stop();
+        }
+    }
+
+    @Test
+    public void testConcurrentQueriesAreCoalesced() throws Exception {
+
+        final DnsClient dnsClient = new DnsClient(5000);
+        dnsClient.start("127.0.0.1");
+        try {
+            final DnsClient.QueryKey key = DnsClient.QueryKey.create(DnsRecordType.TXT, "example.org", false);
+            final AtomicInteger queries = new AtomicInteger();
+            final CompletableFuture<List<TxtDnsAnswer>> pendingAnswer = new CompletableFuture<>();
+            final Supplier<CompletableFuture<List<TxtDnsAnswer>>> query = () -> {
+                queries.incrementAndGet();
+                return pendingAnswer;
+            };
+
+            final CompletableFuture<List<TxtDnsAnswer>> first = dnsClient.cachedQuery(key, query);
+            final CompletableFuture<List<TxtDnsAnswer>> second = dnsClient.cachedQuery(key, query);
+            assertFalse(first.isDone());
+            assertFalse(second.isDone());
+
+            pendingAnswer.complete(ImmutableList.of(TxtDnsAnswer.builder().value("v=spf1 -all").dnsTTL(60L).build()));
+
+            assertEquals("v=spf1 -all", first.get().get(0).value());
+            assertEquals("v=spf1 -all", second.get().get(0).value());
+            assertEquals(1, queries.get());
+        } finally {
+            dnsClient.stop();
+        }
+    }
+
+    @Test
+    public void testFailedQueriesAreNotCached() throws Exception {
+
+        final DnsClient dnsClient = new DnsClient(5000);
+        dnsClient.start("127.0.0.1");
+        try {
+            final DnsClient.QueryKey key = DnsClient.QueryKey.create(DnsRecordType.A, "example.org", false);
+            final AtomicInteger queries = new AtomicInteger();
+            final Supplier<CompletableFuture<List<ADnsAnswer>>> failingQuery = () -> {
+                queries.incrementAndGet();
+                final CompletableFuture<List<ADnsAnswer>> future = new CompletableFuture<>();
+                future.completeExceptionally(new UnknownHostException("example.org"));
+                return future;
+            };
+
+            assertTrue(dnsClient.cachedQuery(key, failingQuery).isCompletedExceptionally());
+            assertTrue(dnsClient.cachedQuery(key, failingQuery).isCompletedExceptionally());
+            assertEquals(2, queries.get());
+        } finally {
+            dnsClient.stop();
+        }
+    }
+
+    @Test
+    public void testResolverCacheKeyIsCaseInsensitive() {
+
+        assertEquals(DnsClient.QueryKey.create(DnsRecordType.A, "Example.ORG", false),
+                     DnsClient.QueryKey.create(DnsRecordType.A, "example.org", false));
+        assertNotEquals(DnsClient.QueryKey.create(DnsRecordType.A, "example.org", false),
+                        DnsClient.QueryKey.create(DnsRecordType.AAAA, "example.org", false));
+    }
+
     private PtrDnsAnswer buildReverseLookupDomainTest(String hostname) {
 
         PtrDnsAnswer.Builder builder = PtrDnsAnswer.builder();
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.caches;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.graylog2.lookup.db.DBCacheEntryService;
+import org.graylog2.plugin.lookup.LookupCacheKey;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CaffeineLookupCacheTest {
+    private static final DateTime NOW = new DateTime(2021, 6, 1, 12, 0, DateTimeZone.UTC);
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = nanos::get;
+    private MetricRegistry metricRegistry;
+
+    @Before
+    public void setUp() throws Exception {
+        metricRegistry = new MetricRegistry();
+        nanos.set(0L);
+        DateTimeUtils.setCurrentMillisFixed(NOW.getMillis());
+    }
+
+    @After
+    public void tearDown() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    private CaffeineLookupCache createCache(CaffeineLookupCache.Config config, ExecutorService refreshExecutor) {
+        return new CaffeineLookupCache("id", "name", config, metricRegistry, ticker, refreshExecutor, null, null);
+    }
+
+    private CaffeineLookupCache.Config.Builder configBuilder() {
+        return CaffeineLookupCache.Config.Builder.create()
+                .type(CaffeineLookupCache.NAME)
+                .maxSize(100)
+                .expireAfterAccess(0)
+                .expireAfterWrite(60)
+                .expireAfterWriteUnit(TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void servesStaleValueAndRefreshes() {
+        final CaffeineLookupCache cache = createCache(configBuilder()
+                .refreshAfterWrite(10)
+                .refreshAfterWriteUnit(TimeUnit.SECONDS)
+                .build(), MoreExecutors.newDirectExecutorService());
+        final LookupCacheKey key = LookupCacheKey.createFromJSON("prefix", "key");
+        final AtomicInteger loads = new AtomicInteger();
+
+        assertThat(cache.get(key, () -> LookupResult.single("value-" + loads.incrementAndGet())).singleValue()).isEqualTo("value-1");
+
+        // Still fresh, no reload
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        assertThat(cache.get(key, () -> LookupResult.single("value-" + loads.incrementAndGet())).singleValue()).isEqualTo("value-1");
+        assertThat(loads.get()).isEqualTo(1);
+
+        // Stale, the old value is returned and a refresh is triggered
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(6));
+        assertThat(cache.get(key, () -> LookupResult.single("value-" + loads.incrementAndGet())).singleValue()).isEqualTo("value-1");
+        assertThat(loads.get()).isEqualTo(2);
+        assertThat(cache.getIfPresent(key).singleValue()).isEqualTo("value-2");
+
+        assertThat(metricRegistry.meter(MetricRegistry.name("org.graylog2.lookup.caches", "id", "staleHits")).getCount()).isEqualTo(1);
+        assertThat(metricRegistry.timer(MetricRegistry.name("org.graylog2.lookup.caches", "id", "refreshTime")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void keepsStaleValueWhenRefreshFails() {
+        final CaffeineLookupCache cache = createCache(configBuilder()
+                .refreshAfterWrite(10)
+                .refreshAfterWriteUnit(TimeUnit.SECONDS)
+                .build(), MoreExecutors.newDirectExecutorService());
+        final LookupCacheKey key = LookupCacheKey.createFromJSON("prefix", "key");
+
+        cache.get(key, () -> LookupResult.single("value"));
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        assertThat(cache.get(key, LookupResult::withError).singleValue()).isEqualTo("value");
+        assertThat(cache.getIfPresent(key).singleValue()).isEqualTo("value");
+        assertThat(metricRegistry.meter(MetricRegistry.name("org.graylog2.lookup.caches", "id", "refreshFailures")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void expiredValuesAreLoadedSynchronously() {
+        final CaffeineLookupCache cache = createCache(configBuilder()
+                .refreshAfterWrite(10)
+                .refreshAfterWriteUnit(TimeUnit.SECONDS)
+                .build(), MoreExecutors.newDirectExecutorService());
+        final LookupCacheKey key = LookupCacheKey.createFromJSON("prefix", "key");
+
+        cache.get(key, () -> LookupResult.single("value-1"));
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        assertThat(cache.get(key, () -> LookupResult.single("value-2")).singleValue()).isEqualTo("value-2");
+    }
+
+    @Test
+    public void usesSeparateTTLForEmptyResults() {
+        final CaffeineLookupCache cache = createCache(configBuilder()
+                .expireAfterWriteNegative(5)
+                .expireAfterWriteNegativeUnit(TimeUnit.SECONDS)
+                .build(), null);
+        final LookupCacheKey positiveKey = LookupCacheKey.createFromJSON("prefix", "positive");
+        final LookupCacheKey negativeKey = LookupCacheKey.createFromJSON("prefix", "negative");
+
+        cache.get(positiveKey, () -> LookupResult.single("value"));
+        cache.get(negativeKey, LookupResult::empty);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(6));
+
+        assertThat(cache.getIfPresent(positiveKey).singleValue()).isEqualTo("value");
+        assertThat(cache.get(negativeKey, () -> LookupResult.single("found")).singleValue()).isEqualTo("found");
+    }
+
+    @Test
+    public void usesPersistedEntries() throws Exception {
+        final DBCacheEntryService entryService = mock(DBCacheEntryService.class);
+        final LookupCacheKey warmKey = LookupCacheKey.createFromJSON("prefix", "warm");
+        final LookupCacheKey missingKey = LookupCacheKey.createFromJSON("prefix", "missing");
+        when(entryService.findRecent("id", 100)).thenReturn(ImmutableList.of(
+                persistedEntry(warmKey, "warm", NOW, NOW.plusSeconds(30))));
+
+        final CaffeineLookupCache cache = new CaffeineLookupCache("id", "name", configBuilder().persistEntries(true).build(),
+                metricRegistry, ticker, null, entryService, null);
+        cache.startAsync().awaitRunning();
+
+        assertThat(cache.getIfPresent(warmKey).singleValue()).isEqualTo("warm");
+
+        // Misses are loaded from the data adapter and persisted in the background
+        assertThat(cache.get(missingKey, () -> LookupResult.single("loaded")).singleValue()).isEqualTo("loaded");
+        verify(entryService).saveAsync(eq("id"), eq(missingKey), eq(LookupResult.single("loaded")), any());
+    }
+
+    @Test
+    public void persistedEntriesKeepTheirRemainingLifetime() throws Exception {
+        final DBCacheEntryService entryService = mock(DBCacheEntryService.class);
+        final LookupCacheKey key = LookupCacheKey.createFromJSON("prefix", "key");
+        final LookupCacheKey expiredKey = LookupCacheKey.createFromJSON("prefix", "expired");
+        when(entryService.findRecent("id", 100)).thenReturn(ImmutableList.of(
+                persistedEntry(key, "persisted", NOW.minusSeconds(55), NOW.plusSeconds(5)),
+                persistedEntry(expiredKey, "expired", NOW.minusSeconds(70), NOW.minusSeconds(10))));
+
+        final CaffeineLookupCache cache = new CaffeineLookupCache("id", "name", configBuilder().persistEntries(true).build(),
+                metricRegistry, ticker, null, entryService, null);
+        cache.startAsync().awaitRunning();
+
+        assertThat(cache.getIfPresent(expiredKey).isEmpty()).isTrue();
+        assertThat(cache.getIfPresent(key).singleValue()).isEqualTo("persisted");
+
+        // The cache is configured with a lifetime of 60 seconds, but the persisted entry only had 5 seconds left
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(6));
+        assertThat(cache.getIfPresent(key).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void syncsEntriesPersistedByOtherNodes() throws Exception {
+        final DBCacheEntryService entryService = mock(DBCacheEntryService.class);
+        final LookupCacheKey localKey = LookupCacheKey.createFromJSON("prefix", "local");
+        final LookupCacheKey remoteKey = LookupCacheKey.createFromJSON("prefix", "remote");
+        when(entryService.findRecent("id", 100)).thenReturn(ImmutableList.of(
+                persistedEntry(localKey, "old", NOW.minusSeconds(10), null)));
+        when(entryService.findUpdatedSince("id", NOW.minusSeconds(10), 100)).thenReturn(ImmutableList.of(
+                persistedEntry(localKey, "remote", NOW, null),
+                persistedEntry(remoteKey, "remote", NOW, null)));
+
+        final CaffeineLookupCache cache = new CaffeineLookupCache("id", "name", configBuilder().persistEntries(true).build(),
+                metricRegistry, ticker, null, entryService, null);
+        cache.startAsync().awaitRunning();
+        cache.purge(localKey);
+        cache.get(localKey, () -> LookupResult.single("local"));
+
+        cache.syncSecondLevel();
+
+        // Entries loaded by this node are never replaced by persisted ones
+        assertThat(cache.getIfPresent(localKey).singleValue()).isEqualTo("local");
+        assertThat(cache.getIfPresent(remoteKey).singleValue()).isEqualTo("remote");
+    }
+
+    private DBCacheEntryService.Entry persistedEntry(LookupCacheKey key, String value, DateTime updatedAt, @Nullable DateTime expiresAt) {
+        return DBCacheEntryService.Entry.create(key, LookupResult.single(value), updatedAt, expiresAt);
+    }
+}
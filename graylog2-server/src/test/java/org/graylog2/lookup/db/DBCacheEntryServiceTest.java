@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.lookup.db;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoCollection;
+import org.bson.Document;
+import org.graylog.testing.mongodb.MongoDBInstance;
+import org.graylog2.bindings.providers.MongoJackObjectMapperProvider;
+import org.graylog2.plugin.lookup.LookupCacheKey;
+import org.graylog2.plugin.lookup.LookupResult;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.awaitility.Awaitility.await;
+
+public class DBCacheEntryServiceTest {
+    private static final DateTime NOW = new DateTime(2021, 6, 1, 12, 0, DateTimeZone.UTC);
+
+    @Rule
+    public final MongoDBInstance mongodb = MongoDBInstance.createForClass();
+
+    private MongoCollection<Document> collection;
+    private DBCacheEntryService service;
+
+    @Before
+    public void setUp() throws Exception {
+        DateTimeUtils.setCurrentMillisFixed(NOW.getMillis());
+        collection = mongodb.mongoConnection().getMongoDatabase().getCollection(DBCacheEntryService.COLLECTION_NAME);
+
+        final ObjectMapper objectMapper = new ObjectMapperProvider().get();
+        service = new DBCacheEntryService(mongodb.mongoConnection(),
+                new MongoJackObjectMapperProvider(objectMapper),
+                objectMapper,
+                new MetricRegistry());
+    }
+
+    @After
+    public void tearDown() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void createsIndicesOnlyWhenUsed() {
+        assertThat(collection.listIndexes().into(new ArrayList<>())).isEmpty();
+
+        service.findRecent("cache", 10);
+
+        assertThat(collection.listIndexes().into(new ArrayList<>())).hasSize(4);
+    }
+
+    @Test
+    public void keysKeepTheirType() {
+        final LookupCacheKey longKey = LookupCacheKey.createFromJSON("adapter", 42L);
+        final LookupCacheKey intKey = LookupCacheKey.createFromJSON("adapter", 42);
+        final LookupCacheKey stringKey = LookupCacheKey.createFromJSON("adapter", "42");
+
+        service.saveAsync("cache", longKey, LookupResult.single("long"), null);
+        service.saveAsync("cache", intKey, LookupResult.single("int"), null);
+        service.saveAsync("cache", stringKey, LookupResult.single("string"), null);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> collection.countDocuments() == 3);
+
+        assertThat(service.findRecent("cache", 10))
+                .extracting(DBCacheEntryService.Entry::key, entry -> entry.result().singleValue())
+                .containsOnly(
+                        tuple(longKey, "long"),
+                        tuple(intKey, "int"),
+                        tuple(stringKey, "string"));
+    }
+
+    @Test
+    public void updatesEntriesOfSavedKeys() {
+        final LookupCacheKey key = LookupCacheKey.createFromJSON("adapter", "key");
+
+        service.saveAsync("cache", key, LookupResult.single("old"), NOW.plusMinutes(1));
+        await().atMost(5, TimeUnit.SECONDS).until(() -> collection.countDocuments() == 1);
+        final Object id = collection.find().first().get("_id");
+        DateTimeUtils.setCurrentMillisFixed(NOW.plusSeconds(10).getMillis());
+        service.saveAsync("cache", key, LookupResult.single("new"), null);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> !service.findUpdatedSince("cache", NOW, 10).isEmpty());
+
+        assertThat(collection.countDocuments()).isEqualTo(1);
+        assertThat(collection.find().first().get("_id")).isNotNull().isEqualTo(id);
+        assertThat(service.findRecent("cache", 10))
+                .extracting(DBCacheEntryService.Entry::key, entry -> entry.result().singleValue(), DBCacheEntryService.Entry::expiresAt)
+                .containsExactly(tuple(key, "new", null));
+    }
+
+    @Test
+    public void skipsUnsupportedKeys() {
+        service.saveAsync("cache", LookupCacheKey.createFromJSON("adapter", new Object()), LookupResult.single("value"), null);
+        service.saveAsync("cache", LookupCacheKey.createFromJSON("adapter", "key"), LookupResult.single("value"), null);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> collection.countDocuments() == 1);
+
+        assertThat(service.findRecent("cache", 10)).hasSize(1);
+    }
+
+    @Test
+    public void ignoresExpiredEntries() {
+        final LookupCacheKey expiredKey = LookupCacheKey.createFromJSON("adapter", "expired");
+        final LookupCacheKey validKey = LookupCacheKey.createFromJSON("adapter", "valid");
+
+        service.saveAsync("cache", expiredKey, LookupResult.single("expired"), NOW.minusSeconds(1));
+        service.saveAsync("cache", validKey, LookupResult.single("valid"), NOW.plusMinutes(1));
+        await().atMost(5, TimeUnit.SECONDS).until(() -> collection.countDocuments() == 2);
+
+        assertThat(service.findRecent("cache", 10))
+                .extracting(DBCacheEntryService.Entry::key)
+                .containsExactly(validKey);
+        assertThat(service.findRecent("cache", 10).get(0).expiresAt()).isEqualTo(NOW.plusMinutes(1));
+    }
+
+    @Test
+    public void findsEntriesUpdatedSince() {
+        final LookupCacheKey oldKey = LookupCacheKey.createFromJSON("adapter", "old");
+        final LookupCacheKey newKey = LookupCacheKey.createFromJSON("adapter", "new");
+
+        service.saveAsync("cache", oldKey, LookupResult.single("old"), null);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> collection.countDocuments() == 1);
+        DateTimeUtils.setCurrentMillisFixed(NOW.plusSeconds(10).getMillis());
+        service.saveAsync("cache", newKey, LookupResult.single("new"), null);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> collection.countDocuments() == 2);
+
+        assertThat(service.findUpdatedSince("cache", NOW, 10))
+                .extracting(DBCacheEntryService.Entry::key)
+                .containsExactly(newKey);
+        assertThat(service.findUpdatedSince("other-cache", NOW.minusSeconds(1), 10)).isEmpty();
+    }
+
+    @Test
+    public void deletesEntries() {
+        final LookupCacheKey key = LookupCacheKey.createFromJSON("adapter", 1L);
+        service.saveAsync("cache", key, LookupResult.single("value"), null);
+        service.saveAsync("cache", LookupCacheKey.createFromJSON("adapter", 2L), LookupResult.single("value"), null);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> collection.countDocuments() == 2);
+
+        service.deleteAsync("cache", key);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> collection.countDocuments() == 1);
+
+        service.deleteAllAsync("cache");
+        await().atMost(5, TimeUnit.SECONDS).until(() -> collection.countDocuments() == 0);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.metrics.history;
+
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.collect.ImmutableList;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MetricsHistoryStoreTest {
+    private static final DateTime NOW = new DateTime(2020, 10, 1, 12, 0, DateTimeZone.UTC);
+    private static final String METRIC = "org.graylog2.buffers.process.usage";
+
+    @TempDir
+    Path directory;
+
+    private MetricsHistoryStore store;
+
+    @BeforeEach
+    void setUp() {
+        DateTimeUtils.setCurrentMillisFixed(NOW.getMillis());
+        store = new MetricsHistoryStore(directory, Duration.days(7));
+    }
+
+    @AfterEach
+    void tearDown() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    void returnsRecentSamplesAtFullResolution() {
+        store.record(METRIC, NOW.minusSeconds(2).getMillis(), 1.0d);
+        store.record(METRIC, NOW.minusSeconds(1).getMillis(), 2.0d);
+        store.record(METRIC, NOW.getMillis(), 3.0d);
+
+        final List<MetricsHistoryStore.DataPoint> dataPoints = store.query(METRIC, NOW.minusSeconds(1).getMillis(), NOW.getMillis());
+
+        assertThat(dataPoints).containsExactly(
+                MetricsHistoryStore.DataPoint.create(NOW.minusSeconds(1), 2.0d, 2.0d, 2.0d, 1),
+                MetricsHistoryStore.DataPoint.create(NOW, 3.0d, 3.0d, 3.0d, 1));
+    }
+
+    @Test
+    void returnsRollupsPerMinuteFromDisk() {
+        final DateTime start = NOW.minusHours(2);
+        for (int second = 0; second < 120; second++) {
+            store.record(METRIC, start.plusSeconds(second).getMillis(), second % 60);
+        }
+        // The first sample of the next minute completes the rollup of the previous one
+        store.record(METRIC, start.plusMinutes(2).getMillis(), 0.0d);
+
+        // A new store only knows the samples on disk, like after a restart
+        final MetricsHistoryStore reopenedStore = new MetricsHistoryStore(directory, Duration.days(7));
+        final List<MetricsHistoryStore.DataPoint> dataPoints = reopenedStore.query(METRIC, start.getMillis(), NOW.getMillis());
+
+        assertThat(dataPoints).containsExactly(
+                MetricsHistoryStore.DataPoint.create(start, 29.5d, 0.0d, 59.0d, 60),
+                MetricsHistoryStore.DataPoint.create(start.plusMinutes(1), 29.5d, 0.0d, 59.0d, 60));
+    }
+
+    @Test
+    void keepsFilesWithinHistoryDirectory() throws Exception {
+        final DateTime start = NOW.minusHours(2);
+        for (String name : ImmutableList.of("..", ".", "../../escape", "/absolute")) {
+            store.record(name, start.getMillis(), 1.0d);
+            store.record(name, start.plusMinutes(1).getMillis(), 1.0d);
+
+            assertThat(store.seriesDirectory(name).getParent()).isEqualTo(directory);
+            assertThat(new MetricsHistoryStore(directory, Duration.days(7)).query(name, start.getMillis(), NOW.getMillis()))
+                    .containsExactly(MetricsHistoryStore.DataPoint.create(start, 1.0d, 1.0d, 1.0d, 1));
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files).hasSize(4);
+        }
+        assertThatThrownBy(() -> store.seriesDirectory("")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void deletesFilesOlderThanRetention() {
+        final DateTime oldSample = NOW.minusDays(10);
+        store.record(METRIC, oldSample.getMillis(), 1.0d);
+        store.record(METRIC, oldSample.plusMinutes(1).getMillis(), 1.0d);
+        store.record(METRIC, NOW.minusMinutes(1).getMillis(), 1.0d);
+        store.record(METRIC, NOW.getMillis(), 1.0d);
+
+        final Path metricDirectory = store.seriesDirectory(METRIC);
+        assertThat(metricDirectory.resolve("2020-09-21.dat")).exists();
+        assertThat(metricDirectory.resolve("2020-10-01.dat")).exists();
+
+        store.deleteExpired(NOW.getMillis());
+
+        assertThat(Files.exists(metricDirectory.resolve("2020-09-21.dat"))).isFalse();
+        assertThat(metricDirectory.resolve("2020-10-01.dat")).exists();
+    }
+}
@@ -36,6 +36,8 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class OutputRouterTest {
@@ -173,4 +175,22 @@ public class OutputRouterTest {
         assertTrue(result.contains(defaultMessageOutput));
         assertTrue(result.contains(messageOutput));
     }
+
+    @Test
+    public void testStreamOutputsAreCachedForMessagesWithSameStreams() throws Exception {
+        final Stream stream = mock(Stream.class);
+        final MessageOutput messageOutput = mock(MessageOutput.class);
+        final Message message1 = mock(Message.class);
+        final Message message2 = mock(Message.class);
+        when(message1.getStreams()).thenReturn(ImmutableSet.of(stream));
+        when(message2.getStreams()).thenReturn(ImmutableSet.of(stream));
+
+        final OutputRouter outputRouter = Mockito.spy(new OutputRouter(defaultMessageOutput, outputRegistry));
+        doReturn(ImmutableSet.of(messageOutput)).when(outputRouter).getMessageOutputsForStream(eq(stream));
+
+        assertEquals(ImmutableSet.of(messageOutput), outputRouter.getStreamOutputsForMessage(message1));
+        assertEquals(ImmutableSet.of(messageOutput), outputRouter.getStreamOutputsForMessage(message2));
+
+        verify(outputRouter, times(1)).getMessageOutputsForStream(stream);
+    }
 }
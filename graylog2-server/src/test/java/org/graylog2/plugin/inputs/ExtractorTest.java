@@ -174,6 +174,61 @@ public class ExtractorTest {
         assertThat(msg2.hasField("target")).isFalse();
     }
 
+    @Test
+    public void testWithLiteralRegexpCondition() throws Exception {
+        final TestExtractor extractor = new TestExtractor.Builder()
+                .conditionType(REGEX)
+                .conditionValue("hello")
+                .build();
+
+        final Message msg1 = createMessage("say hello world");
+        extractor.runExtractor(msg1);
+        assertThat(msg1.hasField("target")).isTrue();
+
+        final Message msg2 = createMessage("say hi");
+        extractor.runExtractor(msg2);
+        assertThat(msg2.hasField("target")).isFalse();
+    }
+
+    @Test
+    public void testSharedConditionResultsAreReevaluatedForChangedFields() throws Exception {
+        final TestExtractor cutExtractor = new TestExtractor.Builder()
+                .cursorStrategy(CUT)
+                .sourceField("msg")
+                .targetField("first")
+                .conditionType(REGEX)
+                .conditionValue("^the")
+                .callback(() -> new Result[]{new Result("the", 0, 3)})
+                .build();
+        final TestExtractor otherExtractor = new TestExtractor.Builder()
+                .sourceField("msg")
+                .targetField("second")
+                .conditionType(REGEX)
+                .conditionValue("^the")
+                .build();
+        final TestExtractor sameConditionExtractor = new TestExtractor.Builder()
+                .sourceField("other")
+                .targetField("third")
+                .conditionType(REGEX)
+                .conditionValue("^the")
+                .build();
+
+        final Message msg = createMessage("message");
+        msg.addField("msg", "the hello");
+        msg.addField("other", "the other");
+
+        final Extractor.ConditionResults conditionResults = new Extractor.ConditionResults();
+        cutExtractor.runExtractor(msg, conditionResults);
+        otherExtractor.runExtractor(msg, conditionResults);
+        sameConditionExtractor.runExtractor(msg, conditionResults);
+
+        assertThat(msg.getField("msg")).isEqualTo("hello");
+        assertThat(msg.hasField("first")).isTrue();
+        // The source field doesn't match the condition anymore after it has been cut by the first extractor
+        assertThat(msg.hasField("second")).isFalse();
+        assertThat(msg.hasField("third")).isTrue();
+    }
+
     @Test
     public void testWithEmptyResultArray() throws Exception {
         final TestExtractor extractor = new TestExtractor.Builder()
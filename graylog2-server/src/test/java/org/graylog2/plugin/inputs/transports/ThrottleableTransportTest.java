@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin.inputs.transports;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricSet;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.plugin.BufferCapacityState;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.inputs.codecs.CodecAggregator;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ThrottleableTransportTest {
+    private static final int BUFFER_SIZE = 1000;
+
+    @Test
+    public void throttlesWhenBuffersAreAlmostFull() {
+        final ThrottleableTransport transport = new TestTransport(true);
+
+        transport.updateBufferCapacityState(capacity(500, 500));
+        assertThat(transport.isThrottled()).isFalse();
+
+        transport.updateBufferCapacityState(capacity(500, 50));
+        assertThat(transport.isThrottled()).isTrue();
+        assertThat(throttledGauge(transport)).isEqualTo(1);
+
+        // stays throttled until the buffers have drained
+        transport.updateBufferCapacityState(capacity(500, 300));
+        assertThat(transport.isThrottled()).isTrue();
+
+        transport.updateBufferCapacityState(capacity(900, 600));
+        assertThat(transport.isThrottled()).isFalse();
+        assertThat(throttledGauge(transport)).isEqualTo(0);
+        assertThat(transport.blockUntilUnthrottled(1, TimeUnit.MILLISECONDS)).isTrue();
+    }
+
+    @Test
+    public void ignoresProcessBufferIfOnlyInputBufferIsConsidered() {
+        final ThrottleableTransport transport = new TestTransport(true);
+
+        transport.updateBufferCapacityState(BufferCapacityState.inputBufferOnly(500, BUFFER_SIZE));
+        assertThat(transport.isThrottled()).isFalse();
+
+        transport.updateBufferCapacityState(BufferCapacityState.inputBufferOnly(50, BUFFER_SIZE));
+        assertThat(transport.isThrottled()).isTrue();
+    }
+
+    @Test
+    public void ignoresBufferCapacityIfThrottlingIsNotAllowed() {
+        final ThrottleableTransport transport = new TestTransport(false);
+
+        transport.updateBufferCapacityState(capacity(0, 0));
+
+        assertThat(transport.isThrottled()).isFalse();
+    }
+
+    private static BufferCapacityState capacity(long inputBufferCapacity, long processBufferCapacity) {
+        return new BufferCapacityState(inputBufferCapacity, BUFFER_SIZE, processBufferCapacity, BUFFER_SIZE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object throttledGauge(ThrottleableTransport transport) {
+        return ((Gauge<Integer>) transport.getMetricSet().getMetrics().get("throttled")).getValue();
+    }
+
+    private static class TestTransport extends ThrottleableTransport {
+        TestTransport(boolean throttlingAllowed) {
+            super(new EventBus(), new Configuration(ImmutableMap.<String, Object>of(CK_THROTTLING_ALLOWED, throttlingAllowed)));
+        }
+
+        @Override
+        protected void doLaunch(MessageInput input) {
+        }
+
+        @Override
+        protected void doStop() {
+        }
+
+        @Override
+        public void setMessageAggregator(CodecAggregator aggregator) {
+        }
+
+        @Override
+        public MetricSet getMetricSet() {
+            return throttleMetrics();
+        }
+    }
+}
@@ -22,7 +22,9 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -44,4 +46,35 @@ public class RawMessageTest {
         assertArrayEquals("testmessage".getBytes(StandardCharsets.UTF_8), decodedMsg.getPayload());
         assertEquals("raw", decodedMsg.getCodecName());
     }
+
+    @Test
+    public void encodeWithPrecomputedCodecInfo() throws IOException {
+        final Configuration codecConfig = new Configuration(Collections.<String, Object>singletonMap("charset", "UTF-8"));
+        final JournalMessages.CodecInfo codecInfo = RawMessage.codecInfo("raw", codecConfig);
+        final RawMessage rawMessage = new RawMessage("testmessage".getBytes(StandardCharsets.UTF_8));
+        final File tempFile = File.createTempFile("node", "test");
+        rawMessage.addSourceNode("inputid", new NodeId(tempFile.getAbsolutePath()));
+        rawMessage.setCodec(codecInfo, codecConfig);
+
+        final byte[] encoded = rawMessage.encode();
+        final RawMessage decodedMsg = RawMessage.decode(encoded, 1);
+
+        assertNotNull(decodedMsg);
+        assertEquals(11, decodedMsg.getPayloadSize());
+        assertEquals("raw", decodedMsg.getCodecName());
+        assertEquals("UTF-8", decodedMsg.getCodecConfig().getString("charset"));
+    }
+
+    @Test
+    public void copiesRemainingBytesOfByteBuffer() {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(32);
+        buffer.put("ignored-testmessage".getBytes(StandardCharsets.UTF_8));
+        buffer.flip();
+        buffer.position(8);
+
+        final RawMessage rawMessage = new RawMessage(buffer, null);
+
+        assertArrayEquals("testmessage".getBytes(StandardCharsets.UTF_8), rawMessage.getPayload());
+        assertEquals(8, buffer.position());
+    }
 }
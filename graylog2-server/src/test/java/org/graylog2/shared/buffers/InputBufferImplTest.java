@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers;
+
+import com.codahale.metrics.MetricRegistry;
+import com.lmax.disruptor.BlockingWaitStrategy;
+import org.graylog2.plugin.BaseConfiguration;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.system.processing.ProcessingStatusRecorder;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class InputBufferImplTest {
+    private MetricRegistry metricRegistry;
+    private ProcessBuffer processBuffer;
+    private InputBufferImpl inputBuffer;
+
+    @Before
+    public void setUp() {
+        final BaseConfiguration configuration = mock(BaseConfiguration.class);
+        when(configuration.getInputBufferRingSize()).thenReturn(4);
+        when(configuration.getInputBufferWaitStrategy()).thenReturn(new BlockingWaitStrategy());
+        when(configuration.getInputbufferProcessors()).thenReturn(1);
+        when(configuration.isMessageJournalEnabled()).thenReturn(false);
+
+        metricRegistry = new MetricRegistry();
+        processBuffer = mock(ProcessBuffer.class);
+        final DirectMessageHandler handler = new DirectMessageHandler(processBuffer, mock(ProcessingStatusRecorder.class));
+        inputBuffer = new InputBufferImpl(metricRegistry, configuration, () -> handler, () -> null, () -> null);
+    }
+
+    @Test
+    public void insertsBatchesLargerThanTheRingBuffer() {
+        final List<RawMessage> messages = IntStream.range(0, 10)
+                .mapToObj(i -> new RawMessage(("message-" + i).getBytes(StandardCharsets.UTF_8)))
+                .collect(Collectors.toList());
+
+        inputBuffer.insert(messages);
+
+        verify(processBuffer, timeout(5000).times(10)).insertBlocking(any(RawMessage.class));
+        final InOrder inOrder = inOrder(processBuffer);
+        for (RawMessage message : messages) {
+            inOrder.verify(processBuffer).insertBlocking(message);
+        }
+        assertThat(metricRegistry.meter(MetricRegistry.name(InputBufferImpl.class, "incomingMessages")).getCount()).isEqualTo(10);
+    }
+}
@@ -681,6 +681,35 @@ public class StreamRouterEngineTest {
         assertThat(result).doesNotContain(stream2);
     }
 
+    @Test
+    public void testMatchedStreamsAreReturnedInStreamOrder() {
+        final String dummyField = "dummyField";
+        final String dummyValue = "dummyValue";
+
+        final StreamRule matchingRule = getStreamRuleMock("StreamRule1Id", StreamRuleType.EXACT, dummyField, dummyValue);
+        final StreamRule notMatchingRule = getStreamRuleMock("StreamRule2Id", StreamRuleType.EXACT, dummyField, "not" + dummyValue);
+
+        final List<Stream> streams = Lists.newArrayList();
+        for (int i = 0; i < 5; i++) {
+            final Stream stream = mock(Stream.class);
+            when(stream.getId()).thenReturn("Stream" + i + "Id");
+            when(stream.getMatchingType()).thenReturn(Stream.MatchingType.AND);
+            if (i == 2) {
+                when(stream.getStreamRules()).thenReturn(Lists.newArrayList(matchingRule, notMatchingRule));
+            } else {
+                when(stream.getStreamRules()).thenReturn(Lists.newArrayList(matchingRule));
+            }
+            streams.add(stream);
+        }
+
+        final Message message = mock(Message.class);
+        when(message.getField(eq(dummyField))).thenReturn(dummyValue);
+
+        final StreamRouterEngine engine = newEngine(streams);
+
+        assertThat(engine.match(message)).containsExactly(streams.get(0), streams.get(1), streams.get(3), streams.get(4));
+    }
+
     @Test
     public void testAndStreamWithMultipleRules() {
         final String dummyField = "dummyField";
@@ -48,6 +48,14 @@ class CaffeineCacheFieldSet extends React.Component {
     this._update(value, unit, enabled, 'expire_after_write');
   };
 
+  updateRefreshAfterWrite = (value, unit, enabled) => {
+    this._update(value, unit, enabled, 'refresh_after_write');
+  };
+
+  updateAfterWriteNegative = (value, unit, enabled) => {
+    this._update(value, unit, enabled, 'expire_after_write_negative');
+  };
+
   render() {
     const { config } = this.props;
 
@@ -80,6 +88,30 @@ class CaffeineCacheFieldSet extends React.Component {
                        defaultEnabled={config.expire_after_write > 0}
                        labelClassName="col-sm-3"
                        wrapperClassName="col-sm-9" />
+        <TimeUnitInput label="Refresh after write"
+                       help="If enabled, entries older than the specified time are still returned, but reloaded from the data adapter in the background."
+                       update={this.updateRefreshAfterWrite}
+                       value={config.refresh_after_write}
+                       unit={config.refresh_after_write_unit || 'SECONDS'}
+                       defaultEnabled={config.refresh_after_write > 0}
+                       labelClassName="col-sm-3"
+                       wrapperClassName="col-sm-9" />
+        <TimeUnitInput label="Expire empty results after write"
+                       help="If enabled, empty lookup results are removed from the cache after the specified time instead of the expire after write setting."
+                       update={this.updateAfterWriteNegative}
+                       value={config.expire_after_write_negative}
+                       unit={config.expire_after_write_negative_unit || 'SECONDS'}
+                       defaultEnabled={config.expire_after_write_negative > 0}
+                       labelClassName="col-sm-3"
+                       wrapperClassName="col-sm-9" />
+        <Input type="checkbox"
+               id="persist_entries"
+               name="persist_entries"
+               label="Persist entries"
+               checked={config.persist_entries}
+               onChange={this.props.handleFormEvent}
+               help="If enabled, entries are stored in MongoDB, shared with the other nodes and used to fill the cache on startup."
+               wrapperClassName="col-sm-offset-3 col-sm-9" />
       </fieldset>
     );
   }
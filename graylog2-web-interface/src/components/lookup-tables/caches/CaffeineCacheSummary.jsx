@@ -35,6 +35,12 @@ class CaffeineCacheSummary extends React.Component {
         <dd><TimeUnit value={config.expire_after_access} unit={config.expire_after_access_unit} /></dd>
         <dt>Expire after write</dt>
         <dd><TimeUnit value={config.expire_after_write} unit={config.expire_after_write_unit} /></dd>
+        <dt>Refresh after write</dt>
+        <dd><TimeUnit value={config.refresh_after_write} unit={config.refresh_after_write_unit} /></dd>
+        <dt>Expire empty results after write</dt>
+        <dd><TimeUnit value={config.expire_after_write_negative} unit={config.expire_after_write_negative_unit} /></dd>
+        <dt>Persist entries</dt>
+        <dd>{config.persist_entries ? 'yes' : 'no'}</dd>
       </dl>
     );
   }